@@ -26,19 +26,32 @@ import heronarts.lx.model.GridModel;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.output.LXOutput;
 import heronarts.lx.pattern.IteratorTestPattern;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import heronarts.lx.warp.LXWarp;
 
@@ -86,6 +99,19 @@ public class LX {
       }
       this.lastTime = thisTime;
     }
+
+    /**
+     * Logs a duration that was measured separately, e.g. work done before the
+     * LX instance was constructed. Does not affect the running timer.
+     *
+     * @param label Label
+     * @param nanos Duration in nanoseconds
+     */
+    public void log(String label, long nanos) {
+      if (LX.LOG_INIT_TIMING) {
+        System.out.println(String.format("[LX init: %s: %.2fms]", label, nanos / 1000000.));
+      }
+    }
   }
 
   public static final InitTimer initTimer = new InitTimer();
@@ -114,12 +140,24 @@ public class LX {
     };
 
     public void projectChanged(File file, Change change);
+
+    /**
+     * Invoked when saving the project fails. Asynchronous saves report this
+     * on the engine thread.
+     *
+     * @param file File that could not be saved
+     * @param x Cause of the failure
+     */
+    public default void projectSaveFailed(File file, Exception x) {}
   }
 
   private final List<ProjectListener> projectListeners = new ArrayList<ProjectListener>();
 
   final LXComponent.Registry componentRegistry = new LXComponent.Registry();
 
+  // Set while a parameter change journal is running
+  volatile LXJournal journal = null;
+
   /**
    * The width of the grid, immutable.
    */
@@ -274,6 +312,26 @@ public class LX {
     return this.componentRegistry.getProjectComponent(projectId);
   }
 
+  /**
+   * Gets all of the components currently registered with this LX instance.
+   * The collection is live and should only be accessed from the engine thread.
+   *
+   * @return Registered components
+   */
+  public Collection<LXComponent> getComponents() {
+    return Collections.unmodifiableCollection(this.componentRegistry.getComponents());
+  }
+
+  /**
+   * Gets a counter that changes whenever a component is registered, renumbered
+   * or disposed, or a registered component adds or removes a parameter. Useful for invalidating caches built from getComponents().
+   *
+   * @return Component registry version
+   */
+  public int getComponentVersion() {
+    return this.componentRegistry.getVersion();
+  }
+
   /**
    * Shut down resources of the LX instance.
    */
@@ -654,6 +712,12 @@ public class LX {
   private final static String KEY_TIMESTAMP = "timestamp";
   private final static String KEY_ENGINE = "engine";
   private final static String KEY_EXTERNALS = "externals";
+  private final static String KEY_MAX_ID = "maxId";
+
+  /**
+   * Projects saved to files with this extension use the binary snapshot format
+   */
+  public final static String PROJECT_SNAPSHOT_EXTENSION = ".lxs";
 
   private File file;
 
@@ -674,27 +738,170 @@ public class LX {
     }
   }
 
+  /**
+   * Saves the project on the calling thread. Files with the snapshot extension
+   * are written in the compact binary snapshot format, anything else as JSON.
+   * The file is replaced atomically, so a failed save never leaves a partial
+   * project behind.
+   *
+   * @param file File to save to
+   */
   public void saveProject(File file) {
-    JsonObject obj = new JsonObject();
-    obj.addProperty(KEY_VERSION, "0.1");
-    obj.addProperty(KEY_TIMESTAMP, System.currentTimeMillis());
-    obj.add(KEY_ENGINE, LXSerializable.Utils.toObject(this, this.engine));
-    JsonObject externalsObj = new JsonObject();
-    for (String key : this.externals.keySet()) {
-      externalsObj.add(key, LXSerializable.Utils.toObject(this, this.externals.get(key)));
+    long start = System.nanoTime();
+    try {
+      writeProjectFile(file, null);
+      LX.initTimer.log("Save project", System.nanoTime() - start);
+      projectSaved(file);
+    } catch (IOException | RuntimeException x) {
+      projectSaveFailed(file, x);
+    }
+  }
+
+  public void saveProjectAsync() {
+    if (this.file != null) {
+      saveProjectAsync(this.file);
     }
-    obj.add(KEY_EXTERNALS, externalsObj);
+  }
+
+  /**
+   * Saves the project without blocking the engine. At the next frame boundary
+   * the engine thread captures the project into an in-memory binary snapshot,
+   * which is cheap next to formatting and writing the file. The file is then
+   * written and atomically replaced on a background thread. Completion or
+   * failure is reported to project listeners on the engine thread.
+   *
+   * @param file File to save to
+   */
+  public void saveProjectAsync(final File file) {
+    this.engine.addTask(new Runnable() {
+      public void run() {
+        final byte[] snapshot;
+        long start = System.nanoTime();
+        try {
+          snapshot = captureProject();
+        } catch (IOException | RuntimeException x) {
+          projectSaveFailed(file, x);
+          return;
+        }
+        LX.initTimer.log("Save project capture", System.nanoTime() - start);
+        getSaveExecutor().execute(new Runnable() {
+          public void run() {
+            long start = System.nanoTime();
+            try {
+              writeProjectFile(file, snapshot);
+              LX.initTimer.log("Save project write", System.nanoTime() - start);
+              engine.addTask(new Runnable() {
+                public void run() {
+                  projectSaved(file);
+                }
+              });
+            } catch (final IOException | RuntimeException x) {
+              engine.addTask(new Runnable() {
+                public void run() {
+                  projectSaveFailed(file, x);
+                }
+              });
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Captures the whole project into an in-memory binary snapshot. Must be
+   * called on the engine thread.
+   */
+  byte[] captureProject() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    LXSnapshotWriter writer = new LXSnapshotWriter(bytes);
+    writeProject(writer);
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  private ExecutorService saveExecutor = null;
+
+  private synchronized ExecutorService getSaveExecutor() {
+    if (this.saveExecutor == null) {
+      this.saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "LX Project Save");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return this.saveExecutor;
+  }
+
+  private void projectSaved(File file) {
+    System.out.println("Project saved successfully to " + file.toString());
+    this.componentRegistry.resetProject();
+    setProject(file, ProjectListener.Change.SAVE);
+  }
+
+  private void projectSaveFailed(File file, Exception x) {
+    System.err.println("Could not save project to " + file.toString() + ": " + x.getLocalizedMessage());
+    for (ProjectListener projectListener : this.projectListeners) {
+      projectListener.projectSaveFailed(file, x);
+    }
+  }
+
+  /**
+   * Writes a project file to a temporary file in the same directory, syncs
+   * it, and moves it over the destination. The project is either streamed
+   * from the engine or, if given, copied from a captured snapshot.
+   */
+  void writeProjectFile(File file, byte[] snapshot) throws IOException {
+    // Leading dot hides the temp file, and also pads the prefix out to the
+    // three characters createTempFile requires for short file names
+    File temp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
     try {
-      JsonWriter writer = new JsonWriter(new FileWriter(file));
-      writer.setIndent("  ");
-      new GsonBuilder().create().toJson(obj, writer);
-      writer.close();
-      System.out.println("Project saved successfully to " + file.toString());
-      this.componentRegistry.resetProject();
-      setProject(file, ProjectListener.Change.SAVE);
-    } catch (IOException iox) {
-      System.err.println(iox.getLocalizedMessage());
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+        JsonWriter writer;
+        if (file.getName().endsWith(PROJECT_SNAPSHOT_EXTENSION)) {
+          writer = new LXSnapshotWriter(new BufferedOutputStream(out));
+        } else {
+          writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out)));
+          writer.setIndent("  ");
+        }
+        if (snapshot != null) {
+          LXSerializable.Utils.copy(new LXSnapshotReader(new ByteArrayInputStream(snapshot)), writer);
+        } else {
+          writeProject(writer);
+        }
+        writer.flush();
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException amnsx) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  private void writeProject(JsonWriter writer) throws IOException {
+    writer.beginObject();
+    writer.name(KEY_VERSION).value("0.1");
+    writer.name(KEY_TIMESTAMP).value(System.currentTimeMillis());
+    writer.name(KEY_MAX_ID).value(this.componentRegistry.getMaxId());
+    writer.name(KEY_ENGINE);
+    this.engine.save(this, writer);
+    writer.name(KEY_EXTERNALS);
+    writer.beginObject();
+    for (String key : this.externals.keySet()) {
+      writer.name(key);
+      LXSerializable.Utils.write(this, writer, this.externals.get(key));
     }
+    writer.endObject();
+    writer.endObject();
   }
 
   public void newProject() {
@@ -711,60 +918,166 @@ public class LX {
     return this;
   }
 
-  private int getMaxId(JsonObject obj, int max) {
-    for (Entry<String, JsonElement> entry : obj.entrySet()) {
-      if (entry.getKey().equals(LXComponent.KEY_ID)) {
-        int id = entry.getValue().getAsInt();
-        if (id > max) {
-          max = id;
-        }
-      } else if (entry.getValue().isJsonArray()) {
-        for (JsonElement arrElement : entry.getValue().getAsJsonArray()) {
-          if (arrElement.isJsonObject()) {
-            max = getMaxId(arrElement.getAsJsonObject(), max);
-          }
-        }
-      } else if (entry.getValue().isJsonObject()) {
-        max = getMaxId(entry.getValue().getAsJsonObject(), max);
+  private JsonReader openProjectReader(File file) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      if (LXSnapshotReader.isSnapshot(in)) {
+        return new LXSnapshotReader(in);
       }
+    } catch (IOException iox) {
+      in.close();
+      throw iox;
     }
-    return max;
+    return new JsonReader(new InputStreamReader(in));
   }
 
-  public void openProject(File file) {
+  /**
+   * Streams once through a whole project before any of it is loaded, so that
+   * a truncated or malformed file is rejected while the current project is
+   * still intact. Returns the largest component id in the file, which covers
+   * projects that were saved without it.
+   */
+  private int validateProject(File file) throws IOException {
+    int max = 0;
+    JsonReader reader = openProjectReader(file);
     try {
-      FileReader fr = null;
-      try {
-        fr = new FileReader(file);
-        JsonObject obj = new Gson().fromJson(fr, JsonObject.class);
-        this.componentRegistry.resetProject();
-        this.componentRegistry.setIdCounter(getMaxId(obj, this.componentRegistry.getIdCounter()) + 1);
-        this.engine.load(this, obj.getAsJsonObject(KEY_ENGINE));
-        if (obj.has(KEY_EXTERNALS)) {
-          JsonObject externalsObj = obj.getAsJsonObject(KEY_EXTERNALS);
-          for (String key : this.externals.keySet()) {
-            if (externalsObj.has(key)) {
-              this.externals.get(key).load(this, externalsObj.getAsJsonObject(key));
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String key = reader.nextName();
+        if (key.equals(KEY_MAX_ID)) {
+          max = Math.max(max, reader.nextInt());
+        } else if (key.equals(KEY_ENGINE)) {
+          expect(reader, JsonToken.BEGIN_OBJECT, key);
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String section = reader.nextName();
+            if (this.engine.isArraySection(section)) {
+              expect(reader, JsonToken.BEGIN_ARRAY, section);
+              reader.beginArray();
+              while (reader.hasNext()) {
+                expect(reader, JsonToken.BEGIN_OBJECT, section);
+                max = scanValue(reader, max);
+              }
+              reader.endArray();
+            } else {
+              if (this.engine.isObjectSection(section)) {
+                expect(reader, JsonToken.BEGIN_OBJECT, section);
+              }
+              max = scanValue(reader, max);
             }
           }
+          reader.endObject();
+        } else if (key.equals(KEY_EXTERNALS)) {
+          expect(reader, JsonToken.BEGIN_OBJECT, key);
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String external = reader.nextName();
+            expect(reader, JsonToken.BEGIN_OBJECT, external);
+            max = scanValue(reader, max);
+          }
+          reader.endObject();
+        } else {
+          max = scanValue(reader, max);
         }
-        setProject(file, ProjectListener.Change.OPEN);
-        System.out.println("Project loaded successfully from " + file.toString());
-      } catch (IOException iox) {
-        System.err.println("Could not load project file: " + iox.getLocalizedMessage());
-      } finally {
-        if (fr != null) {
-          try {
-            fr.close();
-          } catch (IOException ignored) {}
+      }
+      reader.endObject();
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new IOException("Unexpected content after project in " + file);
+      }
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException ignored) {}
+    }
+    return max;
+  }
+
+  private static void expect(JsonReader reader, JsonToken token, String key) throws IOException {
+    if (reader.peek() != token) {
+      throw new IOException("Project section " + key + " should be " + token + " but is " + reader.peek());
+    }
+  }
+
+  private static int scanValue(JsonReader reader, int max) throws IOException {
+    switch (reader.peek()) {
+    case BEGIN_OBJECT:
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals(LXComponent.KEY_ID) && reader.peek() == JsonToken.NUMBER) {
+          max = Math.max(max, reader.nextInt());
+        } else {
+          max = scanValue(reader, max);
         }
       }
+      reader.endObject();
+      break;
+    case BEGIN_ARRAY:
+      reader.beginArray();
+      while (reader.hasNext()) {
+        max = scanValue(reader, max);
+      }
+      reader.endArray();
+      break;
+    default:
+      reader.skipValue();
+      break;
+    }
+    return max;
+  }
+
+  public void openProject(File file) {
+    long start = System.nanoTime();
+    try {
+      readProject(file);
+      LX.initTimer.log("Open project", System.nanoTime() - start);
+      setProject(file, ProjectListener.Change.OPEN);
+      System.out.println("Project loaded successfully from " + file.toString());
+    } catch (IOException iox) {
+      System.err.println("Could not load project file: " + iox.getLocalizedMessage());
     } catch (Exception x) {
       System.err.println("Exception in loadProject: " + x.getLocalizedMessage());
       x.printStackTrace(System.err);
     }
   }
 
+  /**
+   * Loads the contents of a project file, JSON or snapshot, without making it
+   * the current project. The whole file is validated before anything is reset.
+   */
+  void readProject(File file) throws IOException {
+    int maxId = validateProject(file);
+    JsonReader reader = openProjectReader(file);
+    try {
+      this.componentRegistry.resetProject();
+      this.componentRegistry.setIdCounter(Math.max(maxId, this.componentRegistry.getIdCounter() - 1) + 1);
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String key = reader.nextName();
+        if (key.equals(KEY_ENGINE)) {
+          this.engine.load(this, reader);
+        } else if (key.equals(KEY_EXTERNALS)) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            LXSerializable external = this.externals.get(reader.nextName());
+            if (external != null) {
+              external.load(this, LXSerializable.Utils.read(reader).getAsJsonObject());
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException ignored) {}
+    }
+  }
+
   private <T extends LXComponent> T instantiateComponent(String className, Class<T> type) {
     try {
       Class<? extends T> cls = Class.forName(className).asSubclass(type);
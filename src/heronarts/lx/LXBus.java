@@ -27,9 +27,11 @@ import heronarts.lx.clip.LXClip;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
 import heronarts.lx.model.ModelMetrics;
+import heronarts.lx.model.SpatialIndex;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.transform.LXVector;
+import heronarts.lx.transform.LXVectorPlanes;
 import heronarts.lx.warp.LXWarp;
 
 import java.util.ArrayList;
@@ -88,11 +90,17 @@ public abstract class LXBus extends LXModelComponent implements LXOscComponent {
   private final List<ClipListener> clipListeners = new ArrayList<>();
 
   /** The (possibly warped) coordinates of the model points, for use by patterns and effects */
-  protected LXVector[] vectorArray = null;
-  /** The LXWarp that last produced the contents of vectorArray, or null if the vectors came directly from the model. */
+  protected LXVectorPlanes vectorPlanes = null;
+  /** The LXWarp that last produced the contents of vectorPlanes, or null if they came directly from the model. */
   protected LXWarp vectorSource = null;
-  /** A cached list of all the non-null elements in vectorArray. */
+  /** The version of vectorPlanes last passed to setVectorPlanes() */
+  protected long vectorVersion = -1;
+  /** A cached list of all the non-null elements in the vector array view. */
   protected List<LXVector> vectorList = null;
+  /** Spatial index over vectorPlanes, built on first request and rebuilt when the vectors change. */
+  private SpatialIndex spatialIndex = null;
+  /** Planes holding vectors passed to the deprecated setVectorArray() */
+  private LXVectorPlanes legacyVectorPlanes = null;
 
   private ModelMetrics warpedMetrics = new ModelMetrics();
 
@@ -292,29 +300,70 @@ public abstract class LXBus extends LXModelComponent implements LXOscComponent {
     clip.dispose();
   }
 
+  protected static LXVectorPlanes getVectorPlanes(LXBus bus, LXModel model) {
+    if (bus == null) {
+      return model.getVectorPlanes();
+    }
+    if (bus.vectorPlanes == null) {
+      bus.vectorPlanes = model.getVectorPlanes();
+      bus.vectorVersion = bus.vectorPlanes.getVersion();
+      bus.warpedMetrics.copyFrom(bus.vectorPlanes.getMetrics());
+    }
+    return bus.vectorPlanes;
+  }
+
   protected static LXVector[] getVectorArray(LXBus bus, LXModel model) {
     if (bus == null) {
       return model.getVectorArray();
     }
-    if (bus.vectorArray == null) {
-      bus.vectorArray = model.getVectorArray();
-      bus.warpedMetrics.recompute(bus.vectorArray);
-    }
-    return bus.vectorArray;
+    return getVectorPlanes(bus, model).getVectorArray();
   }
 
+  /**
+   * Legacy form of setVectorPlanes(), taking an array of nullable vectors. When
+   * the array is the output view of the warp, its planes are used directly;
+   * otherwise the vectors are copied into planes owned by this bus.
+   */
+  @Deprecated
   protected void setVectorArray(LXVector[] newVectorArray, LXWarp newVectorSource) {
-    vectorArray = newVectorArray;
+    if (newVectorSource != null && newVectorSource.getOutput() != null &&
+        newVectorArray == newVectorSource.getOutputVectors()) {
+      setVectorPlanes(newVectorSource.getOutput(), newVectorSource);
+      return;
+    }
+    if (legacyVectorPlanes == null || legacyVectorPlanes.size != newVectorArray.length) {
+      legacyVectorPlanes = new LXVectorPlanes(model.points);
+    }
+    legacyVectorPlanes.copyFrom(newVectorArray);
+    setVectorPlanes(legacyVectorPlanes, newVectorSource);
+  }
+
+  protected void setVectorPlanes(LXVectorPlanes newVectorPlanes, LXWarp newVectorSource) {
+    vectorPlanes = newVectorPlanes;
     vectorSource = newVectorSource;
+    vectorVersion = newVectorPlanes.getVersion();
     vectorList = null;
 
-    warpedMetrics.recompute(vectorArray);
+    warpedMetrics.copyFrom(vectorPlanes.getMetrics());
+    if (spatialIndex != null) {
+      spatialIndex.update(vectorPlanes);
+    }
 
     for (LXEffect effect : effects) {
       effect.onVectorsChanged();
     }
   }
 
+  protected static SpatialIndex getSpatialIndex(LXBus bus, LXModel model) {
+    if (bus == null) {
+      return model.getSpatialIndex();
+    }
+    if (bus.spatialIndex == null) {
+      bus.spatialIndex = new SpatialIndex(getVectorPlanes(bus, model));
+    }
+    return bus.spatialIndex;
+  }
+
   protected static List<LXVector> getVectorList(LXBus bus, LXModel model) {
     if (bus == null) {
       return Arrays.asList(model.getVectorArray());
@@ -1,6 +1,8 @@
 package heronarts.lx;
 
+import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
+import heronarts.lx.model.SpatialIndex;
 import heronarts.lx.transform.LXVector;
 
 import java.util.ArrayList;
@@ -14,6 +16,10 @@ import java.util.List;
 public abstract class LXBusComponent extends LXDeviceComponent {
   List<LXVector> vectorList = null;
 
+  // While a pattern renders a level-of-detail proxy, the model it sees is the
+  // proxy but its vectors still come from the full model of the bus
+  LXModel vectorModel = null;
+
   protected LXBusComponent(LX lx) {
     super(lx);
   }
@@ -37,6 +43,10 @@ public abstract class LXBusComponent extends LXDeviceComponent {
     return this;
   }
 
+  private LXModel getVectorModel() {
+    return (this.vectorModel != null) ? this.vectorModel : this.model;
+  }
+
   /** This method is invoked whenever getVectorList() or getVectors() changes. */
   public /* abstract */ void onVectorsChanged() { }
 
@@ -45,7 +55,15 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * Returns an array of nullable LXVectors of the same length as model.points.
    */
   protected LXVector[] getVectorArray() {
-    return LXBus.getVectorArray(getBus(), model);
+    return LXBus.getVectorArray(getBus(), getVectorModel());
+  }
+
+  /**
+   * Gets a spatial index over the LXVectors for this bus, after all warps on this
+   * bus have been applied.  Query results are point indices.
+   */
+  protected SpatialIndex getSpatialIndex() {
+    return LXBus.getSpatialIndex(getBus(), getVectorModel());
   }
 
   /**
@@ -57,7 +75,7 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * use getVectors(), which saves memory and iterates over the vectors on demand.
    */
   protected List<LXVector> getVectorList() {
-    return LXBus.getVectorList(getBus(), model);
+    return LXBus.getVectorList(getBus(), getVectorModel());
   }
 
   /**
@@ -65,7 +83,7 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * Returns an iterable of non-null LXVectors (i.e. getVectorArray() without nulls).
    */
   protected Iterable<LXVector> getVectors() {
-    return LXBus.getVectors(getBus(), model);
+    return LXBus.getVectors(getBus(), getVectorModel());
   }
 
   /**
@@ -73,7 +91,7 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * applied.  Returns an iterable of non-null LXVectors.
    */
   protected Iterable<LXVector> getVectors(List<LXPoint> points) {
-    return LXBus.getVectors(getBus(), model, points);
+    return LXBus.getVectors(getBus(), getVectorModel(), points);
   }
 
   /**
@@ -81,7 +99,7 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * applied.  Returns an iterable of non-null LXVectors.
    */
   protected Iterable<LXVector> getVectors(LXPoint[] points) {
-    return LXBus.getVectors(getBus(), model, points);
+    return LXBus.getVectors(getBus(), getVectorModel(), points);
   }
 
   /**
@@ -90,6 +108,6 @@ public abstract class LXBusComponent extends LXDeviceComponent {
    * non-null LXVectors.
    */
   protected Iterable<LXVector> getVectors(int start, int stop) {
-    return LXBus.getVectors(getBus(), model, start, stop);
+    return LXBus.getVectors(getBus(), getVectorModel(), start, stop);
   }
 }
@@ -26,6 +26,7 @@ import heronarts.lx.clip.LXClip;
 import heronarts.lx.midi.LXMidiEngine;
 import heronarts.lx.midi.LXShortMessage;
 import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXProxyModel;
 import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.DiscreteParameter;
@@ -42,7 +43,7 @@ import java.util.List;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import heronarts.lx.transform.LXVector;
+import heronarts.lx.transform.LXVectorPlanes;
 import heronarts.lx.warp.LXWarp;
 
 import static heronarts.lx.PolyBuffer.Space.RGB16;
@@ -233,6 +234,14 @@ public class LXChannel extends LXBus implements LXComponent.Renamable, PolyBuffe
 
   public final ObjectParameter<LXBlend> transitionBlendMode;
 
+  /**
+   * Level-of-detail reduction for patterns on this channel which do not set
+   * their own. Each level halves the number of points rendered.
+   */
+  public final DiscreteParameter lod =
+      new DiscreteParameter("LOD", 0, 0, LXProxyModel.MAX_LEVEL + 1)
+          .setDescription("Level of detail reduction for patterns on this channel, each level halves the points rendered");
+
   public final CompoundParameter fader =
       new CompoundParameter("Fader", 0)
           .setDescription("Sets the alpha level of the output of this channel");
@@ -351,6 +360,7 @@ public class LXChannel extends LXBus implements LXComponent.Renamable, PolyBuffe
     addParameter("transitionBlendMode", this.transitionBlendMode);
     addParameter("autoDisable", this.autoDisable);
     addParameter("speed", this.speed);
+    addParameter("lod", this.lod);
   }
 
   boolean shouldRun() {
@@ -743,13 +753,54 @@ public class LXChannel extends LXBus implements LXComponent.Renamable, PolyBuffe
     }
   }
 
-  protected void setVectorArray(LXVector[] newVectorArray, LXWarp newVectorSource) {
-    super.setVectorArray(newVectorArray, newVectorSource);
+  protected void setVectorPlanes(LXVectorPlanes newVectorPlanes, LXWarp newVectorSource) {
+    super.setVectorPlanes(newVectorPlanes, newVectorSource);
     for (LXPattern pattern : patterns) {
       pattern.onVectorsChanged();
     }
   }
 
+  /**
+   * Finds an earlier channel on the same model whose enabled warps are all
+   * pointwise and pairwise equivalent to this channel's enabled warps.
+   */
+  private LXChannel getEquivalentWarpChannel() {
+    if (this.warps.isEmpty()) {
+      return null;
+    }
+    for (LXChannel channel : this.lx.engine.channels) {
+      if (channel == this) {
+        break;
+      }
+      if (channel.model == this.model && hasEquivalentWarps(channel)) {
+        return channel;
+      }
+    }
+    return null;
+  }
+
+  private boolean hasEquivalentWarps(LXChannel that) {
+    int i = 0, j = 0, matched = 0;
+    int size = this.mutableWarps.size(), thatSize = that.mutableWarps.size();
+    while (true) {
+      while (i < size && !this.mutableWarps.get(i).isEnabled()) {
+        ++i;
+      }
+      while (j < thatSize && !that.mutableWarps.get(j).isEnabled()) {
+        ++j;
+      }
+      if (i == size || j == thatSize) {
+        return (i == size) && (j == thatSize) && (matched > 0);
+      }
+      if (!this.mutableWarps.get(i).isEquivalent(that.mutableWarps.get(j))) {
+        return false;
+      }
+      ++matched;
+      ++i;
+      ++j;
+    }
+  }
+
   @Override
   public void loop(double deltaMs) {
     long loopStart = System.nanoTime();
@@ -778,20 +829,26 @@ public class LXChannel extends LXBus implements LXComponent.Renamable, PolyBuffe
       }
     }
 
-    // Apply warps
+    // Apply warps, using the stack of an earlier channel with an equivalent
+    // one if possible. Its pointwise stages are memoized, so whichever channel
+    // gets there first in a frame does the work and the other reuses it.
+    LXChannel warpSource = getEquivalentWarpChannel();
+    List<LXWarp> warpStack = (warpSource != null) ? warpSource.mutableWarps : this.mutableWarps;
     LXWarp nextInputSource = null;
-    LXVector[] nextInputVectors = model.getVectorArray();
-    boolean nextInputChanged = false;
-    for (LXWarp warp : warps) {
-      if (warp.isEnabled()) {
-        warp.setInputVectors(nextInputSource, nextInputVectors, nextInputChanged);
-        nextInputChanged = warp.applyWarp(deltaMs);
-        nextInputSource = warp;
-        nextInputVectors = warp.getOutputVectors();
+    LXVectorPlanes nextInput = model.getVectorPlanes();
+    synchronized (warpStack) {
+      boolean nextInputChanged = false;
+      for (LXWarp warp : warpStack) {
+        if (warp.isEnabled()) {
+          warp.setInput(nextInputSource, nextInput, nextInputChanged);
+          nextInputChanged = warp.applyWarp(deltaMs);
+          nextInputSource = warp;
+          nextInput = warp.getOutput();
+        }
       }
     }
-    if (nextInputVectors != vectorArray || nextInputSource != vectorSource || nextInputChanged) {
-      setVectorArray(nextInputVectors, nextInputSource);
+    if (nextInput != vectorPlanes || nextInputSource != vectorSource || nextInput.getVersion() != vectorVersion) {
+      setVectorPlanes(nextInput, nextInputSource);
     }
 
     // Run active pattern
@@ -70,6 +70,7 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
     private int idCounter = ID_ENGINE+1;
     private final Map<Integer, LXComponent> components = new HashMap<Integer, LXComponent>();
     private final Map<Integer, LXComponent> projectIdMap = new HashMap<Integer, LXComponent>();
+    private int version = 0;
 
     LXComponent getProjectComponent(int projectId) {
       // Check first in the project ID map, there may be another layer of
@@ -95,12 +96,29 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
         throw new IllegalStateException("Component id already registered: " + component.id);
       }
       this.components.put(component.id, component);
+      ++this.version;
+    }
+
+    Collection<LXComponent> getComponents() {
+      return this.components.values();
+    }
+
+    int getVersion() {
+      return this.version;
     }
 
     int getIdCounter() {
       return this.idCounter;
     }
 
+    int getMaxId() {
+      int max = 0;
+      for (int id : this.components.keySet()) {
+        max = Math.max(max, id);
+      }
+      return max;
+    }
+
     void setIdCounter(int idCounter) {
       this.idCounter = idCounter;
     }
@@ -124,10 +142,16 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
         component.id = id;
         this.components.put(id, component);
       }
+      ++this.version;
     }
 
     void dispose(LXComponent component) {
       this.components.remove(component.id);
+      ++this.version;
+    }
+
+    void parametersChanged() {
+      ++this.version;
     }
   }
 
@@ -250,6 +274,7 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
     }
     this.lx.engine.midi.removeMappings(this);
     this.lx.engine.modulation.removeModulations(this);
+    this.lx.engine.morph.exclude(this);
     for (LXParameter parameter : this.parameters.values()) {
       parameter.dispose();
     }
@@ -260,6 +285,18 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
 
   protected final Map<String, LXParameter> parameters = new LinkedHashMap<String, LXParameter>();
 
+  // Listens to every parameter of this component, records the change in the
+  // journal if one is running, then hands off to onParameterChanged()
+  private final LXParameterListener parameterListener = new LXParameterListener() {
+    public void onParameterChanged(LXParameter parameter) {
+      LXJournal journal = (lx != null) ? lx.journal : null;
+      if (journal != null) {
+        journal.record(parameter);
+      }
+      LXComponent.this.onParameterChanged(parameter);
+    }
+  };
+
   public final LXComponent addParameter(LXParameter parameter) {
     return addParameter(parameter.getLabel(), parameter);
   }
@@ -277,7 +314,10 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
     parameter.setComponent(this, path);
     this.parameters.put(path, parameter);
     if (parameter instanceof LXListenableParameter) {
-      ((LXListenableParameter) parameter).addListener(this);
+      ((LXListenableParameter) parameter).addListener(this.parameterListener);
+    }
+    if (this.lx != null) {
+      this.lx.componentRegistry.parametersChanged();
     }
     return this;
   }
@@ -303,6 +343,9 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
     }
     this.parameters.remove(parameter.getPath());
     parameter.dispose();
+    if (this.lx != null) {
+      this.lx.componentRegistry.parametersChanged();
+    }
     return this;
   }
 
@@ -374,8 +417,8 @@ public abstract class LXComponent implements LXParameterListener, LXSerializable
         if (parameter == this.label && !(this instanceof LXComponent.Renamable)) {
           continue;
         }
-        if (parameters.has(path)) {
-          JsonElement value = parameters.get(path);
+        JsonElement value = parameters.get(path);
+        if (value != null) {
           if (parameter instanceof StringParameter) {
             ((StringParameter)parameter).setValue(value.getAsString());
           } else if (parameter instanceof BooleanParameter) {
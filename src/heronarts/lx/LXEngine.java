@@ -23,6 +23,9 @@ package heronarts.lx;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.symmetrylabs.color.Ops16;
 import com.symmetrylabs.color.Spaces;
 import com.symmetrylabs.util.artnet.ArtNetEngine;
 import com.symmetrylabs.util.dmx.DMXEngine;
@@ -38,8 +41,9 @@ import heronarts.lx.blend.MultiplyBlend;
 import heronarts.lx.blend.NormalBlend;
 import heronarts.lx.blend.SubtractBlend;
 import heronarts.lx.clip.LXClip;
+import heronarts.lx.color.LXColor;
 import heronarts.lx.midi.LXMidiEngine;
-import heronarts.lx.model.LXPoint;
+import heronarts.lx.model.ModelCoordinates;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.osc.LXOscEngine;
 import heronarts.lx.output.LXOutput;
@@ -51,15 +55,19 @@ import heronarts.lx.parameter.DiscreteParameter;
 import heronarts.lx.parameter.EnumParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXParameterListener;
+import heronarts.lx.parameter.LXParameterNotifier;
+import heronarts.lx.parameter.MetricParameter;
 import heronarts.lx.parameter.MutableParameter;
 import heronarts.lx.parameter.ObjectParameter;
 import heronarts.lx.pattern.SolidColorPattern;
 import heronarts.lx.script.LXScriptEngine;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -166,6 +174,8 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
   public final LXModulationEngine modulation;
 
+  public final LXMorphEngine morph;
+
   private boolean logTimers = false;
 
   public class FocusedClipParameter extends MutableParameter {
@@ -327,6 +337,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     public long midiNanos = 0;
     public long oscNanos = 0;
     public long artNetNanos = 0;
+    public long notifyNanos = 0;
     public long outputNanos = 0;
 
     private void addRunTime(long runNanos, long nowNanos) {
@@ -346,6 +357,9 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     DoubleBuffer main;
     DoubleBuffer cue;
 
+    /** Time at which the frozen frame was published */
+    long frameNanos = 0;
+
     EngineBuffer(LX lx) {
       this.main = new DoubleBuffer(lx);
       this.cue = new DoubleBuffer(lx);
@@ -397,6 +411,18 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   public final BooleanParameter isNetworkMultithreaded = new BooleanParameter("Network Threaded", false)
     .setDescription("Whether the network output is on a separate thread");
 
+  public final DiscreteParameter networkInterpolation = new DiscreteParameter("Net Interp", 1, 1, 9)
+    .setDescription("When network threaded, how many frames are sent per engine frame, interpolating between the last two rendered frames");
+
+  /**
+   * Delivers coalesced parameter notifications for this engine's components
+   */
+  public final LXParameterNotifier notifier = new LXParameterNotifier();
+
+  public final MetricParameter notifyCoalescing =
+    new MetricParameter("Coalescing")
+    .setDescription("Ratio of parameter changes to coalesced notifications delivered in the last frame");
+
   private volatile boolean isEngineThreadRunning = false;
 
   private boolean isNetworkThreadStarted = false;
@@ -411,6 +437,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   private static final long INIT_RUN = -1;
   private long lastMillis = INIT_RUN;
   long nowMillis = System.currentTimeMillis();
+  private double frameDeltaMs = 0;
 
   LXEngine(final LX lx) {
     super(lx, LXComponent.ID_ENGINE, "Engine");
@@ -537,6 +564,10 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     this.script = new LXScriptEngine(lx);
     LX.initTimer.log("Engine: Script");
 
+    // Snapshot morphing
+    this.morph = new LXMorphEngine(lx);
+    LX.initTimer.log("Engine: Morph");
+
     // Listener
     this.focusedChannel.addListener(new LXParameterListener() {
       public void onParameterChanged(LXParameter p) {
@@ -558,6 +589,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     addParameter("multithreaded", this.isMultithreaded);
     addParameter("channelMultithreaded", this.isChannelMultithreaded);
     addParameter("networkMultithreaded", this.isNetworkMultithreaded);
+    addParameter("networkInterpolation", this.networkInterpolation);
   }
 
   public void logTimers() {
@@ -1030,19 +1062,52 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   }
 
   public void run() {
+    // Compute elapsed time
+    long nowMillis = System.currentTimeMillis();
+    if (this.lastMillis == INIT_RUN) {
+      // Initial frame is arbitrarily 16 milliseconds (~60 fps)
+      this.lastMillis = nowMillis - 16;
+    }
+    run(nowMillis, nowMillis - this.lastMillis);
+  }
+
+  /**
+   * Gets the timestamp of the current frame
+   *
+   * @return Frame time in milliseconds
+   */
+  public long getNowMillis() {
+    return this.nowMillis;
+  }
+
+  /**
+   * Gets the real time elapsed in the current frame, before the master speed
+   * is applied.
+   *
+   * @return Frame delta in milliseconds
+   */
+  public double getDeltaMs() {
+    return this.frameDeltaMs;
+  }
+
+  /**
+   * Runs a single frame of the engine with an externally supplied clock,
+   * rather than the system time. This is used when the engine is driven
+   * by another process, for instance a cluster worker rendering in lockstep
+   * with a coordinator. The engine should not be threaded in this case.
+   *
+   * @param nowMillis Timestamp of this frame
+   * @param deltaMs Elapsed time since the previous frame
+   */
+  public void run(long nowMillis, double deltaMs) {
     this.hasStarted = true;
     int initialConversionCount = PolyBuffer.getConversionCount();
 
     long runStart = System.nanoTime();
 
-    // Compute elapsed time
-    this.nowMillis = System.currentTimeMillis();
-    if (this.lastMillis == INIT_RUN) {
-      // Initial frame is arbitrarily 16 milliseconds (~60 fps)
-      this.lastMillis = this.nowMillis - 16;
-    }
-    double deltaMs = this.nowMillis - this.lastMillis;
-    this.lastMillis = this.nowMillis;
+    this.nowMillis = nowMillis;
+    this.lastMillis = nowMillis;
+    this.frameDeltaMs = deltaMs;
 
     if (this.paused) {
       this.timer.channelNanos = 0;
@@ -1082,6 +1147,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     // Mutate by master speed for everything else
     deltaMs *= this.speed.getValue();
 
+    this.morph.loop(deltaMs);
     this.modulation.loop(deltaMs);
     this.lx.palette.loop(deltaMs);
 
@@ -1102,12 +1168,21 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       }
     }
 
+    // Deliver coalesced parameter notifications, once per changed parameter
+    long notifyStart = System.nanoTime();
+    this.notifier.dispatch();
+    this.notifyCoalescing.update(this.notifier.getLastRatio());
+    this.timer.notifyNanos = System.nanoTime() - notifyStart;
+
     // The main work: run patterns, blend channels, send to outputs.
     long channelStart = System.nanoTime();
     loopAllChannels(deltaMs);
     blendChannels(deltaMs, channelStart, colorSpace.getEnum());
     this.artNet.processOutput();
     sendToOutputs(runStart);
+    long oscOutputStart = System.nanoTime();
+    this.osc.processOutput();
+    this.timer.oscNanos += System.nanoTime() - oscOutputStart;
     long nowNanos = System.nanoTime();
     this.timer.addRunTime(nowNanos - runStart, nowNanos);
 
@@ -1294,8 +1369,10 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     // If cue-ing the palette!
     if (lx.palette.cue.isOn()) {
       int[] colors = (int[]) buffer.cue.render.getArray(SRGB8);
-      for (LXPoint p : this.lx.model.points) {
-        colors[p.index] = lx.palette.getColor(p);
+      ModelCoordinates coords = this.lx.model.getCoordinates();
+      double saturation = lx.palette.getSaturation();
+      for (int i = 0; i < coords.size; ++i) {
+        colors[coords.index[i]] = LXColor.hsb(lx.palette.getHue(coords.x[i], coords.y[i], coords.z[i], coords.r[i]), saturation, 100);
       }
       buffer.cue.render.markModified(SRGB8);
       cueOn = true;
@@ -1307,6 +1384,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       synchronized (buffer) {
         buffer.cueOn = cueOn;
         buffer.flip();
+        buffer.frameNanos = System.nanoTime();
       }
     } else {
       // Otherwise lock-free!
@@ -1318,6 +1396,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     if (isNetworkMultithreaded.isOn()) {
       // Just notify the network thread!
       synchronized (this.network) {
+        this.network.frameReady = true;
         this.network.notify();
       }
     } else {
@@ -1367,9 +1446,23 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
     private final PolyBuffer networkBuffer;
 
+    // Interpolation state: the last two engine frames in RGB16, the times
+    // at which they were published, and the blended output
+    private PolyBuffer previousFrame;
+    private PolyBuffer latestFrame;
+    private final PolyBuffer interpolatedFrame;
+    private long previousFrameNanos = 0;
+    private long latestFrameNanos = 0;
+    private boolean hasPreviousFrame = false;
+
+    boolean frameReady = false;
+
     NetworkThread(LX lx) {
       super("LXEngine Network Thread");
       this.networkBuffer = new PolyBuffer(lx);
+      this.previousFrame = new PolyBuffer(lx);
+      this.latestFrame = new PolyBuffer(lx);
+      this.interpolatedFrame = new PolyBuffer(lx);
     }
 
     @Override
@@ -1378,7 +1471,10 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       while (!isInterrupted()) {
         try {
           synchronized(this) {
-            wait();
+            while (!this.frameReady) {
+              wait();
+            }
+            this.frameReady = false;
           }
         } catch (InterruptedException ix) {
           System.out.println("LXEngine Network Thread interrupted");
@@ -1391,17 +1487,24 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
         LXEngine.this.artNet.sendOutput();
 
+        int interpolation = networkInterpolation.getValuei();
         if (output.enabled.isOn()) {
-          // Copy from the double-buffer into our local storage and send from here
-          long copyStart = System.nanoTime();
-          synchronized (buffer) {
-            networkBuffer.copyFrom(buffer.main.frozen, colorSpace.getEnum());
-          }
-          long copyEnd = System.nanoTime();
-          this.timer.copyNanos = copyEnd- copyStart;
+          if (interpolation > 1) {
+            sendInterpolated(interpolation);
+          } else {
+            this.hasPreviousFrame = false;
+
+            // Copy from the double-buffer into our local storage and send from here
+            long copyStart = System.nanoTime();
+            synchronized (buffer) {
+              networkBuffer.copyFrom(buffer.main.frozen, colorSpace.getEnum());
+            }
+            long copyEnd = System.nanoTime();
+            this.timer.copyNanos = copyEnd- copyStart;
 
-          output.send(networkBuffer);
-          this.timer.sendNanos = System.nanoTime() - copyEnd;
+            output.send(networkBuffer);
+            this.timer.sendNanos = System.nanoTime() - copyEnd;
+          }
         }
 
         // Compute network framerate
@@ -1414,6 +1517,70 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       System.out.println("LXEngine Network Thread finished");
     }
 
+    /**
+     * Sends up to the given number of frames, interpolating in RGB16 from the
+     * previous engine frame to the latest one over the interval between them.
+     * Output runs one engine frame behind, reaching the latest frame just as
+     * the next one is expected. A new engine frame cuts this short.
+     */
+    private void sendInterpolated(int interpolation) {
+      long copyStart = System.nanoTime();
+      PolyBuffer tmp = this.previousFrame;
+      this.previousFrame = this.latestFrame;
+      this.latestFrame = tmp;
+      this.previousFrameNanos = this.latestFrameNanos;
+      synchronized (buffer) {
+        this.latestFrame.copyFrom(buffer.main.frozen, RGB16);
+        this.latestFrameNanos = buffer.frameNanos;
+      }
+      long copyEnd = System.nanoTime();
+      this.timer.copyNanos = copyEnd - copyStart;
+
+      long intervalNanos = this.latestFrameNanos - this.previousFrameNanos;
+      if (!this.hasPreviousFrame || intervalNanos <= 0) {
+        this.hasPreviousFrame = true;
+        output.send(this.latestFrame);
+        this.timer.sendNanos = System.nanoTime() - copyEnd;
+        return;
+      }
+
+      long[] previous = (long[]) this.previousFrame.getArray(RGB16);
+      long[] latest = (long[]) this.latestFrame.getArray(RGB16);
+      long[] interpolated = (long[]) this.interpolatedFrame.getArray(RGB16);
+      long stepNanos = intervalNanos / interpolation;
+      long sendNanos = 0;
+      for (int k = 1; k <= interpolation; ++k) {
+        // Position between the two frames, based on the time elapsed since
+        // the latest frame was published
+        long elapsedNanos = System.nanoTime() - this.latestFrameNanos + stepNanos;
+        double fraction = Math.min(1, Math.max((double) k / interpolation, (double) elapsedNanos / intervalNanos));
+        long sendStart = System.nanoTime();
+        Ops16.lerp(previous, latest, (int) (fraction * 0x10000), interpolated);
+        this.interpolatedFrame.markModified(RGB16);
+        output.send(this.interpolatedFrame);
+        sendNanos += System.nanoTime() - sendStart;
+        if (fraction >= 1) {
+          break;
+        }
+
+        long waitNanos = this.latestFrameNanos + k * stepNanos - System.nanoTime();
+        try {
+          synchronized (this) {
+            if (!this.frameReady && waitNanos > 0) {
+              wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            }
+            if (this.frameReady) {
+              break;
+            }
+          }
+        } catch (InterruptedException ix) {
+          interrupt();
+          break;
+        }
+      }
+      this.timer.sendNanos = sendNanos;
+    }
+
     public float frameRate() {
       return this.frameRate;
     }
@@ -1470,24 +1637,145 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   private static final String KEY_MIDI = "midi";
 
 
+  /**
+   * Sections of the saved engine, in order. Each value is a single
+   * serializable, a list of channels or a map of named components. Both save
+   * methods walk this so the tree and streamed forms cannot drift apart.
+   */
+  private Map<String, Object> getSaveSections() {
+    Map<String, Object> sections = new LinkedHashMap<String, Object>();
+    sections.put(KEY_PALETTE, this.lx.palette);
+    sections.put(KEY_CHANNELS, this.mutableChannels);
+    sections.put(KEY_MASTER, this.masterChannel);
+    sections.put(KEY_TEMPO, this.lx.tempo);
+    sections.put(KEY_AUDIO, this.audio);
+    sections.put(KEY_OUTPUT, this.output);
+    sections.put(KEY_COMPONENTS, this.components);
+    sections.put(KEY_MODULATION, this.modulation);
+    sections.put(KEY_OSC, this.osc);
+    sections.put(KEY_ARTNET, this.artNet);
+    sections.put(KEY_MIDI, this.midi);
+    return sections;
+  }
+
+  /**
+   * Whether a saved engine member is an array of channel objects
+   */
+  boolean isArraySection(String key) {
+    return key.equals(KEY_CHANNELS);
+  }
+
+  /**
+   * Whether a saved engine member is loaded as a single object
+   */
+  boolean isObjectSection(String key) {
+    return !isArraySection(key) && getSaveSections().containsKey(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JsonElement saveSection(LX lx, Object section) {
+    if (section instanceof List) {
+      return LXSerializable.Utils.toArray(lx, (List<? extends LXSerializable>) section);
+    }
+    if (section instanceof Map) {
+      return LXSerializable.Utils.toObject(lx, (Map<String, ? extends LXSerializable>) section);
+    }
+    return LXSerializable.Utils.toObject(lx, (LXSerializable) section);
+  }
+
   @Override
   public void save(LX lx, JsonObject obj) {
     super.save(lx, obj);
-    obj.add(KEY_PALETTE, LXSerializable.Utils.toObject(lx, this.lx.palette));
-    obj.add(KEY_CHANNELS, LXSerializable.Utils.toArray(lx, this.mutableChannels));
-    obj.add(KEY_MASTER, LXSerializable.Utils.toObject(lx, this.masterChannel));
-    obj.add(KEY_TEMPO, LXSerializable.Utils.toObject(lx, this.lx.tempo));
-    obj.add(KEY_AUDIO, LXSerializable.Utils.toObject(lx, this.audio));
-    obj.add(KEY_OUTPUT, LXSerializable.Utils.toObject(lx, this.output));
-    obj.add(KEY_COMPONENTS, LXSerializable.Utils.toObject(lx, this.components));
-    obj.add(KEY_MODULATION, LXSerializable.Utils.toObject(lx, this.modulation));
-    obj.add(KEY_OSC, LXSerializable.Utils.toObject(lx, this.osc));
-    obj.add(KEY_ARTNET, LXSerializable.Utils.toObject(lx, this.artNet));
-    obj.add(KEY_MIDI, LXSerializable.Utils.toObject(lx, this.midi));
+    for (Map.Entry<String, Object> section : getSaveSections().entrySet()) {
+      obj.add(section.getKey(), saveSection(lx, section.getValue()));
+    }
+  }
+
+  /**
+   * Streams the engine out in the same form as save(), building the tree for
+   * only one channel or section at a time.
+   *
+   * @param lx LX instance
+   * @param writer Writer
+   * @throws IOException if the writer fails
+   */
+  public void save(LX lx, JsonWriter writer) throws IOException {
+    JsonObject obj = new JsonObject();
+    super.save(lx, obj);
+    writer.beginObject();
+    LXSerializable.Utils.writeMembers(writer, obj);
+    for (Map.Entry<String, Object> section : getSaveSections().entrySet()) {
+      writer.name(section.getKey());
+      Object value = section.getValue();
+      if (value instanceof List) {
+        writer.beginArray();
+        for (Object item : (List<?>) value) {
+          LXSerializable.Utils.write(lx, writer, (LXSerializable) item);
+        }
+        writer.endArray();
+      } else if (value instanceof LXSerializable) {
+        LXSerializable.Utils.write(lx, writer, (LXSerializable) value);
+      } else {
+        LXSerializable.Utils.write(writer, saveSection(lx, value));
+      }
+    }
+    writer.endObject();
   }
 
   @Override
   public void load(LX lx, JsonObject obj) {
+    clearProject();
+
+    // Add the new channels
+    if (obj.has(KEY_CHANNELS)) {
+      JsonArray channelsArray = obj.getAsJsonArray(KEY_CHANNELS);
+      for (JsonElement channelElement : channelsArray) {
+        loadChannel(lx, (JsonObject) channelElement);
+      }
+    } else {
+      addChannel().fader.setValue(1);
+    }
+
+    loadSections(lx, obj);
+  }
+
+  /**
+   * Streams the engine in from a document written by save(). Channels are
+   * loaded one at a time as they are read, every other section is read whole
+   * and applied in the same order as load().
+   *
+   * @param lx LX instance
+   * @param reader Reader
+   * @throws IOException if the reader fails
+   */
+  public void load(LX lx, JsonReader reader) throws IOException {
+    clearProject();
+
+    JsonObject obj = new JsonObject();
+    boolean hasChannels = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String key = reader.nextName();
+      if (key.equals(KEY_CHANNELS)) {
+        hasChannels = true;
+        reader.beginArray();
+        while (reader.hasNext()) {
+          loadChannel(lx, LXSerializable.Utils.read(reader).getAsJsonObject());
+        }
+        reader.endArray();
+      } else {
+        obj.add(key, LXSerializable.Utils.read(reader));
+      }
+    }
+    reader.endObject();
+    if (!hasChannels) {
+      addChannel().fader.setValue(1);
+    }
+
+    loadSections(lx, obj);
+  }
+
+  private void clearProject() {
     // TODO(mcslee): remove loop tasks that other things might have added? maybe
     // need to separate application-owned loop tasks from project-specific ones...
 
@@ -1498,18 +1786,15 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     for (int i = this.mutableChannels.size() - 1; i >= 0; --i) {
       removeChannel(this.mutableChannels.get(i), false);
     }
-    // Add the new channels
-    if (obj.has(KEY_CHANNELS)) {
-      JsonArray channelsArray = obj.getAsJsonArray(KEY_CHANNELS);
-      for (JsonElement channelElement : channelsArray) {
-        // TODO(mcslee): improve efficiency, allow no-patterns in a channel?
-        LXChannel channel = addChannel();
-        channel.load(lx, (JsonObject) channelElement);
-      }
-    } else {
-      addChannel().fader.setValue(1);
-    }
+  }
+
+  private void loadChannel(LX lx, JsonObject channelObj) {
+    // TODO(mcslee): improve efficiency, allow no-patterns in a channel?
+    LXChannel channel = addChannel();
+    channel.load(lx, channelObj);
+  }
 
+  private void loadSections(LX lx, JsonObject obj) {
     // Master channel settings
     if (obj.has(KEY_MASTER)) {
       this.masterChannel.load(lx, obj.getAsJsonObject(KEY_MASTER));
@@ -0,0 +1,608 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import heronarts.lx.color.ColorParameter;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only journal of parameter changes, for recovering live state after a
+ * crash without saving the project all the time. Every change to a serialized
+ * component parameter is recorded as (component id, parameter path id,
+ * value, timestamp). Records go into a lock-free ring buffer and are written
+ * out by a background thread.
+ *
+ * The journal is periodically compacted. The engine thread captures a project
+ * snapshot, which the writer thread stores atomically before truncating the
+ * journal. Compaction also runs soon after components are added or removed,
+ * because the journal only records parameter values and not structure. On
+ * startup, restore() loads the last snapshot and replays the journal over it.
+ *
+ * Journal layout, after an 8-byte header of magic and version:
+ *
+ *   path    tag, varint path id, varint length, UTF-8 bytes
+ *   value   tag, varint component id, varint path id, zigzag varint time
+ *           delta in milliseconds, double
+ *   string  tag, varint component id, varint path id, zigzag varint time
+ *           delta in milliseconds, varint length, UTF-8 bytes
+ *
+ * A record cut short by a crash ends replay at the last complete record.
+ *
+ * Parameters the engine writes every frame, such as meters, opt out with
+ * setShouldJournal(false), and the per-frame writes of the morph engine are
+ * skipped. If the journal cannot be written, recording stops and the failed
+ * parameter is set.
+ */
+public class LXJournal implements LXLoopTask {
+
+  public static final int MAGIC = 0x4c58504a; // "LXPJ"
+
+  /** Version written by this class, bump whenever the layout changes */
+  public static final int VERSION = 1;
+
+  public static final String SNAPSHOT_EXTENSION = LX.PROJECT_SNAPSHOT_EXTENSION;
+  public static final String JOURNAL_EXTENSION = ".lxj";
+
+  private static final int TAG_PATH = 1;
+  private static final int TAG_VALUE = 2;
+  private static final int TAG_STRING = 3;
+
+  private static final int QUEUE_SIZE = 1 << 16;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // Longest the writer thread sleeps when the queue is empty
+  private static final long WRITER_PARK_NANOS = 10000000;
+
+  // Structural changes are compacted at most this often
+  private static final long STRUCTURE_COMPACT_MS = 1000;
+
+  /** Default interval between periodic compactions */
+  public static final long DEFAULT_COMPACT_INTERVAL_MS = 5 * 60 * 1000;
+
+  /**
+   * Set on the engine thread once the writer has failed and recording stopped
+   */
+  public final BooleanParameter failed =
+    new BooleanParameter("Failed", false)
+    .setDescription("Set when the journal could not be written and stopped recording");
+
+  private final LX lx;
+  public final File snapshotFile;
+  public final File journalFile;
+
+  // Ring buffer of pending records. A slot holding a snapshot and no
+  // parameter marks a compaction. The marker's slot is claimed before the
+  // snapshot is captured, so records after it are never lost to truncation.
+  private final LXParameter[] queueParameters = new LXParameter[QUEUE_SIZE];
+  private final double[] queueValues = new double[QUEUE_SIZE];
+  private final long[] queueTimes = new long[QUEUE_SIZE];
+  private final Object[] queueObjects = new Object[QUEUE_SIZE];
+  private final AtomicLongArray queuePublished = new AtomicLongArray(QUEUE_SIZE);
+  private final AtomicLong queueHead = new AtomicLong(0);
+  private volatile long queueTail = 0;
+
+  private final AtomicLong recordCount = new AtomicLong(0);
+  private final AtomicLong dropCount = new AtomicLong(0);
+  private volatile long bytesWritten = 0;
+  private volatile int compactionCount = 0;
+  private volatile IOException failure = null;
+
+  private long compactIntervalMs = DEFAULT_COMPACT_INTERVAL_MS;
+  private boolean compactRequested = false;
+  private long lastCompactMillis = 0;
+  private long lastCompactRecords = 0;
+  private int componentVersion = -1;
+
+  // Saving blocks on MIDI initialization, so hold off capturing until then
+  private volatile boolean midiReady = false;
+
+  private WriterThread writer = null;
+
+  /**
+   * Creates a journal that keeps its snapshot and journal next to each other,
+   * at the given path plus the snapshot and journal extensions.
+   *
+   * @param lx LX instance
+   * @param file Base path for the snapshot and journal files
+   */
+  public LXJournal(LX lx, File file) {
+    this.lx = lx;
+    this.snapshotFile = new File(file.getPath() + SNAPSHOT_EXTENSION);
+    this.journalFile = new File(file.getPath() + JOURNAL_EXTENSION);
+    for (int i = 0; i < QUEUE_SIZE; ++i) {
+      this.queuePublished.set(i, -1);
+    }
+  }
+
+  /**
+   * Sets how often the journal is compacted into a new snapshot
+   *
+   * @param compactIntervalMs Interval in milliseconds
+   * @return this
+   */
+  public LXJournal setCompactInterval(long compactIntervalMs) {
+    this.compactIntervalMs = compactIntervalMs;
+    return this;
+  }
+
+  /**
+   * Number of records accepted into the journal since it was started
+   *
+   * @return Records
+   */
+  public long getRecordCount() {
+    return this.recordCount.get();
+  }
+
+  /**
+   * Number of changes lost because the writer could not keep up
+   *
+   * @return Dropped records
+   */
+  public long getDropCount() {
+    return this.dropCount.get();
+  }
+
+  /**
+   * Number of bytes appended to the journal file since it was started
+   *
+   * @return Bytes written
+   */
+  public long getBytesWritten() {
+    return this.bytesWritten;
+  }
+
+  /**
+   * Number of compactions completed since the journal was started
+   *
+   * @return Compactions
+   */
+  public int getCompactionCount() {
+    return this.compactionCount;
+  }
+
+  /**
+   * Error that stopped the writer, if it has failed
+   *
+   * @return Failure, or null if the journal is healthy
+   */
+  public IOException getFailure() {
+    return this.failure;
+  }
+
+  /**
+   * Rebuilds the latest recorded state by loading the snapshot and replaying
+   * the journal over it. Call this before start(), on the engine thread or
+   * before the engine is running.
+   *
+   * @return Whether there was a snapshot to restore
+   * @throws IOException if the snapshot or journal cannot be read
+   */
+  public boolean restore() throws IOException {
+    if (!this.snapshotFile.exists()) {
+      return false;
+    }
+    long start = System.nanoTime();
+    this.lx.readProject(this.snapshotFile);
+    int replayed = this.journalFile.exists() ? replay(this.journalFile) : 0;
+    LX.initTimer.log("Restore journal", System.nanoTime() - start);
+    System.out.println("Restored " + this.snapshotFile + " and " + replayed + " journaled changes");
+    return true;
+  }
+
+  private int replay(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    Map<Integer, String> paths = new HashMap<Integer, String>();
+    int replayed = 0;
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not an LX journal: " + file);
+      }
+      int version = in.readInt();
+      if (version > VERSION) {
+        throw new IOException("Unsupported LX journal version: " + version);
+      }
+      int tag;
+      while ((tag = in.read()) >= 0) {
+        if (tag == TAG_PATH) {
+          int pathId = (int) readVarint(in);
+          paths.put(pathId, readString(in));
+          continue;
+        }
+        if (tag != TAG_VALUE && tag != TAG_STRING) {
+          throw new IOException("Malformed LX journal, unknown tag: " + tag);
+        }
+        int componentId = (int) readVarint(in);
+        String path = paths.get((int) readVarint(in));
+        readVarint(in);
+        double value = 0;
+        String string = null;
+        if (tag == TAG_VALUE) {
+          value = in.readDouble();
+        } else {
+          string = readString(in);
+        }
+        LXComponent component = this.lx.componentRegistry.getProjectComponent(componentId);
+        LXParameter parameter = (component != null && path != null) ? component.getParameter(path) : null;
+        if (parameter != null) {
+          if (parameter instanceof StringParameter) {
+            ((StringParameter) parameter).setValue(string);
+          } else if (parameter instanceof ColorParameter) {
+            ((ColorParameter) parameter).setColor((int) value);
+          } else {
+            parameter.setValue(value);
+          }
+          ++replayed;
+        }
+      }
+    } catch (EOFException eofx) {
+      // The last record was cut short, everything before it stands
+    } finally {
+      in.close();
+    }
+    return replayed;
+  }
+
+  /**
+   * Starts journaling. The first compaction is requested immediately and
+   * replaces any existing snapshot and journal; changes are only written to
+   * the journal after it.
+   *
+   * @return this
+   */
+  public LXJournal start() {
+    if (this.writer != null) {
+      throw new IllegalStateException("LXJournal already started");
+    }
+    if (this.lx.journal != null) {
+      throw new IllegalStateException("LX instance already has a journal running");
+    }
+    this.writer = new WriterThread();
+    this.writer.start();
+    this.lx.engine.midi.whenReady(new Runnable() {
+      public void run() {
+        midiReady = true;
+      }
+    });
+    this.compactRequested = true;
+    this.componentVersion = this.lx.getComponentVersion();
+    this.lx.engine.addLoopTask(this);
+    this.lx.journal = this;
+    return this;
+  }
+
+  /**
+   * Stops journaling, writing out every record that was already queued
+   */
+  public void stop() {
+    if (this.writer == null) {
+      return;
+    }
+    this.lx.journal = null;
+    this.lx.engine.removeLoopTask(this);
+    this.writer.running = false;
+    LockSupport.unpark(this.writer);
+    try {
+      this.writer.join();
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+    }
+    this.writer = null;
+  }
+
+  /**
+   * Requests a compaction at the next engine frame
+   */
+  public void compact() {
+    this.compactRequested = true;
+  }
+
+  @Override
+  public void loop(double deltaMs) {
+    if (this.failure != null) {
+      if (!this.failed.isOn()) {
+        this.failed.setValue(true);
+      }
+      return;
+    }
+    if (!this.midiReady) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    int version = this.lx.getComponentVersion();
+    boolean compact = this.compactRequested;
+    if (version != this.componentVersion && (now - this.lastCompactMillis) >= STRUCTURE_COMPACT_MS) {
+      compact = true;
+    } else if ((now - this.lastCompactMillis) >= this.compactIntervalMs && this.recordCount.get() != this.lastCompactRecords) {
+      compact = true;
+    }
+    if (compact) {
+      // Take the marker's place in the queue before capturing, so that any
+      // change the capture might miss is queued after the marker, and is
+      // written to the journal after it has been truncated. If the queue is
+      // full, try again next frame.
+      long sequence = reserve();
+      if (sequence < 0) {
+        return;
+      }
+      byte[] snapshot = null;
+      try {
+        snapshot = this.lx.captureProject();
+      } catch (IOException iox) {
+        System.err.println("Could not capture journal snapshot: " + iox.getLocalizedMessage());
+      }
+      // An empty marker is skipped by the writer
+      publish(sequence, null, 0, snapshot, now);
+      this.compactRequested = false;
+      this.lastCompactMillis = now;
+      if (snapshot != null) {
+        this.componentVersion = version;
+        this.lastCompactRecords = this.recordCount.get();
+      }
+    }
+  }
+
+  /**
+   * Records a parameter change. Safe to call from any thread, invoked by
+   * components for every change to one of their parameters.
+   *
+   * @param parameter Parameter that changed
+   */
+  void record(LXParameter parameter) {
+    if (!parameter.getShouldSerialize() || !parameter.getShouldJournal() || this.failure != null) {
+      return;
+    }
+    if (this.lx.engine.morph.isMorphing()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (parameter instanceof StringParameter) {
+      offer(parameter, 0, ((StringParameter) parameter).getString(), now);
+    } else if (parameter instanceof ColorParameter) {
+      offer(parameter, ((ColorParameter) parameter).getColor(), null, now);
+    } else if (parameter instanceof CompoundParameter) {
+      offer(parameter, ((CompoundParameter) parameter).getBaseValue(), null, now);
+    } else {
+      offer(parameter, parameter.getValue(), null, now);
+    }
+  }
+
+  private boolean offer(LXParameter parameter, double value, Object object, long time) {
+    long sequence = reserve();
+    if (sequence < 0) {
+      this.dropCount.incrementAndGet();
+      return false;
+    }
+    publish(sequence, parameter, value, object, time);
+    this.recordCount.incrementAndGet();
+    return true;
+  }
+
+  // Claims the next slot of the queue, returning its sequence number or -1
+  // if the queue is full. The writer waits at the slot until it is published.
+  private long reserve() {
+    long sequence;
+    do {
+      sequence = this.queueHead.get();
+      if (sequence - this.queueTail >= QUEUE_SIZE) {
+        return -1;
+      }
+    } while (!this.queueHead.compareAndSet(sequence, sequence + 1));
+    return sequence;
+  }
+
+  private void publish(long sequence, LXParameter parameter, double value, Object object, long time) {
+    int index = (int) sequence & (QUEUE_SIZE - 1);
+    this.queueParameters[index] = parameter;
+    this.queueValues[index] = value;
+    this.queueObjects[index] = object;
+    this.queueTimes[index] = time;
+    this.queuePublished.lazySet(index, sequence);
+  }
+
+  private class WriterThread extends Thread {
+
+    private volatile boolean running = true;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map<String, Integer> pathIds = new HashMap<String, Integer>();
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private long lastTime = 0;
+
+    private WriterThread() {
+      super("LXJournal Writer");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        boolean drain = true;
+        while (drain) {
+          // Check before draining, so the last pass after stop() gets everything
+          drain = running;
+          long tail = queueTail;
+          int index = (int) tail & (QUEUE_SIZE - 1);
+          if (queuePublished.get(index) != tail) {
+            flush();
+            if (drain) {
+              LockSupport.parkNanos(WRITER_PARK_NANOS);
+            }
+            continue;
+          }
+          drain = true;
+          LXParameter parameter = queueParameters[index];
+          Object object = queueObjects[index];
+          if (parameter != null) {
+            write(parameter, queueValues[index], (String) object, queueTimes[index]);
+          } else if (object != null) {
+            compact((byte[]) object);
+          }
+          queueParameters[index] = null;
+          queueObjects[index] = null;
+          queueTail = tail + 1;
+        }
+      } catch (IOException iox) {
+        failure = iox;
+        System.err.println("LXJournal writer failed, journaling stopped: " + iox.getLocalizedMessage());
+      } finally {
+        try {
+          if (this.file != null) {
+            this.file.close();
+          }
+        } catch (IOException ignored) {}
+      }
+    }
+
+    private void writeHeader() {
+      this.buffer.putInt(MAGIC);
+      this.buffer.putInt(VERSION);
+      this.pathIds.clear();
+      this.lastTime = 0;
+    }
+
+    private void compact(byte[] snapshot) throws IOException {
+      flush();
+      lx.writeProjectFile(snapshotFile, snapshot);
+      if (this.channel == null) {
+        this.file = new RandomAccessFile(journalFile, "rw");
+        this.channel = this.file.getChannel();
+      }
+      this.channel.truncate(0);
+      this.channel.position(0);
+      writeHeader();
+      flush();
+      ++compactionCount;
+    }
+
+    private void write(LXParameter parameter, double value, String string, long time) throws IOException {
+      LXComponent component = parameter.getComponent();
+      if (this.channel == null || component == null) {
+        // Nothing is written before the first compaction, which covers it
+        return;
+      }
+      if (parameter == component.label && !(component instanceof LXComponent.Renamable)) {
+        return;
+      }
+      String path = parameter.getPath();
+      Integer pathId = this.pathIds.get(path);
+      if (pathId == null) {
+        pathId = this.pathIds.size();
+        this.pathIds.put(path, pathId);
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        reserve(11 + bytes.length);
+        this.buffer.put((byte) TAG_PATH);
+        putVarint(pathId);
+        putBytes(bytes);
+      }
+      long delta = time - this.lastTime;
+      this.lastTime = time;
+      byte[] bytes = (string != null) ? string.getBytes(StandardCharsets.UTF_8) : null;
+      reserve(40 + ((bytes != null) ? bytes.length : 0));
+      this.buffer.put((byte) ((bytes != null) ? TAG_STRING : TAG_VALUE));
+      putVarint(component.getId());
+      putVarint(pathId);
+      putVarint((delta << 1) ^ (delta >> 63));
+      if (bytes != null) {
+        putBytes(bytes);
+      } else {
+        this.buffer.putDouble(value);
+      }
+    }
+
+    private void reserve(int length) throws IOException {
+      if (this.buffer.remaining() < length) {
+        flush();
+      }
+    }
+
+    private void putVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        this.buffer.put((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      this.buffer.put((byte) value);
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+      putVarint(bytes.length);
+      if (bytes.length > this.buffer.remaining()) {
+        flush();
+        this.channel.write(ByteBuffer.wrap(bytes));
+        bytesWritten += bytes.length;
+      } else {
+        this.buffer.put(bytes);
+      }
+    }
+
+    private void flush() throws IOException {
+      if (this.channel == null) {
+        return;
+      }
+      this.buffer.flip();
+      while (this.buffer.hasRemaining()) {
+        bytesWritten += this.channel.write(this.buffer);
+      }
+      this.buffer.clear();
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[(int) readVarint(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed LX journal, varint too long");
+  }
+}
@@ -23,7 +23,6 @@ package heronarts.lx;
 import heronarts.lx.color.LXColor;
 import heronarts.lx.color.LXPalette;
 import heronarts.lx.model.LXFixture;
-import heronarts.lx.model.LXPoint;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -283,10 +282,7 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
 
   @Deprecated
   protected final LXLayeredComponent blendColor(LXFixture f, int c, LXColor.Blend blendMode) {
-    int[] colors = getColors();
-    for (LXPoint p : f.getPoints()) {
-      colors[p.index] = LXColor.blend(colors[p.index], c, blendMode);
-    }
+    f.getIndexSpans().blend(getColors(), c, blendMode);
     markModified(SRGB8);
     return this;
   }
@@ -328,10 +324,7 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
    */
   @Deprecated
   protected final LXLayeredComponent addColor(LXFixture f, int c) {
-    int[] colors = getColors();
-    for (LXPoint p : f.getPoints()) {
-      colors[p.index] = LXColor.add(colors[p.index], c);
-    }
+    f.getIndexSpans().blend(getColors(), c, LXColor.Blend.ADD);
     markModified(SRGB8);
     return this;
   }
@@ -371,10 +364,7 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
    */
   @Deprecated
   protected final LXLayeredComponent setColors(int c) {
-    int[] colors = getColors();
-    for (int i = 0; i < colors.length; ++i) {
-      colors[i] = c;
-    }
+    Arrays.fill(getColors(), c);
     markModified(SRGB8);
     return this;
   }
@@ -388,10 +378,7 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
    */
   @Deprecated
   protected final LXLayeredComponent setColor(LXFixture f, int c) {
-    int[] colors = getColors();
-    for (LXPoint p : f.getPoints()) {
-      colors[p.index] = c;
-    }
+    f.getIndexSpans().fill(getColors(), c);
     markModified(SRGB8);
     return this;
   }
@@ -27,9 +27,13 @@
 package heronarts.lx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -37,10 +41,23 @@ import com.google.gson.JsonObject;
 
 import heronarts.lx.modulator.LXModulator;
 import heronarts.lx.osc.LXOscComponent;
+import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.LXCompoundModulation;
+import heronarts.lx.parameter.LXListenableParameter;
+import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXTriggerModulation;
 
+/**
+ * Runs a set of modulators and the modulations mapped from them. Modulators
+ * are evaluated in dependency order, so a modulator whose parameters are
+ * modulated by another modulator sees that modulator's value from the
+ * current frame. Modulators on the same level of the dependency graph do not
+ * depend on each other, and those which declare themselves parallel safe are
+ * computed in parallel when there are many of them. Parameter listeners and
+ * trigger modulations always fire on the engine thread. The cycle parameter
+ * is set while any modulators depend on each other in a cycle.
+ */
 public class LXModulationEngine extends LXModulatorComponent implements LXOscComponent {
 
   private final LX lx;
@@ -65,11 +82,43 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
   private final List<LXTriggerModulation> mutableTriggers = new ArrayList<LXTriggerModulation>();
   public final List<LXTriggerModulation> triggers = Collections.unmodifiableList(this.mutableTriggers);
 
+  /**
+   * Number of independent modulators on one level of the dependency graph at
+   * which they are run in parallel
+   */
+  public static final int PARALLEL_THRESHOLD = 64;
+
+  public final BooleanParameter parallel =
+    new BooleanParameter("Parallel", true)
+    .setDescription("Whether independent modulators are run in parallel when there are many of them");
+
+  public final BooleanParameter cycle =
+    new BooleanParameter("Cycle", false)
+    .setDescription("Set while modulators depend on each other in a cycle, and some see values from the previous frame");
+
+  // Modulators in dependency order, grouped into levels by levelStart. The
+  // parallel safe modulators of a level come first, up to levelParallelEnd.
+  // Any modulators in cycles are placed in a final level which is run
+  // serially.
+  private LXModulator[] order = new LXModulator[0];
+  private CompoundParameter[][] orderTargets = new CompoundParameter[0][];
+  private int[] levelStart = { 0 };
+  private int[] levelParallelEnd = { 0 };
+  private int levelCount = 0;
+  private boolean cyclic = false;
+  private boolean graphDirty = true;
+
+  // Parameter changes made by each modulator in a parallel level, by position
+  private LXListenableParameter.Deferred[] deferred = new LXListenableParameter.Deferred[0];
+
   public LXModulationEngine(LX lx, LXComponent component) {
     super(lx);
     this.lx = lx;
     this.component = component;
     setParent(component);
+    this.cycle.setShouldSerialize(false);
+    addParameter("parallel", this.parallel);
+    addParameter("cycle", this.cycle);
   }
 
   public boolean isValidTarget(CompoundParameter target) {
@@ -104,16 +153,35 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
     if (this.mutableModulations.contains(modulation)) {
       throw new IllegalStateException("Cannot add same modulation twice");
     }
+    if (isCycle(modulation.source, modulation.target)) {
+      System.err.println("Modulation " + modulation.getLabel() + " creates a cycle, modulators in the cycle will see values from the previous frame");
+      this.cycle.setValue(true);
+    }
     ((LXComponent) modulation).setParent(this);
     this.mutableModulations.add(modulation);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.modulationAdded(this, modulation);
     }
     return this;
   }
 
+  /**
+   * Resolves the modulated value of every modulation target, so that reads
+   * of those parameters for the rest of the frame are constant-time. Every
+   * modulation engine, global or owned by a device, calls this at the end of
+   * its own loop, so targets also modulated by a device pick up the device
+   * modulators' values from this frame.
+   */
+  public void snapshotModulations() {
+    for (LXCompoundModulation modulation : this.mutableModulations) {
+      modulation.target.snapshot();
+    }
+  }
+
   public LXModulationEngine removeModulation(LXCompoundModulation modulation) {
     this.mutableModulations.remove(modulation);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.modulationRemoved(this, modulation);
     }
@@ -125,8 +193,13 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
     if (this.mutableTriggers.contains(trigger)) {
       throw new IllegalStateException("Cannot add same trigger twice");
     }
+    if (isCycle(trigger.source, trigger.target)) {
+      System.err.println("Trigger " + trigger.getLabel() + " creates a cycle, modulators in the cycle will see values from the previous frame");
+      this.cycle.setValue(true);
+    }
     ((LXComponent) trigger).setParent(this);
     this.mutableTriggers.add(trigger);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.triggerAdded(this, trigger);
     }
@@ -135,6 +208,7 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
 
   public LXModulationEngine removeTrigger(LXTriggerModulation trigger) {
     this.mutableTriggers.remove(trigger);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.triggerRemoved(this, trigger);
     }
@@ -143,6 +217,7 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
   }
 
   public LXModulationEngine removeModulations(LXComponent component) {
+    this.graphDirty = true;
     Iterator<LXCompoundModulation> iterator = this.mutableModulations.iterator();
     while (iterator.hasNext()) {
       LXCompoundModulation modulation = iterator.next();
@@ -171,6 +246,7 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
   @Override
   public LXModulator addModulator(LXModulator modulator) {
     super.addModulator(modulator);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.modulatorAdded(this, modulator);
     }
@@ -181,12 +257,245 @@ public class LXModulationEngine extends LXModulatorComponent implements LXOscCom
   public LXModulator removeModulator(LXModulator modulator) {
     removeModulations(modulator);
     super.removeModulator(modulator);
+    this.graphDirty = true;
     for (Listener listener : this.listeners) {
       listener.modulatorRemoved(this, modulator);
     }
     return modulator;
   }
 
+  /**
+   * Determines whether mapping the source to the target would close a cycle
+   * of modulators. A modulator modulating its own parameters is not
+   * considered a cycle, it always sees its own previous value.
+   *
+   * @param source Modulation source
+   * @param target Modulation target
+   * @return Whether the mapping would make a modulator depend on itself
+   */
+  public boolean isCycle(LXParameter source, LXParameter target) {
+    LXModulator from = getModulatorNode(source);
+    LXModulator to = getModulatorNode(target);
+    if (from == null || to == null || from == to) {
+      return false;
+    }
+    // Search for an existing path back from the target to the source
+    List<LXModulator> stack = new ArrayList<LXModulator>();
+    Map<LXModulator, Boolean> visited = new IdentityHashMap<LXModulator, Boolean>();
+    stack.add(to);
+    while (!stack.isEmpty()) {
+      LXModulator modulator = stack.remove(stack.size() - 1);
+      if (modulator == from) {
+        return true;
+      }
+      if (visited.put(modulator, Boolean.TRUE) == null) {
+        for (LXCompoundModulation modulation : this.mutableModulations) {
+          if (getModulatorNode(modulation.source) == modulator) {
+            LXModulator next = getModulatorNode(modulation.target);
+            if (next != null) {
+              stack.add(next);
+            }
+          }
+        }
+        for (LXTriggerModulation trigger : this.mutableTriggers) {
+          if (getModulatorNode(trigger.source) == modulator) {
+            LXModulator next = getModulatorNode(trigger.target);
+            if (next != null) {
+              stack.add(next);
+            }
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether any modulators in this engine are in a cycle
+   *
+   * @return True if there are cyclic dependencies between modulators
+   */
+  public boolean hasCycles() {
+    if (this.graphDirty) {
+      buildGraph();
+    }
+    return this.cyclic;
+  }
+
+  /**
+   * Returns the modulator owned by this engine that a parameter belongs to,
+   * either the modulator itself or one of its parameters
+   */
+  private LXModulator getModulatorNode(LXParameter parameter) {
+    LXModulator modulator = null;
+    if (parameter instanceof LXModulator) {
+      modulator = (LXModulator) parameter;
+    } else if (parameter.getComponent() instanceof LXModulator) {
+      modulator = (LXModulator) parameter.getComponent();
+    }
+    return (modulator != null && modulator.getParent() == this) ? modulator : null;
+  }
+
+  private void buildGraph() {
+    int size = this.modulators.size();
+    Map<LXModulator, Integer> index = new IdentityHashMap<LXModulator, Integer>();
+    List<List<Integer>> edges = new ArrayList<List<Integer>>(size);
+    List<List<CompoundParameter>> targets = new ArrayList<List<CompoundParameter>>(size);
+    for (int i = 0; i < size; ++i) {
+      index.put(this.modulators.get(i), i);
+      edges.add(new ArrayList<Integer>());
+      targets.add(new ArrayList<CompoundParameter>());
+    }
+    int[] inDegree = new int[size];
+    for (LXCompoundModulation modulation : this.mutableModulations) {
+      LXModulator from = getModulatorNode(modulation.source);
+      LXModulator to = getModulatorNode(modulation.target);
+      if (from != null && to != null) {
+        int i = index.get(from);
+        targets.get(i).add(modulation.target);
+        if (from != to) {
+          int j = index.get(to);
+          edges.get(i).add(j);
+          ++inDegree[j];
+        }
+      }
+    }
+    for (LXTriggerModulation trigger : this.mutableTriggers) {
+      LXModulator from = getModulatorNode(trigger.source);
+      LXModulator to = getModulatorNode(trigger.target);
+      if (from != null && to != null && from != to) {
+        int j = index.get(to);
+        edges.get(index.get(from)).add(j);
+        ++inDegree[j];
+      }
+    }
+
+    // Peel off levels of modulators whose dependencies are all satisfied
+    LXModulator[] order = new LXModulator[size];
+    CompoundParameter[][] orderTargets = new CompoundParameter[size][];
+    int[] levelStart = new int[size + 2];
+    int[] levelParallelEnd = new int[size + 1];
+    boolean[] placed = new boolean[size];
+    int levelCount = 0;
+    int count = 0;
+    List<Integer> current = new ArrayList<Integer>();
+    for (int i = 0; i < size; ++i) {
+      if (inDegree[i] == 0) {
+        current.add(i);
+      }
+    }
+    while (!current.isEmpty()) {
+      levelStart[levelCount] = count;
+      List<Integer> next = new ArrayList<Integer>();
+      for (int pass = 0; pass < 2; ++pass) {
+        for (int i : current) {
+          if (this.modulators.get(i).isParallelSafe() != (pass == 0)) {
+            continue;
+          }
+          placed[i] = true;
+          order[count] = this.modulators.get(i);
+          orderTargets[count] = targets.get(i).toArray(new CompoundParameter[0]);
+          ++count;
+          for (int j : edges.get(i)) {
+            if (--inDegree[j] == 0) {
+              next.add(j);
+            }
+          }
+        }
+        if (pass == 0) {
+          levelParallelEnd[levelCount] = count;
+        }
+      }
+      ++levelCount;
+      Collections.sort(next);
+      current = next;
+    }
+
+    // Anything left over is in or downstream of a cycle, keep list order
+    this.cyclic = count < size;
+    if (this.cyclic) {
+      levelParallelEnd[levelCount] = count;
+      levelStart[levelCount++] = count;
+      for (int i = 0; i < size; ++i) {
+        if (!placed[i]) {
+          order[count] = this.modulators.get(i);
+          orderTargets[count] = targets.get(i).toArray(new CompoundParameter[0]);
+          ++count;
+        }
+      }
+    }
+    levelStart[levelCount] = count;
+
+    this.order = order;
+    this.orderTargets = orderTargets;
+    this.levelStart = levelStart;
+    this.levelParallelEnd = levelParallelEnd;
+    this.levelCount = levelCount;
+    this.graphDirty = false;
+    if (this.cycle.isOn() != this.cyclic) {
+      this.cycle.setValue(this.cyclic);
+    }
+  }
+
+  @Override
+  public void loop(double deltaMs) {
+    long loopStart = System.nanoTime();
+    if (this.graphDirty) {
+      buildGraph();
+    }
+    final LXModulator[] order = this.order;
+    boolean parallel = this.parallel.isOn();
+    for (int level = 0; level < this.levelCount; ++level) {
+      int start = this.levelStart[level];
+      int end = this.levelStart[level + 1];
+      int parallelEnd = this.levelParallelEnd[level];
+      if (parallel && (parallelEnd - start >= PARALLEL_THRESHOLD)) {
+        // Only parallel safe modulator values are computed in parallel.
+        // Parameter changes made by the modulators are held back and applied
+        // here, so that listeners and trigger modulations fire on the engine
+        // thread.
+        final LXListenableParameter.Deferred[] deferred = getDeferred(parallelEnd);
+        IntStream.range(start, parallelEnd).parallel().forEach(i -> {
+          LXListenableParameter.deferSetValues(deferred[i]);
+          try {
+            loopModulator(order[i], deltaMs);
+          } finally {
+            LXListenableParameter.deferSetValues(null);
+          }
+        });
+        for (int i = start; i < parallelEnd; ++i) {
+          deferred[i].apply();
+          snapshotTargets(i);
+        }
+        start = parallelEnd;
+      }
+      for (int i = start; i < end; ++i) {
+        loopModulator(order[i], deltaMs);
+        snapshotTargets(i);
+      }
+    }
+    snapshotModulations();
+    this.timer.loopNanos = System.nanoTime() - loopStart;
+  }
+
+  private LXListenableParameter.Deferred[] getDeferred(int size) {
+    if (this.deferred.length < size) {
+      LXListenableParameter.Deferred[] deferred = Arrays.copyOf(this.deferred, size);
+      for (int i = this.deferred.length; i < size; ++i) {
+        deferred[i] = new LXListenableParameter.Deferred();
+      }
+      this.deferred = deferred;
+    }
+    return this.deferred;
+  }
+
+  // Modulated parameters of downstream modulators pick up this frame's value
+  private void snapshotTargets(int i) {
+    for (CompoundParameter target : this.orderTargets[i]) {
+      target.snapshot();
+    }
+  }
+
   @Override
   public void dispose() {
     for (LXCompoundModulation modulation : this.mutableModulations) {
@@ -97,9 +97,23 @@ public abstract class LXModulatorComponent extends LXComponent implements LXLoop
 
   @Override
   public void loop(double deltaMs) {
+    long loopStart = System.nanoTime();
     for (LXModulator modulator : this.mutableModulators) {
-      modulator.loop(deltaMs);
+      loopModulator(modulator, deltaMs);
     }
+    this.timer.loopNanos = System.nanoTime() - loopStart;
+  }
+
+  /**
+   * Runs a single modulator and records its loop time.
+   *
+   * @param modulator Modulator
+   * @param deltaMs Milliseconds elapsed
+   */
+  protected final void loopModulator(LXModulator modulator, double deltaMs) {
+    long loopStart = System.nanoTime();
+    modulator.loop(deltaMs);
+    modulator.timer.loopNanos = System.nanoTime() - loopStart;
   }
 
 }
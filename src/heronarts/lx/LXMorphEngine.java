@@ -0,0 +1,471 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import heronarts.lx.color.ColorParameter;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures the base values of a set of parameters into snapshots, and
+ * recalls or morphs between them. Each included parameter gets a stable
+ * index, and a snapshot is a plain double array over those indices. That makes
+ * capture and recall a single pass with no allocation. Morphing blends the
+ * arrays in tight loops the JIT can vectorize, then sets only the parameters
+ * whose value changed, each once. Coalesced listeners therefore hear about
+ * each changed parameter once per frame.
+ *
+ * Continuous parameters are interpolated. Discrete and boolean parameters
+ * take their value from the most heavily weighted snapshot.
+ *
+ * While enabled, the engine morphs every frame across its target snapshots,
+ * according to the position parameter. Everything here should be called on
+ * the engine thread.
+ */
+public class LXMorphEngine extends LXComponent {
+
+  /**
+   * Base values of every included parameter, by index
+   */
+  public class Snapshot {
+    private double[] values;
+
+    private Snapshot() {
+      this.values = new double[parameters.length];
+      for (int i = 0; i < size; ++i) {
+        if (parameters[i] != null) {
+          this.values[i] = getBaseValue(parameters[i]);
+        }
+      }
+    }
+
+    /**
+     * Value captured for a parameter
+     *
+     * @param parameter Parameter
+     * @return Captured base value
+     */
+    public double getValue(LXParameter parameter) {
+      Integer index = indices.get(parameter);
+      if (index == null) {
+        throw new IllegalArgumentException("Parameter is not included in morph engine: " + parameter);
+      }
+      return this.values[index];
+    }
+  }
+
+  public final BooleanParameter enabled =
+    new BooleanParameter("Enabled", false)
+    .setDescription("Whether the morph across the target snapshots is applied every frame");
+
+  public final CompoundParameter position =
+    new CompoundParameter("Position", 0)
+    .setDescription("Position of the morph across the target snapshots, from the first to the last");
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private LXParameter[] parameters = new LXParameter[INITIAL_CAPACITY];
+  private boolean[] discrete = new boolean[INITIAL_CAPACITY];
+  private double[] output = new double[INITIAL_CAPACITY];
+  private int size = 0;
+  private final Map<LXParameter, Integer> indices = new IdentityHashMap<LXParameter, Integer>();
+  private final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+
+  private Snapshot[] targets = new Snapshot[0];
+
+  private int lastChanged = 0;
+
+  private volatile Thread morphingThread = null;
+
+  public LXMorphEngine(LX lx) {
+    super(lx, "Morph");
+    addParameter("enabled", this.enabled);
+    addParameter("position", this.position);
+  }
+
+  private static boolean isMorphable(LXParameter parameter) {
+    if (parameter instanceof BooleanParameter) {
+      return ((BooleanParameter) parameter).getMode() != BooleanParameter.Mode.MOMENTARY;
+    }
+    return !(parameter instanceof StringParameter) && !(parameter instanceof ColorParameter);
+  }
+
+  private static boolean isContinuous(LXParameter parameter) {
+    return (parameter instanceof BoundedParameter) && !(parameter instanceof DiscreteParameter);
+  }
+
+  private static double getBaseValue(LXParameter parameter) {
+    if (parameter instanceof CompoundParameter) {
+      return ((CompoundParameter) parameter).getBaseValue();
+    }
+    return parameter.getValue();
+  }
+
+  /**
+   * Includes a parameter in the morph engine. String, color and momentary
+   * parameters cannot be morphed; a color is morphed through its hue,
+   * saturation and brightness parameters instead. Existing snapshots hold
+   * the parameter's current value.
+   *
+   * @param parameter Parameter
+   * @return Stable index of the parameter
+   */
+  public int include(LXParameter parameter) {
+    if (!isMorphable(parameter)) {
+      throw new IllegalArgumentException("Cannot morph parameter: " + parameter);
+    }
+    Integer existing = this.indices.get(parameter);
+    if (existing != null) {
+      return existing;
+    }
+    if (this.size == this.parameters.length) {
+      grow(this.size * 2);
+    }
+    int index = this.size++;
+    this.parameters[index] = parameter;
+    this.discrete[index] = (parameter instanceof DiscreteParameter) || (parameter instanceof BooleanParameter);
+    this.indices.put(parameter, index);
+    double value = getBaseValue(parameter);
+    for (Snapshot snapshot : this.snapshots) {
+      snapshot.values[index] = value;
+    }
+    return index;
+  }
+
+  /**
+   * Includes every serialized, continuous parameter of a component. Discrete
+   * and boolean parameters must be included individually.
+   *
+   * @param component Component
+   * @return this
+   */
+  public LXMorphEngine include(LXComponent component) {
+    for (LXParameter parameter : component.getParameters()) {
+      if (parameter.getShouldSerialize() && isContinuous(parameter)) {
+        include(parameter);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Includes the continuous parameters of the project content: the channels
+   * and master channel with their patterns and effects, the modulators and
+   * the crossfader. Engine, OSC and output settings are left out.
+   *
+   * @return this
+   */
+  public LXMorphEngine includeAll() {
+    LXEngine engine = getLX().engine;
+    for (LXChannel channel : engine.getChannels()) {
+      include(channel);
+      for (LXPattern pattern : channel.getPatterns()) {
+        includeDevice(pattern);
+      }
+      includeEffects(channel);
+    }
+    include(engine.masterChannel);
+    includeEffects(engine.masterChannel);
+    includeModulators(engine.modulation);
+    include(engine.crossfader);
+    return this;
+  }
+
+  private void includeEffects(LXBus bus) {
+    for (LXEffect effect : bus.getEffects()) {
+      includeDevice(effect);
+    }
+  }
+
+  private void includeDevice(LXDeviceComponent device) {
+    include(device);
+    includeModulators(device.modulation);
+  }
+
+  private void includeModulators(LXModulationEngine modulation) {
+    for (LXModulator modulator : modulation.modulators) {
+      include((LXComponent) modulator);
+    }
+  }
+
+  /**
+   * Removes a parameter from the morph engine. Its index is not reused, so
+   * the indices of other parameters are unaffected.
+   *
+   * @param parameter Parameter
+   * @return this
+   */
+  public LXMorphEngine exclude(LXParameter parameter) {
+    Integer index = this.indices.remove(parameter);
+    if (index != null) {
+      this.parameters[index] = null;
+    }
+    return this;
+  }
+
+  /**
+   * Removes every parameter of a component from the morph engine. This
+   * happens automatically when the component is disposed.
+   *
+   * @param component Component
+   * @return this
+   */
+  public LXMorphEngine exclude(LXComponent component) {
+    for (LXParameter parameter : component.getParameters()) {
+      exclude(parameter);
+    }
+    return this;
+  }
+
+  /**
+   * Whether a parameter is included in the morph engine
+   *
+   * @param parameter Parameter
+   * @return true if snapshots capture the parameter
+   */
+  public boolean isIncluded(LXParameter parameter) {
+    return this.indices.containsKey(parameter);
+  }
+
+  private void grow(int capacity) {
+    LXParameter[] parameters = new LXParameter[capacity];
+    boolean[] discrete = new boolean[capacity];
+    System.arraycopy(this.parameters, 0, parameters, 0, this.size);
+    System.arraycopy(this.discrete, 0, discrete, 0, this.size);
+    this.parameters = parameters;
+    this.discrete = discrete;
+    this.output = new double[capacity];
+    for (Snapshot snapshot : this.snapshots) {
+      double[] values = new double[capacity];
+      System.arraycopy(snapshot.values, 0, values, 0, this.size);
+      snapshot.values = values;
+    }
+  }
+
+  /**
+   * Number of parameter indices in use, including excluded parameters
+   *
+   * @return Number of indices
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Number of parameters changed by the last recall or morph
+   *
+   * @return Parameters changed
+   */
+  public int getLastChanged() {
+    return this.lastChanged;
+  }
+
+  /**
+   * Creates a new snapshot holding the current base values
+   *
+   * @return Snapshot
+   */
+  public Snapshot capture() {
+    Snapshot snapshot = new Snapshot();
+    this.snapshots.add(snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Overwrites a snapshot with the current base values
+   *
+   * @param snapshot Snapshot to overwrite
+   * @return this
+   */
+  public LXMorphEngine capture(Snapshot snapshot) {
+    double[] values = snapshot.values;
+    for (int i = 0; i < this.size; ++i) {
+      LXParameter parameter = this.parameters[i];
+      if (parameter != null) {
+        values[i] = getBaseValue(parameter);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Discards a snapshot, which stops it being resized as parameters are
+   * included. It is also removed from the targets.
+   *
+   * @param snapshot Snapshot
+   * @return this
+   */
+  public LXMorphEngine removeSnapshot(Snapshot snapshot) {
+    this.snapshots.remove(snapshot);
+    List<Snapshot> targets = new ArrayList<Snapshot>();
+    for (Snapshot target : this.targets) {
+      if (target != snapshot) {
+        targets.add(target);
+      }
+    }
+    this.targets = targets.toArray(new Snapshot[0]);
+    return this;
+  }
+
+  /**
+   * Sets every included parameter to its value in the snapshot
+   *
+   * @param snapshot Snapshot
+   * @return this
+   */
+  public LXMorphEngine recall(Snapshot snapshot) {
+    System.arraycopy(snapshot.values, 0, this.output, 0, this.size);
+    apply();
+    return this;
+  }
+
+  /**
+   * Sets every included parameter part way between two snapshots
+   *
+   * @param from Snapshot at amount 0
+   * @param to Snapshot at amount 1
+   * @param amount Amount of the way from the first to the second
+   * @return this
+   */
+  public LXMorphEngine morph(Snapshot from, Snapshot to, double amount) {
+    double[] a = from.values;
+    double[] b = to.values;
+    double[] output = this.output;
+    int size = this.size;
+    for (int i = 0; i < size; ++i) {
+      output[i] = a[i] + (b[i] - a[i]) * amount;
+    }
+    Snapshot nearest = (amount < .5) ? from : to;
+    for (int i = 0; i < size; ++i) {
+      if (this.discrete[i]) {
+        output[i] = nearest.values[i];
+      }
+    }
+    apply();
+    return this;
+  }
+
+  /**
+   * Sets every included parameter to a weighted blend of snapshots. Weights
+   * should sum to 1.
+   *
+   * @param snapshots Snapshots
+   * @param weights Weight of each snapshot
+   * @return this
+   */
+  public LXMorphEngine morph(Snapshot[] snapshots, double[] weights) {
+    if (snapshots.length != weights.length) {
+      throw new IllegalArgumentException("Morph needs a weight for every snapshot");
+    }
+    if (snapshots.length == 0) {
+      return this;
+    }
+    double[] output = this.output;
+    int size = this.size;
+    int heaviest = 0;
+    for (int i = 0; i < size; ++i) {
+      output[i] = 0;
+    }
+    for (int s = 0; s < snapshots.length; ++s) {
+      double weight = weights[s];
+      if (weight > weights[heaviest]) {
+        heaviest = s;
+      }
+      if (weight == 0) {
+        continue;
+      }
+      double[] values = snapshots[s].values;
+      for (int i = 0; i < size; ++i) {
+        output[i] += values[i] * weight;
+      }
+    }
+    double[] nearest = snapshots[heaviest].values;
+    for (int i = 0; i < size; ++i) {
+      if (this.discrete[i]) {
+        output[i] = nearest[i];
+      }
+    }
+    apply();
+    return this;
+  }
+
+  private void apply() {
+    int changed = 0;
+    for (int i = 0; i < this.size; ++i) {
+      LXParameter parameter = this.parameters[i];
+      if (parameter != null && getBaseValue(parameter) != this.output[i]) {
+        parameter.setValue(this.output[i]);
+        ++changed;
+      }
+    }
+    this.lastChanged = changed;
+  }
+
+  /**
+   * Sets the snapshots which the position parameter morphs across while the
+   * engine is enabled
+   *
+   * @param targets Snapshots, from position 0 to position 1
+   * @return this
+   */
+  public LXMorphEngine setTargets(Snapshot ... targets) {
+    this.targets = targets.clone();
+    return this;
+  }
+
+  /**
+   * Whether the calling thread is inside the per-frame morph. Those changes
+   * follow from the position and targets, so the journal does not record them.
+   *
+   * @return Whether the engine is morphing on this thread
+   */
+  public boolean isMorphing() {
+    return Thread.currentThread() == this.morphingThread;
+  }
+
+  void loop(double deltaMs) {
+    if (!this.enabled.isOn() || this.targets.length == 0) {
+      return;
+    }
+    this.morphingThread = Thread.currentThread();
+    try {
+      if (this.targets.length == 1) {
+        recall(this.targets[0]);
+      } else {
+        double scaled = this.position.getValue() * (this.targets.length - 1);
+        int from = Math.min((int) scaled, this.targets.length - 2);
+        morph(this.targets[from], this.targets[from + 1], scaled - from);
+      }
+    } finally {
+      this.morphingThread = null;
+    }
+  }
+}
@@ -30,11 +30,16 @@ import heronarts.lx.midi.MidiNote;
 import heronarts.lx.midi.MidiNoteOn;
 import heronarts.lx.midi.MidiPitchBend;
 import heronarts.lx.midi.MidiProgramChange;
+import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
+import heronarts.lx.model.LXProxyModel;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.MetricParameter;
 import heronarts.lx.transform.LXVector;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -58,8 +63,43 @@ public abstract class LXPattern extends LXBusComponent implements LXComponent.Re
   protected int[] colors = null;
 
   public final BooleanParameter autoCycleEligible = new BooleanParameter("Cycle", true);
+  /**
+   * Level-of-detail reduction for this pattern. When non-zero the pattern
+   * renders a proxy of the model with roughly half as many points per level,
+   * and the result is expanded to every point. Zero follows the channel.
+   */
+  public final DiscreteParameter lod =
+    new DiscreteParameter("LOD", 0, 0, LXProxyModel.MAX_LEVEL + 1)
+    .setDescription("Level of detail reduction, each level halves the points rendered, 0 follows the channel");
+
+  public final BooleanParameter lodBlend =
+    new BooleanParameter("LOD Blend", false)
+    .setDescription("Expand level-of-detail rendering by blending nearby points rather than copying the nearest");
+
+  public final MetricParameter lodPoints =
+    new MetricParameter("LOD Points")
+    .setDescription("Number of points rendered by this pattern");
+
+  public final MetricParameter lodExpandTime =
+    new MetricParameter("LOD Expand")
+    .setDescription("Time spent expanding level-of-detail output to every point (ms)");
+
+  public final MetricParameter lodTimeSaved =
+    new MetricParameter("LOD Saved")
+    .setDescription("Estimated render time saved per frame by level-of-detail rendering (ms)");
+
   public final Timer timer = new Timer();
 
+  // Proxy being rendered, only set during run()
+  private LXProxyModel lodProxy = null;
+  private LXProxyModel lodVectorProxy = null;
+  private LXVector[] lodVectors = null;
+  private final List<LXVector> lodVectorList = new ArrayList<LXVector>();
+  private boolean lodVectorListValid = false;
+
+  // Smoothed full-resolution run time, negative until measured
+  private double fullRunNanos = -1;
+
   /**
    * Subclasses may declare their own group name by defining a static
    * String field named GROUP_NAME. It is used to determine which group
@@ -205,10 +245,109 @@ public abstract class LXPattern extends LXBusComponent implements LXComponent.Re
   protected final void onLoop(double deltaMs) {
     long runStart = System.nanoTime();
     this.runMs += deltaMs;
-    this.run(deltaMs, preferredSpace);
+    int level = getLodLevel();
+    if (level > 0 && this.model.size > 0) {
+      runProxy(deltaMs, level, runStart);
+    } else {
+      this.run(deltaMs, preferredSpace);
+      long runNanos = System.nanoTime() - runStart;
+      this.fullRunNanos = (this.fullRunNanos < 0) ? runNanos : (.9 * this.fullRunNanos + .1 * runNanos);
+      this.lodPoints.update(this.model.size);
+      this.lodExpandTime.update(0);
+      this.lodTimeSaved.update(0);
+    }
     this.timer.runNanos = System.nanoTime() - runStart;
   }
 
+  /**
+   * Gets the level-of-detail reduction in effect, from this pattern or else
+   * from its channel
+   *
+   * @return Level of detail reduction, 0 for full resolution
+   */
+  public int getLodLevel() {
+    int level = this.lod.getValuei();
+    if (level == 0) {
+      LXChannel channel = getChannel();
+      if (channel != null) {
+        level = channel.lod.getValuei();
+      }
+    }
+    return level;
+  }
+
+  private void runProxy(double deltaMs, int level, long runStart) {
+    LXModel fullModel = this.model;
+    LXProxyModel proxy = fullModel.getProxyModel(level);
+    this.model = proxy;
+    this.vectorModel = fullModel;
+    this.lodProxy = proxy;
+    this.lodVectorListValid = false;
+    try {
+      this.run(deltaMs, preferredSpace);
+    } finally {
+      this.model = fullModel;
+      this.vectorModel = null;
+      this.lodProxy = null;
+    }
+    long expandStart = System.nanoTime();
+    PolyBuffer.Space space = this.polyBuffer.getBestFreshSpace();
+    if (space != null) {
+      proxy.expand(getArray(space), this.lodBlend.isOn());
+    }
+    long end = System.nanoTime();
+
+    // Without a full-resolution measurement, assume run time scales with points
+    long runNanos = expandStart - runStart;
+    double fullNanos = (this.fullRunNanos < 0) ? runNanos / proxy.getReduction() : this.fullRunNanos;
+    this.lodPoints.update(proxy.size);
+    this.lodExpandTime.update((end - expandStart) / 1000000.);
+    this.lodTimeSaved.update((fullNanos - (end - runStart)) / 1000000.);
+  }
+
+  @Override
+  protected LXVector[] getVectorArray() {
+    LXVector[] vectors = super.getVectorArray();
+    LXProxyModel proxy = this.lodProxy;
+    if (proxy == null) {
+      return vectors;
+    }
+    if (this.lodVectors == null || this.lodVectors.length != vectors.length) {
+      this.lodVectors = new LXVector[vectors.length];
+      this.lodVectorProxy = null;
+    }
+    if (this.lodVectorProxy != proxy) {
+      Arrays.fill(this.lodVectors, null);
+      this.lodVectorProxy = proxy;
+    }
+    for (LXPoint p : proxy.points) {
+      this.lodVectors[p.index] = vectors[p.index];
+    }
+    return this.lodVectors;
+  }
+
+  @Override
+  protected Iterable<LXVector> getVectors() {
+    LXProxyModel proxy = this.lodProxy;
+    return (proxy == null) ? super.getVectors() : getVectors(proxy.points);
+  }
+
+  @Override
+  protected List<LXVector> getVectorList() {
+    LXProxyModel proxy = this.lodProxy;
+    if (proxy == null) {
+      return super.getVectorList();
+    }
+    if (!this.lodVectorListValid) {
+      this.lodVectorList.clear();
+      for (LXVector v : getVectors(proxy.points)) {
+        this.lodVectorList.add(v);
+      }
+      this.lodVectorListValid = true;
+    }
+    return this.lodVectorList;
+  }
+
   /**
    * Old-style subclasses override this method to implement the pattern
    * by writing colors into the "colors" array.  New-style subclasses
@@ -314,11 +453,20 @@ public abstract class LXPattern extends LXBusComponent implements LXComponent.Re
   }
 
   private static final String KEY_AUTO_CYCLE = "autoCycleEnabled";
+  private static final String KEY_LOD = "lod";
+  private static final String KEY_LOD_BLEND = "lodBlend";
 
   @Override
   public void save(LX lx, JsonObject obj) {
     super.save(lx, obj);
     obj.addProperty(KEY_AUTO_CYCLE, this.autoCycleEligible.isOn());
+    if (this.lod.getValuei() > 0) {
+      obj.addProperty(KEY_LOD, this.lod.getValuei());
+    }
+    // Blend also applies when the level comes from the channel
+    if (this.lodBlend.isOn()) {
+      obj.addProperty(KEY_LOD_BLEND, true);
+    }
   }
 
   @Override
@@ -327,6 +475,12 @@ public abstract class LXPattern extends LXBusComponent implements LXComponent.Re
     if (obj.has(KEY_AUTO_CYCLE)) {
       this.autoCycleEligible.setValue(obj.get(KEY_AUTO_CYCLE).getAsBoolean());
     }
+    if (obj.has(KEY_LOD)) {
+      this.lod.setValue(obj.get(KEY_LOD).getAsInt());
+    }
+    if (obj.has(KEY_LOD_BLEND)) {
+      this.lodBlend.setValue(obj.get(KEY_LOD_BLEND).getAsBoolean());
+    }
   }
 
   /**
@@ -20,11 +20,18 @@
 
 package heronarts.lx;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public interface LXSerializable {
   public void save(LX lx, JsonObject object);
@@ -32,6 +39,8 @@ public interface LXSerializable {
 
   public static class Utils {
 
+    private static final Gson GSON = new Gson();
+
     public static JsonObject toObject(LX lx, LXSerializable serializable) {
       JsonObject obj = new JsonObject();
       serializable.save(lx,  obj);
@@ -63,6 +72,127 @@ public interface LXSerializable {
       }
       return arr;
     }
+
+    /**
+     * Saves a serializable and streams it out as the next value of the writer
+     *
+     * @param lx LX instance
+     * @param writer Writer
+     * @param serializable Object to save
+     * @throws IOException if the writer fails
+     */
+    public static void write(LX lx, JsonWriter writer, LXSerializable serializable) throws IOException {
+      write(writer, toObject(lx, serializable));
+    }
+
+    /**
+     * Streams an element out as the next value of the writer
+     *
+     * @param writer Writer
+     * @param element Element
+     * @throws IOException if the writer fails
+     */
+    public static void write(JsonWriter writer, JsonElement element) throws IOException {
+      try {
+        GSON.toJson(element, writer);
+      } catch (JsonIOException jiox) {
+        throw new IOException(jiox.getMessage(), jiox.getCause());
+      }
+    }
+
+    /**
+     * Streams the members of an object out as members of the object currently
+     * being written
+     *
+     * @param writer Writer
+     * @param obj Object whose members to write
+     * @throws IOException if the writer fails
+     */
+    public static void writeMembers(JsonWriter writer, JsonObject obj) throws IOException {
+      for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+        writer.name(entry.getKey());
+        write(writer, entry.getValue());
+      }
+    }
+
+    /**
+     * Copies the next value of the reader to the writer token by token,
+     * without building a tree
+     *
+     * @param reader Reader
+     * @param writer Writer
+     * @throws IOException if the reader or writer fails
+     */
+    public static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+      int depth = 0;
+      do {
+        JsonToken token = reader.peek();
+        switch (token) {
+        case BEGIN_OBJECT:
+          reader.beginObject();
+          writer.beginObject();
+          ++depth;
+          break;
+        case END_OBJECT:
+          reader.endObject();
+          writer.endObject();
+          --depth;
+          break;
+        case BEGIN_ARRAY:
+          reader.beginArray();
+          writer.beginArray();
+          ++depth;
+          break;
+        case END_ARRAY:
+          reader.endArray();
+          writer.endArray();
+          --depth;
+          break;
+        case NAME:
+          writer.name(reader.nextName());
+          break;
+        case STRING:
+          writer.value(reader.nextString());
+          break;
+        case NUMBER:
+          writer.value(toNumber(reader.nextString()));
+          break;
+        case BOOLEAN:
+          writer.value(reader.nextBoolean());
+          break;
+        case NULL:
+          reader.nextNull();
+          writer.nullValue();
+          break;
+        default:
+          throw new IOException("Unexpected " + token + " copying " + reader);
+        }
+      } while (depth > 0);
+    }
+
+    private static Number toNumber(String literal) {
+      if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+        try {
+          return Long.valueOf(literal);
+        } catch (NumberFormatException nfx) {}
+      }
+      return Double.valueOf(literal);
+    }
+
+    /**
+     * Reads the next value of the reader as a tree
+     *
+     * @param reader Reader
+     * @return Element read
+     * @throws IOException if the reader fails
+     */
+    public static JsonElement read(JsonReader reader) throws IOException {
+      try {
+        return GSON.fromJson(reader, JsonElement.class);
+      } catch (JsonIOException jiox) {
+        throw new IOException(jiox.getMessage(), jiox.getCause());
+      }
+    }
   }
 
 }
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import static heronarts.lx.LXSnapshotWriter.*;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads a project written by LXSnapshotWriter, presenting it through the
+ * JsonReader interface so that it loads through the same path as a JSON
+ * project file.
+ */
+public class LXSnapshotReader extends JsonReader {
+
+  private static final int TAG_NONE = -1;
+  private static final int TAG_END_DOCUMENT = 0;
+
+  // The superclass insists on a character stream, which is never touched
+  private static final Reader NO_READER = new Reader() {
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      throw new UnsupportedOperationException("LXSnapshotReader does not read text");
+    }
+
+    @Override
+    public void close() {}
+  };
+
+  private final DataInputStream in;
+  private final List<String> strings = new ArrayList<String>();
+  private int peeked = TAG_NONE;
+
+  public LXSnapshotReader(InputStream in) throws IOException {
+    super(NO_READER);
+    this.in = new DataInputStream(in);
+    if (this.in.readInt() != MAGIC) {
+      throw new IOException("Not an LX project snapshot");
+    }
+    int version = this.in.readInt();
+    if (version > VERSION) {
+      throw new IOException("Unsupported LX project snapshot version: " + version);
+    }
+  }
+
+  /**
+   * Checks whether a stream begins with the snapshot header. The stream must
+   * support mark and reset, and is left where it was.
+   *
+   * @param in Input stream
+   * @return Whether the stream holds a project snapshot
+   * @throws IOException if the stream cannot be read
+   */
+  public static boolean isSnapshot(InputStream in) throws IOException {
+    in.mark(4);
+    int magic = 0;
+    for (int i = 0; i < 4; ++i) {
+      int b = in.read();
+      if (b < 0) {
+        in.reset();
+        return false;
+      }
+      magic = (magic << 8) | b;
+    }
+    in.reset();
+    return magic == MAGIC;
+  }
+
+  private int peekTag() throws IOException {
+    if (this.peeked == TAG_NONE) {
+      int tag = this.in.read();
+      this.peeked = (tag < 0) ? TAG_END_DOCUMENT : tag;
+    }
+    return this.peeked;
+  }
+
+  private void consume(int tag) throws IOException {
+    if (peekTag() != tag) {
+      throw new IllegalStateException("Expected " + toToken(tag) + " but was " + peek());
+    }
+    this.peeked = TAG_NONE;
+  }
+
+  private static JsonToken toToken(int tag) throws IOException {
+    switch (tag) {
+    case TAG_BEGIN_OBJECT: return JsonToken.BEGIN_OBJECT;
+    case TAG_END_OBJECT: return JsonToken.END_OBJECT;
+    case TAG_BEGIN_ARRAY: return JsonToken.BEGIN_ARRAY;
+    case TAG_END_ARRAY: return JsonToken.END_ARRAY;
+    case TAG_NAME: return JsonToken.NAME;
+    case TAG_STRING: return JsonToken.STRING;
+    case TAG_LONG:
+    case TAG_DOUBLE: return JsonToken.NUMBER;
+    case TAG_TRUE:
+    case TAG_FALSE: return JsonToken.BOOLEAN;
+    case TAG_NULL: return JsonToken.NULL;
+    case TAG_END_DOCUMENT: return JsonToken.END_DOCUMENT;
+    }
+    throw new IOException("Malformed LX project snapshot, unknown tag: " + tag);
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    return toToken(peekTag());
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    int tag = peekTag();
+    return (tag != TAG_END_OBJECT) && (tag != TAG_END_ARRAY) && (tag != TAG_END_DOCUMENT);
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    consume(TAG_BEGIN_OBJECT);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    consume(TAG_END_OBJECT);
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    consume(TAG_BEGIN_ARRAY);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    consume(TAG_END_ARRAY);
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    consume(TAG_NAME);
+    return readString();
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    switch (peekTag()) {
+    case TAG_STRING:
+      consume(TAG_STRING);
+      return readString();
+    case TAG_LONG:
+      return Long.toString(nextLong());
+    case TAG_DOUBLE:
+      return Double.toString(nextDouble());
+    }
+    throw new IllegalStateException("Expected a string but was " + peek());
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    int tag = peekTag();
+    if (tag == TAG_TRUE || tag == TAG_FALSE) {
+      this.peeked = TAG_NONE;
+      return tag == TAG_TRUE;
+    }
+    throw new IllegalStateException("Expected a boolean but was " + peek());
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    consume(TAG_NULL);
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    switch (peekTag()) {
+    case TAG_DOUBLE:
+      this.peeked = TAG_NONE;
+      return this.in.readDouble();
+    case TAG_LONG:
+      return nextLong();
+    case TAG_STRING:
+      return Double.parseDouble(nextString());
+    }
+    throw new IllegalStateException("Expected a double but was " + peek());
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    switch (peekTag()) {
+    case TAG_LONG:
+      this.peeked = TAG_NONE;
+      long zigzag = readVarint();
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    case TAG_DOUBLE:
+      double value = nextDouble();
+      if (value != (long) value) {
+        throw new NumberFormatException("Expected a long but was " + value);
+      }
+      return (long) value;
+    case TAG_STRING:
+      return Long.parseLong(nextString());
+    }
+    throw new IllegalStateException("Expected a long but was " + peek());
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    if (value != (int) value) {
+      throw new NumberFormatException("Expected an int but was " + value);
+    }
+    return (int) value;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      switch (peekTag()) {
+      case TAG_BEGIN_OBJECT:
+      case TAG_BEGIN_ARRAY:
+        this.peeked = TAG_NONE;
+        ++depth;
+        break;
+      case TAG_END_OBJECT:
+      case TAG_END_ARRAY:
+        this.peeked = TAG_NONE;
+        --depth;
+        break;
+      case TAG_NAME:
+        // Names must still be read to keep the string table in sync
+        nextName();
+        if (depth == 0) {
+          skipValue();
+          return;
+        }
+        break;
+      case TAG_STRING:
+        nextString();
+        break;
+      case TAG_LONG:
+      case TAG_DOUBLE:
+        nextDouble();
+        break;
+      case TAG_TRUE:
+      case TAG_FALSE:
+      case TAG_NULL:
+        this.peeked = TAG_NONE;
+        break;
+      default:
+        throw new IOException("Unexpected " + peek() + " in LX project snapshot");
+      }
+    } while (depth > 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.peeked = TAG_NONE;
+    this.in.close();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+
+  private String readString() throws IOException {
+    int index = (int) readVarint();
+    if (index > 0) {
+      if (index > this.strings.size()) {
+        throw new IOException("Malformed LX project snapshot, bad string index: " + index);
+      }
+      return this.strings.get(index - 1);
+    }
+    int length = (int) readVarint();
+    byte[] bytes = new byte[length];
+    this.in.readFully(bytes);
+    String value = new String(bytes, StandardCharsets.UTF_8);
+    this.strings.add(value);
+    return value;
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = this.in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated LX project snapshot");
+      }
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed LX project snapshot, varint too long");
+  }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes a project in the compact binary snapshot format. A snapshot holds
+ * exactly the same document as a JSON project file, encoded token by token,
+ * so anything that saves through a JsonWriter can write one.
+ *
+ * The stream starts with the magic number and version as big-endian ints.
+ * Every token after that is a tag byte followed by its payload. Integers are
+ * zigzag varints, and doubles are 8 bytes. Each string is written in full
+ * the first time it appears and as a varint index into the table of previous
+ * strings after that. This collapses the keys, parameter paths and class
+ * names that make up most of a project file.
+ */
+public class LXSnapshotWriter extends JsonWriter {
+
+  public static final int MAGIC = 0x4c585053; // "LXPS"
+
+  /** Version written by this class, bump whenever the encoding changes */
+  public static final int VERSION = 1;
+
+  static final int TAG_BEGIN_OBJECT = 1;
+  static final int TAG_END_OBJECT = 2;
+  static final int TAG_BEGIN_ARRAY = 3;
+  static final int TAG_END_ARRAY = 4;
+  static final int TAG_NAME = 5;
+  static final int TAG_STRING = 6;
+  static final int TAG_LONG = 7;
+  static final int TAG_DOUBLE = 8;
+  static final int TAG_TRUE = 9;
+  static final int TAG_FALSE = 10;
+  static final int TAG_NULL = 11;
+
+  // The superclass insists on a character stream, which is never touched
+  private static final Writer NO_WRITER = new Writer() {
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      throw new UnsupportedOperationException("LXSnapshotWriter does not write text");
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  };
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream out;
+  private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+  // Tokens are small, so encode into a local buffer rather than call the
+  // stream for each byte
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+
+  public LXSnapshotWriter(OutputStream out) throws IOException {
+    super(NO_WRITER);
+    this.out = out;
+    writeInt(MAGIC);
+    writeInt(VERSION);
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    writeTag(TAG_BEGIN_OBJECT);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    writeTag(TAG_END_OBJECT);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    writeTag(TAG_BEGIN_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    writeTag(TAG_END_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("name == null");
+    }
+    writeTag(TAG_NAME);
+    writeString(name);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeTag(TAG_STRING);
+    writeString(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    writeTag(TAG_NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    writeTag(value ? TAG_TRUE : TAG_FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    return value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writeTag(TAG_DOUBLE);
+    long bits = Double.doubleToLongBits(value);
+    writeInt((int) (bits >>> 32));
+    writeInt((int) bits);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    writeTag(TAG_LONG);
+    writeVarint((value << 1) ^ (value >> 63));
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return value(value.doubleValue());
+    }
+    // Numbers parsed from JSON text keep their literal, integers stay exact
+    String literal = value.toString();
+    try {
+      return value(Long.parseLong(literal));
+    } catch (NumberFormatException nfx) {
+      return value(Double.parseDouble(literal));
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    drain();
+    this.out.close();
+  }
+
+  private void drain() throws IOException {
+    if (this.position > 0) {
+      this.out.write(this.buffer, 0, this.position);
+      this.position = 0;
+    }
+  }
+
+  private void reserve(int length) throws IOException {
+    if (this.position + length > BUFFER_SIZE) {
+      drain();
+    }
+  }
+
+  private void writeTag(int tag) throws IOException {
+    reserve(1);
+    this.buffer[this.position++] = (byte) tag;
+  }
+
+  private void writeInt(int value) throws IOException {
+    reserve(4);
+    this.buffer[this.position++] = (byte) (value >>> 24);
+    this.buffer[this.position++] = (byte) (value >>> 16);
+    this.buffer[this.position++] = (byte) (value >>> 8);
+    this.buffer[this.position++] = (byte) value;
+  }
+
+  private void writeString(String value) throws IOException {
+    Integer index = this.strings.get(value);
+    if (index != null) {
+      writeVarint(index + 1);
+    } else {
+      this.strings.put(value, this.strings.size());
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(0);
+      writeVarint(bytes.length);
+      if (bytes.length > BUFFER_SIZE) {
+        drain();
+        this.out.write(bytes);
+      } else {
+        reserve(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+      }
+    }
+  }
+
+  private void writeVarint(long value) throws IOException {
+    reserve(10);
+    while ((value & ~0x7fL) != 0) {
+      this.buffer[this.position++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    this.buffer[this.position++] = (byte) value;
+  }
+}
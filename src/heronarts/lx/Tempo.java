@@ -280,6 +280,19 @@ public class Tempo extends LXModulatorComponent implements LXOscComponent {
     return this;
   }
 
+  /**
+   * Forces the beat count and phase to match an external source, for instance
+   * a cluster coordinator whose tempo this instance follows. Listeners are not
+   * notified.
+   *
+   * @param beatCount Beat count
+   * @param ramp Phase of the current beat, from 0-1
+   */
+  public void sync(int beatCount, double ramp) {
+    this.beatCount = beatCount;
+    this.click.setBasis(ramp);
+  }
+
   /**
    * Re-triggers the metronome, so that it immediately beats. Also resetting the
    * beat count to be at the beginning of a measure.
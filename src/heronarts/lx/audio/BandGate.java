@@ -184,6 +184,8 @@ public class BandGate extends LXModulator implements LXNormalizedParameter, LXTr
       .setExponent(4)
       .setUnits(LXParameter.Units.HERTZ);
 
+    this.gate.setShouldJournal(false);
+    this.average.setShouldJournal(false);
     addParameter("gain", this.gain);
     addParameter("range", this.range);
     addParameter("attack", this.attack);
@@ -111,6 +111,7 @@ public class GraphicMeter extends DecibelMeter {
     this.impl = new LXMeterImpl(this.numBands, this.fft.getBandOctaveRatio());
     this.bands = this.impl.bands;
     for (NormalizedParameter band : this.bands) {
+      band.setShouldJournal(false);
       addParameter(band);
     }
   }
@@ -0,0 +1,502 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXComponent;
+import heronarts.lx.LXLoopTask;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.output.LXOutput;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.LXListenableParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.MetricParameter;
+import heronarts.lx.parameter.StringParameter;
+
+/**
+ * Drives a set of worker processes which each render a shard of the model.
+ * Once per frame, after modulation has run, the coordinator sends every
+ * worker a frame packet with a sequence number, the frame clock, the tempo
+ * phase, the parameter values which have changed and the values of the
+ * global modulators. Workers render that frame and acknowledge it, from
+ * which the coordinator measures per-shard latency and the skew between
+ * shards finishing the same frame.
+ *
+ * Components are matched between processes by id, so the coordinator and
+ * workers should load the same project. Outputs are never replicated, as
+ * each process drives the outputs for its own shard.
+ */
+public class ClusterCoordinator implements LXLoopTask {
+
+  private static final int HISTORY = 64;
+  private static final int HISTORY_MASK = HISTORY - 1;
+
+  // Number of unchanged parameters re-sent per frame, so that workers which
+  // join late or drop packets converge on the full state
+  private static final int REFRESH_PER_FRAME = 32;
+
+  private static final int MAX_RECORDS = 0xffff;
+
+  public class Shard {
+
+    public final InetSocketAddress address;
+    public final int start;
+    public final int end;
+
+    public final MetricParameter latency =
+      new MetricParameter("Latency")
+      .setDescription("Time from sending a frame until this shard finished rendering it (ms)");
+
+    public final MetricParameter lag =
+      new MetricParameter("Lag")
+      .setDescription("Number of frames sent to this shard which are not yet acknowledged");
+
+    private final DatagramPacket packet;
+
+    // Written by the ack thread, read by the engine thread. A slot's sequence
+    // number is cleared while its time is written, and re-checked by readers.
+    private volatile int ackSeq = 0;
+    private final AtomicIntegerArray doneSeq = new AtomicIntegerArray(HISTORY);
+    private final AtomicLongArray doneNanos = new AtomicLongArray(HISTORY);
+
+    private Shard(InetSocketAddress address, int start, int end) {
+      this.address = address;
+      this.start = start;
+      this.end = end;
+      this.packet = new DatagramPacket(buffer, 0, address);
+    }
+
+    public int getAckSeq() {
+      return this.ackSeq;
+    }
+  }
+
+  private static class ParameterRecord {
+    private final int componentId;
+    private final byte[] path;
+    private final LXListenableParameter parameter;
+    private double value = Double.NaN;
+
+    private ParameterRecord(int componentId, byte[] path, LXListenableParameter parameter) {
+      this.componentId = componentId;
+      this.path = path;
+      this.parameter = parameter;
+    }
+  }
+
+  private final LX lx;
+
+  public final BooleanParameter lockstep =
+    new BooleanParameter("Lockstep", true)
+    .setDescription("Wait for every shard to finish the previous frame before sending the next");
+
+  public final BoundedParameter timeout =
+    new BoundedParameter("Timeout", 50, 0, 1000)
+    .setDescription("Maximum time to wait for shards in lockstep mode (ms)");
+
+  public final MetricParameter skew =
+    new MetricParameter("Skew")
+    .setDescription("Spread between the first and last shard finishing the same frame (ms)");
+
+  public final MetricParameter latency =
+    new MetricParameter("Latency")
+    .setDescription("Worst per-shard latency for the most recent complete frame (ms)");
+
+  public final MetricParameter timeouts =
+    new MetricParameter("Timeouts")
+    .setDescription("Number of frames on which lockstep gave up waiting for a shard");
+
+  private final List<Shard> mutableShards = new ArrayList<Shard>();
+  public final List<Shard> shards = Collections.unmodifiableList(this.mutableShards);
+  private volatile Shard[] shardArray = new Shard[0];
+
+  private final DatagramSocket socket;
+  private final byte[] buffer = new byte[ClusterProtocol.MAX_PACKET_SIZE];
+  private final ByteBuffer frame = ByteBuffer.wrap(this.buffer);
+  private final AckThread ackThread;
+  private final Object ackLock = new Object();
+
+  private final List<ParameterRecord> records = new ArrayList<ParameterRecord>();
+  private int recordVersion = -1;
+  private int refreshCursor = 0;
+
+  private int seq = 0;
+  private final long[] sendNanos = new long[HISTORY];
+  private long[] doneScratch = new long[0];
+  private int timeoutCount = 0;
+
+  public ClusterCoordinator(LX lx) throws SocketException {
+    this.lx = lx;
+    this.socket = new DatagramSocket();
+    this.socket.setSoTimeout(1000);
+    this.ackThread = new AckThread();
+    this.ackThread.start();
+    lx.engine.addLoopTask(this);
+  }
+
+  /**
+   * Adds a worker process which renders the given range of point indices.
+   *
+   * @param host Worker host, typically loopback
+   * @param port Worker port
+   * @param start First point index of the shard
+   * @param end Point index after the last point of the shard
+   * @return Shard
+   */
+  public Shard addShard(String host, int port, int start, int end) {
+    if (start < 0 || end < start || end > this.lx.total) {
+      throw new IllegalArgumentException("Invalid shard range: " + start + "-" + end);
+    }
+    Shard shard;
+    try {
+      shard = new Shard(new InetSocketAddress(InetAddress.getByName(host), port), start, end);
+    } catch (IOException iox) {
+      throw new IllegalArgumentException("Invalid shard host: " + host, iox);
+    }
+    synchronized (this.mutableShards) {
+      this.mutableShards.add(shard);
+      this.shardArray = this.mutableShards.toArray(new Shard[0]);
+    }
+    return shard;
+  }
+
+  public ClusterCoordinator removeShard(Shard shard) {
+    synchronized (this.mutableShards) {
+      this.mutableShards.remove(shard);
+      this.shardArray = this.mutableShards.toArray(new Shard[0]);
+    }
+    return this;
+  }
+
+  /**
+   * Gets the sequence number of the most recently sent frame
+   *
+   * @return Frame sequence number
+   */
+  public int getSeq() {
+    return this.seq;
+  }
+
+  @Override
+  public void loop(double deltaMs) {
+    Shard[] shards = this.shardArray;
+    if (shards.length == 0) {
+      return;
+    }
+    if (this.lockstep.isOn() && this.seq > 0) {
+      awaitAcks(shards);
+    }
+    updateMetrics(shards);
+
+    ++this.seq;
+    buildFrame(deltaMs);
+    int length = this.frame.position();
+    this.sendNanos[this.seq & HISTORY_MASK] = System.nanoTime();
+    for (Shard shard : shards) {
+      this.frame.putInt(ClusterProtocol.OFFSET_SHARD_START, shard.start);
+      this.frame.putInt(ClusterProtocol.OFFSET_SHARD_END, shard.end);
+      shard.packet.setLength(length);
+      try {
+        this.socket.send(shard.packet);
+      } catch (IOException iox) {
+        System.err.println("Cluster frame send failed to " + shard.address + ": " + iox.getLocalizedMessage());
+      }
+    }
+  }
+
+  private void awaitAcks(Shard[] shards) {
+    long deadline = System.nanoTime() + (long) (this.timeout.getValue() * 1000000);
+    synchronized (this.ackLock) {
+      while (!isAcknowledged(shards, this.seq)) {
+        long waitNanos = deadline - System.nanoTime();
+        if (waitNanos <= 0) {
+          this.timeouts.update(++this.timeoutCount);
+          return;
+        }
+        try {
+          this.ackLock.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        } catch (InterruptedException ix) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private static boolean isAcknowledged(Shard[] shards, int seq) {
+    for (Shard shard : shards) {
+      if (shard.ackSeq - seq < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void updateMetrics(Shard[] shards) {
+    for (Shard shard : shards) {
+      shard.lag.update(Math.max(0, this.seq - shard.ackSeq));
+    }
+    // Find the most recent frame which every shard has finished
+    long[] done = this.doneScratch;
+    if (done.length < shards.length) {
+      this.doneScratch = done = new long[shards.length];
+    }
+    for (int s = this.seq; s > 0 && this.seq - s < HISTORY; --s) {
+      int index = s & HISTORY_MASK;
+      long minDone = Long.MAX_VALUE;
+      long maxDone = Long.MIN_VALUE;
+      boolean complete = true;
+      for (int i = 0; i < shards.length; ++i) {
+        Shard shard = shards[i];
+        if (shard.doneSeq.get(index) != s) {
+          complete = false;
+          break;
+        }
+        done[i] = shard.doneNanos.get(index);
+        if (shard.doneSeq.get(index) != s) {
+          // Overwritten by an ack for a later frame while reading
+          complete = false;
+          break;
+        }
+        minDone = Math.min(minDone, done[i]);
+        maxDone = Math.max(maxDone, done[i]);
+      }
+      if (complete) {
+        long sent = this.sendNanos[index];
+        for (int i = 0; i < shards.length; ++i) {
+          shards[i].latency.update((done[i] - sent) / 1000000.);
+        }
+        this.latency.update((maxDone - sent) / 1000000.);
+        this.skew.update((maxDone - minDone) / 1000000.);
+        return;
+      }
+    }
+  }
+
+  private void buildFrame(double deltaMs) {
+    ByteBuffer frame = this.frame;
+    frame.clear();
+    frame.putInt(ClusterProtocol.MAGIC);
+    frame.put(ClusterProtocol.TYPE_FRAME);
+    frame.putInt(this.seq);
+    frame.putLong(this.lx.engine.getNowMillis());
+    frame.putDouble(this.lx.engine.getDeltaMs());
+    frame.putInt(0);
+    frame.putInt(0);
+    frame.putInt(this.lx.tempo.beatCount());
+    frame.putDouble(this.lx.tempo.ramp());
+
+    // Changed parameters, followed by a few unchanged ones in rotation
+    int countPosition = frame.position();
+    frame.putShort((short) 0);
+    int count = 0;
+    if (this.lx.getComponentVersion() != this.recordVersion) {
+      rebuildRecords();
+    }
+    int capacity = frame.capacity() - ClusterProtocol.MODULATOR_RECORD_SIZE * (this.lx.engine.modulation.modulators.size() + 1);
+    for (ParameterRecord record : this.records) {
+      double value = getReplicatedValue(record.parameter);
+      if (value != record.value) {
+        if (count == MAX_RECORDS || !putParameter(frame, record, value, capacity)) {
+          break;
+        }
+        ++count;
+      }
+    }
+    int numRecords = this.records.size();
+    for (int i = 0; i < REFRESH_PER_FRAME && i < numRecords; ++i) {
+      if (this.refreshCursor >= numRecords) {
+        this.refreshCursor = 0;
+      }
+      ParameterRecord record = this.records.get(this.refreshCursor);
+      double value = getReplicatedValue(record.parameter);
+      if (value == record.value) {
+        if (count == MAX_RECORDS || !putParameter(frame, record, value, capacity)) {
+          break;
+        }
+        ++count;
+      }
+      ++this.refreshCursor;
+    }
+    frame.putShort(countPosition, (short) count);
+
+    // Global modulators
+    List<LXModulator> modulators = this.lx.engine.modulation.modulators;
+    frame.putShort((short) modulators.size());
+    for (LXModulator modulator : modulators) {
+      frame.putInt(modulator.getId());
+      frame.putDouble(modulator.getValue());
+    }
+  }
+
+  private static boolean putParameter(ByteBuffer frame, ParameterRecord record, double value, int capacity) {
+    if (frame.position() + ClusterProtocol.PARAMETER_RECORD_SIZE + record.path.length > capacity) {
+      // Leave the record marked as changed, it goes in the next frame
+      return false;
+    }
+    frame.putInt(record.componentId);
+    frame.put((byte) record.path.length);
+    frame.put(record.path);
+    frame.putDouble(value);
+    record.value = value;
+    return true;
+  }
+
+  private static double getReplicatedValue(LXParameter parameter) {
+    if (parameter instanceof CompoundParameter) {
+      // Modulation is recomputed on the worker from the modulator values
+      return ((CompoundParameter) parameter).getBaseValue();
+    }
+    return parameter.getValue();
+  }
+
+  private void rebuildRecords() {
+    Map<LXParameter, ParameterRecord> previous = new IdentityHashMap<LXParameter, ParameterRecord>();
+    for (ParameterRecord record : this.records) {
+      previous.put(record.parameter, record);
+    }
+    this.records.clear();
+    this.recordVersion = this.lx.getComponentVersion();
+    for (LXComponent component : this.lx.getComponents()) {
+      if (!isReplicated(component)) {
+        continue;
+      }
+      for (LXParameter parameter : component.getParameters()) {
+        if (!isReplicated(parameter)) {
+          continue;
+        }
+        LXListenableParameter listenable = (LXListenableParameter) parameter;
+        ParameterRecord record = previous.get(listenable);
+        if (record == null || record.componentId != component.getId()) {
+          byte[] path = parameter.getPath().getBytes(StandardCharsets.UTF_8);
+          if (path.length > 0xff) {
+            continue;
+          }
+          record = new ParameterRecord(component.getId(), path, listenable);
+        }
+        this.records.add(record);
+      }
+    }
+  }
+
+  /**
+   * Whether the parameters of a component should be sent to workers.
+   * Outputs are local to each process and are never replicated.
+   *
+   * @param component Component
+   * @return true if its parameters are replicated
+   */
+  protected boolean isReplicated(LXComponent component) {
+    for (LXComponent c = component; c != null; c = c.getParent()) {
+      if (c instanceof LXOutput) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  protected boolean isReplicated(LXParameter parameter) {
+    return
+      (parameter instanceof LXListenableParameter) &&
+      !(parameter instanceof MetricParameter) &&
+      !(parameter instanceof StringParameter);
+  }
+
+  public void dispose() {
+    this.lx.engine.removeLoopTask(this);
+    this.ackThread.interrupt();
+    synchronized (this.ackLock) {
+      this.ackLock.notifyAll();
+    }
+  }
+
+  private class AckThread extends Thread {
+
+    private final byte[] ackBuffer = new byte[ClusterProtocol.ACK_SIZE];
+    private final ByteBuffer ack = ByteBuffer.wrap(this.ackBuffer);
+    private final DatagramPacket packet = new DatagramPacket(this.ackBuffer, this.ackBuffer.length);
+
+    private AckThread() {
+      super("LX Cluster Coordinator Ack Thread");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        try {
+          this.packet.setLength(this.ackBuffer.length);
+          socket.receive(this.packet);
+        } catch (SocketTimeoutException stx) {
+          continue;
+        } catch (IOException iox) {
+          if (!isInterrupted()) {
+            System.err.println("Cluster ack receive failed: " + iox.getLocalizedMessage());
+          }
+          continue;
+        }
+        if (this.packet.getLength() < ClusterProtocol.ACK_SIZE ||
+            this.ack.getInt(0) != ClusterProtocol.MAGIC ||
+            this.ack.get(4) != ClusterProtocol.TYPE_ACK) {
+          continue;
+        }
+        int seq = this.ack.getInt(5);
+        long doneNanos = this.ack.getLong(17);
+        for (Shard shard : shardArray) {
+          if (shard.address.equals(this.packet.getSocketAddress())) {
+            int index = seq & HISTORY_MASK;
+            shard.doneSeq.set(index, 0);
+            shard.doneNanos.set(index, doneNanos);
+            shard.doneSeq.set(index, seq);
+            if (seq - shard.ackSeq > 0) {
+              synchronized (ackLock) {
+                shard.ackSeq = seq;
+                ackLock.notifyAll();
+              }
+            }
+            break;
+          }
+        }
+      }
+      socket.close();
+    }
+  }
+
+}
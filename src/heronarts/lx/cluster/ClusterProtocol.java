@@ -0,0 +1,60 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.cluster;
+
+/**
+ * Wire format shared by the cluster coordinator and its workers. All values
+ * are big-endian. Every packet begins with the magic number and a type byte.
+ *
+ * A frame packet carries the frame sequence number, the clock for the frame,
+ * the shard assigned to the receiving worker, the tempo phase, the parameters
+ * which changed since the previous frame and the value of every global
+ * modulator. An ack packet echoes the sequence number along with the times
+ * at which the worker received the frame and finished rendering it.
+ */
+class ClusterProtocol {
+
+  static final int MAGIC = 0x4c58434c; // "LXCL"
+
+  static final byte TYPE_FRAME = 1;
+  static final byte TYPE_ACK = 2;
+
+  static final int DEFAULT_PORT = 3040;
+
+  static final int MAX_PACKET_SIZE = 65000;
+
+  static final int ACK_SIZE = 4 + 1 + 4 + 8 + 8;
+
+  // Offsets of the per-worker shard fields in a frame packet, patched in
+  // for each worker so that the rest of the packet is built once
+  static final int OFFSET_SHARD_START = 4 + 1 + 4 + 8 + 8;
+  static final int OFFSET_SHARD_END = OFFSET_SHARD_START + 4;
+
+  static final int FRAME_HEADER_SIZE = OFFSET_SHARD_END + 4 + 4 + 8;
+
+  // Component id, path length, value, not counting the path itself
+  static final int PARAMETER_RECORD_SIZE = 4 + 1 + 8;
+
+  static final int MODULATOR_RECORD_SIZE = 4 + 8;
+
+  private ClusterProtocol() {}
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXComponent;
+import heronarts.lx.LXLoopTask;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.parameter.LXListenableParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.MetricParameter;
+
+/**
+ * Renders frames in lockstep with a cluster coordinator. The worker thread
+ * drives the engine directly: for each frame packet it applies the replicated
+ * parameters, runs the engine with the coordinator's clock and then
+ * acknowledges the frame. Modulator values and the tempo phase are applied
+ * by a loop task, after the local modulation engine has run, and modulated
+ * parameters are then re-resolved, so that patterns see exactly the
+ * coordinator's values.
+ *
+ * Each worker builds the full model, so that point indices and normalization
+ * agree with the coordinator, and is told which range of point indices is
+ * its shard. The channels are given a model of just the shard's points, so
+ * patterns and effects only compute that range. Outputs in the worker process
+ * should only address that range.
+ */
+public class ClusterWorker implements LXLoopTask {
+
+  public final int port;
+
+  public final MetricParameter frames =
+    new MetricParameter("Frames")
+    .setDescription("Number of frames rendered");
+
+  public final MetricParameter dropped =
+    new MetricParameter("Dropped")
+    .setDescription("Number of frames which were skipped in the sequence");
+
+  public final MetricParameter stale =
+    new MetricParameter("Stale")
+    .setDescription("Number of frame packets discarded for arriving out of order");
+
+  public final MetricParameter renderTime =
+    new MetricParameter("Render")
+    .setDescription("Time taken to render the most recent frame (ms)");
+
+  private final LX lx;
+  private final DatagramSocket socket;
+  private final WorkerThread thread;
+
+  private final byte[] buffer = new byte[ClusterProtocol.MAX_PACKET_SIZE];
+  private final ByteBuffer frame = ByteBuffer.wrap(this.buffer);
+  private final DatagramPacket packet = new DatagramPacket(this.buffer, this.buffer.length);
+
+  private final byte[] ackBuffer = new byte[ClusterProtocol.ACK_SIZE];
+  private final ByteBuffer ack = ByteBuffer.wrap(this.ackBuffer);
+  private final DatagramPacket ackPacket = new DatagramPacket(this.ackBuffer, this.ackBuffer.length);
+
+  private int seq = 0;
+  private int frameCount = 0;
+  private int droppedCount = 0;
+  private int staleCount = 0;
+
+  private volatile int shardStart = 0;
+  private volatile int shardEnd = 0;
+
+  // Model of the points in the shard, only touched on the worker thread
+  private LXModel shardModel = null;
+
+  // Pending state for the loop task, only touched on the worker thread
+  private int beatCount;
+  private double ramp;
+  private int modulatorPosition;
+  private int modulatorCount;
+
+  public ClusterWorker(LX lx) throws SocketException {
+    this(lx, ClusterProtocol.DEFAULT_PORT);
+  }
+
+  public ClusterWorker(LX lx, int port) throws SocketException {
+    this.lx = lx;
+    this.port = port;
+    this.socket = new DatagramSocket(port);
+    this.socket.setSoTimeout(1000);
+    this.thread = new WorkerThread();
+  }
+
+  /**
+   * Starts rendering frames from the coordinator. The engine must not be
+   * threaded, since the worker thread now runs it.
+   *
+   * @return this
+   */
+  public ClusterWorker start() {
+    if (this.lx.engine.isThreaded()) {
+      throw new IllegalStateException("ClusterWorker cannot drive a threaded engine");
+    }
+    this.lx.engine.addLoopTask(this);
+    this.thread.start();
+    return this;
+  }
+
+  public void dispose() {
+    this.thread.interrupt();
+    this.lx.engine.removeLoopTask(this);
+  }
+
+  /**
+   * Gets the sequence number of the most recently rendered frame
+   *
+   * @return Frame sequence number
+   */
+  public int getSeq() {
+    return this.seq;
+  }
+
+  public int getShardStart() {
+    return this.shardStart;
+  }
+
+  public int getShardEnd() {
+    return this.shardEnd;
+  }
+
+  /**
+   * Whether the point with the given index belongs to this worker's shard
+   *
+   * @param index Point index
+   * @return true if this worker is responsible for the point
+   */
+  public boolean isInShard(int index) {
+    return index >= this.shardStart && index < this.shardEnd;
+  }
+
+  /**
+   * Restricts rendering to the given range of point indices, by giving every
+   * channel a model of just those points. Called on the thread which runs
+   * the engine.
+   *
+   * @param start First point index of the shard
+   * @param end Point index after the last point of the shard
+   */
+  void setShard(int start, int end) {
+    if (this.shardModel == null || start != this.shardStart || end != this.shardEnd) {
+      this.shardStart = start;
+      this.shardEnd = end;
+      this.shardModel = (start <= 0 && end >= this.lx.total) ?
+        this.lx.model : this.lx.model.getIndexRangeModel(start, end);
+    }
+    // Channels may have been added since the last frame
+    for (LXChannel channel : this.lx.engine.getChannels()) {
+      channel.setModel(this.shardModel);
+    }
+    this.lx.engine.masterChannel.setModel(this.shardModel);
+  }
+
+  private void onFrame(long receiveNanos) {
+    ByteBuffer frame = this.frame;
+    int length = this.packet.getLength();
+    if (length < ClusterProtocol.FRAME_HEADER_SIZE ||
+        frame.getInt(0) != ClusterProtocol.MAGIC ||
+        frame.get(4) != ClusterProtocol.TYPE_FRAME) {
+      return;
+    }
+    frame.limit(length);
+    frame.position(5);
+    int seq = frame.getInt();
+    if (this.frameCount > 0) {
+      int gap = seq - this.seq;
+      if (gap <= 0) {
+        this.stale.update(++this.staleCount);
+        return;
+      }
+      if (gap > 1) {
+        this.droppedCount += gap - 1;
+        this.dropped.update(this.droppedCount);
+      }
+    }
+    this.seq = seq;
+    long nowMillis = frame.getLong();
+    double deltaMs = frame.getDouble();
+    setShard(frame.getInt(), frame.getInt());
+    this.beatCount = frame.getInt();
+    this.ramp = frame.getDouble();
+
+    int numParameters = frame.getShort() & 0xffff;
+    for (int i = 0; i < numParameters; ++i) {
+      int componentId = frame.getInt();
+      int pathLength = frame.get() & 0xff;
+      String path = new String(this.buffer, frame.position(), pathLength, StandardCharsets.UTF_8);
+      frame.position(frame.position() + pathLength);
+      double value = frame.getDouble();
+      LXComponent component = this.lx.getProjectComponent(componentId);
+      if (component != null) {
+        LXParameter parameter = component.getParameter(path);
+        if (parameter instanceof LXListenableParameter) {
+          parameter.setValue(value);
+        }
+      }
+    }
+    this.modulatorCount = frame.getShort() & 0xffff;
+    this.modulatorPosition = frame.position();
+
+    long renderStart = System.nanoTime();
+    this.lx.engine.run(nowMillis, deltaMs);
+    long doneNanos = System.nanoTime();
+    this.renderTime.update((doneNanos - renderStart) / 1000000.);
+    this.frames.update(++this.frameCount);
+
+    this.ack.clear();
+    this.ack.putInt(ClusterProtocol.MAGIC);
+    this.ack.put(ClusterProtocol.TYPE_ACK);
+    this.ack.putInt(seq);
+    this.ack.putLong(receiveNanos);
+    this.ack.putLong(doneNanos);
+    this.ackPacket.setSocketAddress(this.packet.getSocketAddress());
+    try {
+      this.socket.send(this.ackPacket);
+    } catch (IOException iox) {
+      System.err.println("Cluster ack send failed: " + iox.getLocalizedMessage());
+    }
+  }
+
+  @Override
+  public void loop(double deltaMs) {
+    if (this.modulatorPosition == 0) {
+      return;
+    }
+    this.lx.tempo.sync(this.beatCount, this.ramp);
+    ByteBuffer frame = this.frame;
+    frame.position(this.modulatorPosition);
+    for (int i = 0; i < this.modulatorCount; ++i) {
+      int componentId = frame.getInt();
+      double value = frame.getDouble();
+      LXComponent component = this.lx.getProjectComponent(componentId);
+      if (component instanceof LXModulator) {
+        ((LXModulator) component).setValue(value);
+      }
+    }
+    this.modulatorPosition = 0;
+    this.lx.engine.modulation.snapshotModulations();
+  }
+
+  private class WorkerThread extends Thread {
+
+    private WorkerThread() {
+      super("LX Cluster Worker Thread");
+    }
+
+    @Override
+    public void run() {
+      System.out.println("LX cluster worker listening on port " + port);
+      while (!isInterrupted()) {
+        try {
+          packet.setLength(buffer.length);
+          socket.receive(packet);
+        } catch (SocketTimeoutException stx) {
+          continue;
+        } catch (IOException iox) {
+          if (!isInterrupted()) {
+            System.err.println("Cluster frame receive failed: " + iox.getLocalizedMessage());
+          }
+          continue;
+        }
+        frame.clear();
+        onFrame(System.nanoTime());
+      }
+      socket.close();
+      System.out.println("Stopped LX cluster worker on port " + port);
+    }
+  }
+
+}
@@ -237,6 +237,20 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
   }
 
   public double getHue(float x, float y, float z) {
+    return getHue(x, y, z, (float) Math.sqrt(x*x + y*y + z*z));
+  }
+
+  /**
+   * Gets the hue at a position whose radius from the origin is already known,
+   * e.g. from ModelCoordinates.
+   *
+   * @param x X-position
+   * @param y Y-position
+   * @param z Z-position
+   * @param r Radius from origin
+   * @return Hue
+   */
+  public double getHue(float x, float y, float z, float r) {
     double dx = x - this.model.cx - this.offsetX.getValue() * model.xRange;
     double dy = y - this.model.cy - this.offsetY.getValue() * model.yRange;
     double dz = z - this.model.cz - this.offsetZ.getValue() * model.zRange;
@@ -246,7 +260,6 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
       dy = Math.abs(dy);
       dz = Math.abs(dz);
     }
-    double r = Math.sqrt(x*x + y*y + z*z);
     return (
       this.hue.getValue() +
       spread * this.spreadX.getValue() * this.xMult * dx +
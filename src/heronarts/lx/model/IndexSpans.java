@@ -0,0 +1,214 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import heronarts.lx.color.LXColor;
+
+/**
+ * The point indices of a fixture, stored compactly as runs of consecutive
+ * indices. Most fixtures are one or a few contiguous ranges of the model,
+ * so operations over the color buffer can work a run at a time with
+ * Arrays.fill() and System.arraycopy() rather than visiting every LXPoint.
+ * Index spans are immutable.
+ */
+public class IndexSpans {
+
+  private static final int[] EMPTY = new int[0];
+
+  public static final IndexSpans NONE = new IndexSpans(EMPTY, EMPTY, 0);
+
+  /**
+   * Number of runs
+   */
+  public final int runs;
+
+  /**
+   * Total number of indices over all runs
+   */
+  public final int size;
+
+  private final int[] start;
+  private final int[] length;
+
+  private IndexSpans(int[] start, int[] length, int runs) {
+    this.start = start;
+    this.length = length;
+    this.runs = runs;
+    int size = 0;
+    for (int r = 0; r < runs; ++r) {
+      size += length[r];
+    }
+    this.size = size;
+  }
+
+  /**
+   * Makes spans covering a single contiguous range of indices
+   *
+   * @param start First index
+   * @param length Number of indices
+   * @return Index spans
+   */
+  public static IndexSpans of(int start, int length) {
+    if (start < 0 || length < 0) {
+      throw new IllegalArgumentException("Invalid index span: " + start + "+" + length);
+    }
+    if (length == 0) {
+      return NONE;
+    }
+    return new IndexSpans(new int[] { start }, new int[] { length }, 1);
+  }
+
+  /**
+   * Makes spans from the points of a fixture, in point order. Consecutive
+   * points with consecutive indices are merged into one run.
+   *
+   * @param fixture Fixture
+   * @return Index spans
+   */
+  public static IndexSpans of(LXFixture fixture) {
+    List<LXPoint> points = fixture.getPoints();
+    int n = points.size();
+    if (n == 0) {
+      return NONE;
+    }
+    int[] start = new int[4];
+    int[] length = new int[4];
+    int runs = 0;
+    int next = -1;
+    for (LXPoint p : points) {
+      if (runs > 0 && p.index == next) {
+        ++length[runs-1];
+      } else {
+        if (runs == start.length) {
+          start = Arrays.copyOf(start, runs * 2);
+          length = Arrays.copyOf(length, runs * 2);
+        }
+        start[runs] = p.index;
+        length[runs] = 1;
+        ++runs;
+      }
+      next = p.index + 1;
+    }
+    return new IndexSpans(Arrays.copyOf(start, runs), Arrays.copyOf(length, runs), runs);
+  }
+
+  /**
+   * First index of a run
+   *
+   * @param run Run number
+   * @return First index of the run
+   */
+  public int getStart(int run) {
+    return this.start[run];
+  }
+
+  /**
+   * Number of indices in a run
+   *
+   * @param run Run number
+   * @return Length of the run
+   */
+  public int getLength(int run) {
+    return this.length[run];
+  }
+
+  /**
+   * Whether these spans are a single contiguous range
+   *
+   * @return true if there is at most one run
+   */
+  public boolean isContiguous() {
+    return this.runs <= 1;
+  }
+
+  /**
+   * Expands the spans into an array of every index, in order
+   *
+   * @return Point indices
+   */
+  public int[] toIndices() {
+    int[] indices = new int[this.size];
+    int i = 0;
+    for (int r = 0; r < this.runs; ++r) {
+      for (int index = this.start[r], end = index + this.length[r]; index < end; ++index) {
+        indices[i++] = index;
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Sets every index of a color buffer covered by these spans
+   *
+   * @param colors Color buffer
+   * @param color Color
+   */
+  public void fill(int[] colors, int color) {
+    for (int r = 0; r < this.runs; ++r) {
+      Arrays.fill(colors, this.start[r], this.start[r] + this.length[r], color);
+    }
+  }
+
+  /**
+   * Sets every index of a 16-bit color buffer covered by these spans
+   *
+   * @param colors Color buffer
+   * @param color Color
+   */
+  public void fill(long[] colors, long color) {
+    for (int r = 0; r < this.runs; ++r) {
+      Arrays.fill(colors, this.start[r], this.start[r] + this.length[r], color);
+    }
+  }
+
+  /**
+   * Blends a color into every index covered by these spans
+   *
+   * @param colors Color buffer
+   * @param color Color
+   * @param blendMode Blend mode
+   */
+  @SuppressWarnings("deprecation")
+  public void blend(int[] colors, int color, LXColor.Blend blendMode) {
+    for (int r = 0; r < this.runs; ++r) {
+      for (int i = this.start[r], end = i + this.length[r]; i < end; ++i) {
+        colors[i] = LXColor.blend(colors[i], color, blendMode);
+      }
+    }
+  }
+
+  /**
+   * Copies the indices covered by these spans from one buffer to another.
+   * Both must be int[] or both long[].
+   *
+   * @param src Source color buffer
+   * @param dest Destination color buffer
+   */
+  public void copy(Object src, Object dest) {
+    for (int r = 0; r < this.runs; ++r) {
+      System.arraycopy(src, this.start[r], dest, this.start[r], this.length[r]);
+    }
+  }
+
+}
@@ -26,6 +26,8 @@ import java.util.List;
 public abstract class LXAbstractFixture implements LXFixture {
   protected final List<LXPoint> points = new ArrayList<LXPoint>();
 
+  private IndexSpans indexSpans = null;
+
   protected LXAbstractFixture() {
   }
 
@@ -33,6 +35,19 @@ public abstract class LXAbstractFixture implements LXFixture {
     return this.points;
   }
 
+  /**
+   * Gets the index spans of this fixture, cached until points are added.
+   * Subclasses that add to the points list directly are detected by size.
+   */
+  @Override
+  public IndexSpans getIndexSpans() {
+    IndexSpans indexSpans = this.indexSpans;
+    if (indexSpans == null || indexSpans.size != this.points.size()) {
+      this.indexSpans = indexSpans = IndexSpans.of(this);
+    }
+    return indexSpans;
+  }
+
   public LXAbstractFixture addPoint(LXPoint point) {
     this.points.add(point);
     return this;
@@ -29,4 +29,14 @@ public interface LXFixture {
 
   public List<LXPoint> getPoints();
 
+  /**
+   * Gets the indices of this fixture's points as runs of consecutive indices.
+   * Implementations whose points do not change should cache the result.
+   *
+   * @return Index spans of the points
+   */
+  public default IndexSpans getIndexSpans() {
+    return IndexSpans.of(this);
+  }
+
 }
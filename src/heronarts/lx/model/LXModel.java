@@ -21,10 +21,13 @@
 package heronarts.lx.model;
 
 import heronarts.lx.transform.LXVector;
+import heronarts.lx.transform.LXVectorPlanes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * An LXModel is a representation of a set of points in 3-d space. Each LXPoint
@@ -150,6 +153,27 @@ public class LXModel implements LXFixture {
   private ModelMetrics metrics = new ModelMetrics();
   public ModelMetrics getMetrics() { return metrics; }
 
+  private volatile ModelCoordinates coordinates = null;
+
+  // Level-of-detail proxies by level, discarded whenever the model is updated
+  private LXProxyModel[] proxyModels = null;
+
+  private volatile IndexSpans indexSpans = null;
+
+  private volatile SpatialIndex spatialIndex = null;
+
+  private volatile LXVectorPlanes vectorPlanes = null;
+
+  /**
+   * Bulk recomputes are split into chunks of this many points, which are
+   * processed in parallel.
+   */
+  private static final int RECOMPUTE_CHUNK_SIZE = 16384;
+
+  private boolean lazyAngles = false;
+
+  private volatile boolean anglesValid = true;
+
   /**
    * Constructs a null model with no points
    */
@@ -197,6 +221,20 @@ public class LXModel implements LXFixture {
     average();
   }
 
+  /**
+   * Constructs a model from points whose derived values and metrics have
+   * already been computed, as when loading a ModelFile
+   */
+  LXModel(LXPoint[] points, LXFixture[] fixtures, ModelMetrics metrics, ModelCoordinates coordinates) {
+    this.size = points.length;
+    this.points = points;
+    this.pointList = Collections.unmodifiableList(Arrays.asList(points));
+    this.fixtures = Collections.unmodifiableList(Arrays.asList(fixtures));
+    this.metrics.copyFrom(metrics);
+    this.coordinates = coordinates;
+    applyMetrics();
+  }
+
   private final List<Listener> listeners = new ArrayList<Listener>();
 
   public final LXModel addListener(Listener listener) {
@@ -244,23 +282,222 @@ public class LXModel implements LXFixture {
    */
   public LXModel update(boolean normalize, boolean recurse) {
     // Recursively update values of sub-models
+    if (recurse) {
+      // NOTE: normals are relative to master model,
+      // flip to false for sub-models
+      this.fixtures.parallelStream()
+        .filter(fixture -> fixture instanceof LXModel)
+        .forEach(fixture -> ((LXModel) fixture).average());
+    }
+    average();
+    if (normalize) {
+      normalize();
+    } else {
+      updateCoordinates();
+    }
     if (recurse) {
       for (LXFixture fixture : this.fixtures) {
         if (fixture instanceof LXModel) {
-          // NOTE: normals are relative to master model,
-          // flip to false for sub-models
-          ((LXModel) fixture).average();
+          ((LXModel) fixture).updateCoordinates();
         }
       }
     }
-    average();
-    if (normalize) {
-      normalize();
+    clearProxyModels();
+    bang();
+    return this;
+  }
+
+  /**
+   * Sets whether bulk recomputes defer the angular fields of points (theta,
+   * azimuth and elevation), which are by far the most expensive to compute.
+   * When deferred, they are computed on the first call to computeAngles() or
+   * getCoordinates(); code that reads those LXPoint fields directly must call
+   * computeAngles() first.
+   *
+   * @param lazyAngles Whether to defer angular fields
+   * @return this
+   */
+  public LXModel setLazyAngles(boolean lazyAngles) {
+    this.lazyAngles = lazyAngles;
+    return this;
+  }
+
+  /**
+   * Whether the angular fields of the points are up to date
+   *
+   * @return True if theta, azimuth and elevation are valid
+   */
+  public boolean hasAngles() {
+    return this.anglesValid;
+  }
+
+  /**
+   * Recomputes every point's derived values (radii and, unless lazy, angles)
+   * from its x, y and z, then the metrics of this model and its sub-models,
+   * and normalizes the points. This is the bulk equivalent of calling update()
+   * on every point followed by update(true, true), and runs in parallel chunks.
+   * Use it after moving many points, or to finish building a large model.
+   *
+   * @return this
+   */
+  public LXModel recompute() {
+    final int chunks = (this.size + RECOMPUTE_CHUNK_SIZE - 1) / RECOMPUTE_CHUNK_SIZE;
+    final boolean angles = !this.lazyAngles;
+
+    // Derived values and partial metrics per chunk
+    final double[] partial = new double[chunks * PARTIAL_SIZE];
+    chunks(chunks).forEach(chunk -> recomputeChunk(chunk, angles, partial));
+
+    int count = 0;
+    double sx = 0, sy = 0, sz = 0;
+    float xMin = 0, xMax = 0, yMin = 0, yMax = 0, zMin = 0, zMax = 0, rMin = 0, rMax = 0;
+    for (int chunk = 0; chunk < chunks; ++chunk) {
+      int o = chunk * PARTIAL_SIZE;
+      sx += partial[o];
+      sy += partial[o+1];
+      sz += partial[o+2];
+      if (chunk == 0) {
+        xMin = (float) partial[o+3]; xMax = (float) partial[o+4];
+        yMin = (float) partial[o+5]; yMax = (float) partial[o+6];
+        zMin = (float) partial[o+7]; zMax = (float) partial[o+8];
+        rMin = (float) partial[o+9]; rMax = (float) partial[o+10];
+      } else {
+        xMin = Math.min(xMin, (float) partial[o+3]); xMax = Math.max(xMax, (float) partial[o+4]);
+        yMin = Math.min(yMin, (float) partial[o+5]); yMax = Math.max(yMax, (float) partial[o+6]);
+        zMin = Math.min(zMin, (float) partial[o+7]); zMax = Math.max(zMax, (float) partial[o+8]);
+        rMin = Math.min(rMin, (float) partial[o+9]); rMax = Math.max(rMax, (float) partial[o+10]);
+      }
+      count += (int) partial[o+11];
+    }
+    int n = Math.max(1, count);
+    this.metrics.set(count, (float) (sx / n), (float) (sy / n), (float) (sz / n), xMin, xMax, yMin, yMax, zMin, zMax, rMin, rMax);
+    applyMetrics();
+    this.anglesValid = angles;
+
+    this.fixtures.parallelStream()
+      .filter(fixture -> fixture instanceof LXModel)
+      .forEach(fixture -> {
+        LXModel model = (LXModel) fixture;
+        model.average();
+        model.anglesValid = angles;
+      });
+
+    // Normalize and refresh the coordinate arrays in the same parallel pass
+    final ModelCoordinates coordinates = this.coordinates;
+    chunks(chunks).forEach(chunk -> {
+      int start = chunk * RECOMPUTE_CHUNK_SIZE;
+      int end = Math.min(this.size, start + RECOMPUTE_CHUNK_SIZE);
+      for (int i = start; i < end; ++i) {
+        this.points[i].normalize(this);
+      }
+      if (coordinates != null) {
+        coordinates.update(this.points, start, end);
+      }
+    });
+    if (coordinates != null && !angles) {
+      computeAngles();
+    }
+    SpatialIndex spatialIndex = this.spatialIndex;
+    if (spatialIndex != null) {
+      spatialIndex.update(coordinates);
     }
+    LXVectorPlanes vectorPlanes = this.vectorPlanes;
+    if (vectorPlanes != null) {
+      vectorPlanes.updateFrom(this.points);
+    }
+    for (LXFixture fixture : this.fixtures) {
+      if (fixture instanceof LXModel) {
+        ((LXModel) fixture).updateCoordinates();
+      }
+    }
+    clearProxyModels();
     bang();
     return this;
   }
 
+  /**
+   * Computes the angular fields of all points if a lazy recompute deferred
+   * them, in parallel chunks.
+   *
+   * @return this
+   */
+  public LXModel computeAngles() {
+    if (!this.anglesValid) {
+      synchronized (this) {
+        if (!this.anglesValid) {
+          final int chunks = (this.size + RECOMPUTE_CHUNK_SIZE - 1) / RECOMPUTE_CHUNK_SIZE;
+          final ModelCoordinates coordinates = this.coordinates;
+          chunks(chunks).forEach(chunk -> {
+            int start = chunk * RECOMPUTE_CHUNK_SIZE;
+            int end = Math.min(this.size, start + RECOMPUTE_CHUNK_SIZE);
+            for (int i = start; i < end; ++i) {
+              this.points[i].updateAngular();
+            }
+            if (coordinates != null) {
+              coordinates.updateAngular(this.points, start, end);
+            }
+          });
+          this.anglesValid = true;
+        }
+      }
+    }
+    return this;
+  }
+
+  // Per-chunk partial metrics: sums of x, y, z, min/max of x, y, z, r, count
+  private static final int PARTIAL_SIZE = 12;
+
+  private void recomputeChunk(int chunk, boolean angles, double[] partial) {
+    int start = chunk * RECOMPUTE_CHUNK_SIZE;
+    int end = Math.min(this.size, start + RECOMPUTE_CHUNK_SIZE);
+    double sx = 0, sy = 0, sz = 0;
+    float xMin = 0, xMax = 0, yMin = 0, yMax = 0, zMin = 0, zMax = 0, rMin = 0, rMax = 0;
+    for (int i = start; i < end; ++i) {
+      LXPoint p = this.points[i];
+      p.updateRadial();
+      if (angles) {
+        p.updateAngular();
+      }
+      float x = p.x, y = p.y, z = p.z, r = p.r;
+      sx += x;
+      sy += y;
+      sz += z;
+      if (i == start) {
+        xMin = xMax = x;
+        yMin = yMax = y;
+        zMin = zMax = z;
+        rMin = rMax = r;
+      } else {
+        if (x < xMin) xMin = x;
+        if (x > xMax) xMax = x;
+        if (y < yMin) yMin = y;
+        if (y > yMax) yMax = y;
+        if (z < zMin) zMin = z;
+        if (z > zMax) zMax = z;
+        if (r < rMin) rMin = r;
+        if (r > rMax) rMax = r;
+      }
+    }
+    int o = chunk * PARTIAL_SIZE;
+    partial[o] = sx;
+    partial[o+1] = sy;
+    partial[o+2] = sz;
+    partial[o+3] = xMin;
+    partial[o+4] = xMax;
+    partial[o+5] = yMin;
+    partial[o+6] = yMax;
+    partial[o+7] = zMin;
+    partial[o+8] = zMax;
+    partial[o+9] = rMin;
+    partial[o+10] = rMax;
+    partial[o+11] = end - start;
+  }
+
+  private static IntStream chunks(int chunks) {
+    IntStream stream = IntStream.range(0, chunks);
+    return (chunks > 1) ? stream.parallel() : stream;
+  }
+
   public LXModel bang() {
     // Notify the listeners of this model that it has changed
     for (Listener listener : this.listeners) {
@@ -276,7 +513,11 @@ public class LXModel implements LXFixture {
    */
   public LXModel average() {
     metrics.recompute(points);
+    applyMetrics();
+    return this;
+  }
 
+  private void applyMetrics() {
     this.ax = metrics.getAverageX();
     this.ay = metrics.getAverageY();
     this.az = metrics.getAverageZ();
@@ -295,8 +536,6 @@ public class LXModel implements LXFixture {
     this.rMin = metrics.getRadialMin();
     this.rMax = metrics.getRadialMax();
     this.rRange = metrics.getRadialRange();
-
-    return this;
   }
 
   /**
@@ -307,12 +546,152 @@ public class LXModel implements LXFixture {
     for (LXPoint p : this.points) {
       p.normalize(this);
     }
+    updateCoordinates();
+  }
+
+  /**
+   * Gets primitive arrays of the point coordinates in this model, built on
+   * first use. The arrays are kept in sync whenever the model is updated.
+   *
+   * @return Coordinate arrays for the points in this model
+   */
+  public ModelCoordinates getCoordinates() {
+    computeAngles();
+    ModelCoordinates coordinates = this.coordinates;
+    if (coordinates == null) {
+      synchronized (this) {
+        coordinates = this.coordinates;
+        if (coordinates == null) {
+          this.coordinates = coordinates = new ModelCoordinates(this.points);
+        }
+      }
+    }
+    return coordinates;
+  }
+
+  /**
+   * Gets a spatial index over the points in this model for neighbor and
+   * region queries, built on first use and rebuilt whenever the model is
+   * updated.
+   *
+   * @return Spatial index of this model's points
+   */
+  public SpatialIndex getSpatialIndex() {
+    SpatialIndex spatialIndex = this.spatialIndex;
+    if (spatialIndex == null) {
+      synchronized (this) {
+        spatialIndex = this.spatialIndex;
+        if (spatialIndex == null) {
+          this.spatialIndex = spatialIndex = new SpatialIndex(getCoordinates());
+        }
+      }
+    }
+    return spatialIndex;
+  }
+
+  /**
+   * Gets the positions of the points in this model as float planes, which
+   * are the input to the warp chain. Built on first use and reloaded
+   * whenever the model is updated.
+   *
+   * @return Vector planes for this model
+   */
+  public LXVectorPlanes getVectorPlanes() {
+    LXVectorPlanes vectorPlanes = this.vectorPlanes;
+    if (vectorPlanes == null) {
+      synchronized (this) {
+        vectorPlanes = this.vectorPlanes;
+        if (vectorPlanes == null) {
+          this.vectorPlanes = vectorPlanes = new LXVectorPlanes(this.points);
+        }
+      }
+    }
+    return vectorPlanes;
+  }
+
+  /**
+   * Gets a reduced level-of-detail version of this model, for rendering
+   * expensive patterns at a fraction of the point count. Proxies are built
+   * on first request, which takes time proportional to the model size, and
+   * cached until this model is updated.
+   *
+   * @param level Level of detail reduction, from 1 to LXProxyModel.MAX_LEVEL
+   * @return Proxy model
+   */
+  public LXProxyModel getProxyModel(int level) {
+    if (level < 1 || level > LXProxyModel.MAX_LEVEL) {
+      throw new IllegalArgumentException("Invalid proxy model level: " + level);
+    }
+    synchronized (this) {
+      if (this.proxyModels == null) {
+        this.proxyModels = new LXProxyModel[LXProxyModel.MAX_LEVEL + 1];
+      }
+      if (this.proxyModels[level] == null) {
+        this.proxyModels[level] = new LXProxyModel(this, level);
+      }
+      return this.proxyModels[level];
+    }
+  }
+
+  /**
+   * Gets a model of the points of this model whose indices fall in the given
+   * range. The points keep their indices and the sub-model has this model's
+   * metrics, so a pattern rendering it writes the same colors for those points
+   * as it would rendering the whole model.
+   *
+   * @param start First point index
+   * @param end Point index after the last point in the range
+   * @return Model of the points in the index range
+   */
+  public LXModel getIndexRangeModel(int start, int end) {
+    List<LXPoint> points = new ArrayList<LXPoint>();
+    for (LXPoint p : this.points) {
+      if (p.index >= start && p.index < end) {
+        points.add(p);
+      }
+    }
+    return new LXModel(points.toArray(new LXPoint[0]), new LXFixture[0], this.metrics, null);
+  }
+
+  private synchronized void clearProxyModels() {
+    this.proxyModels = null;
+  }
+
+  private void updateCoordinates() {
+    ModelCoordinates coordinates = this.coordinates;
+    if (coordinates != null) {
+      coordinates.update(this.points);
+    }
+    SpatialIndex spatialIndex = this.spatialIndex;
+    if (spatialIndex != null) {
+      spatialIndex.update(getCoordinates());
+    }
+    LXVectorPlanes vectorPlanes = this.vectorPlanes;
+    if (vectorPlanes != null) {
+      vectorPlanes.updateFrom(this.points);
+    }
   }
 
   public List<LXPoint> getPoints() {
     return this.pointList;
   }
 
+  /**
+   * Gets the indices of the points in this model as runs of consecutive
+   * indices, computed on first use. A model's points never change, so the
+   * spans are kept for the life of the model.
+   *
+   * @return Index spans of this model's points
+   */
+  @Override
+  public IndexSpans getIndexSpans() {
+    IndexSpans indexSpans = this.indexSpans;
+    if (indexSpans == null) {
+      this.indexSpans = indexSpans = IndexSpans.of(this);
+    }
+    return indexSpans;
+  }
+
   public LXVector[] getVectorArray() {
     if (vectors == null) {
       System.out.println("Copying model points to vectors (" + points.length + ")...");
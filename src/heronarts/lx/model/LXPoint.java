@@ -126,6 +126,25 @@ public class LXPoint {
     update();
   }
 
+  /**
+   * Construct a point with a known index, leaving the derived values to be
+   * filled in by the caller. Used when loading precomputed models.
+   *
+   * @param index Index
+   * @param x X-coordinate
+   * @param y Y-coordinate
+   * @param z Z-coordinate
+   */
+  LXPoint(int index, float x, float y, float z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.index = index;
+    if (index >= counter) {
+      counter = index + 1;
+    }
+  }
+
   /**
    * Construct a point in 3-d space
    *
@@ -173,13 +192,21 @@ public class LXPoint {
    * @return
    */
   public LXPoint update() {
+    updateRadial();
+    updateAngular();
+    return this;
+  }
+
+  void updateRadial() {
     this.r = (float) Math.sqrt(x * x + y * y + z * z);
     this.rxy = (float) Math.sqrt(x * x + y * y);
     this.rxz = (float) Math.sqrt(x * x + z * z);
+  }
+
+  void updateAngular() {
     this.theta = (float) ((LX.TWO_PI + Math.atan2(y, x)) % (LX.TWO_PI));
     this.azimuth = (float) ((LX.TWO_PI + Math.atan2(z, x)) % (LX.TWO_PI));
     this.elevation = (float) ((LX.TWO_PI + Math.atan2(y, rxz)) % (LX.TWO_PI));
-    return this;
   }
 
   /**
@@ -0,0 +1,354 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.model;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import heronarts.lx.transform.LXVector;
+
+/**
+ * A reduced level-of-detail version of a model, used to render expensive
+ * patterns at a fraction of the point count. The points of the model are
+ * clustered on a uniform grid, and the point nearest the centroid of each
+ * cluster represents it. The proxy model consists of those representative
+ * points, which keep their original indices, so a pattern that renders the
+ * proxy writes into the usual full-size color buffer. expand() then fills in
+ * every other point from its representative, or from a weighted blend of the
+ * nearest representatives, in one pass.
+ *
+ * The proxy has the same metrics as its source model, so patterns which
+ * scale by model bounds behave identically at any level. Proxies are built
+ * by LXModel.getProxyModel() and cached until the model is updated.
+ */
+public class LXProxyModel extends LXModel {
+
+  /**
+   * Highest level of detail reduction. Each level halves the target number of
+   * points rendered.
+   */
+  public static final int MAX_LEVEL = 8;
+
+  /**
+   * Number of representatives blended by weighted expansion
+   */
+  public static final int WEIGHTED_NEIGHBORS = 4;
+
+  /**
+   * Expansions over more points than this are run in parallel chunks
+   */
+  private static final int CHUNK_SIZE = 16384;
+
+  private static final float FLAT_AXIS_RATIO = 1e-4f;
+
+  public final LXModel source;
+
+  public final int level;
+
+  // Full-resolution point indices that are not representatives, and the
+  // index of the representative of each
+  private final int[] expandTarget;
+  private final int[] expandNearest;
+
+  private final float cellSize;
+
+  // Built on first use of weighted expansion, rows of WEIGHTED_NEIGHBORS
+  // per expandTarget entry
+  private int[] weightedSource = null;
+  private float[] weightedAmount = null;
+
+  private static class Clustering {
+    private final LXPoint[] representatives;
+    private final int[] expandTarget;
+    private final int[] expandNearest;
+    private final float cellSize;
+
+    private Clustering(LXModel source, int level) {
+      int size = source.size;
+      LXPoint[] points = source.points;
+
+      // Pick a cell size that gives roughly size >> level occupied cells,
+      // over the axes that actually have extent
+      float maxRange = Math.max(source.xRange, Math.max(source.yRange, source.zRange));
+      float volume = 1;
+      int dimensions = 0;
+      for (float range : new float[] { source.xRange, source.yRange, source.zRange }) {
+        if (range > maxRange * FLAT_AXIS_RATIO) {
+          volume *= range;
+          ++dimensions;
+        }
+      }
+      int targetClusters = Math.max(1, size >> level);
+      float cellSize = (dimensions == 0) ? 1 : (float) Math.pow(volume / targetClusters, 1. / dimensions);
+      if (!(cellSize > 0)) {
+        cellSize = 1;
+      }
+      this.cellSize = cellSize;
+      final float invCellSize = 1 / cellSize;
+      final long nx = (long) (source.xRange * invCellSize) + 1;
+      final long ny = (long) (source.yRange * invCellSize) + 1;
+
+      // Sort points by cell, packing the cell number above the point position
+      long[] keys = new long[size];
+      IntStream.range(0, size).parallel().forEach(i -> {
+        LXPoint p = points[i];
+        long cx = (long) ((p.x - source.xMin) * invCellSize);
+        long cy = (long) ((p.y - source.yMin) * invCellSize);
+        long cz = (long) ((p.z - source.zMin) * invCellSize);
+        long cell = cx + nx * (cy + ny * cz);
+        keys[i] = (cell << 32) | i;
+      });
+      Arrays.parallelSort(keys);
+
+      // Choose the point nearest the centroid of each cell
+      int clusters = 0;
+      int[] representative = new int[size];
+      int[] clusterStart = new int[size + 1];
+      for (int k = 0; k < size; ) {
+        long cell = keys[k] >>> 32;
+        int end = k + 1;
+        while (end < size && (keys[end] >>> 32) == cell) {
+          ++end;
+        }
+        float sx = 0, sy = 0, sz = 0;
+        for (int j = k; j < end; ++j) {
+          LXPoint p = points[(int) keys[j]];
+          sx += p.x;
+          sy += p.y;
+          sz += p.z;
+        }
+        int count = end - k;
+        sx /= count;
+        sy /= count;
+        sz /= count;
+        int best = -1;
+        float bestDist = Float.MAX_VALUE;
+        for (int j = k; j < end; ++j) {
+          int i = (int) keys[j];
+          LXPoint p = points[i];
+          float dx = p.x - sx, dy = p.y - sy, dz = p.z - sz;
+          float dist = dx * dx + dy * dy + dz * dz;
+          if (dist < bestDist) {
+            bestDist = dist;
+            best = i;
+          }
+        }
+        clusterStart[clusters] = k;
+        representative[clusters++] = best;
+        k = end;
+      }
+      clusterStart[clusters] = size;
+
+      // Keep representatives in model order, which is friendlier to patterns
+      // that walk the points sequentially
+      int[] sortedRepresentatives = Arrays.copyOf(representative, clusters);
+      Arrays.sort(sortedRepresentatives);
+      this.representatives = new LXPoint[clusters];
+      for (int c = 0; c < clusters; ++c) {
+        this.representatives[c] = points[sortedRepresentatives[c]];
+      }
+
+      this.expandTarget = new int[size - clusters];
+      this.expandNearest = new int[size - clusters];
+      int e = 0;
+      for (int c = 0; c < clusters; ++c) {
+        int rep = representative[c];
+        for (int j = clusterStart[c]; j < clusterStart[c+1]; ++j) {
+          int i = (int) keys[j];
+          if (i != rep) {
+            this.expandTarget[e] = points[i].index;
+            this.expandNearest[e] = points[rep].index;
+            ++e;
+          }
+        }
+      }
+    }
+  }
+
+  LXProxyModel(LXModel source, int level) {
+    this(source, level, new Clustering(source, level));
+  }
+
+  private LXProxyModel(LXModel source, int level, Clustering clustering) {
+    super(clustering.representatives, new LXFixture[0], source.getMetrics(), null);
+    this.source = source;
+    this.level = level;
+    this.expandTarget = clustering.expandTarget;
+    this.expandNearest = clustering.expandNearest;
+    this.cellSize = clustering.cellSize;
+  }
+
+  /**
+   * Fraction of the source model's points which are rendered by this proxy
+   *
+   * @return Ratio of proxy points to source points
+   */
+  public float getReduction() {
+    return this.source.size == 0 ? 1 : this.size / (float) this.source.size;
+  }
+
+  /**
+   * Fills in every non-representative point of a full-size color buffer
+   * from the colors of the representatives.
+   *
+   * @param colors Color buffer, either int[] 8-bit or long[] 16-bit colors
+   * @param weighted Whether to blend the nearest representatives rather
+   *   than copy the nearest one
+   */
+  public void expand(Object colors, boolean weighted) {
+    if (weighted) {
+      buildWeights();
+    }
+    final int count = this.expandTarget.length;
+    if (count < 2 * CHUNK_SIZE) {
+      expand(colors, weighted, 0, count);
+    } else {
+      int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      IntStream.range(0, chunks).parallel().forEach(chunk -> {
+        int start = chunk * CHUNK_SIZE;
+        expand(colors, weighted, start, Math.min(count, start + CHUNK_SIZE));
+      });
+    }
+  }
+
+  private void expand(Object colors, boolean weighted, int start, int end) {
+    final int[] target = this.expandTarget;
+    if (colors instanceof int[]) {
+      int[] c = (int[]) colors;
+      if (weighted) {
+        for (int e = start; e < end; ++e) {
+          c[target[e]] = blend8(c, e * WEIGHTED_NEIGHBORS);
+        }
+      } else {
+        final int[] nearest = this.expandNearest;
+        for (int e = start; e < end; ++e) {
+          c[target[e]] = c[nearest[e]];
+        }
+      }
+    } else if (colors instanceof long[]) {
+      long[] c = (long[]) colors;
+      if (weighted) {
+        for (int e = start; e < end; ++e) {
+          c[target[e]] = blend16(c, e * WEIGHTED_NEIGHBORS);
+        }
+      } else {
+        final int[] nearest = this.expandNearest;
+        for (int e = start; e < end; ++e) {
+          c[target[e]] = c[nearest[e]];
+        }
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot expand color array of type " + colors.getClass().getSimpleName());
+    }
+  }
+
+  private int blend8(int[] c, int row) {
+    float a = 0, r = 0, g = 0, b = 0;
+    for (int k = row; k < row + WEIGHTED_NEIGHBORS; ++k) {
+      int argb = c[this.weightedSource[k]];
+      float w = this.weightedAmount[k];
+      a += w * ((argb >>> 24) & 0xff);
+      r += w * ((argb >>> 16) & 0xff);
+      g += w * ((argb >>> 8) & 0xff);
+      b += w * (argb & 0xff);
+    }
+    return
+      (Math.round(a) << 24) |
+      (Math.round(r) << 16) |
+      (Math.round(g) << 8) |
+      Math.round(b);
+  }
+
+  private long blend16(long[] c, int row) {
+    float a = 0, r = 0, g = 0, b = 0;
+    for (int k = row; k < row + WEIGHTED_NEIGHBORS; ++k) {
+      long argb = c[this.weightedSource[k]];
+      float w = this.weightedAmount[k];
+      a += w * ((argb >>> 48) & 0xffff);
+      r += w * ((argb >>> 32) & 0xffff);
+      g += w * ((argb >>> 16) & 0xffff);
+      b += w * (argb & 0xffff);
+    }
+    return
+      ((long) Math.round(a) << 48) |
+      ((long) Math.round(r) << 32) |
+      ((long) Math.round(g) << 16) |
+      (long) Math.round(b);
+  }
+
+  /**
+   * Builds the table of nearest representatives and their inverse-distance
+   * weights for every expanded point. Rows with fewer representatives than
+   * WEIGHTED_NEIGHBORS repeat the nearest with zero weight.
+   */
+  private synchronized void buildWeights() {
+    if (this.weightedSource != null) {
+      return;
+    }
+    LXVector[] vectors = new LXVector[this.size];
+    for (int i = 0; i < this.size; ++i) {
+      vectors[i] = new LXVector(this.points[i]);
+    }
+    SpatialIndex index = new SpatialIndex(vectors);
+
+    // Representative positions by point index
+    int maxIndex = 0;
+    for (LXPoint p : this.source.points) {
+      maxIndex = Math.max(maxIndex, p.index);
+    }
+    final LXPoint[] byIndex = new LXPoint[maxIndex + 1];
+    for (LXPoint p : this.source.points) {
+      byIndex[p.index] = p;
+    }
+
+    final int count = this.expandTarget.length;
+    final int[] source = new int[count * WEIGHTED_NEIGHBORS];
+    final float[] amount = new float[count * WEIGHTED_NEIGHBORS];
+    // Softens the weights so that points midway between representatives blend evenly
+    final float softening = this.cellSize * .25f;
+    IntStream.range(0, count).parallel().forEach(e -> {
+      int[] nearest = new int[WEIGHTED_NEIGHBORS];
+      LXPoint p = byIndex[this.expandTarget[e]];
+      int found = index.nearest(p.x, p.y, p.z, WEIGHTED_NEIGHBORS, nearest);
+      int row = e * WEIGHTED_NEIGHBORS;
+      float total = 0;
+      for (int k = 0; k < WEIGHTED_NEIGHBORS; ++k) {
+        if (k < found) {
+          LXPoint q = byIndex[nearest[k]];
+          float dx = q.x - p.x, dy = q.y - p.y, dz = q.z - p.z;
+          float w = 1 / ((float) Math.sqrt(dx * dx + dy * dy + dz * dz) + softening);
+          source[row + k] = nearest[k];
+          amount[row + k] = w;
+          total += w;
+        } else {
+          source[row + k] = this.expandNearest[e];
+          amount[row + k] = 0;
+        }
+      }
+      for (int k = 0; k < WEIGHTED_NEIGHBORS; ++k) {
+        amount[row + k] /= total;
+      }
+    });
+    this.weightedAmount = amount;
+    this.weightedSource = source;
+  }
+
+}
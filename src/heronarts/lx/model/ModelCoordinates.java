@@ -0,0 +1,144 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+package heronarts.lx.model;
+
+/**
+ * Structure-of-arrays view of the points in a model. Each array is indexed
+ * by the position of the point in model.points, and index[i] gives the
+ * position of that point in the color buffer. Iterating these arrays avoids
+ * dereferencing an LXPoint object per point, which matters on large models.
+ *
+ * The arrays are owned by the model and are refreshed in place whenever the
+ * model is updated, so references to them remain valid. They must be treated
+ * as read-only.
+ */
+public class ModelCoordinates {
+
+  /** Number of points */
+  public final int size;
+
+  /** Color buffer index of each point */
+  public final int[] index;
+
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+
+  /** Normalized positions, relative to the model that was last updated */
+  public final float[] xn;
+  public final float[] yn;
+  public final float[] zn;
+
+  /** Radius from origin in 3 dimensions, and its normalized value */
+  public final float[] r;
+  public final float[] rn;
+
+  /** Angle about the origin in the x-y plane */
+  public final float[] theta;
+
+  /** Angle about the origin in the x-z plane */
+  public final float[] azimuth;
+
+  /** Angle between the y-value and the x-z plane */
+  public final float[] elevation;
+
+  ModelCoordinates(int[] index, float[] x, float[] y, float[] z, float[] xn, float[] yn, float[] zn, float[] r, float[] rn, float[] theta, float[] azimuth, float[] elevation) {
+    this.size = index.length;
+    this.index = index;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.xn = xn;
+    this.yn = yn;
+    this.zn = zn;
+    this.r = r;
+    this.rn = rn;
+    this.theta = theta;
+    this.azimuth = azimuth;
+    this.elevation = elevation;
+  }
+
+  ModelCoordinates(LXPoint[] points) {
+    int size = this.size = points.length;
+    this.index = new int[size];
+    this.x = new float[size];
+    this.y = new float[size];
+    this.z = new float[size];
+    this.xn = new float[size];
+    this.yn = new float[size];
+    this.zn = new float[size];
+    this.r = new float[size];
+    this.rn = new float[size];
+    this.theta = new float[size];
+    this.azimuth = new float[size];
+    this.elevation = new float[size];
+    update(points);
+  }
+
+  /**
+   * Copies the current point values into the arrays
+   *
+   * @param points Points, same length as when constructed
+   */
+  void update(LXPoint[] points) {
+    update(points, 0, this.size);
+  }
+
+  /**
+   * Copies the current point values for a range of points
+   *
+   * @param points Points
+   * @param start Start position, inclusive
+   * @param end End position, exclusive
+   */
+  void update(LXPoint[] points, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      LXPoint p = points[i];
+      this.index[i] = p.index;
+      this.x[i] = p.x;
+      this.y[i] = p.y;
+      this.z[i] = p.z;
+      this.xn[i] = p.xn;
+      this.yn[i] = p.yn;
+      this.zn[i] = p.zn;
+      this.r[i] = p.r;
+      this.rn[i] = p.rn;
+      this.theta[i] = p.theta;
+      this.azimuth[i] = p.azimuth;
+      this.elevation[i] = p.elevation;
+    }
+  }
+
+  /**
+   * Copies just the angular values for a range of points
+   *
+   * @param points Points
+   * @param start Start position, inclusive
+   * @param end End position, exclusive
+   */
+  void updateAngular(LXPoint[] points, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      LXPoint p = points[i];
+      this.theta[i] = p.theta;
+      this.azimuth[i] = p.azimuth;
+      this.elevation[i] = p.elevation;
+    }
+  }
+}
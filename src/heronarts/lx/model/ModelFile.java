@@ -0,0 +1,296 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+package heronarts.lx.model;
+
+import heronarts.lx.LX;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file format for a fully computed model. The file holds every point's
+ * coordinates and derived values as little-endian planes, the point range of
+ * each fixture, and the model metrics, so that a very large model can be
+ * memory-mapped and brought up without any trigonometry or metric passes.
+ *
+ * Layout, after a 32-byte header of magic, version, point count, fixture
+ * count and a CRC32 of everything that follows:
+ *
+ *   metrics      18 floats
+ *   index        int[points]
+ *   x, y, z, r, rxy, rxz, theta, azimuth, elevation, xn, yn, zn, rn
+ *                float[points] each
+ *   fixtures     int[fixtures * 2] of (start, count) into model.points
+ *
+ * Loaded models are plain LXModel instances with plain fixtures; subclass
+ * structure is not preserved.
+ */
+public class ModelFile {
+
+  public static final int MAGIC = 0x464d584c; // "LXMF"
+
+  /** Version written by write(), bump whenever the layout changes */
+  public static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 32;
+
+  private static final int POINT_PLANES = 13;
+
+  private ModelFile() {}
+
+  /**
+   * Writes a model to a file in the current format version, computing any
+   * deferred angles first. Every fixture's points must be a contiguous range
+   * of model.points, which is always the case for models built from fixtures.
+   *
+   * @param model Model
+   * @param file File to write
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(LXModel model, File file) throws IOException {
+    // Lazy models may not have filled in the angular fields yet
+    model.computeAngles();
+    int size = model.points.length;
+    int numFixtures = model.fixtures.size();
+    int[] ranges = new int[numFixtures * 2];
+    int[] positions = positionsByIndex(model);
+    int f = 0;
+    for (LXFixture fixture : model.fixtures) {
+      List<LXPoint> fixturePoints = fixture.getPoints();
+      int start = fixturePoints.isEmpty() ? 0 : positionOf(positions, model, fixturePoints.get(0));
+      int i = start;
+      for (LXPoint p : fixturePoints) {
+        if (i >= size || model.points[i] != p) {
+          throw new IllegalArgumentException("Fixture points are not a contiguous range of the model: " + fixture);
+        }
+        ++i;
+      }
+      ranges[f++] = start;
+      ranges[f++] = fixturePoints.size();
+    }
+
+    long length = HEADER_SIZE + 4L * (ModelMetrics.SERIALIZED_FLOATS + size * (1 + POINT_PLANES) + ranges.length);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+      raf.setLength(length);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      ByteBuffer payload = slice(buffer, HEADER_SIZE, length - HEADER_SIZE);
+      FloatBuffer floats = payload.asFloatBuffer();
+      model.getMetrics().write(floats);
+      int offset = 4 * ModelMetrics.SERIALIZED_FLOATS;
+      IntBuffer ints = slice(payload, offset, 4L * size).asIntBuffer();
+      for (LXPoint p : model.points) {
+        ints.put(p.index);
+      }
+      offset += 4 * size;
+      floats = slice(payload, offset, 4L * size * POINT_PLANES).asFloatBuffer();
+      for (LXPoint p : model.points) floats.put(p.x);
+      for (LXPoint p : model.points) floats.put(p.y);
+      for (LXPoint p : model.points) floats.put(p.z);
+      for (LXPoint p : model.points) floats.put(p.r);
+      for (LXPoint p : model.points) floats.put(p.rxy);
+      for (LXPoint p : model.points) floats.put(p.rxz);
+      for (LXPoint p : model.points) floats.put(p.theta);
+      for (LXPoint p : model.points) floats.put(p.azimuth);
+      for (LXPoint p : model.points) floats.put(p.elevation);
+      for (LXPoint p : model.points) floats.put(p.xn);
+      for (LXPoint p : model.points) floats.put(p.yn);
+      for (LXPoint p : model.points) floats.put(p.zn);
+      for (LXPoint p : model.points) floats.put(p.rn);
+      offset += 4 * size * POINT_PLANES;
+      slice(payload, offset, 4L * ranges.length).asIntBuffer().put(ranges);
+
+      CRC32 crc = new CRC32();
+      crc.update(slice(buffer, HEADER_SIZE, length - HEADER_SIZE));
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, size);
+      buffer.putInt(12, numFixtures);
+      buffer.putLong(16, crc.getValue());
+      buffer.force();
+    }
+  }
+
+  /**
+   * Loads a model from a file, verifying its checksum
+   *
+   * @param file File
+   * @return Model
+   * @throws IOException if the file is unreadable, of an unknown version, or corrupt
+   */
+  public static LXModel read(File file) throws IOException {
+    return read(file, true);
+  }
+
+  /**
+   * Loads a model from a file
+   *
+   * @param file File
+   * @param verify Whether to verify the checksum
+   * @return Model
+   * @throws IOException if the file is unreadable, of an unknown version, or corrupt
+   */
+  public static LXModel read(File file, boolean verify) throws IOException {
+    long start = System.nanoTime();
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    long length = buffer.limit();
+    if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an LX model file: " + file);
+    }
+    int version = buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported LX model file version " + version + ": " + file);
+    }
+    int size = buffer.getInt(8);
+    int numFixtures = buffer.getInt(12);
+    long expected = HEADER_SIZE + 4L * (ModelMetrics.SERIALIZED_FLOATS + (long) size * (1 + POINT_PLANES) + 2L * numFixtures);
+    if (size < 0 || numFixtures < 0 || length != expected) {
+      throw new IOException("LX model file is truncated or has an invalid header: " + file);
+    }
+    if (verify) {
+      CRC32 crc = new CRC32();
+      crc.update(slice(buffer, HEADER_SIZE, length - HEADER_SIZE));
+      if (crc.getValue() != buffer.getLong(16)) {
+        throw new IOException("LX model file checksum mismatch: " + file);
+      }
+    }
+    long mapped = System.nanoTime();
+
+    ByteBuffer payload = slice(buffer, HEADER_SIZE, length - HEADER_SIZE);
+    ModelMetrics metrics = new ModelMetrics().read(payload.asFloatBuffer(), size);
+    int offset = 4 * ModelMetrics.SERIALIZED_FLOATS;
+    int[] index = new int[size];
+    slice(payload, offset, 4L * size).asIntBuffer().get(index);
+    offset += 4 * size;
+    FloatBuffer floats = slice(payload, offset, 4L * size * POINT_PLANES).asFloatBuffer();
+    float[] x = plane(floats, size);
+    float[] y = plane(floats, size);
+    float[] z = plane(floats, size);
+    float[] r = plane(floats, size);
+    float[] rxy = plane(floats, size);
+    float[] rxz = plane(floats, size);
+    float[] theta = plane(floats, size);
+    float[] azimuth = plane(floats, size);
+    float[] elevation = plane(floats, size);
+    float[] xn = plane(floats, size);
+    float[] yn = plane(floats, size);
+    float[] zn = plane(floats, size);
+    float[] rn = plane(floats, size);
+    offset += 4 * size * POINT_PLANES;
+    int[] ranges = new int[2 * numFixtures];
+    slice(payload, offset, 4L * ranges.length).asIntBuffer().get(ranges);
+
+    LXPoint[] points = new LXPoint[size];
+    for (int i = 0; i < size; ++i) {
+      LXPoint p = new LXPoint(index[i], x[i], y[i], z[i]);
+      p.r = r[i];
+      p.rxy = rxy[i];
+      p.rxz = rxz[i];
+      p.theta = theta[i];
+      p.azimuth = azimuth[i];
+      p.elevation = elevation[i];
+      p.xn = xn[i];
+      p.yn = yn[i];
+      p.zn = zn[i];
+      p.rn = rn[i];
+      points[i] = p;
+    }
+    long built = System.nanoTime();
+
+    List<LXPoint> pointList = Collections.unmodifiableList(Arrays.asList(points));
+    LXFixture[] fixtures = new LXFixture[numFixtures];
+    for (int f = 0; f < numFixtures; ++f) {
+      int fixtureStart = ranges[2*f], fixtureCount = ranges[2*f + 1];
+      if (fixtureStart < 0 || fixtureCount < 0 || fixtureStart + fixtureCount > size) {
+        throw new IOException("LX model file has an invalid fixture range: " + file);
+      }
+      fixtures[f] = new RangeFixture(pointList.subList(fixtureStart, fixtureStart + fixtureCount));
+    }
+    ModelCoordinates coordinates = new ModelCoordinates(index, x, y, z, xn, yn, zn, r, rn, theta, azimuth, elevation);
+    LXModel model = new LXModel(points, fixtures, metrics, coordinates);
+    long end = System.nanoTime();
+
+    LX.initTimer.log("Model File: Map" + (verify ? " + Verify" : ""), mapped - start);
+    LX.initTimer.log("Model File: Points (" + size + ")", built - mapped);
+    LX.initTimer.log("Model File: Model", end - built);
+    return model;
+  }
+
+  private static float[] plane(FloatBuffer floats, int size) {
+    float[] plane = new float[size];
+    floats.get(plane);
+    return plane;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+    ByteBuffer dup = buffer.duplicate();
+    dup.position((int) offset);
+    dup.limit((int) (offset + length));
+    return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static int[] positionsByIndex(LXModel model) {
+    int maxIndex = -1;
+    for (LXPoint p : model.points) {
+      maxIndex = Math.max(maxIndex, p.index);
+    }
+    int[] positions = new int[maxIndex + 1];
+    for (int i = 0; i < model.points.length; ++i) {
+      positions[model.points[i].index] = i;
+    }
+    return positions;
+  }
+
+  private static int positionOf(int[] positions, LXModel model, LXPoint p) {
+    if (p.index < 0 || p.index >= positions.length || model.points[positions[p.index]] != p) {
+      throw new IllegalArgumentException("Fixture contains a point that is not in the model: " + p.index);
+    }
+    return positions[p.index];
+  }
+
+  private static class RangeFixture implements LXFixture {
+    private final List<LXPoint> points;
+
+    private RangeFixture(List<LXPoint> points) {
+      this.points = points;
+    }
+
+    @Override
+    public List<LXPoint> getPoints() {
+      return this.points;
+    }
+  }
+}
@@ -1,7 +1,7 @@
 package heronarts.lx.model;
 
+import java.nio.FloatBuffer;
 import java.util.List;
-import java.util.ArrayList;
 
 import heronarts.lx.transform.LXVector;
 
@@ -131,66 +131,211 @@ public class ModelMetrics {
   }
 
   public ModelMetrics recompute(LXPoint[] points) {
-    List<LXVector> vectors = new ArrayList<>();
+    begin();
     for (LXPoint p : points) {
-      vectors.add(new LXVector(p));
+      add(p.x, p.y, p.z);
     }
-    return recompute(vectors);
+    return end();
   }
 
   public ModelMetrics recompute(List<LXVector> vectors) {
-    return recompute(vectors.toArray(new LXVector[0]));
+    begin();
+    for (LXVector vec : vectors) {
+      if (vec != null) {
+        add(vec.x, vec.y, vec.z);
+      }
+    }
+    return end();
   }
 
   public ModelMetrics recompute(LXVector[] vectors) {
-    float ax = 0, ay = 0, az = 0;
-    float xMin = 0, xMax = 0, yMin = 0, yMax = 0, zMin = 0, zMax = 0, rMin = 0, rMax = 0;
-    int size = 0;
-
-    boolean firstPoint = true;
+    begin();
     for (LXVector vec : vectors) {
-      if (vec == null) {
-        continue;
+      if (vec != null) {
+        add(vec.x, vec.y, vec.z);
       }
+    }
+    return end();
+  }
 
-      ++size;
-
-      ax += vec.x;
-      ay += vec.y;
-      az += vec.z;
-
-      float r = (float)Math.sqrt(vec.x * vec.x + vec.y * vec.y + vec.z * vec.z);
-
-      if (firstPoint) {
-        xMin = xMax = vec.x;
-        yMin = yMax = vec.y;
-        zMin = zMax = vec.z;
-        rMin = rMax = r;
-      } else {
-        if (vec.x < xMin)
-          xMin = vec.x;
-        if (vec.x > xMax)
-          xMax = vec.x;
-        if (vec.y < yMin)
-          yMin = vec.y;
-        if (vec.y > yMax)
-          yMax = vec.y;
-        if (vec.z < zMin)
-          zMin = vec.z;
-        if (vec.z > zMax)
-          zMax = vec.z;
-        if (r < rMin)
-          rMin = r;
-        if (r > rMax)
-          rMax = r;
-      }
-      firstPoint = false;
+  /**
+   * Number of float values written by write()
+   */
+  static final int SERIALIZED_FLOATS = 18;
+
+  void write(FloatBuffer buffer) {
+    buffer.put(cx).put(cy).put(cz);
+    buffer.put(ax).put(ay).put(az);
+    buffer.put(xMin).put(xMax).put(xRange);
+    buffer.put(yMin).put(yMax).put(yRange);
+    buffer.put(zMin).put(zMax).put(zRange);
+    buffer.put(rMin).put(rMax).put(rRange);
+  }
+
+  ModelMetrics read(FloatBuffer buffer, int size) {
+    this.size = size;
+    this.cx = buffer.get(); this.cy = buffer.get(); this.cz = buffer.get();
+    this.ax = buffer.get(); this.ay = buffer.get(); this.az = buffer.get();
+    this.xMin = buffer.get(); this.xMax = buffer.get(); this.xRange = buffer.get();
+    this.yMin = buffer.get(); this.yMax = buffer.get(); this.yRange = buffer.get();
+    this.zMin = buffer.get(); this.zMax = buffer.get(); this.zRange = buffer.get();
+    this.rMin = buffer.get(); this.rMax = buffer.get(); this.rRange = buffer.get();
+    return this;
+  }
+
+  /**
+   * Copies all values from another metrics object
+   *
+   * @param that Metrics to copy
+   * @return this
+   */
+  public ModelMetrics copyFrom(ModelMetrics that) {
+    this.size = that.size;
+    this.cx = that.cx;
+    this.cy = that.cy;
+    this.cz = that.cz;
+    this.ax = that.ax;
+    this.ay = that.ay;
+    this.az = that.az;
+    this.xMin = that.xMin;
+    this.xMax = that.xMax;
+    this.xRange = that.xRange;
+    this.yMin = that.yMin;
+    this.yMax = that.yMax;
+    this.yRange = that.yRange;
+    this.zMin = that.zMin;
+    this.zMax = that.zMax;
+    this.zRange = that.zRange;
+    this.rMin = that.rMin;
+    this.rMax = that.rMax;
+    this.rRange = that.rRange;
+    return this;
+  }
+
+  // Running totals between begin() and end()
+  private int accSize;
+  private float accX, accY, accZ;
+  private float accXMin, accXMax, accYMin, accYMax, accZMin, accZMax, accRMin, accRMax;
+
+  /**
+   * Starts an incremental recompute, so that metrics can be gathered in the
+   * same pass that produces the positions. Call add() for each position and
+   * then end().
+   *
+   * @return this
+   */
+  public ModelMetrics begin() {
+    this.accSize = 0;
+    this.accX = this.accY = this.accZ = 0;
+    this.accXMin = this.accXMax = this.accYMin = this.accYMax = 0;
+    this.accZMin = this.accZMax = this.accRMin = this.accRMax = 0;
+    return this;
+  }
+
+  /**
+   * Adds a position to an incremental recompute
+   *
+   * @param x X-position
+   * @param y Y-position
+   * @param z Z-position
+   */
+  public void add(float x, float y, float z) {
+    this.accX += x;
+    this.accY += y;
+    this.accZ += z;
+
+    float r = (float) Math.sqrt(x * x + y * y + z * z);
+
+    if (this.accSize++ == 0) {
+      this.accXMin = this.accXMax = x;
+      this.accYMin = this.accYMax = y;
+      this.accZMin = this.accZMax = z;
+      this.accRMin = this.accRMax = r;
+    } else {
+      if (x < this.accXMin)
+        this.accXMin = x;
+      if (x > this.accXMax)
+        this.accXMax = x;
+      if (y < this.accYMin)
+        this.accYMin = y;
+      if (y > this.accYMax)
+        this.accYMax = y;
+      if (z < this.accZMin)
+        this.accZMin = z;
+      if (z > this.accZMax)
+        this.accZMax = z;
+      if (r < this.accRMin)
+        this.accRMin = r;
+      if (r > this.accRMax)
+        this.accRMax = r;
     }
+  }
 
+  /**
+   * Merges the positions added to another incremental recompute into this
+   * one, so that partial metrics from parallel passes can be combined.
+   *
+   * @param that Partial metrics, between begin() and end()
+   * @return this
+   */
+  public ModelMetrics merge(ModelMetrics that) {
+    if (that.accSize == 0) {
+      return this;
+    }
+    if (this.accSize == 0) {
+      this.accXMin = that.accXMin;
+      this.accXMax = that.accXMax;
+      this.accYMin = that.accYMin;
+      this.accYMax = that.accYMax;
+      this.accZMin = that.accZMin;
+      this.accZMax = that.accZMax;
+      this.accRMin = that.accRMin;
+      this.accRMax = that.accRMax;
+    } else {
+      this.accXMin = Math.min(this.accXMin, that.accXMin);
+      this.accXMax = Math.max(this.accXMax, that.accXMax);
+      this.accYMin = Math.min(this.accYMin, that.accYMin);
+      this.accYMax = Math.max(this.accYMax, that.accYMax);
+      this.accZMin = Math.min(this.accZMin, that.accZMin);
+      this.accZMax = Math.max(this.accZMax, that.accZMax);
+      this.accRMin = Math.min(this.accRMin, that.accRMin);
+      this.accRMax = Math.max(this.accRMax, that.accRMax);
+    }
+    this.accSize += that.accSize;
+    this.accX += that.accX;
+    this.accY += that.accY;
+    this.accZ += that.accZ;
+    return this;
+  }
+
+  /**
+   * Finishes an incremental recompute and publishes the values
+   *
+   * @return this
+   */
+  public ModelMetrics end() {
+    int size = this.accSize;
+    return set(
+      size,
+      this.accX / Math.max(1, size),
+      this.accY / Math.max(1, size),
+      this.accZ / Math.max(1, size),
+      this.accXMin, this.accXMax,
+      this.accYMin, this.accYMax,
+      this.accZMin, this.accZMax,
+      this.accRMin, this.accRMax
+    );
+  }
+
+  /**
+   * Sets the metrics from averages and bounds gathered elsewhere, e.g. by a
+   * parallel pass. Ranges and centers are derived.
+   */
+  ModelMetrics set(int size, float ax, float ay, float az, float xMin, float xMax, float yMin, float yMax, float zMin, float zMax, float rMin, float rMax) {
     this.size = size;
-    this.ax = ax / Math.max(1, size);
-    this.ay = ay / Math.max(1, size);
-    this.az = az / Math.max(1, size);
+    this.ax = ax;
+    this.ay = ay;
+    this.az = az;
     this.xMin = xMin;
     this.xMax = xMax;
     this.xRange = xMax - xMin;
@@ -0,0 +1,553 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+package heronarts.lx.model;
+
+import heronarts.lx.transform.LXVector;
+import heronarts.lx.transform.LXVectorPlanes;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over a set of point positions, supporting radius, box and
+ * k-nearest-neighbor queries. Positions are stored in primitive arrays sorted
+ * by grid cell, so a query only touches the cells that can contain results.
+ *
+ * Query results are written into caller-provided arrays and are point index
+ * values, i.e. LXPoint.index, suitable for indexing into color buffers and
+ * warped vector arrays. Queries do not allocate and may be run from multiple
+ * threads at once, but not concurrently with update().
+ */
+public class SpatialIndex {
+
+  private static final float POINTS_PER_CELL = 2;
+
+  /**
+   * Axes whose range is below this fraction of the largest range are treated
+   * as flat, so that planar models don't produce huge grids.
+   */
+  private static final float FLAT_AXIS_RATIO = 1e-4f;
+
+  private int size = 0;
+  private int rows = 0;
+
+  // Positions, ids and input rows, sorted by cell
+  private float[] px = new float[0];
+  private float[] py = new float[0];
+  private float[] pz = new float[0];
+  private int[] pid = new int[0];
+  private int[] prow = new int[0];
+
+  // Unsorted scratch used while building
+  private float[] tx = new float[0];
+  private float[] ty = new float[0];
+  private float[] tz = new float[0];
+  private int[] tid = new int[0];
+  private int[] trow = new int[0];
+  private int[] tcell = new int[0];
+
+  private int[] cellStart = new int[1];
+  private int nx = 1, ny = 1, nz = 1;
+  private float xMin, yMin, zMin;
+  private float cellSize = 1, invCellSize = 1;
+
+  private int neighborK = 0;
+  private int[] neighborTable = null;
+
+  /**
+   * Builds an index over the points of a model
+   *
+   * @param coordinates Model coordinates
+   */
+  public SpatialIndex(ModelCoordinates coordinates) {
+    update(coordinates);
+  }
+
+  /**
+   * Builds an index over the present points of vector planes, such as the
+   * output of a warp
+   *
+   * @param planes Vector planes
+   */
+  public SpatialIndex(LXVectorPlanes planes) {
+    update(planes);
+  }
+
+  /**
+   * Builds an index over the non-null vectors in an array
+   *
+   * @param vectors Vectors, may contain null elements
+   */
+  public SpatialIndex(LXVector[] vectors) {
+    update(vectors);
+  }
+
+  /**
+   * Rebuilds the index in place from model coordinates
+   *
+   * @param coordinates Model coordinates
+   * @return this
+   */
+  public synchronized SpatialIndex update(ModelCoordinates coordinates) {
+    int n = coordinates.size;
+    allocate(n);
+    System.arraycopy(coordinates.x, 0, this.tx, 0, n);
+    System.arraycopy(coordinates.y, 0, this.ty, 0, n);
+    System.arraycopy(coordinates.z, 0, this.tz, 0, n);
+    System.arraycopy(coordinates.index, 0, this.tid, 0, n);
+    for (int i = 0; i < n; ++i) {
+      this.trow[i] = i;
+    }
+    build(n, n);
+    return this;
+  }
+
+  /**
+   * Rebuilds the index in place from an array of vectors, skipping nulls
+   *
+   * @param vectors Vectors
+   * @return this
+   */
+  public synchronized SpatialIndex update(LXVector[] vectors) {
+    int n = 0;
+    for (LXVector v : vectors) {
+      if (v != null) {
+        ++n;
+      }
+    }
+    allocate(n);
+    int i = 0;
+    for (int row = 0; row < vectors.length; ++row) {
+      LXVector v = vectors[row];
+      if (v != null) {
+        this.tx[i] = v.x;
+        this.ty[i] = v.y;
+        this.tz[i] = v.z;
+        this.tid[i] = v.index;
+        this.trow[i] = row;
+        ++i;
+      }
+    }
+    build(n, vectors.length);
+    return this;
+  }
+
+  /**
+   * Rebuilds the index in place from the present points of vector planes
+   *
+   * @param planes Vector planes
+   * @return this
+   */
+  public synchronized SpatialIndex update(LXVectorPlanes planes) {
+    int n = 0;
+    for (int row = 0; row < planes.size; ++row) {
+      if (planes.present[row]) {
+        ++n;
+      }
+    }
+    allocate(n);
+    int i = 0;
+    for (int row = 0; row < planes.size; ++row) {
+      if (planes.present[row]) {
+        this.tx[i] = planes.x[row];
+        this.ty[i] = planes.y[row];
+        this.tz[i] = planes.z[row];
+        this.tid[i] = planes.getPoint(row).index;
+        this.trow[i] = row;
+        ++i;
+      }
+    }
+    build(n, planes.size);
+    return this;
+  }
+
+  /**
+   * Number of points in the index
+   *
+   * @return Number of points
+   */
+  public int size() {
+    return this.size;
+  }
+
+  private void allocate(int n) {
+    if (this.px.length < n) {
+      this.px = new float[n];
+      this.py = new float[n];
+      this.pz = new float[n];
+      this.pid = new int[n];
+      this.prow = new int[n];
+      this.tx = new float[n];
+      this.ty = new float[n];
+      this.tz = new float[n];
+      this.tid = new int[n];
+      this.trow = new int[n];
+      this.tcell = new int[n];
+    }
+  }
+
+  private void build(int n, int rows) {
+    this.size = n;
+    this.rows = rows;
+
+    float xMin = 0, xMax = 0, yMin = 0, yMax = 0, zMin = 0, zMax = 0;
+    for (int i = 0; i < n; ++i) {
+      float x = this.tx[i], y = this.ty[i], z = this.tz[i];
+      if (i == 0) {
+        xMin = xMax = x;
+        yMin = yMax = y;
+        zMin = zMax = z;
+      } else {
+        if (x < xMin) xMin = x;
+        if (x > xMax) xMax = x;
+        if (y < yMin) yMin = y;
+        if (y > yMax) yMax = y;
+        if (z < zMin) zMin = z;
+        if (z > zMax) zMax = z;
+      }
+    }
+    this.xMin = xMin;
+    this.yMin = yMin;
+    this.zMin = zMin;
+
+    // Choose a cell size giving a few points per cell over the non-flat axes
+    float xRange = xMax - xMin, yRange = yMax - yMin, zRange = zMax - zMin;
+    float flat = FLAT_AXIS_RATIO * Math.max(xRange, Math.max(yRange, zRange));
+    int axes = 0;
+    double volume = 1;
+    if (xRange > flat) { ++axes; volume *= xRange; }
+    if (yRange > flat) { ++axes; volume *= yRange; }
+    if (zRange > flat) { ++axes; volume *= zRange; }
+    double targetCells = Math.max(1, n / POINTS_PER_CELL);
+    float cellSize = (axes == 0) ? 1 : (float) Math.pow(volume / targetCells, 1. / axes);
+    if (!(cellSize > 0)) {
+      cellSize = 1;
+    }
+    long cells;
+    while (true) {
+      this.nx = cellCount(xRange, cellSize);
+      this.ny = cellCount(yRange, cellSize);
+      this.nz = cellCount(zRange, cellSize);
+      cells = (long) this.nx * this.ny * this.nz;
+      if (cells <= 4 * targetCells) {
+        break;
+      }
+      cellSize *= 1.25f;
+    }
+    this.cellSize = cellSize;
+    this.invCellSize = 1 / cellSize;
+
+    // Counting sort of points into cells
+    int numCells = (int) cells;
+    if (this.cellStart.length < numCells + 1) {
+      this.cellStart = new int[numCells + 1];
+    } else {
+      for (int c = 0; c <= numCells; ++c) {
+        this.cellStart[c] = 0;
+      }
+    }
+    for (int i = 0; i < n; ++i) {
+      int cell = cellIndex(
+        cellX(this.tx[i]),
+        cell(this.ty[i], this.yMin, this.ny),
+        cell(this.tz[i], this.zMin, this.nz)
+      );
+      this.tcell[i] = cell;
+      ++this.cellStart[cell + 1];
+    }
+    for (int c = 0; c < numCells; ++c) {
+      this.cellStart[c + 1] += this.cellStart[c];
+    }
+    for (int i = 0; i < n; ++i) {
+      int slot = this.cellStart[this.tcell[i]]++;
+      this.px[slot] = this.tx[i];
+      this.py[slot] = this.ty[i];
+      this.pz[slot] = this.tz[i];
+      this.pid[slot] = this.tid[i];
+      this.prow[slot] = this.trow[i];
+    }
+    // Each start was advanced to the following cell's start, shift back
+    for (int c = numCells; c > 0; --c) {
+      this.cellStart[c] = this.cellStart[c - 1];
+    }
+    this.cellStart[0] = 0;
+
+    if (this.neighborTable != null) {
+      buildNeighborTable(this.neighborK);
+    }
+  }
+
+  private static int cellCount(float range, float cellSize) {
+    return Math.max(1, (int) Math.ceil(range / cellSize));
+  }
+
+  private int cellX(float x) {
+    return cell(x, this.xMin, this.nx);
+  }
+
+  private int cell(float v, float min, int count) {
+    int c = (int) ((v - min) * this.invCellSize);
+    return (c < 0) ? 0 : ((c >= count) ? count - 1 : c);
+  }
+
+  private int cellIndex(int cx, int cy, int cz) {
+    return (cz * this.ny + cy) * this.nx + cx;
+  }
+
+  /**
+   * Finds the points within a radius of a position
+   *
+   * @param x X-position
+   * @param y Y-position
+   * @param z Z-position
+   * @param radius Radius
+   * @param result Array to fill with point indices
+   * @return Number of points written, at most result.length
+   */
+  public int radius(float x, float y, float z, float radius, int[] result) {
+    int x0 = cellX(x - radius), x1 = cellX(x + radius);
+    int y0 = cell(y - radius, this.yMin, this.ny), y1 = cell(y + radius, this.yMin, this.ny);
+    int z0 = cell(z - radius, this.zMin, this.nz), z1 = cell(z + radius, this.zMin, this.nz);
+    float r2 = radius * radius;
+    int count = 0;
+    for (int cz = z0; cz <= z1; ++cz) {
+      for (int cy = y0; cy <= y1; ++cy) {
+        int cell = cellIndex(x0, cy, cz);
+        int end = this.cellStart[cell + x1 - x0 + 1];
+        for (int s = this.cellStart[cell]; s < end; ++s) {
+          float dx = this.px[s] - x, dy = this.py[s] - y, dz = this.pz[s] - z;
+          if (dx*dx + dy*dy + dz*dz <= r2) {
+            if (count == result.length) {
+              return count;
+            }
+            result[count++] = this.pid[s];
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds the points inside an axis-aligned box, bounds inclusive
+   *
+   * @param xMin Minimum x
+   * @param yMin Minimum y
+   * @param zMin Minimum z
+   * @param xMax Maximum x
+   * @param yMax Maximum y
+   * @param zMax Maximum z
+   * @param result Array to fill with point indices
+   * @return Number of points written, at most result.length
+   */
+  public int box(float xMin, float yMin, float zMin, float xMax, float yMax, float zMax, int[] result) {
+    int x0 = cellX(xMin), x1 = cellX(xMax);
+    int y0 = cell(yMin, this.yMin, this.ny), y1 = cell(yMax, this.yMin, this.ny);
+    int z0 = cell(zMin, this.zMin, this.nz), z1 = cell(zMax, this.zMin, this.nz);
+    int count = 0;
+    for (int cz = z0; cz <= z1; ++cz) {
+      for (int cy = y0; cy <= y1; ++cy) {
+        int cell = cellIndex(x0, cy, cz);
+        int end = this.cellStart[cell + x1 - x0 + 1];
+        for (int s = this.cellStart[cell]; s < end; ++s) {
+          float px = this.px[s], py = this.py[s], pz = this.pz[s];
+          if (px >= xMin && px <= xMax && py >= yMin && py <= yMax && pz >= zMin && pz <= zMax) {
+            if (count == result.length) {
+              return count;
+            }
+            result[count++] = this.pid[s];
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds the k points nearest to a position, closest first
+   *
+   * @param x X-position
+   * @param y Y-position
+   * @param z Z-position
+   * @param k Number of neighbors
+   * @param result Array to fill with point indices
+   * @return Number of points written, the smallest of k, result.length and size()
+   */
+  public int nearest(float x, float y, float z, int k, int[] result) {
+    k = Math.min(k, result.length);
+    int count = nearestSlots(x, y, z, k, -1, result);
+    for (int i = 0; i < count; ++i) {
+      result[i] = this.pid[result[i]];
+    }
+    return count;
+  }
+
+  /**
+   * Gets a table of the k nearest neighbors of every point, excluding the
+   * point itself. Row i holds the neighbors of the i-th input element, that is
+   * position i in the ModelCoordinates or vector array the index was built
+   * from, at offsets [i*k, (i+1)*k), closest first. Unused entries are -1. The
+   * table is computed on first request and recomputed in place when the index
+   * is updated; requesting a different k replaces it.
+   *
+   * @param k Neighbors per point
+   * @return Neighbor table of point indices
+   */
+  public synchronized int[] getNeighborTable(int k) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("Neighbor count must be positive: " + k);
+    }
+    if (this.neighborTable == null || this.neighborK != k) {
+      this.neighborK = k;
+      this.neighborTable = null;
+      buildNeighborTable(k);
+    }
+    return this.neighborTable;
+  }
+
+  private void buildNeighborTable(int k) {
+    int length = this.rows * k;
+    if (this.neighborTable == null || this.neighborTable.length != length) {
+      this.neighborTable = new int[length];
+    }
+    int[] table = this.neighborTable;
+    Arrays.fill(table, -1);
+    int[] heap = new int[k];
+    for (int s = 0; s < this.size; ++s) {
+      int count = nearestSlots(this.px[s], this.py[s], this.pz[s], k, s, heap);
+      int offset = this.prow[s] * k;
+      for (int i = 0; i < count; ++i) {
+        table[offset + i] = this.pid[heap[i]];
+      }
+    }
+  }
+
+  /**
+   * Core k-nearest search. Visits rings of cells around the query cell,
+   * keeping a max-heap of slots by distance, until no unvisited cell can be
+   * closer than the current k-th neighbor. Leaves slots sorted closest first.
+   */
+  private int nearestSlots(float x, float y, float z, int k, int exclude, int[] heap) {
+    k = Math.min(k, this.size - ((exclude >= 0) ? 1 : 0));
+    if (k <= 0) {
+      return 0;
+    }
+    int qx = (int) Math.floor((x - this.xMin) * this.invCellSize);
+    int qy = (int) Math.floor((y - this.yMin) * this.invCellSize);
+    int qz = (int) Math.floor((z - this.zMin) * this.invCellSize);
+    int maxRing = Math.max(
+      Math.max(Math.abs(qx), Math.abs(qx - this.nx + 1)),
+      Math.max(
+        Math.max(Math.abs(qy), Math.abs(qy - this.ny + 1)),
+        Math.max(Math.abs(qz), Math.abs(qz - this.nz + 1))
+      )
+    );
+
+    int count = 0;
+    for (int r = 0; r <= maxRing; ++r) {
+      if (count == k && r > 1) {
+        float bound = (r - 1) * this.cellSize;
+        if (distance(heap[0], x, y, z) <= bound * bound) {
+          break;
+        }
+      }
+      int z0 = Math.max(-r, -qz), z1 = Math.min(r, this.nz - 1 - qz);
+      int y0 = Math.max(-r, -qy), y1 = Math.min(r, this.ny - 1 - qy);
+      int x0 = Math.max(-r, -qx), x1 = Math.min(r, this.nx - 1 - qx);
+      for (int dz = z0; dz <= z1; ++dz) {
+        for (int dy = y0; dy <= y1; ++dy) {
+          boolean shell = (dz == -r) || (dz == r) || (dy == -r) || (dy == r);
+          int step = shell ? 1 : Math.max(1, 2 * r);
+          for (int dx = shell ? x0 : -r; dx <= x1; dx += step) {
+            if (dx < x0) {
+              continue;
+            }
+            int cell = cellIndex(qx + dx, qy + dy, qz + dz);
+            int end = this.cellStart[cell + 1];
+            for (int s = this.cellStart[cell]; s < end; ++s) {
+              if (s == exclude) {
+                continue;
+              }
+              if (count < k) {
+                heap[count] = s;
+                siftUp(heap, count++, x, y, z);
+              } else if (distance(s, x, y, z) < distance(heap[0], x, y, z)) {
+                heap[0] = s;
+                siftDown(heap, 0, k, x, y, z);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    // Heap sort in place, which leaves the slots closest first
+    for (int end = count - 1; end > 0; --end) {
+      int tmp = heap[0];
+      heap[0] = heap[end];
+      heap[end] = tmp;
+      siftDown(heap, 0, end, x, y, z);
+    }
+    return count;
+  }
+
+  private float distance(int slot, float x, float y, float z) {
+    float dx = this.px[slot] - x, dy = this.py[slot] - y, dz = this.pz[slot] - z;
+    return dx*dx + dy*dy + dz*dz;
+  }
+
+  private void siftUp(int[] heap, int i, float x, float y, float z) {
+    int slot = heap[i];
+    float d = distance(slot, x, y, z);
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (distance(heap[parent], x, y, z) >= d) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = slot;
+  }
+
+  private void siftDown(int[] heap, int i, int count, float x, float y, float z) {
+    int slot = heap[i];
+    float d = distance(slot, x, y, z);
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= count) {
+        break;
+      }
+      float cd = distance(heap[child], x, y, z);
+      if (child + 1 < count) {
+        float rd = distance(heap[child + 1], x, y, z);
+        if (rd > cd) {
+          ++child;
+          cd = rd;
+        }
+      }
+      if (cd <= d) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = slot;
+  }
+}
@@ -114,6 +114,14 @@ public abstract class FunctionalModulator extends LXRangeModulator {
     super(label, startValue, endValue, periodMs);
   }
 
+  /**
+   * The function is arbitrary subclass code, so it is never run in parallel
+   */
+  @Override
+  public boolean isParallelSafe() {
+    return false;
+  }
+
   @Override
   protected double computeNormalizedValue(double deltaMs, double basis) {
     double computed = this.compute(basis);
@@ -49,6 +49,16 @@ public abstract class LXModulator extends LXRunnableComponent implements LXCompo
    */
   private double value = 0;
 
+  public class Timer {
+    public long loopNanos;
+  }
+
+  /**
+   * Time taken by the most recent loop of this modulator, recorded by the
+   * component that owns it.
+   */
+  public final Timer timer = new Timer();
+
 
   /**
    * Utility default constructor
@@ -137,6 +147,19 @@ public abstract class LXModulator extends LXRunnableComponent implements LXCompo
     return this.shouldSerialize;
   }
 
+  /**
+   * Whether running this modulator only computes its own value and state,
+   * with no side effects on anything else, so that the modulation engine may
+   * run it on a worker thread. Parameter changes made on a worker are applied
+   * on the engine thread once the modulator's level is done, so a parallel
+   * modulator must not read back its own parameter changes within a frame.
+   *
+   * @return Whether the modulator may run in parallel, false by default
+   */
+  public boolean isParallelSafe() {
+    return false;
+  }
+
   /**
    * Retrieves the current value of the modulator in full precision
    *
@@ -73,6 +73,14 @@ public abstract class LXPeriodicModulator extends LXModulator {
     this.period = period;
   }
 
+  /**
+   * Periodic modulators only advance their own basis and value
+   */
+  @Override
+  public boolean isParallelSafe() {
+    return true;
+  }
+
   @Override
   public void onParameterChanged(LXParameter parameter) {
     super.onParameterChanged(parameter);
@@ -24,13 +24,25 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.sound.midi.InvalidMidiDataException;
 import heronarts.lx.LX;
@@ -54,6 +66,7 @@ import heronarts.lx.parameter.LXNormalizedParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXParameterListener;
 import heronarts.lx.parameter.LXTriggerModulation;
+import heronarts.lx.parameter.MetricParameter;
 import heronarts.lx.parameter.LXCompoundModulation;
 import heronarts.lx.parameter.StringParameter;
 import heronarts.lx.warp.LXWarp;
@@ -95,6 +108,11 @@ public class LXOscEngine extends LXComponent {
 
   private final static int DEFAULT_MAX_PACKET_SIZE = 8192;
 
+  /**
+   * Largest UDP payload that fits an Ethernet frame without fragmentation
+   */
+  public final static int DEFAULT_TRANSMIT_MTU = 1472;
+
   public final StringParameter receiveHost =
     new StringParameter("RX Host", DEFAULT_RECEIVE_HOST)
     .setDescription("Hostname to which OSC input socket is bound");
@@ -121,13 +139,42 @@ public class LXOscEngine extends LXComponent {
     new BooleanParameter("TX Active", false)
     .setDescription("Enables or disables OSC engine output");
 
+  public final DiscreteParameter transmitRate = (DiscreteParameter)
+    new DiscreteParameter("TX Rate", 0, 0, 1001)
+    .setDescription("Maximum number of messages per second sent to any one OSC address, 0 for no limit")
+    .setUnits(LXParameter.Units.HERTZ);
+
+  public final DiscreteParameter transmitMtu = (DiscreteParameter)
+    new DiscreteParameter("TX MTU", DEFAULT_TRANSMIT_MTU, 64, DEFAULT_MAX_PACKET_SIZE + 1)
+    .setDescription("Maximum size in bytes of a bundle of OSC messages sent in one datagram")
+    .setUnits(LXParameter.Units.INTEGER);
+
+  public final BooleanParameter transmitBundle =
+    new BooleanParameter("TX Bundle", true)
+    .setDescription("Whether OSC output is packed into bundles, rather than sending one datagram per message");
+
+  public final MetricParameter transmitMessages =
+    new MetricParameter("TX Messages")
+    .setDescription("OSC messages transmitted per second");
+
+  public final MetricParameter transmitBundles =
+    new MetricParameter("TX Bundles")
+    .setDescription("OSC bundles transmitted per second");
+
+  public final MetricParameter transmitDrops =
+    new MetricParameter("TX Drops")
+    .setDescription("Parameter changes per second that were superseded by a later value before being transmitted");
+
   private final List<Receiver> receivers = new ArrayList<Receiver>();
 
   private Receiver engineReceiver;
   private final EngineListener engineListener = new EngineListener();
+  private LXOscRouter engineRouter = null;
 
   private EngineTransmitter engineTransmitter;
 
+  private final List<LXComponent> transmitComponents = new ArrayList<LXComponent>();
+
   private final LX lx;
 
   public LXOscEngine(LX lx) {
@@ -139,6 +186,9 @@ public class LXOscEngine extends LXComponent {
     addParameter("transmitHost", this.transmitHost);
     addParameter("transmitPort", this.transmitPort);
     addParameter("transmitActive", this.transmitActive);
+    addParameter("transmitRate", this.transmitRate);
+    addParameter("transmitMtu", this.transmitMtu);
+    addParameter("transmitBundle", this.transmitBundle);
   }
 
   /**
@@ -163,6 +213,11 @@ public class LXOscEngine extends LXComponent {
     @Override
     public void oscMessage(OscMessage message) {
       try {
+        // Parameter addresses go through the compiled trie, anything dynamic
+        // or special-cased falls through to routing by string
+        if (engineRouter.route(message)) {
+          return;
+        }
         String[] parts = message.getAddressPattern().getValue().split("/");
         if (parts[1].equals(ROUTE_LX)) {
           if (parts[2].equals(ROUTE_ENGINE)) {
@@ -182,7 +237,7 @@ public class LXOscEngine extends LXComponent {
           } else if (parts[2].equals(ROUTE_CHANNEL)) {
             if (parts[3].equals(ROUTE_FOCUSED)) {
               oscChannel(message, lx.engine.getFocusedChannel(), parts, 4);
-            } else if (parts[3].matches("\\d+")) {
+            } else if (isIndex(parts[3])) {
               oscChannel(message, lx.engine.getChannel(Integer.parseInt(parts[3]) - 1), parts, 4);
             } else {
               oscChannel(message, lx.engine.getChannel(parts[3]), parts, 4);
@@ -243,7 +298,7 @@ public class LXOscEngine extends LXComponent {
         if (parts[index].equals(ROUTE_PATTERN)) {
           if (parts[index+1].equals(ROUTE_ACTIVE)) {
             oscPattern(message, ((LXChannel) channel).getActivePattern(), parts, index+2);
-          } else if (parts[index+1].matches("\\d+")) {
+          } else if (isIndex(parts[index+1])) {
             oscPattern(message, ((LXChannel) channel).getPattern(Integer.parseInt(parts[index+1]) - 1), parts, index+2);
           } else {
             oscPattern(message, ((LXChannel) channel).getPattern(parts[index+1]), parts, index+2);
@@ -255,7 +310,7 @@ public class LXOscEngine extends LXComponent {
         }
       }
       if (parts[index].equals(ROUTE_EFFECT)) {
-        if (parts[index+1].matches("\\d+")) {
+        if (isIndex(parts[index+1])) {
           oscEffect(message, channel.getEffect(Integer.parseInt(parts[index+1]) - 1), parts, index+2);
         } else {
           oscEffect(message, channel.getEffect(parts[index+1]), parts, index+2);
@@ -263,7 +318,7 @@ public class LXOscEngine extends LXComponent {
         return;
       }
       if (parts[index].equals(ROUTE_WARP)) {
-        if (parts[index+1].matches("\\d+")) {
+        if (isIndex(parts[index+1])) {
           oscWarp(message, channel.getWarp(Integer.parseInt(parts[index+1]) - 1), parts, index+2);
         } else {
           oscWarp(message, channel.getWarp(parts[index+1]), parts, index+2);
@@ -296,35 +351,30 @@ public class LXOscEngine extends LXComponent {
         System.err.println("[OSC] Component " + component + " does not have parameter: " + parts[index]);
         return;
       }
-      if (parameter instanceof BooleanParameter) {
-        ((BooleanParameter)parameter).setValue(message.getBoolean());
-      } else if (parameter instanceof StringParameter) {
-        ((StringParameter) parameter).setValue(message.getString());
-      } else if (parameter instanceof ColorParameter) {
-        if (parts.length >= index+1) {
-          if (parts[index+1].equals(ROUTE_HUE)) {
-            ((ColorParameter) parameter).hue.setNormalized(message.getFloat());
-          } else if (parts[index+1].equals(ROUTE_SATURATION)) {
-            ((ColorParameter) parameter).saturation.setNormalized(message.getFloat());
-          } else if (parts[index+1].equals(ROUTE_BRIGHTNESS)) {
-            ((ColorParameter) parameter).brightness.setNormalized(message.getFloat());
-          }
-        } else {
-          ((ColorParameter) parameter).setColor(message.getInt());
-        }
-      } else if (parameter instanceof DiscreteParameter) {
-        OscArgument arg = message.get();
-        if (arg instanceof OscInt) {
-          parameter.setValue(arg.toInt());
-        } else {
-          ((DiscreteParameter)parameter).setNormalized(arg.toFloat());
+      if (parameter instanceof ColorParameter && parts.length > index+1) {
+        if (parts[index+1].equals(ROUTE_HUE)) {
+          ((ColorParameter) parameter).hue.setNormalized(message.getFloat());
+        } else if (parts[index+1].equals(ROUTE_SATURATION)) {
+          ((ColorParameter) parameter).saturation.setNormalized(message.getFloat());
+        } else if (parts[index+1].equals(ROUTE_BRIGHTNESS)) {
+          ((ColorParameter) parameter).brightness.setNormalized(message.getFloat());
         }
-      } else if (parameter instanceof LXNormalizedParameter) {
-        ((LXNormalizedParameter)parameter).setNormalized(message.getFloat());
       } else {
-        parameter.setValue(message.getFloat());
+        LXOscRouter.setParameter(message, parameter);
       }
     }
+
+    private boolean isIndex(String part) {
+      if (part.isEmpty()) {
+        return false;
+      }
+      for (int i = 0; i < part.length(); ++i) {
+        if (!Character.isDigit(part.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 
   public class Transmitter {
@@ -357,9 +407,104 @@ public class LXOscEngine extends LXComponent {
     }
   }
 
+  /**
+   * Sends engine parameter changes. Changes are collected as they happen and
+   * sent once per frame, when the engine calls processOutput(). Repeated
+   * changes to a parameter within a frame are sent once with the latest
+   * value, an address is sent no more often than the transmitRate allows,
+   * and messages are packed into bundles no larger than the transmitMtu.
+   * Messages and arguments are preallocated per parameter so that steady
+   * state transmission does not allocate.
+   */
   private class EngineTransmitter extends Transmitter implements LXParameterListener, LXChannel.Listener, LXEngine.Listener, LXModulationEngine.Listener {
+
+    private class Entry {
+      private final LXParameter parameter;
+      private final OscMessage message = new OscMessage();
+      private final OscArgument argument;
+      private int addressVersion = -1;
+      private boolean dirty = false;
+      private boolean registered = true;
+      private boolean sent = false;
+      private long sentNanos = 0;
+
+      private Entry(LXParameter parameter) {
+        this.parameter = parameter;
+        if (parameter instanceof BooleanParameter || parameter instanceof ColorParameter || parameter instanceof DiscreteParameter) {
+          this.argument = new OscInt(0);
+        } else if (parameter instanceof StringParameter) {
+          this.argument = new OscString("");
+        } else {
+          this.argument = new OscFloat(0);
+        }
+        this.message.add(this.argument);
+      }
+
+      private Entry(String address) {
+        this.parameter = null;
+        this.argument = new OscInt(0);
+        this.message.setAddressPattern(address);
+        this.message.add(this.argument);
+      }
+
+      /**
+       * Loads the parameter's current value into the message.
+       *
+       * @return Whether the parameter currently has an OSC address
+       */
+      private boolean update() {
+        LXParameter parameter = this.parameter;
+        if (parameter == null) {
+          return true;
+        }
+        int version = EngineTransmitter.this.addressVersion;
+        if (this.addressVersion != version) {
+          String address = getOscAddress(parameter);
+          if (address == null) {
+            return false;
+          }
+          this.message.setAddressPattern(address);
+          this.addressVersion = version;
+        }
+        if (parameter instanceof BooleanParameter) {
+          ((OscInt) this.argument).setValue(((BooleanParameter) parameter).isOn() ? 1 : 0);
+        } else if (parameter instanceof StringParameter) {
+          ((OscString) this.argument).setValue(((StringParameter) parameter).getString());
+        } else if (parameter instanceof ColorParameter) {
+          ((OscInt) this.argument).setValue(((ColorParameter) parameter).getColor());
+        } else if (parameter instanceof DiscreteParameter) {
+          ((OscInt) this.argument).setValue(((DiscreteParameter) parameter).getValuei());
+        } else if (parameter instanceof LXNormalizedParameter) {
+          ((OscFloat) this.argument).setValue(((LXNormalizedParameter) parameter).getNormalizedf());
+        } else {
+          ((OscFloat) this.argument).setValue(parameter.getValuef());
+        }
+        return true;
+      }
+    }
+
+    // Size of the #bundle header and time tag
+    private static final int BUNDLE_HEADER_SIZE = 16;
+
+    private final Map<LXParameter, Entry> entries = new IdentityHashMap<LXParameter, Entry>();
+    private final Map<String, Entry> events = new HashMap<String, Entry>();
+    private final List<Entry> dirty = new ArrayList<Entry>();
+
+    // Bumped whenever component indices or labels change, so cached addresses are rebuilt
+    private int addressVersion = 0;
+
+    private final OscBundle bundle = new OscBundle();
+    private final ByteBuffer measure;
+    private int bundleSize = BUNDLE_HEADER_SIZE;
+
+    private int messageCount = 0;
+    private int bundleCount = 0;
+    private int dropCount = 0;
+    private long statsNanos = System.nanoTime();
+
     private EngineTransmitter(String host, int port, int bufferSize) throws SocketException, UnknownHostException {
       super(InetAddress.getByName(host), port, bufferSize);
+      this.measure = ByteBuffer.allocate(bufferSize);
       registerComponent(lx.engine);
       registerComponent(lx.palette);
       registerComponent(lx.tempo);
@@ -375,6 +520,9 @@ public class LXOscEngine extends LXComponent {
       for (LXChannel channel : lx.engine.getChannels()) {
         registerChannel(channel);
       }
+      for (LXComponent component : transmitComponents) {
+        registerComponent(component);
+      }
       lx.engine.addListener(this);
     }
 
@@ -394,74 +542,160 @@ public class LXOscEngine extends LXComponent {
       channel.removeListener(this);
     }
 
-    private void registerComponent(LXComponent component) {
+    private synchronized void registerComponent(LXComponent component) {
       for (LXParameter p : component.getParameters()) {
         if (p instanceof LXListenableParameter) {
           ((LXListenableParameter) p).addListener(this);
+          this.entries.put(p, new Entry(p));
         }
       }
+      ++this.addressVersion;
     }
 
-    private void unregisterComponent(LXComponent component) {
+    private synchronized void unregisterComponent(LXComponent component) {
       for (LXParameter p : component.getParameters()) {
         if (p instanceof LXListenableParameter) {
           ((LXListenableParameter) p).removeListener(this);
+          Entry entry = this.entries.remove(p);
+          if (entry != null) {
+            entry.registered = false;
+          }
         }
       }
+      ++this.addressVersion;
     }
 
-    private final OscMessage oscMessage = new OscMessage("");
-    private final OscFloat oscFloat = new OscFloat(0);
-    private final OscInt oscInt = new OscInt(0);
-    private final OscString oscString = new OscString("");
-
     @Override
     public void onParameterChanged(LXParameter parameter) {
+      LXComponent component = parameter.getComponent();
+      if (component != null && parameter == component.label) {
+        // Modulator addresses are derived from their labels
+        invalidateAddresses();
+      }
       if (transmitActive.isOn()) {
-        // TODO(mcslee): contemplate accumulating OscMessages into OscBundle
-        // and sending once per engine loop?? Probably a bad tradeoff since
-        // it would require dynamic memory allocations that we can skip here...
-        String address = getOscAddress(parameter);
-        if (address != null) {
-          oscMessage.clearArguments();
-          oscMessage.setAddressPattern(address);
-          if (parameter instanceof BooleanParameter) {
-            oscInt.setValue(((BooleanParameter) parameter).isOn() ? 1 : 0);
-            oscMessage.add(oscInt);
-          } else if (parameter instanceof StringParameter) {
-            oscString.setValue(((StringParameter) parameter).getString());
-            oscMessage.add(oscString);
-          } else if (parameter instanceof ColorParameter) {
-            oscInt.setValue(((ColorParameter) parameter).getColor());
-            oscMessage.add(oscInt);
-          } else if (parameter instanceof DiscreteParameter) {
-            oscInt.setValue(((DiscreteParameter) parameter).getValuei());
-            oscMessage.add(oscInt);
-          } else if (parameter instanceof LXNormalizedParameter) {
-            oscFloat.setValue(((LXNormalizedParameter) parameter).getNormalizedf());
-            oscMessage.add(oscFloat);
-          } else {
-            oscFloat.setValue(parameter.getValuef());
-            oscMessage.add(oscFloat);
+        markDirty(parameter);
+      }
+    }
+
+    private synchronized void invalidateAddresses() {
+      ++this.addressVersion;
+    }
+
+    private synchronized void markDirty(LXParameter parameter) {
+      Entry entry = this.entries.get(parameter);
+      if (entry != null) {
+        markDirty(entry);
+      }
+    }
+
+    private void markDirty(Entry entry) {
+      if (entry.dirty) {
+        ++this.dropCount;
+      } else {
+        entry.dirty = true;
+        this.dirty.add(entry);
+      }
+    }
+
+    private synchronized void sendMessage(String address, int value) {
+      Entry entry = this.events.get(address);
+      if (entry == null) {
+        entry = new Entry(address);
+        this.events.put(address, entry);
+      }
+      ((OscInt) entry.argument).setValue(value);
+      markDirty(entry);
+    }
+
+    private synchronized void processOutput() {
+      long now = System.nanoTime();
+      if (now - this.statsNanos >= 1000000000L) {
+        double seconds = (now - this.statsNanos) / 1000000000.;
+        transmitMessages.update(this.messageCount / seconds);
+        transmitBundles.update(this.bundleCount / seconds);
+        transmitDrops.update(this.dropCount / seconds);
+        this.messageCount = this.bundleCount = this.dropCount = 0;
+        this.statsNanos = now;
+      }
+      if (!transmitActive.isOn()) {
+        for (Entry entry : this.dirty) {
+          entry.dirty = false;
+        }
+        this.dirty.clear();
+        return;
+      }
+
+      int rate = transmitRate.getValuei();
+      long interval = (rate > 0) ? 1000000000L / rate : 0;
+      int mtu = transmitMtu.getValuei();
+      boolean bundling = transmitBundle.isOn();
+
+      // Rate-limited entries stay dirty and are sent with their latest value later
+      int kept = 0;
+      for (int i = 0; i < this.dirty.size(); ++i) {
+        Entry entry = this.dirty.get(i);
+        if (!entry.registered) {
+          entry.dirty = false;
+        } else if (entry.sent && (now - entry.sentNanos < interval)) {
+          this.dirty.set(kept++, entry);
+        } else {
+          entry.dirty = false;
+          if (entry.update()) {
+            entry.sent = true;
+            entry.sentNanos = now;
+            if (bundling) {
+              addToBundle(entry.message, mtu);
+            } else {
+              transmit(entry.message);
+            }
           }
-          sendMessage(oscMessage);
         }
       }
+      for (int i = this.dirty.size() - 1; i >= kept; --i) {
+        this.dirty.remove(i);
+      }
+      sendBundle();
     }
 
-    private void sendMessage(String address, int value) {
-      oscMessage.clearArguments();
-      oscMessage.setAddressPattern(address);
-      oscInt.setValue(value);
-      oscMessage.add(oscInt);
-      sendMessage(oscMessage);
+    private void addToBundle(OscMessage message, int mtu) {
+      this.measure.clear();
+      try {
+        message.serialize(this.measure);
+      } catch (BufferOverflowException box) {
+        System.err.println("[OSC] Message too large to transmit: " + message.getAddressPattern());
+        ++this.dropCount;
+        return;
+      }
+      int size = 4 + this.measure.position();
+      if (!this.bundle.getElements().isEmpty() && (this.bundleSize + size > mtu)) {
+        sendBundle();
+      }
+      this.bundle.addElement(message);
+      this.bundleSize += size;
+    }
+
+    private void sendBundle() {
+      List<OscPacket> elements = this.bundle.getElements();
+      if (elements.size() == 1) {
+        // A lone message does not need bundle framing
+        transmit(elements.get(0));
+      } else if (elements.size() > 1) {
+        transmit(this.bundle);
+        this.messageCount += elements.size() - 1;
+        ++this.bundleCount;
+      }
+      elements.clear();
+      this.bundleSize = BUNDLE_HEADER_SIZE;
     }
 
-    private void sendMessage(OscMessage message) {
+    private void transmit(OscPacket packet) {
       try {
-        send(oscMessage);
+        send(packet);
+        ++this.messageCount;
       } catch (IOException iox) {
         System.err.println("[OSC] Failed to transmit: " + iox.getLocalizedMessage());
+      } catch (BufferOverflowException box) {
+        System.err.println("[OSC] Packet too large to transmit");
       }
     }
 
@@ -476,7 +710,9 @@ public class LXOscEngine extends LXComponent {
     }
 
     @Override
-    public void warpMoved(LXBus channel, LXWarp warp) {}
+    public void warpMoved(LXBus channel, LXWarp warp) {
+      invalidateAddresses();
+    }
 
     @Override
     public void effectAdded(LXBus channel, LXEffect effect) {
@@ -489,7 +725,9 @@ public class LXOscEngine extends LXComponent {
     }
 
     @Override
-    public void effectMoved(LXBus channel, LXEffect effect) {}
+    public void effectMoved(LXBus channel, LXEffect effect) {
+      invalidateAddresses();
+    }
 
     @Override
     public void indexChanged(LXChannel channel) {}
@@ -506,7 +744,7 @@ public class LXOscEngine extends LXComponent {
 
     @Override
     public void patternMoved(LXChannel channel, LXPattern pattern) {
-
+      invalidateAddresses();
     }
 
     @Override
@@ -531,7 +769,9 @@ public class LXOscEngine extends LXComponent {
     }
 
     @Override
-    public void channelMoved(LXEngine engine, LXChannel channel) {}
+    public void channelMoved(LXEngine engine, LXChannel channel) {
+      invalidateAddresses();
+    }
 
     @Override
     public void modulatorAdded(LXModulationEngine engine, LXModulator modulator) {
@@ -566,14 +806,21 @@ public class LXOscEngine extends LXComponent {
 
   }
 
+  /**
+   * Receives OSC on one port. All receivers share a single selector thread,
+   * which reads every datagram available on a port per wakeup into a direct
+   * buffer, parses it, and queues the messages for the engine thread.
+   */
   public class Receiver {
 
     public final int port;
-    private final DatagramSocket socket;
+    private final DatagramChannel channel;
     public final SocketAddress address;
-    private final DatagramPacket packet;
-    private final byte[] buffer;
-    private final ReceiverThread thread;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private volatile SelectionKey key = null;
+    private volatile boolean stopped = false;
+    private boolean closed = false;
 
     private final List<OscMessage> threadSafeEventQueue =
       Collections.synchronizedList(new ArrayList<OscMessage>());
@@ -584,22 +831,74 @@ public class LXOscEngine extends LXComponent {
     private final List<LXOscListener> listeners = new ArrayList<LXOscListener>();
     private final List<LXOscListener> listenerSnapshot = new ArrayList<LXOscListener>();
 
+    private volatile boolean pooled = false;
+    private final ArrayDeque<OscMessage> messagePool = new ArrayDeque<OscMessage>();
+
+    // Counters are written by the selector thread and read from anywhere
+    private volatile long messageCount = 0;
+    private volatile long errorCount = 0;
+    private volatile double queueLatencyMs = 0;
+    private volatile double maxQueueLatencyMs = 0;
+
     private Receiver(int port, InetAddress address, int bufferSize) throws SocketException {
-      this(new DatagramSocket(port, address), port, bufferSize);
+      this(new InetSocketAddress(address, port), port, bufferSize);
     }
 
     private Receiver(int port, int bufferSize) throws SocketException {
-      this(new DatagramSocket(port), port, bufferSize);
+      this(new InetSocketAddress(port), port, bufferSize);
     }
 
-    private Receiver(DatagramSocket socket, int port, int bufferSize) throws SocketException {
-      this.socket = socket;
-      this.address = socket.getLocalSocketAddress();
+    private Receiver(InetSocketAddress bindAddress, int port, int bufferSize) throws SocketException {
+      try {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(bindAddress);
+        this.channel.configureBlocking(false);
+        this.address = this.channel.getLocalAddress();
+      } catch (IOException iox) {
+        throw new SocketException(iox.getLocalizedMessage());
+      }
       this.port = port;
-      this.buffer = new byte[bufferSize];
-      this.packet = new DatagramPacket(this.buffer, bufferSize);
-      this.thread = new ReceiverThread();
-      this.thread.start();
+      this.buffer = ByteBuffer.allocateDirect(bufferSize);
+      this.bytes = new byte[bufferSize];
+      getSelectorThread().register(this);
+    }
+
+    /**
+     * Number of OSC messages received on this port
+     *
+     * @return Messages received
+     */
+    public long getMessageCount() {
+      return this.messageCount;
+    }
+
+    /**
+     * Number of packets on this port which could not be parsed
+     *
+     * @return Parse errors
+     */
+    public long getErrorCount() {
+      return this.errorCount;
+    }
+
+    /**
+     * Average time messages spent waiting for the engine thread in the last
+     * dispatch, from receipt to delivery
+     *
+     * @return Queue latency in milliseconds
+     */
+    public double getQueueLatency() {
+      return this.queueLatencyMs;
+    }
+
+    /**
+     * Longest time a message spent waiting for the engine thread in the last
+     * dispatch
+     *
+     * @return Maximum queue latency in milliseconds
+     */
+    public double getMaxQueueLatency() {
+      return this.maxQueueLatencyMs;
     }
 
     public Receiver addListener(LXOscListener listener) {
@@ -612,42 +911,133 @@ public class LXOscEngine extends LXComponent {
       return this;
     }
 
-    class ReceiverThread extends Thread {
-      @Override
-      public void run() {
-        while (!isInterrupted()) {
-          try {
-            socket.receive(packet);
-            try {
-              // Parse the OSC packet
-              OscPacket oscPacket = OscPacket.parse(packet);
-
-              // Add all messages in the packet to the queue
-              if (oscPacket instanceof OscMessage) {
-                threadSafeEventQueue.add((OscMessage) oscPacket);
-              } else if (oscPacket instanceof OscBundle) {
-                for (OscMessage message : (OscBundle) oscPacket) {
-                  threadSafeEventQueue.add(message);
-                }
+    /**
+     * Sets whether this receiver parses into a pool of recycled messages, so
+     * that receiving does not allocate per message. When pooled, a message
+     * passed to listeners is only valid for the duration of the callback and
+     * must not be retained.
+     *
+     * @param pooled Whether to recycle messages
+     * @return this
+     */
+    public Receiver setPooled(boolean pooled) {
+      this.pooled = pooled;
+      return this;
+    }
+
+    private OscMessage acquireMessage() {
+      synchronized (this.messagePool) {
+        OscMessage message = this.messagePool.poll();
+        if (message != null) {
+          return message;
+        }
+      }
+      OscMessage message = new OscMessage();
+      message.pooled = true;
+      return message;
+    }
+
+    private void releaseMessage(OscMessage message) {
+      synchronized (this.messagePool) {
+        this.messagePool.push(message);
+      }
+    }
+
+    /**
+     * Walks a packet, reading each message into a pooled message in place.
+     */
+    private void readPooled(InetAddress source, byte[] data, int offset, int len, long receiveNanos) throws OscException {
+      if (len - offset <= 0) {
+        throw new OscEmptyPacketException();
+      }
+      if (data[offset] == '#') {
+        // Skip the #bundle header and time tag, then read each element
+        offset += 16;
+        while (offset + 4 <= len) {
+          int size =
+            ((data[offset] & 0xff) << 24) |
+            ((data[offset+1] & 0xff) << 16) |
+            ((data[offset+2] & 0xff) << 8) |
+            (data[offset+3] & 0xff);
+          offset += 4;
+          if (size < 0 || offset + size > len) {
+            throw new OscMalformedDataException("OscBundle element exceeds bundle", data, offset, len);
+          }
+          readPooled(source, data, offset, offset + size, receiveNanos);
+          offset += size;
+        }
+      } else if (data[offset] == '/') {
+        OscMessage message = acquireMessage();
+        try {
+          message.readFrom(source, data, offset, len);
+        } catch (OscException oscx) {
+          releaseMessage(message);
+          throw oscx;
+        }
+        queueMessage(message, receiveNanos);
+      } else {
+        throw new OscMalformedDataException("Osc Packet does not start with # or /", data, offset, len);
+      }
+    }
+
+    /**
+     * Reads every datagram currently available on this port. Invoked by the
+     * selector thread when the channel is readable.
+     */
+    private void receive() {
+      for (int count = 0; count < MAX_DATAGRAMS_PER_WAKEUP; ++count) {
+        SocketAddress source;
+        try {
+          this.buffer.clear();
+          source = this.channel.receive(this.buffer);
+        } catch (IOException iox) {
+          System.err.println("Exception in OSC listener on port " + this.port + ":" + iox.getMessage());
+          return;
+        }
+        if (source == null) {
+          return;
+        }
+        this.buffer.flip();
+        int length = this.buffer.remaining();
+        this.buffer.get(this.bytes, 0, length);
+        InetAddress sourceAddress = (source instanceof InetSocketAddress) ? ((InetSocketAddress) source).getAddress() : null;
+        long receiveNanos = System.nanoTime();
+        try {
+          if (this.pooled) {
+            readPooled(sourceAddress, this.bytes, 0, length, receiveNanos);
+          } else {
+            // Parse the OSC packet
+            OscPacket oscPacket = OscPacket.parse(sourceAddress, this.bytes, 0, length);
+
+            // Add all messages in the packet to the queue
+            if (oscPacket instanceof OscMessage) {
+              queueMessage((OscMessage) oscPacket, receiveNanos);
+            } else if (oscPacket instanceof OscBundle) {
+              for (OscMessage message : (OscBundle) oscPacket) {
+                queueMessage(message, receiveNanos);
               }
-            } catch (OscException oscx) {
-              System.err.println("OSC exception: " + oscx.getMessage());
-            }
-          } catch (IOException iox) {
-            if (!isInterrupted()) {
-              System.err.println("Exception in OSC listener on port " + port + ":" + iox.getMessage());
             }
           }
+        } catch (OscException oscx) {
+          ++this.errorCount;
+          System.err.println("OSC exception: " + oscx.getMessage());
         }
-        socket.close();
-        System.out.println("Stopped OSC listener " + address);
       }
     }
 
+    private void queueMessage(OscMessage message, long receiveNanos) {
+      message.receiveNanos = receiveNanos;
+      ++this.messageCount;
+      this.threadSafeEventQueue.add(message);
+    }
+
     private void dispatch() {
       this.engineThreadEventQueue.clear();
       synchronized (this.threadSafeEventQueue) {
-        this.engineThreadEventQueue.addAll(this.threadSafeEventQueue);
+        // Copied by index, addAll() would allocate an intermediate array
+        for (int i = 0; i < this.threadSafeEventQueue.size(); ++i) {
+          this.engineThreadEventQueue.add(this.threadSafeEventQueue.get(i));
+        }
         this.threadSafeEventQueue.clear();
       }
       // TODO(mcslee): do we want to handle NTP timetags?
@@ -655,17 +1045,175 @@ public class LXOscEngine extends LXComponent {
       // NOTE(mcslee): we iterate this way so that listeners can modify the listener list
       this.listenerSnapshot.clear();
       this.listenerSnapshot.addAll(this.listeners);
-      for (OscMessage message : this.engineThreadEventQueue) {
-        for (LXOscListener listener : this.listenerSnapshot) {
-          listener.oscMessage(message);
+      long now = System.nanoTime();
+      long totalLatency = 0;
+      long maxLatency = 0;
+      for (int i = 0; i < this.engineThreadEventQueue.size(); ++i) {
+        OscMessage message = this.engineThreadEventQueue.get(i);
+        long latency = now - message.receiveNanos;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        for (int j = 0; j < this.listenerSnapshot.size(); ++j) {
+          this.listenerSnapshot.get(j).oscMessage(message);
         }
+        if (message.pooled) {
+          releaseMessage(message);
+        }
+      }
+      int count = this.engineThreadEventQueue.size();
+      if (count > 0) {
+        this.queueLatencyMs = totalLatency / (count * 1000000.);
+        this.maxQueueLatencyMs = maxLatency / 1000000.;
       }
+      this.engineThreadEventQueue.clear();
     }
 
     public void stop() {
-      this.thread.interrupt();
-      this.socket.close();
+      this.stopped = true;
+      selectorThread.close(this);
       this.listeners.clear();
+      System.out.println("Stopped OSC listener " + this.address);
+    }
+  }
+
+  /**
+   * Most datagrams read from one port per selector wakeup, so that a busy
+   * port cannot starve the others.
+   */
+  private static final int MAX_DATAGRAMS_PER_WAKEUP = 256;
+
+  /**
+   * Longest time that stopping a receiver waits for the selector thread to
+   * close its channel
+   */
+  private static final long CLOSE_TIMEOUT_MS = 1000;
+
+  private static SelectorThread selectorThread = null;
+
+  private static synchronized SelectorThread getSelectorThread() throws SocketException {
+    if (selectorThread == null) {
+      try {
+        selectorThread = new SelectorThread();
+      } catch (IOException iox) {
+        throw new SocketException("Could not open OSC selector: " + iox.getLocalizedMessage());
+      }
+      selectorThread.start();
+    }
+    return selectorThread;
+  }
+
+  /**
+   * Single thread serving every OSC receive port
+   */
+  private static class SelectorThread extends Thread {
+
+    private final Selector selector;
+    private final Queue<Receiver> registrations = new ConcurrentLinkedQueue<Receiver>();
+    private final Queue<Receiver> closes = new ConcurrentLinkedQueue<Receiver>();
+    private final List<Receiver> closing = new ArrayList<Receiver>();
+
+    private SelectorThread() throws IOException {
+      super("LXOscEngine Selector");
+      setDaemon(true);
+      this.selector = Selector.open();
+    }
+
+    private void register(Receiver receiver) {
+      this.registrations.add(receiver);
+      this.selector.wakeup();
+    }
+
+    /**
+     * Closes a receiver's channel on the selector thread, after its key has
+     * been deregistered, and waits for that to happen so that the port can
+     * be bound again as soon as this returns.
+     *
+     * @param receiver Receiver
+     */
+    private void close(Receiver receiver) {
+      this.registrations.remove(receiver);
+      this.closes.add(receiver);
+      this.selector.wakeup();
+      long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+      synchronized (receiver) {
+        while (!receiver.closed) {
+          long waitMs = deadline - System.currentTimeMillis();
+          if (waitMs <= 0) {
+            System.err.println("Timed out closing OSC listener on port " + receiver.port);
+            return;
+          }
+          try {
+            receiver.wait(waitMs);
+          } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }
+
+    private void closeReceivers() {
+      Receiver receiver;
+      while ((receiver = this.closes.poll()) != null) {
+        SelectionKey key = receiver.key;
+        if (key != null) {
+          key.cancel();
+        }
+        this.closing.add(receiver);
+      }
+      if (this.closing.isEmpty()) {
+        return;
+      }
+      try {
+        // Deregisters the cancelled keys, so that closing the channels
+        // releases their sockets immediately
+        this.selector.selectNow();
+      } catch (IOException iox) {
+        System.err.println("Exception in OSC selector: " + iox.getMessage());
+      }
+      for (Receiver closed : this.closing) {
+        try {
+          closed.channel.close();
+        } catch (IOException iox) {
+          System.err.println("Exception closing OSC listener on port " + closed.port + ": " + iox.getMessage());
+        }
+        synchronized (closed) {
+          closed.closed = true;
+          closed.notifyAll();
+        }
+      }
+      this.closing.clear();
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        try {
+          this.selector.select();
+        } catch (IOException iox) {
+          System.err.println("Exception in OSC selector: " + iox.getMessage());
+          continue;
+        }
+        Receiver receiver;
+        while ((receiver = this.registrations.poll()) != null) {
+          if (receiver.stopped) {
+            continue;
+          }
+          try {
+            receiver.key = receiver.channel.register(this.selector, SelectionKey.OP_READ, receiver);
+          } catch (IOException iox) {
+            System.err.println("Could not register OSC listener on port " + receiver.port + ": " + iox.getMessage());
+          }
+        }
+        closeReceivers();
+        Set<SelectionKey> selected = this.selector.selectedKeys();
+        for (SelectionKey key : selected) {
+          if (key.isValid() && key.isReadable()) {
+            ((Receiver) key.attachment()).receive();
+          }
+        }
+        selected.clear();
+      }
     }
   }
 
@@ -704,7 +1252,11 @@ public class LXOscEngine extends LXComponent {
       stopReceiver();
     }
     try {
+      if (this.engineRouter == null) {
+        this.engineRouter = new LXOscRouter(this.lx);
+      }
       this.engineReceiver = receiver(this.receivePort.getValuei(), this.receiveHost.getString());
+      this.engineReceiver.setPooled(true);
       this.engineReceiver.addListener(this.engineListener);
       System.out.println("Started OSC listener " + this.engineReceiver.address);
     } catch (SocketException sx) {
@@ -714,6 +1266,33 @@ public class LXOscEngine extends LXComponent {
     }
   }
 
+  /**
+   * Registers an additional component whose parameter changes should be sent
+   * by the engine transmitter, such as runtime metrics. The component should
+   * implement LXOscComponent to provide an address.
+   *
+   * @param component Component to transmit
+   * @return this
+   */
+  public LXOscEngine addTransmitComponent(LXComponent component) {
+    if (!this.transmitComponents.contains(component)) {
+      this.transmitComponents.add(component);
+      if (this.engineTransmitter != null) {
+        this.engineTransmitter.registerComponent(component);
+      }
+    }
+    return this;
+  }
+
+  public LXOscEngine removeTransmitComponent(LXComponent component) {
+    if (this.transmitComponents.remove(component)) {
+      if (this.engineTransmitter != null) {
+        this.engineTransmitter.unregisterComponent(component);
+      }
+    }
+    return this;
+  }
+
   private void stopReceiver() {
     if (this.engineReceiver != null) {
       this.engineReceiver.stop();
@@ -777,6 +1356,16 @@ public class LXOscEngine extends LXComponent {
     return new Transmitter(address, port, bufferSize);
   }
 
+  /**
+   * Invoked by the main engine once per frame to send the OSC output
+   * collected during the frame.
+   */
+  public void processOutput() {
+    if (this.engineTransmitter != null) {
+      this.engineTransmitter.processOutput();
+    }
+  }
+
   /**
    * Invoked by the main engine to dispatch all OSC messages on the
    * input queue.
@@ -0,0 +1,444 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.osc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXBus;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXComponent;
+import heronarts.lx.LXEffect;
+import heronarts.lx.LXEngine;
+import heronarts.lx.LXModulationComponent;
+import heronarts.lx.LXModulationEngine;
+import heronarts.lx.LXPattern;
+import heronarts.lx.color.ColorParameter;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXCompoundModulation;
+import heronarts.lx.parameter.LXNormalizedParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.LXParameterListener;
+import heronarts.lx.parameter.LXTriggerModulation;
+import heronarts.lx.parameter.StringParameter;
+import heronarts.lx.warp.LXWarp;
+
+/**
+ * Routes OSC messages for engine parameters through a trie of address
+ * segments compiled from the engine's components. Segments are matched
+ * against the raw address bytes, so routing a message does not split or
+ * otherwise allocate. The trie is rebuilt lazily whenever components are
+ * added, removed, moved or renamed. Addresses which depend on engine state,
+ * such as the focused channel or active pattern, are not compiled and are
+ * left to the caller.
+ */
+class LXOscRouter implements LXEngine.Listener, LXChannel.Listener, LXModulationEngine.Listener, LXParameterListener {
+
+  interface Handler {
+    public void handle(OscMessage message);
+  }
+
+  private static class Node {
+    private final byte[] segment;
+    private final int hash;
+    private Node[] children = new Node[0];
+    private int numChildren = 0;
+    private LXParameter parameter = null;
+    private Handler handler = null;
+
+    // Set when this node is another name for a node elsewhere in the trie
+    private Node target = null;
+
+    private Node(String segment) {
+      this.segment = segment.getBytes();
+      this.hash = hash(this.segment, 0, this.segment.length);
+    }
+
+    private Node find(byte[] data, int start, int end, int hash) {
+      int length = end - start;
+      for (int i = 0; i < this.numChildren; ++i) {
+        Node child = this.children[i];
+        if (child.hash == hash && child.segment.length == length) {
+          int j = 0;
+          while (j < length && child.segment[j] == data[start + j]) {
+            ++j;
+          }
+          if (j == length) {
+            return (child.target != null) ? child.target : child;
+          }
+        }
+      }
+      return null;
+    }
+
+    private Node get(String segment) {
+      byte[] bytes = segment.getBytes();
+      return find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    }
+
+    private Node child(String segment) {
+      Node child = get(segment);
+      if (child == null) {
+        child = new Node(segment);
+        add(child);
+      }
+      return child;
+    }
+
+    /**
+     * Adds another name for an existing node, unless the name is taken
+     */
+    private void alias(String segment, Node node) {
+      if (get(segment) == null) {
+        Node alias = new Node(segment);
+        alias.target = node;
+        add(alias);
+      }
+    }
+
+    private void add(Node child) {
+      if (this.numChildren == this.children.length) {
+        Node[] grown = new Node[Math.max(4, this.children.length * 2)];
+        System.arraycopy(this.children, 0, grown, 0, this.numChildren);
+        this.children = grown;
+      }
+      this.children[this.numChildren++] = child;
+    }
+  }
+
+  private static int hash(byte[] data, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; ++i) {
+      hash = 31 * hash + data[i];
+    }
+    return hash;
+  }
+
+  private final LX lx;
+
+  private Node root = null;
+  private volatile boolean dirty = true;
+  private int componentVersion = -1;
+
+  private final List<LXChannel> channels = new ArrayList<LXChannel>();
+  private final List<LXModulationEngine> modulationEngines = new ArrayList<LXModulationEngine>();
+  private final List<StringParameter> labels = new ArrayList<StringParameter>();
+
+  LXOscRouter(LX lx) {
+    this.lx = lx;
+    lx.engine.addListener(this);
+    lx.engine.masterChannel.addListener((LXBus.Listener) this);
+  }
+
+  /**
+   * Routes a message to its compiled target
+   *
+   * @param message Message
+   * @return Whether the address was found in the trie and handled
+   */
+  boolean route(OscMessage message) {
+    if (this.dirty || (this.lx.getComponentVersion() != this.componentVersion)) {
+      rebuild();
+    }
+    OscString address = message.getAddressPattern();
+    byte[] data = address.getEncoded();
+    int len = address.getEncodedLength();
+    if (len == 0 || data[0] != '/') {
+      return false;
+    }
+    Node node = this.root;
+    int start = 1;
+    while (start <= len) {
+      int end = start;
+      while (end < len && data[end] != '/') {
+        ++end;
+      }
+      node = node.find(data, start, end, hash(data, start, end));
+      if (node == null) {
+        return false;
+      }
+      start = end + 1;
+    }
+    if (node.handler != null) {
+      node.handler.handle(message);
+      return true;
+    }
+    if (node.parameter != null) {
+      setParameter(message, node.parameter);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Applies the first argument of an OSC message to a parameter
+   *
+   * @param message Message
+   * @param parameter Parameter
+   */
+  static void setParameter(OscMessage message, LXParameter parameter) {
+    if (parameter instanceof BooleanParameter) {
+      ((BooleanParameter) parameter).setValue(message.getBoolean());
+    } else if (parameter instanceof StringParameter) {
+      ((StringParameter) parameter).setValue(message.getString());
+    } else if (parameter instanceof ColorParameter) {
+      ((ColorParameter) parameter).setColor(message.getInt());
+    } else if (parameter instanceof DiscreteParameter) {
+      OscArgument arg = message.get();
+      if (arg instanceof OscInt) {
+        parameter.setValue(arg.toInt());
+      } else {
+        ((DiscreteParameter) parameter).setNormalized(arg.toFloat());
+      }
+    } else if (parameter instanceof LXNormalizedParameter) {
+      ((LXNormalizedParameter) parameter).setNormalized(message.getFloat());
+    } else {
+      parameter.setValue(message.getFloat());
+    }
+  }
+
+  private void rebuild() {
+    this.dirty = false;
+    this.componentVersion = this.lx.getComponentVersion();
+    untrack();
+
+    Node root = new Node("");
+    Node lx = root.child("lx");
+    addComponent(lx.child("engine"), this.lx.engine);
+    addComponent(lx.child("tempo"), this.lx.tempo);
+    addComponent(lx.child("output"), this.lx.engine.output);
+    addComponent(lx.child("palette"), this.lx.palette);
+    Node audio = lx.child("audio");
+    addComponent(audio, this.lx.engine.audio);
+    addComponent(audio.child("input"), this.lx.engine.audio.input);
+    addComponent(audio.child("output"), this.lx.engine.audio.output);
+    addComponent(audio.child("meter"), this.lx.engine.audio.meter);
+    addBus(lx.child("master"), this.lx.engine.masterChannel);
+
+    Node channels = lx.child("channel");
+    List<LXChannel> engineChannels = this.lx.engine.getChannels();
+    for (int i = 0; i < engineChannels.size(); ++i) {
+      LXChannel channel = engineChannels.get(i);
+      addChannel(channels.child(String.valueOf(i+1)), channel);
+      channel.addListener(this);
+      this.channels.add(channel);
+      track(channel);
+    }
+    // Label aliases are added after numbers, which take precedence
+    for (int i = 0; i < engineChannels.size(); ++i) {
+      channels.alias(engineChannels.get(i).getLabel(), channels.get(String.valueOf(i+1)));
+    }
+
+    this.root = root;
+  }
+
+  private void addChannel(Node node, LXChannel channel) {
+    Node patterns = node.child("pattern");
+    for (int i = 0; i < channel.patterns.size(); ++i) {
+      LXPattern pattern = channel.patterns.get(i);
+      addComponent(patterns.child(String.valueOf(i+1)), pattern);
+      track(pattern);
+    }
+    for (int i = 0; i < channel.patterns.size(); ++i) {
+      patterns.alias(channel.patterns.get(i).getLabel(), patterns.get(String.valueOf(i+1)));
+    }
+    node.child("activePattern").handler = message -> channel.goIndex(message.getInt());
+    node.child("nextPattern").handler = message -> channel.goIndex(message.getInt());
+    addBus(node, channel);
+  }
+
+  private void addBus(Node node, LXBus bus) {
+    Node effects = node.child("effect");
+    for (int i = 0; i < bus.effects.size(); ++i) {
+      LXEffect effect = bus.effects.get(i);
+      addComponent(effects.child(String.valueOf(i+1)), effect);
+      track(effect);
+    }
+    for (int i = 0; i < bus.effects.size(); ++i) {
+      effects.alias(bus.effects.get(i).getLabel(), effects.get(String.valueOf(i+1)));
+    }
+    Node warps = node.child("warp");
+    for (int i = 0; i < bus.warps.size(); ++i) {
+      LXWarp warp = bus.warps.get(i);
+      addComponent(warps.child(String.valueOf(i+1)), warp);
+      track(warp);
+    }
+    for (int i = 0; i < bus.warps.size(); ++i) {
+      warps.alias(bus.warps.get(i).getLabel(), warps.get(String.valueOf(i+1)));
+    }
+    addComponent(node, bus);
+  }
+
+  private void addComponent(Node node, LXComponent component) {
+    if (component instanceof LXModulationComponent) {
+      LXModulationEngine modulation = ((LXModulationComponent) component).getModulation();
+      modulation.addListener(this);
+      this.modulationEngines.add(modulation);
+      Node modulators = node.child("modulation");
+      for (LXModulator modulator : modulation.modulators) {
+        if (modulators.get(modulator.getLabel()) == null) {
+          addComponent(modulators.child(modulator.getLabel()), modulator);
+        }
+        track(modulator);
+      }
+    }
+    for (LXParameter parameter : component.getParameters()) {
+      String path = parameter.getPath();
+      if (path != null) {
+        Node leaf = node.child(path);
+        leaf.parameter = parameter;
+        if (parameter instanceof ColorParameter) {
+          ColorParameter color = (ColorParameter) parameter;
+          leaf.child("hue").parameter = color.hue;
+          leaf.child("saturation").parameter = color.saturation;
+          leaf.child("brightness").parameter = color.brightness;
+        }
+      }
+    }
+  }
+
+  private void track(LXComponent component) {
+    component.label.addListener(this);
+    this.labels.add(component.label);
+  }
+
+  private void untrack() {
+    for (StringParameter label : this.labels) {
+      label.removeListener(this);
+    }
+    this.labels.clear();
+    for (LXChannel channel : this.channels) {
+      channel.removeListener(this);
+    }
+    this.channels.clear();
+    for (LXModulationEngine modulation : this.modulationEngines) {
+      modulation.removeListener(this);
+    }
+    this.modulationEngines.clear();
+  }
+
+  private void invalidate() {
+    this.dirty = true;
+  }
+
+  @Override
+  public void onParameterChanged(LXParameter parameter) {
+    // A component was renamed
+    invalidate();
+  }
+
+  @Override
+  public void channelAdded(LXEngine engine, LXChannel channel) {
+    invalidate();
+  }
+
+  @Override
+  public void channelRemoved(LXEngine engine, LXChannel channel) {
+    invalidate();
+  }
+
+  @Override
+  public void channelMoved(LXEngine engine, LXChannel channel) {
+    invalidate();
+  }
+
+  @Override
+  public void warpAdded(LXBus channel, LXWarp warp) {
+    invalidate();
+  }
+
+  @Override
+  public void warpRemoved(LXBus channel, LXWarp warp) {
+    invalidate();
+  }
+
+  @Override
+  public void warpMoved(LXBus channel, LXWarp warp) {
+    invalidate();
+  }
+
+  @Override
+  public void effectAdded(LXBus channel, LXEffect effect) {
+    invalidate();
+  }
+
+  @Override
+  public void effectRemoved(LXBus channel, LXEffect effect) {
+    invalidate();
+  }
+
+  @Override
+  public void effectMoved(LXBus channel, LXEffect effect) {
+    invalidate();
+  }
+
+  @Override
+  public void indexChanged(LXChannel channel) {
+    invalidate();
+  }
+
+  @Override
+  public void patternAdded(LXChannel channel, LXPattern pattern) {
+    invalidate();
+  }
+
+  @Override
+  public void patternRemoved(LXChannel channel, LXPattern pattern) {
+    invalidate();
+  }
+
+  @Override
+  public void patternMoved(LXChannel channel, LXPattern pattern) {
+    invalidate();
+  }
+
+  @Override
+  public void patternWillChange(LXChannel channel, LXPattern pattern, LXPattern nextPattern) {}
+
+  @Override
+  public void patternDidChange(LXChannel channel, LXPattern pattern) {}
+
+  @Override
+  public void modulatorAdded(LXModulationEngine engine, LXModulator modulator) {
+    invalidate();
+  }
+
+  @Override
+  public void modulatorRemoved(LXModulationEngine engine, LXModulator modulator) {
+    invalidate();
+  }
+
+  @Override
+  public void modulationAdded(LXModulationEngine engine, LXCompoundModulation modulation) {}
+
+  @Override
+  public void modulationRemoved(LXModulationEngine engine, LXCompoundModulation modulation) {}
+
+  @Override
+  public void triggerAdded(LXModulationEngine engine, LXTriggerModulation trigger) {}
+
+  @Override
+  public void triggerRemoved(LXModulationEngine engine, LXTriggerModulation trigger) {}
+
+}
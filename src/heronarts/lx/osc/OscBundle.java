@@ -108,7 +108,8 @@ public class OscBundle extends OscPacket implements Iterable<OscMessage> {
   void serialize(ByteBuffer buffer) {
     buffer.put(BUNDLE_HEADER);
     buffer.putLong(this.timeTag);
-    for (OscPacket packet : this.elements) {
+    for (int i = 0; i < this.elements.size(); ++i) {
+      OscPacket packet = this.elements.get(i);
       int sizePosition = buffer.position();
       buffer.position(sizePosition + 4);
       packet.serialize(buffer);
@@ -38,6 +38,24 @@ public class OscMessage extends OscPacket implements Iterable<OscArgument> {
 
   private int cursor = 0;
 
+  // Set on messages owned by a pooled receiver, which recycles them
+  boolean pooled = false;
+
+  // When the datagram carrying this message was received
+  long receiveNanos = 0;
+
+  // Arguments reused by readFrom(), so that parsing in place does not allocate
+  private final List<OscInt> readInts = new ArrayList<OscInt>();
+  private final List<OscFloat> readFloats = new ArrayList<OscFloat>();
+  private final List<OscDouble> readDoubles = new ArrayList<OscDouble>();
+  private final List<OscString> readStrings = new ArrayList<OscString>();
+  private int readIntCount, readFloatCount, readDoubleCount, readStringCount;
+
+  private static final OscTrue READ_TRUE = new OscTrue();
+  private static final OscFalse READ_FALSE = new OscFalse();
+  private static final OscNil READ_NIL = new OscNil();
+  private static final OscInfinitum READ_INFINITUM = new OscInfinitum();
+
   public OscMessage() {}
 
   public OscMessage(String addressPattern) {
@@ -267,6 +285,150 @@ public class OscMessage extends OscPacket implements Iterable<OscArgument> {
     return message;
   }
 
+  /**
+   * Parses a message in place, reusing this message's address, type tag and
+   * argument objects from previous reads. Arguments read this way are only
+   * valid until the next read into this message.
+   *
+   * @param source Source address
+   * @param data Data
+   * @param offset Start of the message
+   * @param len End of the message
+   * @return this
+   * @throws OscException If the message is malformed
+   */
+  OscMessage readFrom(InetAddress source, byte[] data, int offset, int len) throws OscException {
+    this.source = source;
+    this.cursor = 0;
+    this.arguments.clear();
+    this.readIntCount = this.readFloatCount = this.readDoubleCount = this.readStringCount = 0;
+
+    if (this.addressPattern == null) {
+      this.addressPattern = new OscString("");
+    }
+    offset += this.addressPattern.read(data, offset, len);
+
+    if (offset >= len) {
+      this.typeTagDirty = true;
+      return this;
+    }
+    if (this.typeTag == null) {
+      this.typeTag = new OscString("");
+    }
+    int typeTagOffset = offset;
+    offset += this.typeTag.read(data, offset, len);
+    int typeTagLength = this.typeTag.getEncodedLength();
+
+    for (int i = 1; i < typeTagLength; ++i) {
+      byte tag = data[typeTagOffset + i];
+      OscArgument argument;
+      switch (tag) {
+      case OscTypeTag.INT:
+        argument = readInt(getInt(data, offset, len));
+        break;
+      case OscTypeTag.FLOAT:
+        argument = readFloat(Float.intBitsToFloat(getInt(data, offset, len)));
+        break;
+      case OscTypeTag.DOUBLE:
+        argument = readDouble(Double.longBitsToDouble(getLong(data, offset, len)));
+        break;
+      case OscTypeTag.STRING:
+        OscString string = readString();
+        string.read(data, offset, len);
+        argument = string;
+        break;
+      case OscTypeTag.LONG:
+        argument = new OscLong(getLong(data, offset, len));
+        break;
+      case OscTypeTag.TIMETAG:
+        argument = new OscTimeTag(getLong(data, offset, len));
+        break;
+      case OscTypeTag.SYMBOL:
+        argument = OscSymbol.parse(data, offset, len);
+        break;
+      case OscTypeTag.BLOB:
+        int blobLength = getInt(data, offset, len);
+        if (blobLength < 0 || offset + 4 + blobLength > len) {
+          throw new OscMalformedDataException("OscBlob length exceeds message", data, offset, len);
+        }
+        byte[] blobData = new byte[blobLength];
+        System.arraycopy(data, offset + 4, blobData, 0, blobLength);
+        argument = new OscBlob(blobData);
+        break;
+      case OscTypeTag.CHAR:
+        argument = new OscChar((char) getInt(data, offset, len));
+        break;
+      case OscTypeTag.RGBA:
+        argument = new OscRgba(getInt(data, offset, len));
+        break;
+      case OscTypeTag.MIDI:
+        argument = new OscMidi(getInt(data, offset, len));
+        break;
+      case OscTypeTag.TRUE:
+        argument = READ_TRUE;
+        break;
+      case OscTypeTag.FALSE:
+        argument = READ_FALSE;
+        break;
+      case OscTypeTag.NIL:
+        argument = READ_NIL;
+        break;
+      case OscTypeTag.INFINITUM:
+        argument = READ_INFINITUM;
+        break;
+      default:
+        throw new OscMalformedDataException("Unrecognized type tag: " + (char) tag, data, offset, len);
+      }
+      offset += argument.getByteLength();
+      this.arguments.add(argument);
+    }
+    this.typeTagDirty = false;
+    return this;
+  }
+
+  private static int getInt(byte[] data, int offset, int len) throws OscException {
+    if (offset + 4 > len) {
+      throw new OscMalformedDataException("OscMessage argument exceeds message", data, offset, len);
+    }
+    return
+      ((data[offset] & 0xff) << 24) |
+      ((data[offset+1] & 0xff) << 16) |
+      ((data[offset+2] & 0xff) << 8) |
+      (data[offset+3] & 0xff);
+  }
+
+  private static long getLong(byte[] data, int offset, int len) throws OscException {
+    return ((long) getInt(data, offset, len) << 32) | (getInt(data, offset + 4, len) & 0xffffffffL);
+  }
+
+  private OscInt readInt(int value) {
+    if (this.readIntCount == this.readInts.size()) {
+      this.readInts.add(new OscInt());
+    }
+    return this.readInts.get(this.readIntCount++).setValue(value);
+  }
+
+  private OscFloat readFloat(float value) {
+    if (this.readFloatCount == this.readFloats.size()) {
+      this.readFloats.add(new OscFloat(0));
+    }
+    return this.readFloats.get(this.readFloatCount++).setValue(value);
+  }
+
+  private OscDouble readDouble(double value) {
+    if (this.readDoubleCount == this.readDoubles.size()) {
+      this.readDoubles.add(new OscDouble());
+    }
+    return this.readDoubles.get(this.readDoubleCount++).setValue(value);
+  }
+
+  private OscString readString() {
+    if (this.readStringCount == this.readStrings.size()) {
+      this.readStrings.add(new OscString(""));
+    }
+    return this.readStrings.get(this.readStringCount++);
+  }
+
   @Override
   public Iterator<OscArgument> iterator() {
     return this.arguments.iterator();
@@ -296,8 +458,8 @@ public class OscMessage extends OscPacket implements Iterable<OscArgument> {
   void serialize(ByteBuffer buffer) {
     this.addressPattern.serialize(buffer);
     getTypeTag().serialize(buffer);
-    for (OscArgument argument : this.arguments) {
-      argument.serialize(buffer);
+    for (int i = 0; i < this.arguments.size(); ++i) {
+      this.arguments.get(i).serialize(buffer);
     }
   }
 }
@@ -24,9 +24,15 @@ import java.nio.ByteBuffer;
 
 public class OscString implements OscArgument {
 
+  // Decoded lazily when the string was read in place from raw bytes
   private String value;
   private int byteLength;
 
+  // Encoded on first serialization and kept, so repeated sends do not allocate.
+  // When read in place, holds the raw bytes and is reused across reads.
+  private byte[] bytes = null;
+  private int bytesLength = 0;
+
   public OscString(char[] value) {
     this(new String(value));
   }
@@ -36,6 +42,9 @@ public class OscString implements OscArgument {
   }
 
   public OscString setValue(String value) {
+    if (!value.equals(this.value)) {
+      this.bytes = null;
+    }
     this.value = value;
     this.byteLength = value.length() + 1;
     while (this.byteLength % 4 > 0) {
@@ -44,7 +53,40 @@ public class OscString implements OscArgument {
     return this;
   }
 
+  /**
+   * Reads a null-terminated string in place, reusing this object's byte
+   * storage. The String value is only decoded if somebody asks for it.
+   *
+   * @param data Data
+   * @param offset Start of the string
+   * @param len End of the data
+   * @return Number of bytes consumed, including padding
+   * @throws OscException If there is no terminating null character
+   */
+  int read(byte[] data, int offset, int len) throws OscException {
+    for (int i = offset; i < len; ++i) {
+      if (data[i] == 0) {
+        int length = i - offset;
+        if (this.bytes == null || this.bytes.length < length) {
+          this.bytes = new byte[Math.max(length, 32)];
+        }
+        System.arraycopy(data, offset, this.bytes, 0, length);
+        this.bytesLength = length;
+        this.value = null;
+        this.byteLength = length + 1;
+        while (this.byteLength % 4 > 0) {
+          ++this.byteLength;
+        }
+        return this.byteLength;
+      }
+    }
+    throw new OscMalformedDataException("OscString has no terminating null character", data, offset, len);
+  }
+
   public String getValue() {
+    if (this.value == null) {
+      this.value = new String(this.bytes, 0, this.bytesLength);
+    }
     return this.value;
   }
 
@@ -52,6 +94,23 @@ public class OscString implements OscArgument {
     return this.byteLength;
   }
 
+  /**
+   * Encoded bytes of this string, without terminator. Only the first
+   * getEncodedLength() bytes are valid.
+   */
+  byte[] getEncoded() {
+    if (this.bytes == null) {
+      this.bytes = this.value.getBytes();
+      this.bytesLength = this.bytes.length;
+    }
+    return this.bytes;
+  }
+
+  int getEncodedLength() {
+    getEncoded();
+    return this.bytesLength;
+  }
+
   public static OscString parse(byte[] data, int offset, int len) throws OscException {
     for (int i = offset; i < len; ++i) {
       if (data[i] == 0) {
@@ -68,34 +127,35 @@ public class OscString implements OscArgument {
 
   @Override
   public String toString() {
-    return this.value;
+    return getValue();
   }
 
   public void serialize(ByteBuffer buffer) {
-    byte[] bytes = this.value.getBytes();
-    buffer.put(bytes);
-    for (int i = bytes.length; i < this.byteLength; ++i) {
+    byte[] bytes = getEncoded();
+    buffer.put(bytes, 0, this.bytesLength);
+    for (int i = this.bytesLength; i < this.byteLength; ++i) {
       buffer.put((byte) 0);
     }
   }
 
   @Override
   public int toInt() {
-    return Integer.parseInt(this.value);
+    return Integer.parseInt(getValue());
   }
 
   @Override
   public float toFloat() {
-    return Float.parseFloat(this.value);
+    return Float.parseFloat(getValue());
   }
 
   @Override
   public double toDouble() {
-    return Double.parseDouble(this.value);
+    return Double.parseDouble(getValue());
   }
 
   @Override
   public boolean toBoolean() {
-    return this.value.equals("true") || this.value.equals("TRUE");
+    String value = getValue();
+    return value.equals("true") || value.equals("TRUE");
   }
 }
@@ -20,12 +20,22 @@
 
 package heronarts.lx.output;
 
+import heronarts.lx.PolyBuffer;
 import heronarts.lx.model.LXFixture;
 
+import static heronarts.lx.PolyBuffer.Space.RGB16;
+import static heronarts.lx.PolyBuffer.Space.RGB8;
+
 /**
  * Distributed Display Protocol is a simple protocol developed by 3waylabs. It's
  * a simple framing of raw color buffers, without DMX size limitations.
  *
+ * Fixtures too large for a single packet are split into fragments of at most
+ * MAX_FRAGMENT_DATA bytes, each carrying its data offset, with the PUSH flag
+ * set only on the final fragment. All fragments are sent out of a single
+ * buffer: the header for each fragment is written over the tail of the
+ * previous fragment's data, which has already gone out on the wire.
+ *
  * The specification is available at http://www.3waylabs.com/ddp/
  */
 public class DDPDatagram extends LXDatagram {
@@ -33,43 +43,113 @@ public class DDPDatagram extends LXDatagram {
   private static final int HEADER_LENGTH = 10;
   private static final int DEFAULT_PORT = 4048;
 
+  /**
+   * Largest amount of pixel data carried in one packet, a multiple of both
+   * 3 and 6 so that fragments always break on pixel boundaries.
+   */
+  public static final int MAX_FRAGMENT_DATA = 1440;
+
+  private static final byte FLAGS_VERSION_1 = 0x40;
+  private static final byte FLAG_PUSH = 0x01;
+
+  private static final byte DATA_TYPE_DEFAULT = 0x00;
+  private static final byte DATA_TYPE_RGB16 = 0x0C;
+
+  private static final int BYTES_PER_PIXEL = 3;
+  private static final int BYTES_PER_16BIT_PIXEL = 6;
+
   private final int[] pointIndices;
 
+  private boolean is16BitColorEnabled = false;
+  private byte[] buffer16 = null;
+
+  private byte[] frameBuffer;
+  private byte dataType = DATA_TYPE_DEFAULT;
+  private int dataLength = 0;
+  private int sequenceNumber = 0;
+
   public DDPDatagram(LXFixture fixture) {
     this(LXOutput.fixtureToIndices(fixture));
   }
 
   public DDPDatagram(int[] pointIndices) {
-    super(HEADER_LENGTH + pointIndices.length * 3);
+    super(HEADER_LENGTH + pointIndices.length * BYTES_PER_PIXEL);
     setPort(DEFAULT_PORT);
-    int dataLen = pointIndices.length * 3;
     this.pointIndices = pointIndices;
+    this.frameBuffer = this.buffer;
+    this.dataLength = pointIndices.length * BYTES_PER_PIXEL;
+    preparePacket(0);
+  }
+
+  /**
+   * Sends 16 bits per color channel when the source buffer has fresh 16-bit
+   * data. Controllers must support the RGB16 DDP data type.
+   *
+   * @param enable Whether to send 16-bit color
+   * @return this
+   */
+  public DDPDatagram set16BitColorEnabled(boolean enable) {
+    this.is16BitColorEnabled = enable;
+    return this;
+  }
+
+  @Override
+  public void onSend(PolyBuffer src) {
+    if (this.is16BitColorEnabled && src.isFresh(RGB16)) {
+      int length = this.pointIndices.length * BYTES_PER_16BIT_PIXEL;
+      if (this.buffer16 == null) {
+        this.buffer16 = new byte[HEADER_LENGTH + length];
+      }
+      copyPoints16((long[]) src.getArray(RGB16), this.pointIndices, this.buffer16, HEADER_LENGTH);
+      this.frameBuffer = this.buffer16;
+      this.dataType = DATA_TYPE_RGB16;
+      this.dataLength = length;
+    } else {
+      copyPoints((int[]) src.getArray(RGB8), this.pointIndices, HEADER_LENGTH);
+      this.frameBuffer = this.buffer;
+      this.dataType = DATA_TYPE_DEFAULT;
+      this.dataLength = this.pointIndices.length * BYTES_PER_PIXEL;
+    }
+
+    // Sequence numbers cycle 1-15, 0 means not used
+    this.sequenceNumber = (this.sequenceNumber % 15) + 1;
+  }
+
+  @Override
+  protected int getPacketCount() {
+    return Math.max(1, (this.dataLength + MAX_FRAGMENT_DATA - 1) / MAX_FRAGMENT_DATA);
+  }
+
+  @Override
+  protected void preparePacket(int index) {
+    int dataOffset = index * MAX_FRAGMENT_DATA;
+    int fragmentLength = Math.min(MAX_FRAGMENT_DATA, this.dataLength - dataOffset);
+    boolean last = (dataOffset + fragmentLength) >= this.dataLength;
+    int h = dataOffset;
+    byte[] buffer = this.frameBuffer;
 
     // Flags: V V x T S R Q P
-    this.buffer[0] = 0x41;
+    buffer[h] = last ? (byte) (FLAGS_VERSION_1 | FLAG_PUSH) : FLAGS_VERSION_1;
 
-    // Reserved
-    this.buffer[1] = 0x00;
+    // Sequence number
+    buffer[h + 1] = (byte) (this.sequenceNumber & 0x0f);
 
     // Data type
-    this.buffer[2] = 0x00;
+    buffer[h + 2] = this.dataType;
 
     // Destination ID, default
-    this.buffer[3] = 0x01;
+    buffer[h + 3] = 0x01;
 
     // Data offset
-    this.buffer[4] = 0x00;
-    this.buffer[5] = 0x00;
-    this.buffer[6] = 0x00;
-    this.buffer[7] = 0x00;
+    buffer[h + 4] = (byte) (0xff & (dataOffset >> 24));
+    buffer[h + 5] = (byte) (0xff & (dataOffset >> 16));
+    buffer[h + 6] = (byte) (0xff & (dataOffset >> 8));
+    buffer[h + 7] = (byte) (0xff & dataOffset);
 
     // Data length
-    this.buffer[8] = (byte) (0xff & (dataLen >> 8));
-    this.buffer[9] = (byte) (0xff & dataLen);
-  }
+    buffer[h + 8] = (byte) (0xff & (fragmentLength >> 8));
+    buffer[h + 9] = (byte) (0xff & fragmentLength);
 
-  @Override
-  public void onSend(int[] colors) {
-    copyPoints(colors, this.pointIndices, HEADER_LENGTH);
+    this.packet.setData(buffer, h, HEADER_LENGTH + fragmentLength);
   }
 }
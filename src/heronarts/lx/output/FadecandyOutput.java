@@ -20,8 +20,6 @@
 
 package heronarts.lx.output;
 
-import java.io.IOException;
-
 import heronarts.lx.LX;
 import heronarts.lx.model.LXFixture;
 
@@ -104,11 +102,7 @@ public class FadecandyOutput extends OPCOutput {
     this.firmwarePacket[7] = 0x02;       // Command ID low byte
     this.firmwarePacket[8] = this.firmwareConfig;
 
-    try {
-      this.output.write(this.firmwarePacket);
-    } catch (IOException iox) {
-      dispose(iox);
-    }
+    write(this.firmwarePacket);
   }
 
   public FadecandyOutput setColorCorrection(float gamma, float red, float green, float blue) {
@@ -140,12 +134,8 @@ public class FadecandyOutput extends OPCOutput {
     header[6] = 0x00;       // Command ID high byte
     header[7] = 0x01;       // Command ID low byte
 
-    try {
-      this.output.write(header);
-      this.output.write(content);
-    } catch (IOException iox) {
-      dispose(iox);
-    }
+    write(header);
+    write(content);
   }
 
 }
@@ -182,6 +182,26 @@ public abstract class LXDatagram {
     return this;
   }
 
+  /**
+   * Number of packets this datagram sends on the wire for each frame. Most
+   * datagrams fit in a single packet, protocols that fragment large frames
+   * may override this.
+   *
+   * @return Number of packets per frame
+   */
+  protected int getPacketCount() {
+    return 1;
+  }
+
+  /**
+   * Invoked by the output before each packet of a frame is sent, after
+   * onSend() has populated the color data. Subclasses that send multiple
+   * packets should point the datagram packet at the given fragment here.
+   *
+   * @param index Index of the packet about to be sent
+   */
+  protected void preparePacket(int index) {}
+
   /**
    * Old-style subclasses override this method to populate the datagram
    * packet with 8-bit color data.  New-style subclasses should override
@@ -1,13 +1,213 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
 package heronarts.lx.output;
 
+import java.net.InetAddress;
+
+import heronarts.lx.LXComponent;
+import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.MetricParameter;
+
+/**
+ * Send state and metrics for a single destination address of a datagram
+ * output. Raw counters are written only by the thread that sends to this
+ * destination; the metric parameters are published from them on the engine
+ * thread by the owning output.
+ */
+public class LXDatagramDestination extends LXComponent implements LXOscComponent {
+
+  /**
+   * Number of buckets in the send-call latency histogram. Bucket i counts
+   * send calls that took less than 2^i microseconds, the final bucket
+   * counts everything slower.
+   */
+  public static final int LATENCY_BUCKETS = 16;
+
+  public final InetAddress address;
 
-public class LXDatagramDestination {
+  private final LXDatagramOutput output;
 
-  long sendAfter = 0;
+  volatile long sendAfter = 0;
 
-  int failureCount = 0;
+  volatile int failureCount = 0;
 
   public final BooleanParameter error = new BooleanParameter("Error", false);
 
+  public final MetricParameter packetsPerSecond =
+    new MetricParameter("Packets/s")
+    .setDescription("Packets sent to this destination per second");
+
+  public final MetricParameter bytesPerSecond =
+    new MetricParameter("Bytes/s")
+    .setDescription("Bytes sent to this destination per second");
+
+  public final MetricParameter sendLatency =
+    new MetricParameter("Send Latency")
+    .setDescription("Average duration of a send call to this destination, in microseconds");
+
+  public final MetricParameter frameSendTime =
+    new MetricParameter("Frame Time")
+    .setDescription("Time spent sending to this destination in the last frame, in microseconds");
+
+  public final MetricParameter suppressedPerSecond =
+    new MetricParameter("Suppressed/s")
+    .setDescription("Packets per second not sent because this destination is backing off");
+
+  public final MetricParameter backoff =
+    new MetricParameter("Backoff")
+    .setDescription("Consecutive send failures, 0 when the destination is healthy");
+
+  // Counters, written only by the sending thread
+  volatile long packets = 0;
+  volatile long bytes = 0;
+  volatile long suppressed = 0;
+  volatile long sendCalls = 0;
+  volatile long sendNanos = 0;
+  volatile long frameNanos = 0;
+  long frameAccumulatorNanos = 0;
+  final long[] latencyHistogram = new long[LATENCY_BUCKETS];
+
+  // Previous sample, only touched on the engine thread
+  private long sampleMillis = 0;
+  private long samplePackets = 0;
+  private long sampleBytes = 0;
+  private long sampleSuppressed = 0;
+  private long sampleSendCalls = 0;
+  private long sampleSendNanos = 0;
+
+  LXDatagramDestination(LXDatagramOutput output, InetAddress address) {
+    super(output.getLX(), (address == null) ? "Destination" : address.getHostAddress());
+    this.output = output;
+    this.address = address;
+    addParameter("packetsPerSecond", this.packetsPerSecond);
+    addParameter("bytesPerSecond", this.bytesPerSecond);
+    addParameter("sendLatency", this.sendLatency);
+    addParameter("frameSendTime", this.frameSendTime);
+    addParameter("suppressedPerSecond", this.suppressedPerSecond);
+    addParameter("backoff", this.backoff);
+  }
+
+  /**
+   * Scoped under the owning output, since several outputs may send to the
+   * same host
+   */
+  @Override
+  public String getOscAddress() {
+    return this.output.getOscAddress() + "/destination/" + getLabel();
+  }
+
+  void recordSend(int length, long nanos) {
+    ++this.packets;
+    this.bytes += length;
+    ++this.sendCalls;
+    this.sendNanos += nanos;
+    long micros = nanos / 1000;
+    int bucket = 0;
+    while (bucket < LATENCY_BUCKETS - 1 && micros >= (1L << bucket)) {
+      ++bucket;
+    }
+    ++this.latencyHistogram[bucket];
+  }
+
+  void recordSuppressed(int packets) {
+    this.suppressed += packets;
+  }
+
+  /**
+   * Publishes metric parameters from the raw counters. Rates are computed
+   * over windows of at least the given length.
+   *
+   * @param nowMillis Current time
+   * @param windowMillis Rate window
+   */
+  void updateMetrics(long nowMillis, long windowMillis) {
+    this.error.setValue(this.failureCount >= LXDatagramOutput.FAILURES_BEFORE_BACKOFF);
+    this.backoff.update(this.failureCount);
+    this.frameSendTime.update(this.frameNanos / 1000.);
+    long elapsed = nowMillis - this.sampleMillis;
+    if (elapsed < windowMillis) {
+      return;
+    }
+    long packets = this.packets;
+    long bytes = this.bytes;
+    long suppressed = this.suppressed;
+    long sendCalls = this.sendCalls;
+    long sendNanos = this.sendNanos;
+    if (this.sampleMillis > 0) {
+      double seconds = elapsed / 1000.;
+      this.packetsPerSecond.update((packets - this.samplePackets) / seconds);
+      this.bytesPerSecond.update((bytes - this.sampleBytes) / seconds);
+      this.suppressedPerSecond.update((suppressed - this.sampleSuppressed) / seconds);
+      long calls = sendCalls - this.sampleSendCalls;
+      this.sendLatency.update((calls > 0) ? (sendNanos - this.sampleSendNanos) / 1000. / calls : 0);
+    }
+    this.sampleMillis = nowMillis;
+    this.samplePackets = packets;
+    this.sampleBytes = bytes;
+    this.sampleSuppressed = suppressed;
+    this.sampleSendCalls = sendCalls;
+    this.sampleSendNanos = sendNanos;
+  }
+
+  /**
+   * Takes a snapshot of the metrics for this destination
+   *
+   * @return Metrics snapshot
+   */
+  public Metrics getMetrics() {
+    return new Metrics(this);
+  }
+
+  /**
+   * Immutable snapshot of the metrics for a destination. Totals are since
+   * the destination was created, rates are over the last sample window.
+   */
+  public static class Metrics {
+    public final InetAddress address;
+    public final long totalPackets;
+    public final long totalBytes;
+    public final long totalSuppressed;
+    public final double packetsPerSecond;
+    public final double bytesPerSecond;
+    public final double suppressedPerSecond;
+    public final double averageSendMicros;
+    public final double frameSendMicros;
+    public final int failureCount;
+    public final boolean inBackoff;
+    public final long[] latencyHistogram;
+
+    private Metrics(LXDatagramDestination destination) {
+      this.address = destination.address;
+      this.totalPackets = destination.packets;
+      this.totalBytes = destination.bytes;
+      this.totalSuppressed = destination.suppressed;
+      this.packetsPerSecond = destination.packetsPerSecond.getValue();
+      this.bytesPerSecond = destination.bytesPerSecond.getValue();
+      this.suppressedPerSecond = destination.suppressedPerSecond.getValue();
+      this.averageSendMicros = destination.sendLatency.getValue();
+      this.frameSendMicros = destination.frameNanos / 1000.;
+      this.failureCount = destination.failureCount;
+      this.inBackoff = destination.sendAfter > System.currentTimeMillis();
+      this.latencyHistogram = destination.latencyHistogram.clone();
+    }
+  }
 }
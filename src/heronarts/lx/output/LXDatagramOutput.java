@@ -21,14 +21,18 @@
 package heronarts.lx.output;
 
 import heronarts.lx.LX;
+import heronarts.lx.LXLoopTask;
 import heronarts.lx.PolyBuffer;
+import heronarts.lx.osc.LXOscComponent;
+import heronarts.lx.parameter.MetricParameter;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,14 +42,54 @@ import static heronarts.lx.PolyBuffer.Space.RGB8;
 /**
  * An output stage that functions by sending datagram packets.
  */
-public class LXDatagramOutput extends LXOutput {
+public class LXDatagramOutput extends LXOutput implements LXOscComponent {
+
+  static final int FAILURES_BEFORE_BACKOFF = 3;
+
+  private static final long METRICS_WINDOW_MILLIS = 1000;
 
   private final DatagramSocket socket;
 
   private final Map<InetAddress, LXDatagramDestination> destinations = new HashMap<InetAddress, LXDatagramDestination>();
+  private final List<LXDatagramDestination> destinationList = new ArrayList<LXDatagramDestination>();
   private final List<LXDatagram> datagrams = new ArrayList<LXDatagram>();
 
-  private final SimpleDateFormat date = new SimpleDateFormat("[HH:mm:ss]");
+  private final List<Shard> mutableShards = new ArrayList<Shard>();
+
+  /**
+   * Sender shards, empty unless setShardCount() has been used
+   */
+  public final List<Shard> shards = Collections.unmodifiableList(this.mutableShards);
+
+  public final MetricParameter packetsPerSecond =
+    new MetricParameter("Packets/s")
+    .setDescription("Packets sent by this output per second");
+
+  public final MetricParameter bytesPerSecond =
+    new MetricParameter("Bytes/s")
+    .setDescription("Bytes sent by this output per second");
+
+  public final MetricParameter frameSendTime =
+    new MetricParameter("Frame Time")
+    .setDescription("Time spent sending the last frame from the calling thread, in microseconds");
+
+  public final MetricParameter suppressedPerSecond =
+    new MetricParameter("Suppressed/s")
+    .setDescription("Packets per second not sent because their destination is backing off");
+
+  public final MetricParameter backoffCount =
+    new MetricParameter("Backoff")
+    .setDescription("Number of destinations currently backing off");
+
+  private final OutputLogger log = new OutputLogger("", 10, 1);
+
+  private final LXLoopTask metricsTask = new LXLoopTask() {
+    public void loop(double deltaMs) {
+      updateMetrics();
+    }
+  };
+
+  private volatile long frameNanos = 0;
 
   private boolean logConnections = true;
 
@@ -56,6 +100,18 @@ public class LXDatagramOutput extends LXOutput {
   public LXDatagramOutput(LX lx, DatagramSocket socket) {
     super(lx);
     this.socket = socket;
+    addParameter("packetsPerSecond", this.packetsPerSecond);
+    addParameter("bytesPerSecond", this.bytesPerSecond);
+    addParameter("frameSendTime", this.frameSendTime);
+    addParameter("suppressedPerSecond", this.suppressedPerSecond);
+    addParameter("backoffCount", this.backoffCount);
+    lx.engine.addLoopTask(this.metricsTask);
+    lx.engine.osc.addTransmitComponent(this);
+  }
+
+  @Override
+  public String getOscAddress() {
+    return "/lx/output/datagram/" + getId();
   }
 
   /* If set to true, logConnections will print a message every time a
@@ -70,10 +126,15 @@ public class LXDatagramOutput extends LXOutput {
     this.datagrams.add(datagram);
     LXDatagramDestination destination = this.destinations.get(datagram.getAddress());
     if (destination == null) {
-      destination = new LXDatagramDestination();
+      destination = new LXDatagramDestination(this, datagram.getAddress());
       this.destinations.put(datagram.getAddress(), destination);
+      this.destinationList.add(destination);
+      getLX().engine.osc.addTransmitComponent(destination);
     }
     datagram.destination = destination;
+    if (!this.mutableShards.isEmpty()) {
+      getShard(datagram.getAddress()).addDatagram(datagram);
+    }
     return this;
   }
 
@@ -84,6 +145,151 @@ public class LXDatagramOutput extends LXOutput {
     return this;
   }
 
+  /**
+   * Splits sending across a number of sender threads, each with its own
+   * socket. All datagrams for a given destination address are sent by the
+   * same shard, chosen by rendezvous hashing on the address so that
+   * changing the shard count moves as few destinations as possible. A slow
+   * or unreachable destination then only delays the other destinations
+   * in its own shard.
+   *
+   * If a shard is still busy sending the previous frame when a new frame
+   * arrives, that shard skips the new frame rather than queueing it.
+   *
+   * @param shardCount Number of sender threads, 0 to send everything on the
+   *   calling thread
+   * @return this
+   * @throws SocketException If a shard socket could not be created
+   */
+  public LXDatagramOutput setShardCount(int shardCount) throws SocketException {
+    if (shardCount < 0) {
+      throw new IllegalArgumentException("Shard count may not be negative: " + shardCount);
+    }
+    List<DatagramSocket> sockets = new ArrayList<DatagramSocket>();
+    try {
+      for (int i = 0; i < shardCount; ++i) {
+        sockets.add(new DatagramSocket());
+      }
+    } catch (SocketException sx) {
+      for (DatagramSocket socket : sockets) {
+        socket.close();
+      }
+      throw sx;
+    }
+    disposeShards();
+    for (int i = 0; i < shardCount; ++i) {
+      this.mutableShards.add(new Shard(i, sockets.get(i)));
+    }
+    for (LXDatagram datagram : this.datagrams) {
+      getShard(datagram.getAddress()).addDatagram(datagram);
+    }
+    for (Shard shard : this.mutableShards) {
+      shard.start();
+    }
+    return this;
+  }
+
+  private Shard getShard(InetAddress address) {
+    // Rendezvous hashing, the shard with the highest score for this
+    // address wins
+    int addressHash = Arrays.hashCode(address.getAddress());
+    Shard best = null;
+    int bestScore = 0;
+    for (Shard shard : this.mutableShards) {
+      int score = mixHash(addressHash * 31 + shard.index);
+      if (best == null || score > bestScore) {
+        best = shard;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  private static int mixHash(int h) {
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    h *= 0xc2b2ae35;
+    h ^= (h >>> 16);
+    return h;
+  }
+
+  private void disposeShards() {
+    for (Shard shard : this.mutableShards) {
+      shard.interrupt();
+      shard.socket.close();
+    }
+    this.mutableShards.clear();
+  }
+
+  @Override
+  public void dispose() {
+    disposeShards();
+    LX lx = getLX();
+    lx.engine.removeLoopTask(this.metricsTask);
+    lx.engine.osc.removeTransmitComponent(this);
+    for (LXDatagramDestination destination : this.destinationList) {
+      lx.engine.osc.removeTransmitComponent(destination);
+      destination.dispose();
+    }
+    super.dispose();
+  }
+
+  private void updateMetrics() {
+    long now = System.currentTimeMillis();
+    double packets = 0, bytes = 0, suppressed = 0;
+    int backoff = 0;
+    for (LXDatagramDestination destination : this.destinationList) {
+      destination.updateMetrics(now, METRICS_WINDOW_MILLIS);
+      packets += destination.packetsPerSecond.getValue();
+      bytes += destination.bytesPerSecond.getValue();
+      suppressed += destination.suppressedPerSecond.getValue();
+      if (destination.error.isOn()) {
+        ++backoff;
+      }
+    }
+    this.packetsPerSecond.update(packets);
+    this.bytesPerSecond.update(bytes);
+    this.suppressedPerSecond.update(suppressed);
+    this.backoffCount.update(backoff);
+    this.frameSendTime.update(this.frameNanos / 1000.);
+  }
+
+  /**
+   * Takes a snapshot of the metrics for this output and all of its
+   * destinations.
+   *
+   * @return Metrics snapshot
+   */
+  public Metrics getMetrics() {
+    return new Metrics(this);
+  }
+
+  /**
+   * Immutable snapshot of the metrics for a datagram output
+   */
+  public static class Metrics {
+    public final double packetsPerSecond;
+    public final double bytesPerSecond;
+    public final double suppressedPerSecond;
+    public final double frameSendMicros;
+    public final int backoffCount;
+    public final List<LXDatagramDestination.Metrics> destinations;
+
+    private Metrics(LXDatagramOutput output) {
+      this.packetsPerSecond = output.packetsPerSecond.getValue();
+      this.bytesPerSecond = output.bytesPerSecond.getValue();
+      this.suppressedPerSecond = output.suppressedPerSecond.getValue();
+      this.frameSendMicros = output.frameNanos / 1000.;
+      this.backoffCount = output.backoffCount.getValuei();
+      List<LXDatagramDestination.Metrics> destinations = new ArrayList<LXDatagramDestination.Metrics>();
+      for (LXDatagramDestination destination : output.destinationList) {
+        destinations.add(destination.getMetrics());
+      }
+      this.destinations = Collections.unmodifiableList(destinations);
+    }
+  }
+
   /**
    * Old-style subclasses override this method if they want to do
    * something before datagrams are sent.  New-style subclasses should
@@ -133,40 +339,228 @@ public class LXDatagramOutput extends LXOutput {
   /** Populates the datagrams with packet data and sends them out. */
   @Override
   protected void onSend(PolyBuffer src) {
+    long frameStart = System.nanoTime();
     long now = System.currentTimeMillis();
     beforeSend(src);
-    for (LXDatagram datagram : this.datagrams) {
-      if (datagram.enabled.isOn() && (now > datagram.destination.sendAfter)) {
-        datagram.onSend(src);
-        try {
-          this.socket.send(datagram.packet);
-          if (datagram.destination.failureCount > 0 && logConnections) {
-            System.out.println(this.date.format(now) + " Recovered connectivity to " + datagram.packet.getAddress());
+    if (this.mutableShards.isEmpty()) {
+      for (LXDatagram datagram : this.datagrams) {
+        if (datagram.enabled.isOn()) {
+          if (now > datagram.destination.sendAfter) {
+            datagram.onSend(src);
+            sendDatagram(this.socket, datagram, now);
+          } else {
+            datagram.destination.recordSuppressed(datagram.getPacketCount());
           }
-          datagram.destination.error.setValue(false);
-          datagram.destination.failureCount = 0;
-          datagram.destination.sendAfter = 0;
-        } catch (IOException iox) {
-          if (datagram.destination.failureCount == 0 && logConnections) {
-            System.out.println(this.date.format(now) + " IOException sending to "
-                + datagram.packet.getAddress() + " (" + iox.getLocalizedMessage()
-                + "), will initiate backoff after 3 consecutive failures");
+        }
+      }
+      finishFrame(this.destinationList);
+    } else {
+      for (Shard shard : this.mutableShards) {
+        shard.send(src, now);
+      }
+    }
+    afterSend(src);
+    this.frameNanos = System.nanoTime() - frameStart;
+  }
+
+  private void sendDatagram(DatagramSocket socket, LXDatagram datagram, long now) {
+    LXDatagramDestination destination = datagram.destination;
+    try {
+      int packetCount = datagram.getPacketCount();
+      for (int i = 0; i < packetCount; ++i) {
+        datagram.preparePacket(i);
+        long sendStart = System.nanoTime();
+        socket.send(datagram.packet);
+        long sendNanos = System.nanoTime() - sendStart;
+        destination.recordSend(datagram.packet.getLength(), sendNanos);
+        destination.frameAccumulatorNanos += sendNanos;
+      }
+      if (destination.failureCount > 0 && logConnections) {
+        this.log.log(now, "Recovered connectivity to " + datagram.packet.getAddress());
+      }
+      destination.failureCount = 0;
+      destination.sendAfter = 0;
+    } catch (IOException iox) {
+      if (destination.failureCount == 0 && logConnections) {
+        this.log.log(now, "IOException sending to "
+            + datagram.packet.getAddress() + " (" + iox.getLocalizedMessage()
+            + "), will initiate backoff after " + FAILURES_BEFORE_BACKOFF + " consecutive failures");
+      }
+      ++destination.failureCount;
+      if (destination.failureCount >= FAILURES_BEFORE_BACKOFF) {
+        int pow = Math.min(5, destination.failureCount - FAILURES_BEFORE_BACKOFF);
+        long waitFor = (long) (50 * Math.pow(2, pow));
+        if (logConnections) {
+          this.log.log(now, "Retrying " + datagram.packet.getAddress()
+              + " in " + waitFor + "ms" + " (" + destination.failureCount
+              + " consecutive failures)");
+        }
+        destination.sendAfter = now + waitFor;
+      }
+    }
+  }
+
+  private static void finishFrame(List<LXDatagramDestination> destinations) {
+    for (LXDatagramDestination destination : destinations) {
+      destination.frameNanos = destination.frameAccumulatorNanos;
+      destination.frameAccumulatorNanos = 0;
+    }
+  }
+
+  /**
+   * A sender thread that owns a subset of the destinations of this output.
+   * The calling thread fills in the packet data for the shard's datagrams,
+   * then the shard thread sends them on its own socket.
+   */
+  public class Shard extends Thread {
+
+    public final int index;
+
+    private final DatagramSocket socket;
+
+    private final List<LXDatagram> datagrams = new ArrayList<LXDatagram>();
+    private final List<LXDatagramDestination> destinations = new ArrayList<LXDatagramDestination>();
+    private final List<LXDatagram> batch = new ArrayList<LXDatagram>();
+
+    private boolean workReady = false;
+    private volatile boolean busy = false;
+    private volatile int queueDepth = 0;
+    private long batchMillis = 0;
+
+    private volatile long droppedFrames = 0;
+    private volatile long lastFrameNanos = 0;
+    private volatile long lastSendCallNanos = 0;
+    private volatile long maxSendCallNanos = 0;
+
+    private Shard(int index, DatagramSocket socket) {
+      super("LXDatagramOutput Shard #" + index);
+      setDaemon(true);
+      this.index = index;
+      this.socket = socket;
+    }
+
+    private void addDatagram(LXDatagram datagram) {
+      this.datagrams.add(datagram);
+      if (!this.destinations.contains(datagram.destination)) {
+        this.destinations.add(datagram.destination);
+      }
+    }
+
+    private void send(PolyBuffer src, long now) {
+      if (this.busy) {
+        ++this.droppedFrames;
+        return;
+      }
+      this.batch.clear();
+      for (LXDatagram datagram : this.datagrams) {
+        if (datagram.enabled.isOn()) {
+          if (now > datagram.destination.sendAfter) {
+            datagram.onSend(src);
+            this.batch.add(datagram);
+          } else {
+            datagram.destination.recordSuppressed(datagram.getPacketCount());
           }
-          ++datagram.destination.failureCount;
-          if (datagram.destination.failureCount >= 3) {
-            int pow = Math.min(5, datagram.destination.failureCount - 3);
-            long waitFor = (long) (50 * Math.pow(2, pow));
-            if (logConnections) {
-              System.out.println(this.date.format(now) + " Retrying " + datagram.packet.getAddress()
-                  + " in " + waitFor + "ms" + " (" + datagram.destination.failureCount
-                  + " consecutive failures)");
+        }
+      }
+      if (this.batch.isEmpty()) {
+        return;
+      }
+      this.busy = true;
+      synchronized (this) {
+        this.batchMillis = now;
+        this.queueDepth = this.batch.size();
+        this.workReady = true;
+        notify();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        long now;
+        synchronized (this) {
+          try {
+            while (!this.workReady) {
+              wait();
             }
-            datagram.destination.sendAfter = now + waitFor;
-            datagram.destination.error.setValue(true);
+          } catch (InterruptedException ix) {
+            break;
+          }
+          this.workReady = false;
+          now = this.batchMillis;
+        }
+        long frameStart = System.nanoTime();
+        long maxCall = 0;
+        for (LXDatagram datagram : this.batch) {
+          long callStart = System.nanoTime();
+          sendDatagram(this.socket, datagram, now);
+          long callNanos = System.nanoTime() - callStart;
+          if (callNanos > maxCall) {
+            maxCall = callNanos;
           }
+          --this.queueDepth;
         }
+        finishFrame(this.destinations);
+        long frameNanos = System.nanoTime() - frameStart;
+        this.lastFrameNanos = frameNanos;
+        this.lastSendCallNanos = this.batch.isEmpty() ? 0 : frameNanos / this.batch.size();
+        this.maxSendCallNanos = maxCall;
+        this.busy = false;
       }
     }
-    afterSend(src);
+
+    /**
+     * Number of datagrams from the current frame still waiting to be sent
+     *
+     * @return Queue depth
+     */
+    public int getQueueDepth() {
+      return this.queueDepth;
+    }
+
+    /**
+     * Number of frames this shard skipped because it was still busy
+     *
+     * @return Dropped frame count
+     */
+    public long getDroppedFrameCount() {
+      return this.droppedFrames;
+    }
+
+    /**
+     * Time spent sending the last complete frame on this shard
+     *
+     * @return Nanoseconds
+     */
+    public long getFrameSendNanos() {
+      return this.lastFrameNanos;
+    }
+
+    /**
+     * Average latency of a single send call in the last frame
+     *
+     * @return Nanoseconds
+     */
+    public long getAverageSendCallNanos() {
+      return this.lastSendCallNanos;
+    }
+
+    /**
+     * Worst latency of a single send call in the last frame
+     *
+     * @return Nanoseconds
+     */
+    public long getMaxSendCallNanos() {
+      return this.maxSendCallNanos;
+    }
+
+    /**
+     * Number of datagrams assigned to this shard
+     *
+     * @return Datagram count
+     */
+    public int getDatagramCount() {
+      return this.datagrams.size();
+    }
   }
 }
@@ -27,7 +27,6 @@ import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
 import heronarts.lx.PolyBuffer;
 import heronarts.lx.model.LXFixture;
-import heronarts.lx.model.LXPoint;
 import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.DiscreteParameter;
@@ -48,13 +47,7 @@ import static heronarts.lx.PolyBuffer.Space.RGB8;
 public abstract class LXOutput extends LXComponent {
 
   static int[] fixtureToIndices(LXFixture fixture) {
-    List<LXPoint> points = fixture.getPoints();
-    int[] indices = new int[points.size()];
-    int i = 0;
-    for (LXPoint p : points) {
-      indices[i++] = p.index;
-    }
-    return indices;
+    return fixture.getIndexSpans().toIndices();
   }
 
   /**
@@ -21,71 +21,335 @@
 package heronarts.lx.output;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import heronarts.lx.LX;
 import heronarts.lx.PolyBuffer;
+import heronarts.lx.parameter.EnumParameter;
 
 import static heronarts.lx.PolyBuffer.Space.RGB8;
 
+/**
+ * An output that streams frames over a TCP socket. Connecting and writing
+ * are performed with non-blocking channels on a shared selector thread, so
+ * a missing or slow server never stalls the thread that sends frames. Each
+ * connection holds a single pending frame; if a new frame is sent before the
+ * previous one made it onto the wire, the stale frame is dropped.
+ */
 public abstract class LXSocketOutput extends LXOutput {
 
+  private static final long CONNECT_TIMEOUT_NANOS = 1000 * 1000000L;
+  private static final long RECONNECT_BASE_NANOS = 100 * 1000000L;
+  private static final int RECONNECT_MAX_DOUBLINGS = 5;
+
+  public enum ConnectionState {
+    DISCONNECTED,
+    CONNECTING,
+    CONNECTED
+  };
+
   public final String host;
   public final int port;
 
-  protected Socket socket;
-  protected OutputStream output;
+  /**
+   * State of the connection to the server, updated when frames are sent
+   */
+  public final EnumParameter<ConnectionState> connectionState =
+    new EnumParameter<ConnectionState>("Connection", ConnectionState.DISCONNECTED)
+    .setDescription("State of the TCP connection to the server");
+
+  private final Connection connection = new Connection();
+
+  private boolean registered = false;
 
   protected LXSocketOutput(LX lx, String host, int port) {
     super(lx);
     this.host = host;
     this.port = port;
+    this.connectionState.setShouldSerialize(false);
+    addParameter("connectionState", this.connectionState);
   }
 
   public boolean isConnected() {
-    return (this.socket != null);
+    return this.connection.state == ConnectionState.CONNECTED;
+  }
+
+  /**
+   * Number of frames that were dropped because a newer frame was sent before
+   * they could be written to the socket.
+   *
+   * @return Dropped frame count
+   */
+  public long getDroppedFrameCount() {
+    return this.connection.droppedFrames;
+  }
+
+  /**
+   * Number of consecutive failed connection attempts
+   *
+   * @return Failure count, 0 if connected
+   */
+  public int getFailureCount() {
+    return this.connection.failureCount;
   }
 
   private void connect() {
-    if (this.socket == null) {
-      try {
-        this.socket = new Socket();
-        this.socket.connect(new InetSocketAddress(this.host, this.port), 100);
-        this.socket.setTcpNoDelay(true);
-        this.output = this.socket.getOutputStream();
-        didConnect();
-      } catch (ConnectException cx) {
-        dispose(cx);
-      } catch (IOException iox) {
-        dispose(iox);
-      }
+    if (!this.registered) {
+      this.registered = true;
+      SocketOutputThread.get().addConnection(this.connection);
     }
   }
 
+  /**
+   * Invoked on the socket thread when a connection is established. Packets
+   * written from here with write() are sent before any frame data.
+   */
   protected void didConnect() {
 
   }
 
+  /**
+   * Drops the current connection, a new connection will be attempted after
+   * backing off.
+   *
+   * @param x Reason for dropping the connection
+   */
   protected void dispose(Exception x) {
-    this.socket = null;
-    this.output = null;
-    didDispose(x);
+    this.connection.closeRequest = x;
+    SocketOutputThread.get().wakeup();
   }
 
+  /**
+   * Invoked on the socket thread when the connection is lost or fails to
+   * be established.
+   *
+   * @param x Cause of the failure
+   */
   protected void didDispose(Exception x) {
   }
 
+  @Override
+  public void dispose() {
+    if (this.registered) {
+      this.registered = false;
+      SocketOutputThread.get().removeConnection(this.connection);
+    }
+    super.dispose();
+  }
+
+  /**
+   * Queues a control packet to be written to the socket. Unlike frame data
+   * these packets are never dropped, but they are discarded if the
+   * connection is not currently established.
+   *
+   * @param data Packet data
+   */
+  protected void write(byte[] data) {
+    if (isConnected()) {
+      this.connection.control.add(ByteBuffer.wrap(data.clone()));
+      SocketOutputThread.get().wakeup();
+    }
+  }
+
   @Override
   protected void onSend(PolyBuffer src) {
     connect();
-    if (isConnected()) {
+    ConnectionState state = this.connection.state;
+    if (this.connectionState.getEnum() != state) {
+      this.connectionState.setValue(state);
+    }
+    if (state == ConnectionState.CONNECTED) {
+      this.connection.enqueueFrame(getPacketData(src));
+    }
+  }
+
+  /**
+   * Connection state for a socket output. Everything other than the frame
+   * slots and control queue is only touched by the socket thread.
+   */
+  class Connection {
+
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile Exception closeRequest = null;
+    private volatile long droppedFrames = 0;
+    private volatile int failureCount = 0;
+
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+    private long connectAfterNanos = 0;
+    private long connectStartNanos = 0;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> control = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicReference<ByteBuffer> pending = new AtomicReference<ByteBuffer>();
+    private final AtomicReference<ByteBuffer> free = new AtomicReference<ByteBuffer>();
+    private ByteBuffer current = null;
+    private boolean currentIsFrame = false;
+
+    private void enqueueFrame(byte[] data) {
+      ByteBuffer buffer = this.free.getAndSet(null);
+      if (buffer == null || buffer.capacity() < data.length) {
+        buffer = ByteBuffer.allocateDirect(data.length);
+      }
+      buffer.clear();
+      buffer.put(data);
+      buffer.flip();
+      ByteBuffer stale = this.pending.getAndSet(buffer);
+      if (stale != null) {
+        ++this.droppedFrames;
+        this.free.compareAndSet(null, stale);
+      }
+      SocketOutputThread.get().wakeup();
+    }
+
+    /**
+     * Performs any connection housekeeping that is due and updates
+     * write interest.
+     *
+     * @param selector Selector
+     * @param now Current nano time
+     * @return Nanoseconds until this connection next needs attention, or 0
+     */
+    long service(Selector selector, long now) {
+      Exception x = this.closeRequest;
+      if (x != null) {
+        this.closeRequest = null;
+        close(x);
+      }
+      switch (this.state) {
+      case DISCONNECTED:
+        if (now < this.connectAfterNanos) {
+          return this.connectAfterNanos - now;
+        }
+        open(selector, now);
+        if (this.state == ConnectionState.DISCONNECTED) {
+          return this.connectAfterNanos - now;
+        }
+        return (this.state == ConnectionState.CONNECTING) ? CONNECT_TIMEOUT_NANOS : 0;
+      case CONNECTING:
+        long elapsed = now - this.connectStartNanos;
+        if (elapsed > CONNECT_TIMEOUT_NANOS) {
+          close(new SocketTimeoutException("Timed out connecting to " + host + ":" + port));
+          return this.connectAfterNanos - now;
+        }
+        return CONNECT_TIMEOUT_NANOS - elapsed;
+      case CONNECTED:
+        updateInterest();
+        break;
+      }
+      return 0;
+    }
+
+    private void open(Selector selector, long now) {
       try {
-        this.output.write(getPacketData(src));
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.connectStartNanos = now;
+        this.state = ConnectionState.CONNECTING;
+        if (this.channel.connect(new InetSocketAddress(host, port))) {
+          this.key = this.channel.register(selector, 0, this);
+          didFinishConnect();
+        } else {
+          this.key = this.channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
       } catch (IOException iox) {
-        dispose(iox);
+        close(iox);
+      }
+    }
+
+    void finishConnect() {
+      try {
+        if (this.channel.finishConnect()) {
+          didFinishConnect();
+        }
+      } catch (IOException iox) {
+        close(iox);
+      }
+    }
+
+    private void didFinishConnect() {
+      this.failureCount = 0;
+      this.key.interestOps(0);
+      this.state = ConnectionState.CONNECTED;
+      didConnect();
+      updateInterest();
+    }
+
+    void write() {
+      try {
+        while (true) {
+          if (this.current == null || !this.current.hasRemaining()) {
+            if (this.current != null && this.currentIsFrame) {
+              this.free.compareAndSet(null, this.current);
+            }
+            this.current = this.control.poll();
+            this.currentIsFrame = false;
+            if (this.current == null) {
+              this.current = this.pending.getAndSet(null);
+              this.currentIsFrame = true;
+            }
+            if (this.current == null) {
+              break;
+            }
+          }
+          this.channel.write(this.current);
+          if (this.current.hasRemaining()) {
+            // Socket buffer is full, wait until it is writable again
+            break;
+          }
+        }
+      } catch (IOException iox) {
+        close(iox);
+        return;
+      }
+      updateInterest();
+    }
+
+    private void updateInterest() {
+      if (this.state != ConnectionState.CONNECTED || this.key == null || !this.key.isValid()) {
+        return;
+      }
+      boolean hasData =
+        (this.current != null && this.current.hasRemaining()) ||
+        (this.pending.get() != null) ||
+        !this.control.isEmpty();
+      this.key.interestOps(hasData ? SelectionKey.OP_WRITE : 0);
+    }
+
+    /**
+     * Closes the channel. If there is an error, a reconnect is scheduled
+     * with exponential backoff.
+     *
+     * @param x Cause of failure, or null if the output is going away
+     */
+    void close(Exception x) {
+      if (this.key != null) {
+        this.key.cancel();
+        this.key = null;
+      }
+      if (this.channel != null) {
+        try {
+          this.channel.close();
+        } catch (IOException ignored) {}
+        this.channel = null;
+      }
+      this.current = null;
+      this.pending.set(null);
+      this.control.clear();
+      this.state = ConnectionState.DISCONNECTED;
+      if (x != null) {
+        int doublings = Math.min(RECONNECT_MAX_DOUBLINGS, this.failureCount);
+        this.connectAfterNanos = System.nanoTime() + (RECONNECT_BASE_NANOS << doublings);
+        ++this.failureCount;
+        didDispose(x);
       }
     }
   }
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.text.SimpleDateFormat;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Rate-limited logger for output connectivity messages. Callers on the send
+ * path only enqueue a message; timestamp formatting and printing happen on a
+ * shared background thread. Each logger allows a burst of messages and then
+ * a steady rate, and reports how many messages it suppressed beyond that.
+ */
+class OutputLogger {
+
+  private static final int MAX_QUEUED = 256;
+
+  private static final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(MAX_QUEUED);
+
+  private static Thread thread = null;
+
+  private static class Entry {
+    private final long timeMillis;
+    private final String prefix;
+    private final String message;
+    private final int suppressed;
+
+    private Entry(long timeMillis, String prefix, String message, int suppressed) {
+      this.timeMillis = timeMillis;
+      this.prefix = prefix;
+      this.message = message;
+      this.suppressed = suppressed;
+    }
+  }
+
+  private static synchronized void startThread() {
+    if (thread == null) {
+      thread = new Thread("LX Output Log Thread") {
+        private final SimpleDateFormat date = new SimpleDateFormat("[HH:mm:ss]");
+
+        @Override
+        public void run() {
+          while (!isInterrupted()) {
+            Entry entry;
+            try {
+              entry = queue.take();
+            } catch (InterruptedException ix) {
+              break;
+            }
+            if (entry.suppressed > 0) {
+              System.out.println(this.date.format(entry.timeMillis) + " " + entry.prefix
+                + "(" + entry.suppressed + " messages suppressed)");
+            }
+            System.out.println(this.date.format(entry.timeMillis) + " " + entry.prefix + entry.message);
+          }
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private final String prefix;
+  private final int burst;
+  private final double messagesPerSecond;
+
+  private double tokens;
+  private long lastRefillMillis = 0;
+  private int suppressed = 0;
+
+  OutputLogger(String prefix, int burst, double messagesPerSecond) {
+    this.prefix = prefix;
+    this.burst = burst;
+    this.messagesPerSecond = messagesPerSecond;
+    this.tokens = burst;
+  }
+
+  /**
+   * Logs a message, unless this logger is over its rate limit
+   *
+   * @param nowMillis Time the event happened
+   * @param message Message
+   */
+  synchronized void log(long nowMillis, String message) {
+    if (this.lastRefillMillis > 0) {
+      this.tokens = Math.min(this.burst, this.tokens + (nowMillis - this.lastRefillMillis) * this.messagesPerSecond / 1000.);
+    }
+    this.lastRefillMillis = nowMillis;
+    if (this.tokens < 1) {
+      ++this.suppressed;
+      return;
+    }
+    startThread();
+    if (queue.offer(new Entry(nowMillis, this.prefix, message, this.suppressed))) {
+      this.tokens -= 1;
+      this.suppressed = 0;
+    } else {
+      ++this.suppressed;
+    }
+  }
+
+  /**
+   * Number of messages suppressed since the last one that was logged
+   *
+   * @return Suppressed message count
+   */
+  synchronized int getSuppressedCount() {
+    return this.suppressed;
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread that services every TCP socket output. Connects,
+ * reconnects and writes all happen here using non-blocking channels, so that
+ * the engine or network thread never blocks on a slow or missing server.
+ */
+class SocketOutputThread extends Thread {
+
+  private static SocketOutputThread instance = null;
+
+  /**
+   * Gets the shared selector thread, starting it on first use.
+   *
+   * @return Socket output thread
+   */
+  static synchronized SocketOutputThread get() {
+    if (instance == null) {
+      try {
+        instance = new SocketOutputThread(Selector.open());
+      } catch (IOException iox) {
+        throw new IllegalStateException("Could not open selector for socket outputs", iox);
+      }
+      instance.start();
+    }
+    return instance;
+  }
+
+  private final Selector selector;
+
+  private final List<LXSocketOutput.Connection> connections = new ArrayList<LXSocketOutput.Connection>();
+
+  private final ConcurrentLinkedQueue<LXSocketOutput.Connection> added = new ConcurrentLinkedQueue<LXSocketOutput.Connection>();
+  private final ConcurrentLinkedQueue<LXSocketOutput.Connection> removed = new ConcurrentLinkedQueue<LXSocketOutput.Connection>();
+
+  private SocketOutputThread(Selector selector) {
+    super("LX Socket Output Thread");
+    setDaemon(true);
+    this.selector = selector;
+  }
+
+  void addConnection(LXSocketOutput.Connection connection) {
+    this.added.add(connection);
+    this.selector.wakeup();
+  }
+
+  void removeConnection(LXSocketOutput.Connection connection) {
+    this.removed.add(connection);
+    this.selector.wakeup();
+  }
+
+  /**
+   * Wakes up the selector because a connection has new data queued to write,
+   * or has requested that it be closed.
+   */
+  void wakeup() {
+    this.selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    while (!isInterrupted()) {
+      LXSocketOutput.Connection connection;
+      while ((connection = this.added.poll()) != null) {
+        if (!this.connections.contains(connection)) {
+          this.connections.add(connection);
+        }
+      }
+      while ((connection = this.removed.poll()) != null) {
+        this.connections.remove(connection);
+        connection.close(null);
+      }
+
+      // Kick off any reconnects that are due, and figure out how long
+      // we may sleep until the next one
+      long now = System.nanoTime();
+      long timeoutNanos = Long.MAX_VALUE;
+      for (LXSocketOutput.Connection c : this.connections) {
+        long waitNanos = c.service(this.selector, now);
+        if (waitNanos > 0) {
+          timeoutNanos = Math.min(timeoutNanos, waitNanos);
+        }
+      }
+
+      try {
+        if (timeoutNanos == Long.MAX_VALUE) {
+          this.selector.select();
+        } else {
+          this.selector.select(Math.max(1, timeoutNanos / 1000000));
+        }
+      } catch (IOException iox) {
+        System.err.println("Socket output selector failed: " + iox.getLocalizedMessage());
+        break;
+      }
+
+      Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        LXSocketOutput.Connection c = (LXSocketOutput.Connection) key.attachment();
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.isConnectable()) {
+          c.finishConnect();
+        }
+        if (key.isValid() && key.isWritable()) {
+          c.write();
+        }
+      }
+    }
+  }
+}
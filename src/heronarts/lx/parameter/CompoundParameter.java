@@ -31,6 +31,12 @@ public class CompoundParameter extends BoundedParameter {
 
   public final List<LXCompoundModulation> modulations = Collections.unmodifiableList(this.mutableModulations);
 
+  // Modulated value resolved once per frame by the engine, see snapshot()
+  private boolean live = false;
+  private boolean snapshotValid = false;
+  private double snapshotNormalized = 0;
+  private double snapshotValue = 0;
+
   /**
    * Labeled parameter with value of 0 and range of 0-1
    *
@@ -106,6 +112,7 @@ public class CompoundParameter extends BoundedParameter {
       throw new IllegalStateException("Cannot add same modulation twice");
     }
     this.mutableModulations.add(modulation);
+    this.snapshotValid = false;
     bang();
     return this;
   }
@@ -118,6 +125,7 @@ public class CompoundParameter extends BoundedParameter {
    */
   public CompoundParameter removeModulation(LXCompoundModulation modulation) {
     this.mutableModulations.remove(modulation);
+    this.snapshotValid = false;
     bang();
     return this;
   }
@@ -130,8 +138,49 @@ public class CompoundParameter extends BoundedParameter {
     return super.getNormalized(getBaseValue());
   }
 
+  /**
+   * Sets whether this parameter always computes its modulated value when read.
+   * By default the engine resolves the modulated value once per frame, after
+   * the modulators have run, and reads during the frame return that snapshot.
+   * Live parameters instead re-evaluate their modulations on every read, for
+   * code that needs sub-frame changes in modulation sources.
+   *
+   * @param live Whether to compute the modulated value on every read
+   * @return this
+   */
+  public CompoundParameter setLive(boolean live) {
+    this.live = live;
+    this.snapshotValid = false;
+    return this;
+  }
+
+  public boolean isLive() {
+    return this.live;
+  }
+
+  /**
+   * Resolves the modulated value and keeps it for subsequent reads, until the
+   * next snapshot or until the base value or set of modulations changes. The
+   * engine calls this once per frame for every modulation target.
+   */
+  public void snapshot() {
+    if (this.live || this.mutableModulations.isEmpty()) {
+      this.snapshotValid = false;
+      return;
+    }
+    double normalized = getModulatedNormalized();
+    this.snapshotNormalized = normalized;
+    this.snapshotValue = normalizedToValue(normalized);
+    this.snapshotValid = true;
+  }
+
   @Override
-  public double getNormalized() {
+  protected double updateValue(double value) {
+    this.snapshotValid = false;
+    return super.updateValue(value);
+  }
+
+  private double getModulatedNormalized() {
     double normalized = super.getNormalized(getBaseValue());
     for (LXCompoundModulation modulation : this.mutableModulations) {
       if (modulation.enabled.isOn()) {
@@ -145,12 +194,23 @@ public class CompoundParameter extends BoundedParameter {
     return LXUtils.constrain(normalized, 0, 1);
   }
 
+  @Override
+  public double getNormalized() {
+    if (this.snapshotValid) {
+      return this.snapshotNormalized;
+    }
+    return getModulatedNormalized();
+  }
+
   @Override
   public double getValue() {
     if (this.mutableModulations.size() == 0) {
       return super.getValue();
     }
-    return normalizedToValue(getNormalized());
+    if (this.snapshotValid) {
+      return this.snapshotValue;
+    }
+    return normalizedToValue(getModulatedNormalized());
   }
 
 }
@@ -20,11 +20,11 @@
 
 package heronarts.lx.parameter;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Queue;
 import java.util.Set;
 
+import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
 
 /**
@@ -40,6 +40,12 @@ public abstract class LXListenableParameter implements LXParameter {
 
   private final Set<LXParameterListener> listeners = new HashSet<LXParameterListener>();
 
+  // Allocated on first use, most parameters never have coalesced listeners
+  private Set<LXParameterListener> coalescedListeners = null;
+
+  // Guarded by the lock of the engine's LXParameterNotifier
+  boolean coalescePending = false;
+
   private LXComponent component;
   private String path;
 
@@ -53,6 +59,8 @@ public abstract class LXListenableParameter implements LXParameter {
 
   private boolean shouldSerialize = true;
 
+  private boolean shouldJournal = true;
+
   protected LXListenableParameter() {
     this(null, 0);
   }
@@ -113,6 +121,55 @@ public abstract class LXListenableParameter implements LXParameter {
     return this;
   }
 
+  /**
+   * Adds a listener which is notified at most once per engine frame, with the
+   * latest value, rather than synchronously on every change. Appropriate for
+   * listeners doing expensive work such as UI updates or network output.
+   *
+   * @param listener Listener
+   * @return this
+   */
+  public final LXListenableParameter addCoalescedListener(LXParameterListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Cannot add null parameter listener");
+    }
+    if (this.coalescedListeners == null) {
+      this.coalescedListeners = new HashSet<LXParameterListener>();
+    }
+    if (this.coalescedListeners.contains(listener)) {
+      throw new IllegalStateException("Cannot add duplicate coalesced listener " + getLabel() + " " + listener);
+    }
+    this.coalescedListeners.add(listener);
+    return this;
+  }
+
+  public final LXListenableParameter removeCoalescedListener(LXParameterListener listener) {
+    if (this.coalescedListeners != null) {
+      this.coalescedListeners.remove(listener);
+    }
+    return this;
+  }
+
+  // Queues the coalesced listeners on the notifier of the engine that owns
+  // this parameter, or notifies them right away if there isn't one yet
+  private void enqueueCoalesced() {
+    LXComponent component = this.component;
+    LX lx = (component != null) ? component.getLX() : null;
+    if (lx != null && lx.engine != null) {
+      lx.engine.notifier.enqueue(this);
+    } else {
+      notifyCoalescedListeners();
+    }
+  }
+
+  void notifyCoalescedListeners() {
+    if (this.coalescedListeners != null) {
+      for (LXParameterListener l : this.coalescedListeners) {
+        l.onParameterChanged(this);
+      }
+    }
+  }
+
   public LXListenableParameter setDescription(String description) {
     this.description = description;
     return this;
@@ -171,27 +228,95 @@ public abstract class LXListenableParameter implements LXParameter {
     return setValue(this.value + amount);
   }
 
+  /**
+   * Collects setValue() calls made on a thread which must not fire listeners,
+   * such as a worker computing modulators in parallel, so that they can be
+   * applied afterwards on the engine thread in the order they were made.
+   * While deferring, parameters keep their old values, so code on that
+   * thread does not see its own changes until they are applied. Metric
+   * updates are applied as updates.
+   */
+  public static final class Deferred {
+
+    private LXListenableParameter[] parameters = new LXListenableParameter[4];
+    private double[] values = new double[4];
+    private boolean[] updates = new boolean[4];
+    private int size = 0;
+
+    private void add(LXListenableParameter parameter, double value) {
+      if (this.size == this.parameters.length) {
+        this.parameters = Arrays.copyOf(this.parameters, this.size * 2);
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+        this.updates = Arrays.copyOf(this.updates, this.size * 2);
+      }
+      this.parameters[this.size] = parameter;
+      this.values[this.size] = value;
+      this.updates[this.size] = (parameter instanceof MetricParameter) && ((MetricParameter) parameter).isUpdating();
+      ++this.size;
+    }
+
+    /**
+     * Applies the collected calls, firing listeners on the calling thread
+     */
+    public void apply() {
+      for (int i = 0; i < this.size; ++i) {
+        if (this.updates[i]) {
+          ((MetricParameter) this.parameters[i]).update(this.values[i]);
+        } else {
+          this.parameters[i].setValue(this.values[i]);
+        }
+        this.parameters[i] = null;
+      }
+      this.size = 0;
+    }
+  }
+
+  private static final ThreadLocal<Deferred> deferred = new ThreadLocal<Deferred>();
+
+  /**
+   * Defers every setValue() call subsequently made on the current thread into
+   * the given collection, until this is called again with null.
+   *
+   * @param collection Where to collect calls, or null to stop deferring
+   */
+  public static void deferSetValues(Deferred collection) {
+    deferred.set(collection);
+  }
+
   private boolean inListener = false;
-  private final Queue<Double> setValues = new ArrayDeque<Double>();
+
+  // Ring buffer of values set recursively from listeners, kept as primitives
+  // so that re-entrant sets do not box
+  private double[] setValues = null;
+  private int setValuesHead = 0;
+  private int setValuesSize = 0;
 
   public final LXParameter setValue(double value) {
+    Deferred collection = deferred.get();
+    if (collection != null) {
+      collection.add(this, value);
+      return this;
+    }
     if (this.inListener) {
       // setValue() was called recursively from a parameter listener.
       // This is okay, but we need to call all the listeners with the
       // first value before we make this next update.
-      this.setValues.add(value);
+      offerSetValue(value);
     } else {
       if (this.value != value) {
         value = updateValue(value);
         if (this.value != value) {
           this.value = value;
+          if (this.coalescedListeners != null && !this.coalescedListeners.isEmpty()) {
+            enqueueCoalesced();
+          }
           this.inListener = true;
           for (LXParameterListener l : listeners) {
             l.onParameterChanged(this);
           }
           this.inListener = false;
-          while (!this.setValues.isEmpty()) {
-            setValue(this.setValues.poll());
+          while (this.setValuesSize > 0) {
+            setValue(pollSetValue());
           }
         }
       }
@@ -199,6 +324,28 @@ public abstract class LXListenableParameter implements LXParameter {
     return this;
   }
 
+  private void offerSetValue(double value) {
+    if (this.setValues == null) {
+      this.setValues = new double[4];
+    } else if (this.setValuesSize == this.setValues.length) {
+      double[] grown = new double[this.setValues.length * 2];
+      for (int i = 0; i < this.setValuesSize; ++i) {
+        grown[i] = this.setValues[(this.setValuesHead + i) % this.setValues.length];
+      }
+      this.setValues = grown;
+      this.setValuesHead = 0;
+    }
+    this.setValues[(this.setValuesHead + this.setValuesSize) % this.setValues.length] = value;
+    ++this.setValuesSize;
+  }
+
+  private double pollSetValue() {
+    double value = this.setValues[this.setValuesHead];
+    this.setValuesHead = (this.setValuesHead + 1) % this.setValues.length;
+    --this.setValuesSize;
+    return value;
+  }
+
   public double getValue() {
     return this.value;
   }
@@ -220,11 +367,29 @@ public abstract class LXListenableParameter implements LXParameter {
     return this.shouldSerialize;
   }
 
+  /**
+   * Marks a parameter that the engine itself writes every frame, such as a
+   * meter, so that its changes are not recorded by a running journal
+   *
+   * @param shouldJournal Whether changes should be journaled
+   */
+  public void setShouldJournal(boolean shouldJournal) {
+    this.shouldJournal = shouldJournal;
+  }
+
+  @Override
+  public boolean getShouldJournal() {
+    return this.shouldJournal;
+  }
+
   /**
    * Manually notify all listeners of this parameter's current value.
    * Useful in some situations to force state reset.
    */
   public LXListenableParameter bang() {
+    if (this.coalescedListeners != null && !this.coalescedListeners.isEmpty()) {
+      enqueueCoalesced();
+    }
     for (LXParameterListener l : listeners) {
       l.onParameterChanged(this);
     }
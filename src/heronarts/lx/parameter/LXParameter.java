@@ -201,4 +201,14 @@ public interface LXParameter {
   public String getLabel();
 
   public boolean getShouldSerialize();
+
+  /**
+   * Whether changes to this parameter are recorded by a running journal.
+   * Parameters the engine writes every frame, like meters, should not be.
+   *
+   * @return Whether changes should be journaled
+   */
+  public default boolean getShouldJournal() {
+    return true;
+  }
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delivers coalesced parameter change notifications. Each engine owns one
+ * notifier. Parameters with coalesced listeners are queued on the notifier of
+ * the engine their component belongs to when their value changes, and the
+ * engine dispatches the queue once per frame, so each coalesced listener
+ * hears about a parameter at most once per frame, seeing its latest value,
+ * no matter how many times it was set in between.
+ */
+public class LXParameterNotifier {
+
+  private final Object lock = new Object();
+
+  private List<LXListenableParameter> pending = new ArrayList<LXListenableParameter>();
+  private List<LXListenableParameter> dispatching = new ArrayList<LXListenableParameter>();
+
+  private long pendingChanges = 0;
+  private long lastChanges = 0;
+  private long lastNotifications = 0;
+  private long totalChanges = 0;
+  private long totalNotifications = 0;
+
+  void enqueue(LXListenableParameter parameter) {
+    synchronized (this.lock) {
+      ++this.pendingChanges;
+      if (!parameter.coalescePending) {
+        parameter.coalescePending = true;
+        this.pending.add(parameter);
+      }
+    }
+  }
+
+  /**
+   * Notifies the coalesced listeners of every parameter that has changed since
+   * the last dispatch. Changes made by those listeners are delivered on the
+   * next dispatch.
+   *
+   * @return Number of parameters notified
+   */
+  public int dispatch() {
+    long changes;
+    synchronized (this.lock) {
+      List<LXListenableParameter> swap = this.dispatching;
+      this.dispatching = this.pending;
+      this.pending = swap;
+      for (LXListenableParameter parameter : this.dispatching) {
+        parameter.coalescePending = false;
+      }
+      changes = this.pendingChanges;
+      this.pendingChanges = 0;
+    }
+    int count = this.dispatching.size();
+    for (LXListenableParameter parameter : this.dispatching) {
+      parameter.notifyCoalescedListeners();
+    }
+    this.dispatching.clear();
+    this.lastChanges = changes;
+    this.lastNotifications = count;
+    this.totalChanges += changes;
+    this.totalNotifications += count;
+    return count;
+  }
+
+  /**
+   * Number of value changes coalesced into the last dispatch
+   *
+   * @return Changes in the last dispatch
+   */
+  public long getLastChanges() {
+    return this.lastChanges;
+  }
+
+  /**
+   * Number of parameters notified in the last dispatch
+   *
+   * @return Parameters notified in the last dispatch
+   */
+  public long getLastNotifications() {
+    return this.lastNotifications;
+  }
+
+  /**
+   * Ratio of value changes to notifications delivered in the last dispatch.
+   * A ratio of 1 means nothing was coalesced.
+   *
+   * @return Coalescing ratio of the last dispatch, 0 if nothing changed
+   */
+  public double getLastRatio() {
+    return (this.lastNotifications > 0) ? this.lastChanges / (double) this.lastNotifications : 0;
+  }
+
+  /**
+   * Ratio of value changes to notifications delivered over all dispatches
+   *
+   * @return Overall coalescing ratio, 0 if nothing has changed
+   */
+  public double getTotalRatio() {
+    return (this.totalNotifications > 0) ? this.totalChanges / (double) this.totalNotifications : 0;
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.parameter;
+
+/**
+ * A MetricParameter reports a measured value, such as a rate or a latency.
+ * It may be listened to like any other parameter, but it is read-only from
+ * the outside: setValue() has no effect, and only the owner of the metric
+ * publishes new values with update(). Metrics are never serialized.
+ */
+public class MetricParameter extends LXListenableParameter {
+
+  private boolean updating = false;
+
+  public MetricParameter(String label) {
+    super(label, 0);
+    setShouldSerialize(false);
+  }
+
+  @Override
+  public MetricParameter setDescription(String description) {
+    return (MetricParameter) super.setDescription(description);
+  }
+
+  @Override
+  public MetricParameter setUnits(Units units) {
+    return (MetricParameter) super.setUnits(units);
+  }
+
+  /**
+   * Publishes a new measured value. Should only be called by the owner of
+   * this metric.
+   *
+   * @param value Measured value
+   * @return this
+   */
+  public MetricParameter update(double value) {
+    this.updating = true;
+    setValue(value);
+    this.updating = false;
+    return this;
+  }
+
+  boolean isUpdating() {
+    return this.updating;
+  }
+
+  public int getValuei() {
+    return (int) getValue();
+  }
+
+  @Override
+  protected double updateValue(double value) {
+    return this.updating ? value : getValue();
+  }
+
+}
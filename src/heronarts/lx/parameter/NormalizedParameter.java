@@ -35,6 +35,7 @@ public class NormalizedParameter implements LXNormalizedParameter {
   private double value = 0;
 
   private boolean shouldSerialize = true;
+  private boolean shouldJournal = true;
 
   public NormalizedParameter(String label) {
     this(label, 0);
@@ -102,6 +103,15 @@ public class NormalizedParameter implements LXNormalizedParameter {
     return this.shouldSerialize;
   }
 
+  public void setShouldJournal(boolean shouldJournal) {
+    this.shouldJournal = shouldJournal;
+  }
+
+  @Override
+  public boolean getShouldJournal() {
+    return this.shouldJournal;
+  }
+
   @Override
   public void dispose() {
   }
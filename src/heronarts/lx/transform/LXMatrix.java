@@ -104,6 +104,58 @@ public class LXMatrix {
     m44 = m.m44;
   }
 
+  /**
+   * Resets this matrix to the identity
+   *
+   * @return this
+   */
+  public LXMatrix identity() {
+    return set(
+      1, 0, 0, 0,
+      0, 1, 0, 0,
+      0, 0, 1, 0,
+      0, 0, 0, 1
+    );
+  }
+
+  /**
+   * Copies the values of another matrix into this one
+   *
+   * @param m Matrix to copy
+   * @return this
+   */
+  public LXMatrix set(LXMatrix m) {
+    return set(
+      m.m11, m.m12, m.m13, m.m14,
+      m.m21, m.m22, m.m23, m.m24,
+      m.m31, m.m32, m.m33, m.m34,
+      m.m41, m.m42, m.m43, m.m44
+    );
+  }
+
+  public LXMatrix set(float m11, float m12, float m13, float m14,
+                      float m21, float m22, float m23, float m24,
+                      float m31, float m32, float m33, float m34,
+                      float m41, float m42, float m43, float m44) {
+    this.m11 = m11;
+    this.m12 = m12;
+    this.m13 = m13;
+    this.m14 = m14;
+    this.m21 = m21;
+    this.m22 = m22;
+    this.m23 = m23;
+    this.m24 = m24;
+    this.m31 = m31;
+    this.m32 = m32;
+    this.m33 = m33;
+    this.m34 = m34;
+    this.m41 = m41;
+    this.m42 = m42;
+    this.m43 = m43;
+    this.m44 = m44;
+    return this;
+  }
+
   /**
    * Multiplies the matrix by another matrix
    *
@@ -163,6 +215,40 @@ public class LXMatrix {
     return this;
   }
 
+  /**
+   * Multiplies another matrix by this one, storing the result here. Where
+   * multiply() applies the new operation before the existing ones, this
+   * applies it after them, which is the order of a projection.
+   *
+   * @return this
+   */
+  public LXMatrix preMultiply(float b11, float b12, float b13, float b14,
+                              float b21, float b22, float b23, float b24,
+                              float b31, float b32, float b33, float b34,
+                              float b41, float b42, float b43, float b44) {
+    return set(
+      b11 * m11 + b12 * m21 + b13 * m31 + b14 * m41,
+      b11 * m12 + b12 * m22 + b13 * m32 + b14 * m42,
+      b11 * m13 + b12 * m23 + b13 * m33 + b14 * m43,
+      b11 * m14 + b12 * m24 + b13 * m34 + b14 * m44,
+
+      b21 * m11 + b22 * m21 + b23 * m31 + b24 * m41,
+      b21 * m12 + b22 * m22 + b23 * m32 + b24 * m42,
+      b21 * m13 + b22 * m23 + b23 * m33 + b24 * m43,
+      b21 * m14 + b22 * m24 + b23 * m34 + b24 * m44,
+
+      b31 * m11 + b32 * m21 + b33 * m31 + b34 * m41,
+      b31 * m12 + b32 * m22 + b33 * m32 + b34 * m42,
+      b31 * m13 + b32 * m23 + b33 * m33 + b34 * m43,
+      b31 * m14 + b32 * m24 + b33 * m34 + b34 * m44,
+
+      b41 * m11 + b42 * m21 + b43 * m31 + b44 * m41,
+      b41 * m12 + b42 * m22 + b43 * m32 + b44 * m42,
+      b41 * m13 + b42 * m23 + b43 * m33 + b44 * m43,
+      b41 * m14 + b42 * m24 + b43 * m34 + b44 * m44
+    );
+  }
+
   public float x() {
     return m14;
   }
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.transform;
+
+import java.util.stream.IntStream;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.ModelMetrics;
+
+/**
+ * A projection of a model, or of warped model positions, that works on
+ * coordinate planes rather than LXVector objects. Unlike LXProjection, the
+ * scale, translate, reflect and rotate operations do not touch the points;
+ * they are composed into a single matrix, which project() then applies to
+ * every point in one pass, in parallel for large models. The output planes
+ * are reused, so projecting every frame allocates nothing.
+ *
+ * Typical use in a pattern's run() is:
+ *
+ * <pre>
+ * LXVectorPlanes planes = projection.reset().center().rotateY(angle).project();
+ * </pre>
+ */
+public class LXPlanarProjection {
+
+  /**
+   * Projections with more points than this are applied in parallel chunks
+   * of this size.
+   */
+  private static final int CHUNK_SIZE = 8192;
+
+  private LXVectorPlanes input;
+  private final LXVectorPlanes output;
+  private final LXMatrix matrix = new LXMatrix();
+
+  private final ModelMetrics[] chunkMetrics;
+  private final ModelMetrics totalMetrics = new ModelMetrics();
+
+  protected float cx = 0;
+  protected float cy = 0;
+  protected float cz = 0;
+
+  /**
+   * Constructs a projection of the given planes
+   *
+   * @param input Input positions
+   */
+  public LXPlanarProjection(LXVectorPlanes input) {
+    this.input = input;
+    this.output = new LXVectorPlanes(input);
+    int chunks = (input.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    this.chunkMetrics = new ModelMetrics[Math.max(1, chunks)];
+    for (int i = 0; i < this.chunkMetrics.length; ++i) {
+      this.chunkMetrics[i] = new ModelMetrics();
+    }
+  }
+
+  /**
+   * Constructs a projection of the given planes, using the model's center point
+   *
+   * @param model Model
+   * @param input Input positions, e.g. warped positions of the model
+   */
+  public LXPlanarProjection(LXModel model, LXVectorPlanes input) {
+    this(input);
+    this.cx = model.cx;
+    this.cy = model.cy;
+    this.cz = model.cz;
+  }
+
+  /**
+   * Constructs a projection of the given model, using the model's center point
+   *
+   * @param model Model
+   */
+  public LXPlanarProjection(LXModel model) {
+    this(model, model.getVectorPlanes());
+  }
+
+  /**
+   * Changes the input positions, which must have the same size as the
+   * original input. This allows a projection to follow the warped positions
+   * of a channel without allocating new output storage.
+   *
+   * @param input Input positions
+   * @return this
+   */
+  public LXPlanarProjection setInput(LXVectorPlanes input) {
+    if (input.size != this.output.size) {
+      throw new IllegalArgumentException("LXPlanarProjection input size cannot change: " + input.size + " != " + this.output.size);
+    }
+    this.input = input;
+    return this;
+  }
+
+  /**
+   * Gets the composed matrix, which may also be manipulated directly
+   *
+   * @return Projection matrix
+   */
+  public LXMatrix getMatrix() {
+    return this.matrix;
+  }
+
+  /**
+   * Gets the output of the most recent project() call
+   *
+   * @return Projected positions
+   */
+  public LXVectorPlanes getOutput() {
+    return this.output;
+  }
+
+  /**
+   * Clears all composed operations, so the projection is the identity
+   *
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection reset() {
+    this.matrix.identity();
+    return this;
+  }
+
+  /**
+   * Scales the projection
+   *
+   * @param sx x-factor
+   * @param sy y-factor
+   * @param sz z-factor
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection scale(float sx, float sy, float sz) {
+    this.matrix.preMultiply(
+      sx,  0,  0,  0,
+       0, sy,  0,  0,
+       0,  0, sz,  0,
+       0,  0,  0,  1
+    );
+    return this;
+  }
+
+  /**
+   * Translates the projection
+   *
+   * @param tx x-translation
+   * @param ty y-translation
+   * @param tz z-translation
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection translate(float tx, float ty, float tz) {
+    this.matrix.preMultiply(
+      1, 0, 0, tx,
+      0, 1, 0, ty,
+      0, 0, 1, tz,
+      0, 0, 0,  1
+    );
+    return this;
+  }
+
+  /**
+   * Centers the projection, by translating it such that the origin (0, 0, 0)
+   * becomes the center of the model
+   *
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection center() {
+    return translate(-this.cx, -this.cy, -this.cz);
+  }
+
+  /**
+   * Translates the model from its center, so (0, 0, 0) becomes (tx, ty, tz)
+   *
+   * @param tx x-translation
+   * @param ty y-translation
+   * @param tz z-translation
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection translateCenter(float tx, float ty, float tz) {
+    return translate(tx - this.cx, ty - this.cy, tz - this.cz);
+  }
+
+  public LXPlanarProjection reflectX() {
+    return scale(-1, 1, 1);
+  }
+
+  public LXPlanarProjection reflectY() {
+    return scale(1, -1, 1);
+  }
+
+  public LXPlanarProjection reflectZ() {
+    return scale(1, 1, -1);
+  }
+
+  /**
+   * Rotates the projection about a vector
+   *
+   * @param angle Angle to rotate by, in radians
+   * @param l vector x-value
+   * @param m vector y-value
+   * @param n vector z-value
+   * @return this, for method chaining
+   */
+  public LXPlanarProjection rotate(float angle, float l, float m, float n) {
+    float ss = l * l + m * m + n * n;
+    if (ss != 1) {
+      float sr = (float) Math.sqrt(ss);
+      l /= sr;
+      m /= sr;
+      n /= sr;
+    }
+    float sinv = (float) Math.sin(angle);
+    float cosv = (float) Math.cos(angle);
+    this.matrix.preMultiply(
+      l * l * (1 - cosv) + cosv, l * m * (1 - cosv) - n * sinv, l * n * (1 - cosv) + m * sinv, 0,
+      l * m * (1 - cosv) + n * sinv, m * m * (1 - cosv) + cosv, m * n * (1 - cosv) - l * sinv, 0,
+      l * n * (1 - cosv) - m * sinv, m * n * (1 - cosv) + l * sinv, n * n * (1 - cosv) + cosv, 0,
+      0, 0, 0, 1
+    );
+    return this;
+  }
+
+  public LXPlanarProjection rotateX(float angle) {
+    return rotate(angle, 1, 0, 0);
+  }
+
+  public LXPlanarProjection rotateY(float angle) {
+    return rotate(angle, 0, 1, 0);
+  }
+
+  public LXPlanarProjection rotateZ(float angle) {
+    return rotate(angle, 0, 0, 1);
+  }
+
+  /**
+   * Applies the composed matrix to every input position, writing the output
+   * planes and their metrics in a single pass.
+   *
+   * @return Projected positions
+   */
+  public LXVectorPlanes project() {
+    LXVectorPlanes output = this.output;
+    int size = output.size;
+    System.arraycopy(this.input.present, 0, output.present, 0, size);
+    output.beginWrite();
+    if (size < 2 * CHUNK_SIZE) {
+      project(0, size, this.totalMetrics.begin());
+    } else {
+      IntStream.range(0, this.chunkMetrics.length).parallel().forEach(chunk -> {
+        int start = chunk * CHUNK_SIZE;
+        project(start, Math.min(size, start + CHUNK_SIZE), this.chunkMetrics[chunk].begin());
+      });
+      this.totalMetrics.begin();
+      for (ModelMetrics partial : this.chunkMetrics) {
+        this.totalMetrics.merge(partial);
+      }
+    }
+    output.endWrite(this.totalMetrics.end());
+    return output;
+  }
+
+  private void project(int start, int end, ModelMetrics metrics) {
+    final LXMatrix m = this.matrix;
+    final float
+      a11 = m.m11, a12 = m.m12, a13 = m.m13, a14 = m.m14,
+      a21 = m.m21, a22 = m.m22, a23 = m.m23, a24 = m.m24,
+      a31 = m.m31, a32 = m.m32, a33 = m.m33, a34 = m.m34;
+    final float[] ix = this.input.x, iy = this.input.y, iz = this.input.z;
+    final float[] ox = this.output.x, oy = this.output.y, oz = this.output.z;
+    final boolean[] present = this.output.present;
+    for (int i = start; i < end; ++i) {
+      if (present[i]) {
+        float px = ix[i], py = iy[i], pz = iz[i];
+        float x = ox[i] = a11 * px + a12 * py + a13 * pz + a14;
+        float y = oy[i] = a21 * px + a22 * py + a23 * pz + a24;
+        float z = oz[i] = a31 * px + a32 * py + a33 * pz + a34;
+        metrics.add(x, y, z);
+      }
+    }
+  }
+}
@@ -20,7 +20,8 @@
 
 package heronarts.lx.transform;
 
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A transform is a matrix stack, quite similar to the OpenGL implementation.
@@ -29,7 +30,10 @@ import java.util.Stack;
  */
 public class LXTransform {
 
-  private final Stack<LXMatrix> matrices = new Stack<LXMatrix>();
+  // Matrices are kept after pop() and reused by the next push(), so
+  // transforms built per-fixture every frame do not allocate
+  private final List<LXMatrix> matrices = new ArrayList<LXMatrix>();
+  private int depth = 0;
 
   /**
    * Constructs a new transform
@@ -39,11 +43,11 @@ public class LXTransform {
   }
 
   public LXTransform(LXMatrix matrix) {
-    this.matrices.push(matrix);
+    this.matrices.add(matrix);
   }
 
   public LXMatrix getMatrix() {
-    return this.matrices.peek();
+    return this.matrices.get(this.depth);
   }
 
   /**
@@ -179,7 +183,12 @@ public class LXTransform {
    * @return this, for method chaining
    */
   public LXTransform push() {
-    this.matrices.push(new LXMatrix(this.matrices.peek()));
+    LXMatrix current = getMatrix();
+    if (++this.depth == this.matrices.size()) {
+      this.matrices.add(new LXMatrix(current));
+    } else {
+      this.matrices.get(this.depth).set(current);
+    }
     return this;
   }
 
@@ -189,7 +198,10 @@ public class LXTransform {
    * @return this, for method chaining
    */
   public LXTransform pop() {
-    this.matrices.pop();
+    if (this.depth == 0) {
+      throw new IllegalStateException("Cannot pop the base matrix of LXTransform");
+    }
+    --this.depth;
     return this;
   }
 
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+package heronarts.lx.transform;
+
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.model.ModelMetrics;
+
+/**
+ * Positions for every point of a model, stored as separate x, y and z float
+ * planes indexed like model.points. Points may be absent, which corresponds
+ * to a null element in the equivalent LXVector array. This is the form in
+ * which warps pass coordinates along the chain; the LXVector array view is
+ * only materialized when something asks for it.
+ *
+ * Metrics for the present points are kept up to date with every write,
+ * either incrementally through set() or by a single pass in endWrite().
+ */
+public class LXVectorPlanes {
+
+  public final int size;
+
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+
+  /** Whether each point is present, absent points are null in the vector view */
+  public final boolean[] present;
+
+  private final LXPoint[] points;
+
+  private final ModelMetrics metrics = new ModelMetrics();
+
+  private long version = 0;
+
+  private boolean writing = false;
+  private int writes = 0;
+
+  private LXVector[] vectors = null;
+  private long vectorsVersion = -1;
+
+  /**
+   * Creates planes holding the current positions of the given points
+   *
+   * @param points Points, indexed by point index
+   */
+  public LXVectorPlanes(LXPoint[] points) {
+    this.size = points.length;
+    this.points = points;
+    this.x = new float[this.size];
+    this.y = new float[this.size];
+    this.z = new float[this.size];
+    this.present = new boolean[this.size];
+    updateFrom(points);
+  }
+
+  /**
+   * Creates a copy of another set of planes
+   *
+   * @param that Planes to copy
+   */
+  public LXVectorPlanes(LXVectorPlanes that) {
+    this.size = that.size;
+    this.points = that.points;
+    this.x = that.x.clone();
+    this.y = that.y.clone();
+    this.z = that.z.clone();
+    this.present = that.present.clone();
+    this.metrics.copyFrom(that.metrics);
+  }
+
+  /**
+   * Version number, incremented every time the positions change
+   *
+   * @return Version
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  public ModelMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Gets the point at an index, for reference
+   *
+   * @param i Index
+   * @return Point
+   */
+  public LXPoint getPoint(int i) {
+    return this.points[i];
+  }
+
+  /**
+   * Reloads every position from the points, marking all of them present
+   *
+   * @param points Points, same length as these planes
+   * @return this
+   */
+  public LXVectorPlanes updateFrom(LXPoint[] points) {
+    beginWrite();
+    for (int i = 0; i < this.size; ++i) {
+      LXPoint p = points[i];
+      this.present[i] = true;
+      set(i, p.x, p.y, p.z);
+    }
+    endWrite(true);
+    return this;
+  }
+
+  /**
+   * Copies positions, presence and metrics from other planes of the same size
+   *
+   * @param that Planes to copy
+   * @return this
+   */
+  public LXVectorPlanes copyFrom(LXVectorPlanes that) {
+    System.arraycopy(that.x, 0, this.x, 0, this.size);
+    System.arraycopy(that.y, 0, this.y, 0, this.size);
+    System.arraycopy(that.z, 0, this.z, 0, this.size);
+    System.arraycopy(that.present, 0, this.present, 0, this.size);
+    this.metrics.copyFrom(that.metrics);
+    ++this.version;
+    return this;
+  }
+
+  /**
+   * Copies positions from an array of nullable vectors of the same size. If
+   * called during a write pass, it becomes part of that pass.
+   *
+   * @param vectors Vectors
+   * @return this
+   */
+  public LXVectorPlanes copyFrom(LXVector[] vectors) {
+    boolean nested = this.writing;
+    if (!nested) {
+      beginWrite();
+    }
+    for (int i = 0; i < this.size; ++i) {
+      LXVector v = vectors[i];
+      if (v == null) {
+        this.present[i] = false;
+      } else {
+        this.present[i] = true;
+        set(i, v.x, v.y, v.z);
+      }
+    }
+    if (!nested) {
+      endWrite(true);
+    }
+    return this;
+  }
+
+  /**
+   * Begins a write pass. Positions may then be written with set(), which
+   * updates the metrics in the same pass, or directly into the arrays.
+   *
+   * @return this
+   */
+  public LXVectorPlanes beginWrite() {
+    this.writing = true;
+    this.writes = 0;
+    this.metrics.begin();
+    return this;
+  }
+
+  /**
+   * Writes a position during a write pass. Each present point should be set
+   * at most once per pass.
+   *
+   * @param i Index
+   * @param x X-position
+   * @param y Y-position
+   * @param z Z-position
+   */
+  public void set(int i, float x, float y, float z) {
+    this.x[i] = x;
+    this.y[i] = y;
+    this.z[i] = z;
+    if (this.writing) {
+      ++this.writes;
+      this.metrics.add(x, y, z);
+    }
+  }
+
+  /**
+   * Ends a write pass. If anything changed, the version is bumped, and
+   * metrics are recomputed from the arrays unless every present point was
+   * written through set().
+   *
+   * @param changed Whether any positions were modified
+   * @return this
+   */
+  public LXVectorPlanes endWrite(boolean changed) {
+    this.writing = false;
+    if (changed) {
+      int count = 0;
+      for (int i = 0; i < this.size; ++i) {
+        if (this.present[i]) {
+          ++count;
+        }
+      }
+      if (this.writes == count) {
+        this.metrics.end();
+      } else {
+        this.metrics.begin();
+        for (int i = 0; i < this.size; ++i) {
+          if (this.present[i]) {
+            this.metrics.add(this.x[i], this.y[i], this.z[i]);
+          }
+        }
+        this.metrics.end();
+      }
+      ++this.version;
+    }
+    return this;
+  }
+
+  /**
+   * Ends a write pass in which the caller gathered the metrics itself, for
+   * instance by merging partial metrics from a parallel pass.
+   *
+   * @param metrics Metrics of the positions written
+   * @return this
+   */
+  public LXVectorPlanes endWrite(ModelMetrics metrics) {
+    this.writing = false;
+    this.metrics.copyFrom(metrics);
+    ++this.version;
+    return this;
+  }
+
+  /**
+   * Gets these positions as an array of nullable LXVectors. The array and its
+   * vectors are reused, and refreshed in place when the positions change.
+   * Callers should treat the array as read-only.
+   *
+   * @return Vector array view of these planes
+   */
+  public synchronized LXVector[] getVectorArray() {
+    if (this.vectors == null) {
+      this.vectors = new LXVector[this.size];
+    }
+    if (this.vectorsVersion != this.version) {
+      for (int i = 0; i < this.size; ++i) {
+        if (!this.present[i]) {
+          this.vectors[i] = null;
+        } else {
+          if (this.vectors[i] == null) {
+            this.vectors[i] = new LXVector(this.points[i]);
+          }
+          this.vectors[i].set(this.x[i], this.y[i], this.z[i]);
+        }
+      }
+      this.vectorsVersion = this.version;
+    }
+    return this.vectors;
+  }
+}
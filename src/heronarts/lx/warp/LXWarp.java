@@ -5,25 +5,34 @@ import heronarts.lx.LXBus;
 import heronarts.lx.LXComponent;
 import heronarts.lx.LXModelComponent;
 import heronarts.lx.LXUtils;
+import heronarts.lx.model.ModelMetrics;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
 import heronarts.lx.transform.LXVector;
+import heronarts.lx.transform.LXVectorPlanes;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
 
 /**
  * A "warp" is an operation that transforms the coordinates of points in the model.
- * Each warp has an input array of LXVectors and an output array of LXVectors.
- * A warp is free to set output elements to null, which excludes points from
- * rendering; it must also accommodate the possibility that input elements are null.
- * It should behave as a read-only observer of its input array, and is the sole
- * owner and writer of its output array.
+ * Each warp has input and output LXVectorPlanes, which hold x, y and z as float
+ * arrays.  A warp is free to mark output points as not present, which excludes
+ * them from rendering; it must also accommodate the possibility that input points
+ * are not present.  It should behave as a read-only observer of its input, and is
+ * the sole owner and writer of its output.
  *
- * From the warp's perspective, the input and output are always arrays as big as
- * model.points, where the index of each vector in the array matches the vector's
- * own index field.  However, because it's more convenient for patterns and effects
+ * New warps should override warp() and write the output planes directly.  Older
+ * warps that override run() and operate on the inputVectors and outputVectors
+ * arrays continue to work, at the cost of copying through the LXVector views.
+ *
+ * From the warp's perspective, the input and output are always as big as
+ * model.points, where the index of each point matches its own index field.  However, because it's more convenient for patterns and effects
  * to not have to do null checks, patterns and effects will access these vectors by
  * calling getVectors() to get an Iterable over just the non-null LXVectors, or
  * getVectorList() to get a List of just the non-null LXVectors (see LXBus).
@@ -35,11 +44,35 @@ public abstract class LXWarp extends LXModelComponent implements LXComponent.Ren
   private int index = -1;
 
   protected LXWarp inputSource = null;
-  protected LXVector[] inputVectors = null;  // externally provided, treated as read-only
-  protected LXVector[] outputVectors = null;  // solely owned and written by this LXWarp
+  protected LXVectorPlanes input = null;  // externally provided, treated as read-only
+  protected LXVectorPlanes output = null;  // solely owned and written by this LXWarp
+  private long inputVersion = -1;
+
+  protected LXVector[] inputVectors = null;  // legacy view of input, treated as read-only
+  protected LXVector[] outputVectors = null;  // legacy output, solely owned and written by run()
   protected boolean inputVectorsChanged = false;
+
+  // Planes holding vectors passed to the deprecated setInputVectors()
+  private LXVectorPlanes legacyInput = null;
+  private LXVector[] legacyInputVectors = null;
   protected boolean parameterChangeDetected = false;
 
+  /**
+   * Pointwise warps with more points than this are evaluated in parallel
+   * chunks of this size.
+   */
+  static final int POINTWISE_CHUNK_SIZE = 8192;
+
+  // Output metrics of each chunk of a pointwise pass, merged into the total
+  private ModelMetrics[] chunkMetrics = new ModelMetrics[0];
+  private final ModelMetrics pointwiseMetrics = new ModelMetrics();
+
+  private volatile long parameterVersion = 0;
+  private volatile boolean parameterListenerFired = false;
+  private LXParameter[] parameterArray = null;
+  private double[] parameterValues = null;
+  private long computedParameterVersion = -1;
+
   protected LXWarp(LX lx) {
     super(lx);
     label.setDescription("The name of this warp");
@@ -63,6 +96,102 @@ public abstract class LXWarp extends LXModelComponent implements LXComponent.Ren
   public void onParameterChanged(LXParameter parameter) {
     super.onParameterChanged(parameter);
     parameterChangeDetected = true;
+    if (parameter != label) {
+      parameterListenerFired = true;
+    }
+  }
+
+  /**
+   * Whether this warp is a pure per-point function: each output point depends
+   * only on the same input point and on the values of this warp's parameters,
+   * not on time or other points.  Pointwise warps implement warpPoints() instead
+   * of warp(); the engine evaluates them in parallel chunks, skips them when
+   * neither their input nor their parameters have changed, and may share their
+   * output between channels with equivalent warp stacks.
+   */
+  public boolean isPointwise() {
+    return false;
+  }
+
+  /**
+   * Computes output for the points from start inclusive to end exclusive, by
+   * reading input and writing output.x, y, z and present, directly or with
+   * output.set().  Only used when isPointwise() returns true; this may be
+   * called concurrently on disjoint ranges, and the output metrics are
+   * gathered per range afterwards.  The default implementation copies input
+   * through unchanged.
+   */
+  protected /* abstract */ void warpPoints(int start, int end) {
+    int length = end - start;
+    System.arraycopy(input.x, start, output.x, start, length);
+    System.arraycopy(input.y, start, output.y, start, length);
+    System.arraycopy(input.z, start, output.z, start, length);
+    System.arraycopy(input.present, start, output.present, start, length);
+  }
+
+  /**
+   * Returns a counter that increases whenever the value of any parameter of this
+   * warp changes, including changes due to modulation.
+   */
+  public long getParameterVersion() {
+    if (parameterArray == null || parameterArray.length != parameters.size() - 1) {
+      parameterArray = new LXParameter[parameters.size() - 1];
+      parameterValues = new double[parameterArray.length];
+      int i = 0;
+      for (LXParameter p : parameters.values()) {
+        if (p != label) {
+          parameterArray[i] = p;
+          parameterValues[i] = p.getValue();
+          ++i;
+        }
+      }
+      ++parameterVersion;
+    }
+    // Modulated values do not notify listeners, so compare against the last values seen
+    boolean changed = parameterListenerFired;
+    parameterListenerFired = false;
+    for (int i = 0; i < parameterArray.length; ++i) {
+      double value = parameterArray[i].getValue();
+      if (value != parameterValues[i]) {
+        parameterValues[i] = value;
+        changed = true;
+      }
+    }
+    if (changed) {
+      ++parameterVersion;
+    }
+    return parameterVersion;
+  }
+
+  /**
+   * Whether this warp computes the same function as another, meaning both are
+   * pointwise, of the same class, and have equal parameter values.
+   */
+  public boolean isEquivalent(LXWarp that) {
+    if (that == this) {
+      return true;
+    }
+    if (that.getClass() != getClass() || !isPointwise() || !that.isPointwise()) {
+      return false;
+    }
+    for (Map.Entry<String, LXParameter> entry : parameters.entrySet()) {
+      LXParameter p = entry.getValue();
+      if (p == label) {
+        continue;
+      }
+      LXParameter q = that.parameters.get(entry.getKey());
+      if (q == null) {
+        return false;
+      }
+      if (p instanceof StringParameter) {
+        if (!Objects.equals(((StringParameter) p).getString(), ((StringParameter) q).getString())) {
+          return false;
+        }
+      } else if (p.getValue() != q.getValue()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /** A useful way for LXWarp subclasses to check if they need to recompute the warp. */
@@ -98,64 +227,178 @@ public abstract class LXWarp extends LXModelComponent implements LXComponent.Ren
   }
 
   /**
-   * Sets the vector array to be used as input, and keeps track of which warp
-   * produced this vector array as output.  The "changed" flag should indicate
-   * whether the preceding warp indicated that it changed its output.  This
-   * LXWarp object will treat the vector array as read-only, owned by the caller.
+   * Sets the planes to be used as input, and keeps track of which warp produced
+   * them as output.  The "changed" flag should indicate whether the preceding warp
+   * indicated that it changed its output; a change in the planes' version is also
+   * detected.  This LXWarp object will treat the planes as read-only, owned by the
+   * caller.  The output planes are allocated only when the input size changes.
    */
-  public void setInputVectors(LXWarp source, LXVector[] vectors, boolean changed) {
-    if (vectors.length != model.size) {
+  public void setInput(LXWarp source, LXVectorPlanes planes, boolean changed) {
+    if (planes.size != model.size) {
       throw new IllegalArgumentException(
-          "LXWarp vector array must have the same length as model.points");
+          "LXWarp input must have the same size as model.points");
     }
-    if (source != inputSource || vectors != inputVectors || changed) {
-      if (vectors != inputVectors) {
-        inputVectors = vectors;
-        outputVectors = new LXVector[inputVectors.length];
-        for (int i = 0; i < inputVectors.length; i++) {
-          if (inputVectors[i] == null) {
-            outputVectors[i] = null;
-          } else {
-            outputVectors[i] = new LXVector(inputVectors[i]);
-          }
-        }
+    if (planes != input) {
+      if (output == null || output.size != planes.size) {
+        output = new LXVectorPlanes(planes);
+      } else {
+        output.copyFrom(planes);
       }
+      input = planes;
+      inputVectors = null;
+      changed = true;
+    }
+    if (source != inputSource || planes.getVersion() != inputVersion || changed) {
       inputSource = source;
+      inputVersion = planes.getVersion();
       inputVectorsChanged = true;
     }
   }
 
   /**
-   * Returns the output of this warp.  This vector array is owned by the LXWarp
-   * object, and callers should treat this array as read-only.
+   * Legacy form of setInput(), taking an array of nullable vectors.  When the
+   * array is the output view of the source warp, its planes are used directly;
+   * otherwise the vectors are copied into planes owned by this warp.
+   */
+  @Deprecated
+  public void setInputVectors(LXWarp source, LXVector[] vectors, boolean changed) {
+    if (vectors.length != model.size) {
+      throw new IllegalArgumentException(
+          "LXWarp vector array must have the same length as model.points");
+    }
+    if (source != null && source.getOutput() != null && vectors == source.getOutputVectors()) {
+      setInput(source, source.getOutput(), changed);
+      return;
+    }
+    if (legacyInput == null || legacyInput.size != vectors.length) {
+      legacyInput = new LXVectorPlanes(model.points);
+      changed = true;
+    }
+    if (changed || vectors != legacyInputVectors) {
+      legacyInput.copyFrom(vectors);
+      legacyInputVectors = vectors;
+    }
+    setInput(source, legacyInput, changed);
+  }
+
+  /**
+   * Returns the output of this warp.  These planes are owned by the LXWarp
+   * object, and callers should treat them as read-only.
+   */
+  public LXVectorPlanes getOutput() {
+    return output;
+  }
+
+  /**
+   * Returns the output of this warp as an array of nullable vectors.  This
+   * view is materialized on demand, and callers should treat it as read-only.
    */
   public LXVector[] getOutputVectors() {
-    return outputVectors;
+    return (output == null) ? null : output.getVectorArray();
   }
 
   /**
-   * Performs the warp, operating on the input vectors that were passed in with
-   * setInputVectors(), and producing output retrievable by getOutputVectors().
+   * Performs the warp, operating on the input planes that were passed in with
+   * setInput(), and producing output retrievable by getOutput().  When the warp
+   * reports no change, nothing is copied or recomputed.
    */
   public final boolean applyWarp(double deltaMs) {
-    boolean outputVectorsChanged = false;
-    if (isEnabled()) {
-      outputVectorsChanged = run(deltaMs, inputVectorsChanged);
+    boolean outputChanged = false;
+    if (isEnabled() && isPointwise()) {
+      long version = getParameterVersion();
+      if (inputVectorsChanged || version != computedParameterVersion) {
+        computedParameterVersion = version;
+        inputVectorsChanged = false;
+        // No write pass is opened, so set() from concurrent chunks only
+        // stores positions, and each chunk gathers its own metrics
+        output.endWrite(warpPointsParallel());
+        outputChanged = true;
+      }
+    } else if (isEnabled()) {
+      output.beginWrite();
+      outputChanged = warp(deltaMs, inputVectorsChanged);
+      output.endWrite(outputChanged);
       inputVectorsChanged = false;
     }
-    return outputVectorsChanged;
+    return outputChanged;
+  }
+
+  private ModelMetrics warpPointsParallel() {
+    int size = output.size;
+    if (size < 2 * POINTWISE_CHUNK_SIZE) {
+      warpPoints(0, size);
+      return gatherMetrics(0, size, pointwiseMetrics.begin()).end();
+    }
+    int chunks = (size + POINTWISE_CHUNK_SIZE - 1) / POINTWISE_CHUNK_SIZE;
+    if (chunkMetrics.length != chunks) {
+      chunkMetrics = new ModelMetrics[chunks];
+      for (int i = 0; i < chunks; ++i) {
+        chunkMetrics[i] = new ModelMetrics();
+      }
+    }
+    IntStream.range(0, chunks).parallel().forEach(chunk -> {
+      int start = chunk * POINTWISE_CHUNK_SIZE;
+      int end = Math.min(size, start + POINTWISE_CHUNK_SIZE);
+      warpPoints(start, end);
+      gatherMetrics(start, end, chunkMetrics[chunk].begin());
+    });
+    pointwiseMetrics.begin();
+    for (ModelMetrics partial : chunkMetrics) {
+      pointwiseMetrics.merge(partial);
+    }
+    return pointwiseMetrics.end();
+  }
+
+  private ModelMetrics gatherMetrics(int start, int end, ModelMetrics metrics) {
+    final float[] x = output.x, y = output.y, z = output.z;
+    final boolean[] present = output.present;
+    for (int i = start; i < end; ++i) {
+      if (present[i]) {
+        metrics.add(x[i], y[i], z[i]);
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Applies the warp to the coordinates in input and updates output (both of
+   * which have the same size as model.points).  The inputChanged flag indicates
+   * whether input has changed since the last call; a typical implementation would
+   * recompute output when inputChanged is true OR getAndClearParameterChangeDetectedFlag
+   * returns true.  Writing positions with output.set() gathers the output metrics
+   * in the same pass.  This method should treat input as read-only, and it should
+   * return a flag indicating whether it changed anything.
+   *
+   * The default implementation adapts warps written against the LXVector arrays,
+   * by running run() on the vector views and copying back what it produced.
+   */
+  protected boolean warp(double deltaMs, boolean inputChanged) {
+    if (inputVectors == null) {
+      inputVectors = input.getVectorArray();
+      outputVectors = new LXVector[inputVectors.length];
+      for (int i = 0; i < inputVectors.length; i++) {
+        outputVectors[i] = (inputVectors[i] == null) ? null : new LXVector(inputVectors[i]);
+      }
+    } else if (inputChanged) {
+      // Refresh the view in place
+      input.getVectorArray();
+    }
+    boolean changed = run(deltaMs, inputChanged);
+    if (changed) {
+      output.copyFrom(outputVectors);
+    }
+    return changed;
   }
 
   /**
-   * Applies the warp to the coordinates in inputVectors and updates outputVectors
-   * (both of which have the same length as model.points).  The inputVectorsChanged
-   * flag indicates whether inputVectors has changed since the last call to run();
-   * a typical implementation would recompute outputVectors when inputVectorsChanged
-   * is true OR getAndClearParameterChangeDetectedFlag returns true.  This method
-   * should treat inputVectors as read-only; it is also the sole writer to
-   * outputVectors, and it should return a flag indicating whether it changed anything.
+   * Legacy form of warp(), operating on inputVectors and outputVectors (both of
+   * which have the same length as model.points).  This method should treat
+   * inputVectors as read-only; it is also the sole writer to outputVectors, and
+   * it should return a flag indicating whether it changed anything.
    */
-  protected abstract boolean run(double deltaMs, boolean inputVectorsChanged);
+  protected boolean run(double deltaMs, boolean inputVectorsChanged) {
+    return false;
+  }
 
   public String getOscAddress() {
     LXBus bus = getBus();
@@ -0,0 +1,199 @@
+package heronarts.lx;
+
+import heronarts.lx.model.GridModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Not really a unit test: benchmarks journal write throughput and restore
+ * time, checking that restore brings back the last journaled values. Point
+ * indices are global, so the tests share one LX instance.
+ */
+public class TestJournal {
+    private static final int CHANNELS = 16;
+    private static final int CHANGES = 60_000;
+    private static final int COMPACTIONS = 20;
+
+    private static LX lx;
+
+    @BeforeClass
+    public static void setUp() {
+        lx = new LX(new GridModel(10, 10));
+        for (int i = 1; i < CHANNELS; ++i) {
+            lx.engine.addChannel();
+        }
+    }
+
+    private static void setFaders(LX lx) {
+        for (int i = 0; i < CHANGES; ++i) {
+            lx.engine.getChannel(i % CHANNELS).fader.setValue((i % 1000) / 1000.);
+        }
+    }
+
+    @Test
+    public void testJournalReplay() throws IOException {
+        File base = File.createTempFile("journal", "");
+        LXJournal journal = new LXJournal(lx, base);
+
+        // Cost of the same changes without a journal
+        long start = System.nanoTime();
+        setFaders(lx);
+        long baseNanos = System.nanoTime() - start;
+
+        try {
+            // Run until the first compaction has been written
+            journal.start();
+            while (journal.getCompactionCount() == 0) {
+                lx.engine.run();
+            }
+
+            start = System.nanoTime();
+            setFaders(lx);
+            long recordNanos = System.nanoTime() - start;
+            journal.stop();
+            long writeNanos = System.nanoTime() - start;
+            Assert.assertEquals(0, journal.getDropCount());
+            System.out.println(String.format(
+                "Journaled %d changes: %.1fns per change recorded (%.1fns without journal), %.0f changes/s written, %d bytes",
+                CHANGES, recordNanos / (double) CHANGES, baseNanos / (double) CHANGES, CHANGES * 1e9 / writeNanos, journal.getBytesWritten()));
+
+            for (LXChannel channel : lx.engine.getChannels()) {
+                channel.fader.setValue(0);
+            }
+            start = System.nanoTime();
+            Assert.assertTrue(journal.restore());
+            System.out.println(String.format("Restored in %.2fms", (System.nanoTime() - start) / 1e6));
+            for (int c = 0; c < CHANNELS; ++c) {
+                int last = CHANGES - CHANNELS + c;
+                Assert.assertEquals((last % 1000) / 1000., lx.engine.getChannel(c).fader.getValue(), 0);
+            }
+        } finally {
+            base.delete();
+            journal.snapshotFile.delete();
+            journal.journalFile.delete();
+        }
+    }
+
+    @Test
+    public void testCompactionWhileChanging() throws Exception {
+        File base = File.createTempFile("journal", "");
+        LXJournal journal = new LXJournal(lx, base).setCompactInterval(0);
+        try {
+            journal.start();
+            while (journal.getCompactionCount() == 0) {
+                lx.engine.run();
+            }
+
+            // Change faders on another thread while every frame compacts
+            Thread changer = new Thread(() -> {
+                for (int i = 0; journal.getCompactionCount() < COMPACTIONS; ++i) {
+                    lx.engine.getChannel(i % CHANNELS).fader.setValue((i % 1000) / 1000.);
+                    if (i % 100 == 0) {
+                        LockSupport.parkNanos(1000000);
+                    }
+                }
+                for (int c = 0; c < CHANNELS; ++c) {
+                    lx.engine.getChannel(c).fader.setValue(c / 100.);
+                }
+            });
+            changer.start();
+            while (changer.isAlive()) {
+                lx.engine.run();
+            }
+            changer.join();
+            journal.stop();
+            Assert.assertEquals(0, journal.getDropCount());
+            Assert.assertTrue(journal.getCompactionCount() >= COMPACTIONS);
+
+            for (LXChannel channel : lx.engine.getChannels()) {
+                channel.fader.setValue(0);
+            }
+            Assert.assertTrue(journal.restore());
+            for (int c = 0; c < CHANNELS; ++c) {
+                Assert.assertEquals(c / 100., lx.engine.getChannel(c).fader.getValue(), 0);
+            }
+        } finally {
+            base.delete();
+            journal.snapshotFile.delete();
+            journal.journalFile.delete();
+        }
+    }
+
+    @Test
+    public void testSkipsMorphing() throws IOException {
+        File base = File.createTempFile("journal", "");
+        LXJournal journal = new LXJournal(lx, base);
+        LXChannel channel = lx.engine.getChannel(0);
+        LXMorphEngine morph = lx.engine.morph;
+        try {
+            journal.start();
+            while (journal.getCompactionCount() == 0) {
+                lx.engine.run();
+            }
+
+            morph.include(channel.fader);
+            channel.fader.setValue(0);
+            LXMorphEngine.Snapshot from = morph.capture();
+            channel.fader.setValue(1);
+            LXMorphEngine.Snapshot to = morph.capture();
+            morph.setTargets(from, to);
+            morph.enabled.setValue(true);
+
+            // Only the position changes are journaled, not the faders they drive
+            long records = journal.getRecordCount();
+            for (int i = 1; i <= 10; ++i) {
+                morph.position.setValue(i / 20.);
+                lx.engine.run();
+                Assert.assertEquals(i / 20., channel.fader.getValue(), 1e-9);
+            }
+            Assert.assertEquals(records + 10, journal.getRecordCount());
+        } finally {
+            journal.stop();
+            morph.enabled.setValue(false);
+            morph.setTargets();
+            morph.exclude(channel.fader);
+            base.delete();
+            journal.snapshotFile.delete();
+            journal.journalFile.delete();
+        }
+    }
+
+    @Test
+    public void testWriterFailureStopsRecording() throws Exception {
+        File dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdir();
+        LXJournal journal = new LXJournal(lx, new File(dir, "journal"));
+        try {
+            journal.start();
+            while (journal.getCompactionCount() == 0) {
+                lx.engine.run();
+            }
+
+            // The next snapshot cannot be written once its directory is gone
+            journal.snapshotFile.delete();
+            journal.journalFile.delete();
+            dir.delete();
+            journal.compact();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!journal.failed.isOn() && System.currentTimeMillis() < deadline) {
+                lx.engine.run();
+                Thread.sleep(1);
+            }
+            Assert.assertTrue(journal.failed.isOn());
+            Assert.assertNotNull(journal.getFailure());
+
+            long records = journal.getRecordCount();
+            setFaders(lx);
+            Assert.assertEquals(records, journal.getRecordCount());
+            Assert.assertEquals(0, journal.getDropCount());
+        } finally {
+            journal.stop();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package heronarts.lx;
+
+import heronarts.lx.model.GridModel;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.modulator.LinearEnvelope;
+import heronarts.lx.modulator.VariableLFO;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.LXCompoundModulation;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.LXTriggerModulation;
+import heronarts.lx.parameter.MetricParameter;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs a level of modulators large enough to be computed in parallel, with
+ * a trigger modulation from one of them, and checks that the trigger and
+ * its listeners fire on the engine thread. Also checks that modulators which
+ * are not parallel safe stay on the engine thread, that metric updates made
+ * in parallel are applied, that cycles are reported, and that parameters
+ * modulated both globally and by a device read this frame's values. Point
+ * indices are global, so the tests share one LX instance.
+ */
+public class TestModulationEngine {
+    private static final int MODULATORS = 2 * LXModulationEngine.PARALLEL_THRESHOLD;
+
+    private static LX lx;
+
+    @BeforeClass
+    public static void setUp() {
+        lx = new LX(new GridModel(4, 4));
+    }
+
+    private static class Pattern extends LXPattern {
+        private final CompoundParameter level = new CompoundParameter("Level", 0.2);
+
+        private Pattern(LX lx) {
+            super(lx);
+            addParameter("level", this.level);
+        }
+
+        @Override
+        public void run(double deltaMs) {}
+    }
+
+    private static class Target extends LXComponent {
+        private final BooleanParameter target = new BooleanParameter("Target", true);
+        private volatile int changes = 0;
+        private volatile Thread changeThread = null;
+
+        private Target(LX lx) {
+            super(lx);
+            addParameter("target", this.target);
+        }
+
+        @Override
+        public void onParameterChanged(LXParameter parameter) {
+            if (parameter == this.target) {
+                ++this.changes;
+                this.changeThread = Thread.currentThread();
+            }
+        }
+    }
+
+    @Test
+    public void testParallelTrigger() {
+        LXModulationEngine modulation = lx.engine.modulation;
+        Assert.assertTrue(modulation.parallel.isOn());
+
+        LinearEnvelope[] envelopes = new LinearEnvelope[MODULATORS];
+        for (int i = 0; i < MODULATORS; ++i) {
+            envelopes[i] = new LinearEnvelope(0, 1, 50 + i);
+            modulation.addModulator(envelopes[i]);
+            envelopes[i].start();
+        }
+        Target target = new Target(lx);
+        modulation.addTrigger(new LXTriggerModulation(envelopes[MODULATORS / 2].running, target.target));
+
+        // The envelope stops itself when it finishes, which fires the trigger
+        for (int frame = 0; frame < 20; ++frame) {
+            lx.engine.run(frame * 20, 20);
+        }
+        Assert.assertTrue(!envelopes[MODULATORS / 2].isRunning());
+        Assert.assertTrue(!target.target.isOn());
+        Assert.assertEquals(1, target.changes);
+        Assert.assertEquals(Thread.currentThread(), target.changeThread);
+        for (LinearEnvelope envelope : envelopes) {
+            Assert.assertEquals(1, envelope.getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testDeviceModulationSnapshot() {
+        Pattern pattern = new Pattern(lx);
+        LXChannel channel = lx.engine.addChannel(new LXPattern[] { pattern });
+        LinearEnvelope global = new LinearEnvelope(0, 1, 1000);
+        LinearEnvelope device = new LinearEnvelope(0, 1, 500);
+        lx.engine.modulation.addModulator(global);
+        pattern.modulation.addModulator(device);
+        LXCompoundModulation globalModulation = new LXCompoundModulation(global, pattern.level);
+        LXCompoundModulation deviceModulation = new LXCompoundModulation(device, pattern.level);
+        globalModulation.range.setValue(0.3);
+        deviceModulation.range.setValue(0.4);
+        lx.engine.modulation.addModulation(globalModulation);
+        pattern.modulation.addModulation(deviceModulation);
+        global.start();
+        device.start();
+
+        try {
+            // The device engine runs after the global one, and must refresh the
+            // snapshot so both modulators' values from this frame are read
+            for (int frame = 0; frame < 10; ++frame) {
+                lx.engine.run(frame * 20, 20);
+                double snapshot = pattern.level.getValue();
+                pattern.level.setLive(true);
+                Assert.assertEquals(pattern.level.getValue(), snapshot, 0);
+                pattern.level.setLive(false);
+            }
+        } finally {
+            lx.engine.modulation.removeModulation(globalModulation);
+            lx.engine.modulation.removeModulator(global);
+            lx.engine.removeChannel(channel);
+        }
+    }
+
+    private static class Metered extends LXModulator {
+        private final MetricParameter frames = new MetricParameter("Frames");
+
+        private Metered() {
+            super("Metered");
+            addParameter("frames", this.frames);
+        }
+
+        @Override
+        public boolean isParallelSafe() {
+            return true;
+        }
+
+        @Override
+        protected double computeValue(double deltaMs) {
+            this.frames.update(this.frames.getValue() + 1);
+            return 0;
+        }
+    }
+
+    private static class Unsafe extends LXModulator {
+        private volatile Thread thread = null;
+
+        private Unsafe() {
+            super("Unsafe");
+        }
+
+        @Override
+        protected double computeValue(double deltaMs) {
+            this.thread = Thread.currentThread();
+            return 0;
+        }
+    }
+
+    @Test
+    public void testParallelSafety() {
+        LXModulationEngine modulation = lx.engine.modulation;
+        Metered[] metered = new Metered[MODULATORS];
+        Unsafe[] unsafe = new Unsafe[MODULATORS];
+        for (int i = 0; i < MODULATORS; ++i) {
+            metered[i] = new Metered();
+            unsafe[i] = new Unsafe();
+            modulation.addModulator(metered[i]).start();
+            modulation.addModulator(unsafe[i]).start();
+        }
+        try {
+            for (int frame = 0; frame < 5; ++frame) {
+                lx.engine.run(frame * 20, 20);
+            }
+            for (int i = 0; i < MODULATORS; ++i) {
+                Assert.assertEquals(5, metered[i].frames.getValuei());
+                Assert.assertEquals(Thread.currentThread(), unsafe[i].thread);
+            }
+        } finally {
+            for (int i = 0; i < MODULATORS; ++i) {
+                modulation.removeModulator(metered[i]);
+                modulation.removeModulator(unsafe[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testCycleParameter() {
+        LXModulationEngine modulation = lx.engine.modulation;
+        VariableLFO a = new VariableLFO();
+        VariableLFO b = new VariableLFO();
+        modulation.addModulator(a);
+        modulation.addModulator(b);
+        try {
+            modulation.addModulation(new LXCompoundModulation(a, b.skew));
+            Assert.assertTrue(!modulation.cycle.isOn());
+            modulation.addModulation(new LXCompoundModulation(b, a.skew));
+            Assert.assertTrue(modulation.cycle.isOn());
+        } finally {
+            modulation.removeModulator(a);
+            modulation.removeModulator(b);
+        }
+        lx.engine.run(0, 20);
+        Assert.assertTrue(!modulation.cycle.isOn());
+    }
+}
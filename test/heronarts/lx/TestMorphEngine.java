@@ -0,0 +1,83 @@
+package heronarts.lx;
+
+import heronarts.lx.model.GridModel;
+import heronarts.lx.modulator.VariableLFO;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Captures two snapshots of project content, checks interpolation between
+ * them and that engine settings and excluded parameters are left alone.
+ */
+public class TestMorphEngine {
+
+    @Test
+    public void testMorph() {
+        LX lx = new LX(new GridModel(4, 4));
+        LXChannel channel = lx.engine.getChannel(0);
+        LXChannel removed = lx.engine.addChannel();
+        VariableLFO lfo = new VariableLFO();
+        lx.engine.modulation.addModulator(lfo);
+        LXMorphEngine morph = lx.engine.morph;
+        morph.includeAll();
+
+        // Only continuous parameters of project content are included
+        Assert.assertTrue(morph.isIncluded(channel.fader));
+        Assert.assertTrue(morph.isIncluded(removed.fader));
+        Assert.assertTrue(morph.isIncluded(lfo.skew));
+        Assert.assertTrue(morph.isIncluded(lx.engine.crossfader));
+        Assert.assertFalse(morph.isIncluded(channel.enabled));
+        Assert.assertFalse(morph.isIncluded(lfo.running));
+        Assert.assertFalse(morph.isIncluded(lfo.trigger));
+        Assert.assertFalse(morph.isIncluded(lx.engine.framesPerSecond));
+        Assert.assertFalse(morph.isIncluded(lx.engine.speed));
+        Assert.assertFalse(morph.isIncluded(lx.engine.osc.receivePort));
+        Assert.assertFalse(morph.isIncluded(lx.engine.osc.receiveActive));
+        Assert.assertFalse(morph.isIncluded(lx.engine.output.enabled));
+        try {
+            morph.include(lfo.trigger);
+            Assert.fail("Momentary parameter was included");
+        } catch (IllegalArgumentException iax) {
+            // Expected
+        }
+
+        channel.fader.setValue(0.2);
+        lx.engine.crossfader.setValue(0.1);
+        removed.fader.setValue(0.3);
+        LXMorphEngine.Snapshot from = morph.capture();
+        channel.fader.setValue(0.6);
+        lx.engine.crossfader.setValue(0.9);
+        removed.fader.setValue(0.7);
+        LXMorphEngine.Snapshot to = morph.capture();
+        Assert.assertEquals(0.2, from.getValue(channel.fader), 0);
+        Assert.assertEquals(0.6, to.getValue(channel.fader), 0);
+
+        // A disposed component's parameters are dropped
+        lx.engine.removeChannel(removed);
+        Assert.assertFalse(morph.isIncluded(removed.fader));
+
+        // Excluded parameters keep their value
+        morph.exclude(lx.engine.crossfader);
+        lx.engine.crossfader.setValue(0.5);
+        double fps = lx.engine.framesPerSecond.getValue();
+        boolean receiveActive = lx.engine.osc.receiveActive.isOn();
+
+        morph.morph(from, to, 0);
+        Assert.assertEquals(0.2, channel.fader.getValue(), 1e-9);
+        morph.morph(from, to, 0.5);
+        Assert.assertEquals(0.4, channel.fader.getValue(), 1e-9);
+        morph.morph(from, to, 1);
+        Assert.assertEquals(0.6, channel.fader.getValue(), 1e-9);
+
+        // The engine interpolates across its targets by position
+        morph.setTargets(from, to);
+        morph.enabled.setValue(true);
+        morph.position.setValue(0.25);
+        lx.engine.run();
+        Assert.assertEquals(0.3, channel.fader.getValue(), 1e-9);
+
+        Assert.assertEquals(0.5, lx.engine.crossfader.getValue(), 0);
+        Assert.assertEquals(fps, lx.engine.framesPerSecond.getValue(), 0);
+        Assert.assertEquals(receiveActive, lx.engine.osc.receiveActive.isOn());
+    }
+}
@@ -0,0 +1,116 @@
+package heronarts.lx;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import heronarts.lx.model.GridModel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Round-trips a project through the binary snapshot format and checks that
+ * it holds the same document as the JSON project file.
+ */
+public class TestProjectSnapshot {
+
+    private static JsonObject readJson(File file) throws IOException {
+        try (JsonReader reader = new JsonReader(new FileReader(file))) {
+            return LXSerializable.Utils.read(reader).getAsJsonObject();
+        }
+    }
+
+    private static JsonObject readSnapshot(File file) throws IOException {
+        try (JsonReader reader = new LXSnapshotReader(new BufferedInputStream(new FileInputStream(file)))) {
+            return LXSerializable.Utils.read(reader).getAsJsonObject();
+        }
+    }
+
+    // Point indices are global, so the tests share one LX
+    private static LX lx;
+
+    @BeforeClass
+    public static void setUp() {
+        lx = new LX(new GridModel(10, 10));
+
+        // Saving waits on MIDI, which becomes ready from an engine task
+        final boolean[] midiReady = { false };
+        lx.engine.midi.whenReady(() -> midiReady[0] = true);
+        while (!midiReady[0]) {
+            lx.engine.run();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        lx.newProject();
+        LXChannel channel = lx.engine.addChannel();
+        channel.label.setValue("Snapshot");
+        channel.fader.setValue(0.3);
+        lx.engine.speed.setValue(0.75);
+        lx.engine.getChannel(0).fader.setValue(1);
+
+        File json = File.createTempFile("project", ".lxp");
+        File snapshot = File.createTempFile("project", LX.PROJECT_SNAPSHOT_EXTENSION);
+        File resaved = File.createTempFile("resaved", ".lxp");
+        try {
+            lx.saveProject(json);
+            lx.saveProject(snapshot);
+
+            JsonObject fromJson = readJson(json);
+            JsonObject fromSnapshot = readSnapshot(snapshot);
+            fromJson.remove("timestamp");
+            fromSnapshot.remove("timestamp");
+            Assert.assertEquals(fromJson, fromSnapshot);
+
+            lx.openProject(snapshot);
+            Assert.assertEquals(2, lx.engine.getChannels().size());
+            Assert.assertEquals("Snapshot", lx.engine.getChannel(1).label.getString());
+            Assert.assertEquals(0.3, lx.engine.getChannel(1).fader.getValue(), 0);
+            lx.saveProject(resaved);
+            Assert.assertEquals(fromJson.get("engine"), readJson(resaved).get("engine"));
+        } finally {
+            json.delete();
+            snapshot.delete();
+            resaved.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedFileLeavesProject() throws IOException {
+        lx.newProject();
+        LXChannel channel = lx.engine.addChannel();
+        channel.label.setValue("Truncated");
+        channel.fader.setValue(0.4);
+
+        File json = File.createTempFile("project", ".lxp");
+        File snapshot = File.createTempFile("project", LX.PROJECT_SNAPSHOT_EXTENSION);
+        try {
+            lx.saveProject(json);
+            lx.saveProject(snapshot);
+            channel.label.setValue("Current");
+
+            for (File file : new File[] { json, snapshot }) {
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length * 3 / 4));
+                try {
+                    lx.readProject(file);
+                    Assert.fail("Truncated project should not load: " + file);
+                } catch (IOException expected) {}
+                Assert.assertEquals(2, lx.engine.getChannels().size());
+                Assert.assertSame(channel, lx.engine.getChannel(1));
+                Assert.assertEquals("Current", channel.label.getString());
+                Assert.assertEquals(0.4, channel.fader.getValue(), 0);
+            }
+        } finally {
+            json.delete();
+            snapshot.delete();
+        }
+    }
+}
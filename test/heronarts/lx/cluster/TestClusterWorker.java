@@ -0,0 +1,93 @@
+package heronarts.lx.cluster;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXPattern;
+import heronarts.lx.model.GridModel;
+import heronarts.lx.model.LXPoint;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Sends a worker one frame packet and checks that its pattern only
+ * computed the points of the shard it was assigned.
+ */
+public class TestClusterWorker {
+    private static final int SHARD_START = 30;
+    private static final int SHARD_END = 70;
+
+    private static class CountingPattern extends LXPattern {
+        private volatile int count = 0;
+        private volatile int minIndex = -1;
+        private volatile int maxIndex = -1;
+
+        private CountingPattern(LX lx) {
+            super(lx);
+        }
+
+        @Override
+        protected void run(double deltaMs) {
+            int count = 0;
+            int minIndex = Integer.MAX_VALUE;
+            int maxIndex = -1;
+            for (LXPoint p : this.model.points) {
+                this.colors[p.index] = 0xffffffff;
+                minIndex = Math.min(minIndex, p.index);
+                maxIndex = Math.max(maxIndex, p.index);
+                ++count;
+            }
+            this.minIndex = minIndex;
+            this.maxIndex = maxIndex;
+            this.count = count;
+        }
+    }
+
+    private static byte[] buildFrame(int seq) {
+        ByteBuffer frame = ByteBuffer.allocate(ClusterProtocol.FRAME_HEADER_SIZE + 4);
+        frame.putInt(ClusterProtocol.MAGIC);
+        frame.put(ClusterProtocol.TYPE_FRAME);
+        frame.putInt(seq);
+        frame.putLong(System.currentTimeMillis());
+        frame.putDouble(16);
+        frame.putInt(SHARD_START);
+        frame.putInt(SHARD_END);
+        frame.putInt(0);
+        frame.putDouble(0);
+        frame.putShort((short) 0);
+        frame.putShort((short) 0);
+        return frame.array();
+    }
+
+    @Test
+    public void testShardRendering() throws IOException {
+        LX lx = new LX(new GridModel(10, 10));
+        CountingPattern pattern = new CountingPattern(lx);
+        lx.engine.setPatterns(new LXPattern[] { pattern });
+
+        int port;
+        try (DatagramSocket probe = new DatagramSocket()) {
+            port = probe.getLocalPort();
+        }
+        ClusterWorker worker = new ClusterWorker(lx, port).start();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(5000);
+            byte[] frame = buildFrame(1);
+            socket.send(new DatagramPacket(frame, frame.length, InetAddress.getLoopbackAddress(), port));
+            byte[] ack = new byte[ClusterProtocol.ACK_SIZE];
+            socket.receive(new DatagramPacket(ack, ack.length));
+            Assert.assertEquals(1, ByteBuffer.wrap(ack).getInt(5));
+        } finally {
+            worker.dispose();
+        }
+
+        Assert.assertEquals(SHARD_END - SHARD_START, pattern.count);
+        Assert.assertEquals(SHARD_START, pattern.minIndex);
+        Assert.assertEquals(SHARD_END - 1, pattern.maxIndex);
+        Assert.assertTrue(worker.isInShard(SHARD_START));
+        Assert.assertTrue(!worker.isInShard(SHARD_END));
+    }
+}
@@ -0,0 +1,113 @@
+package heronarts.lx.parameter;
+
+import heronarts.lx.LXComponent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the per-frame snapshot of a modulated parameter reads the same
+ * as computing it live. Run main() for a microbenchmark comparing the two.
+ */
+public class TestCompoundParameterSnapshot {
+    private static final int MODULATIONS = 4;
+    private static final int POINTS = 100_000;
+    private static final int FRAMES = 200;
+
+    private static class Sources extends LXComponent {
+        private final CompoundParameter[] sources = new CompoundParameter[MODULATIONS];
+
+        private Sources() {
+            for (int i = 0; i < MODULATIONS; ++i) {
+                this.sources[i] = new CompoundParameter("Source" + i, 0.1 * (i + 1));
+                addParameter("source" + i, this.sources[i]);
+            }
+        }
+    }
+
+    private static CompoundParameter buildParameter(Sources sources) {
+        CompoundParameter parameter = new CompoundParameter("Target", 0.25, 0, 10);
+        for (CompoundParameter source : sources.sources) {
+            new LXCompoundModulation(source, parameter).range.setValue(0.1);
+        }
+        return parameter;
+    }
+
+    @Test
+    public void testSnapshotMatchesLive() {
+        Sources sources = new Sources();
+        CompoundParameter live = buildParameter(sources).setLive(true);
+        CompoundParameter cached = buildParameter(sources);
+        cached.snapshot();
+        Assert.assertEquals(live.getValue(), cached.getValue(), 0);
+        Assert.assertEquals(live.getNormalized(), cached.getNormalized(), 0);
+    }
+
+    @Test
+    public void testLiveOptsOut() {
+        Sources sources = new Sources();
+        CompoundParameter live = buildParameter(sources).setLive(true);
+        CompoundParameter cached = buildParameter(sources);
+        live.snapshot();
+        cached.snapshot();
+        double before = cached.getValue();
+
+        // Only the live parameter sees a source change before the next snapshot
+        sources.sources[0].setValue(0.9);
+        Assert.assertEquals(before, cached.getValue(), 0);
+        Assert.assertTrue(live.getValue() > before);
+
+        cached.snapshot();
+        Assert.assertEquals(live.getValue(), cached.getValue(), 0);
+    }
+
+    @Test
+    public void testBaseValueInvalidatesSnapshot() {
+        Sources sources = new Sources();
+        CompoundParameter live = buildParameter(sources).setLive(true);
+        CompoundParameter cached = buildParameter(sources);
+        cached.snapshot();
+
+        // Base value changes are visible immediately, before the next snapshot
+        cached.setValue(5);
+        live.setValue(5);
+        Assert.assertEquals(live.getValue(), cached.getValue(), 0);
+    }
+
+    private static double readFrames(CompoundParameter parameter) {
+        double sum = 0;
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            parameter.snapshot();
+            for (int i = 0; i < POINTS; ++i) {
+                sum += parameter.getValue();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Microbenchmark of per-point reads of a modulated parameter, computed
+     * live against the per-frame snapshot
+     */
+    public static void main(String[] args) {
+        Sources sources = new Sources();
+        CompoundParameter live = buildParameter(sources).setLive(true);
+        CompoundParameter cached = buildParameter(sources);
+
+        // Warm up both paths before timing
+        readFrames(live);
+        readFrames(cached);
+
+        long start = System.nanoTime();
+        readFrames(live);
+        long liveNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        readFrames(cached);
+        long cachedNanos = System.nanoTime() - start;
+
+        double reads = (double) POINTS * FRAMES;
+        System.out.println(String.format(
+                "CompoundParameter %d modulations: live %.2fns/read, snapshot %.2fns/read",
+                MODULATIONS, liveNanos / reads, cachedNanos / reads));
+    }
+}
@@ -0,0 +1,71 @@
+package heronarts.lx.warp;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.GridModel;
+import heronarts.lx.model.ModelMetrics;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.transform.LXVectorPlanes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs a pointwise warp that writes through output.set() over enough points
+ * to be evaluated in parallel chunks, and checks the output and its metrics.
+ */
+public class TestPointwiseWarp {
+
+    private static class OffsetWarp extends LXWarp {
+        private final CompoundParameter offset = new CompoundParameter("Offset", 0, -10, 10);
+
+        private OffsetWarp(LX lx) {
+            super(lx);
+            addParameter("offset", this.offset);
+        }
+
+        @Override
+        public boolean isPointwise() {
+            return true;
+        }
+
+        @Override
+        protected void warpPoints(int start, int end) {
+            float offset = this.offset.getValuef();
+            for (int i = start; i < end; ++i) {
+                this.output.present[i] = this.input.present[i];
+                this.output.set(i, this.input.x[i] + offset, this.input.y[i], this.input.z[i] * 2);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMetrics() {
+        LX lx = new LX(new GridModel(200, 100));
+        Assert.assertTrue(lx.model.size > 2 * LXWarp.POINTWISE_CHUNK_SIZE);
+        LXVectorPlanes input = new LXVectorPlanes(lx.model.points);
+        OffsetWarp warp = new OffsetWarp(lx);
+        warp.enabled.setValue(true);
+        warp.setInput(null, input, true);
+
+        for (int pass = 0; pass < 10; ++pass) {
+            warp.offset.setValue(pass - 5);
+            Assert.assertTrue(warp.applyWarp(0));
+            LXVectorPlanes output = warp.getOutput();
+            ModelMetrics expected = new ModelMetrics().begin();
+            for (int i = 0; i < output.size; ++i) {
+                Assert.assertEquals(input.x[i] + pass - 5, output.x[i], 0);
+                expected.add(output.x[i], output.y[i], output.z[i]);
+            }
+            expected.end();
+            ModelMetrics metrics = output.getMetrics();
+            Assert.assertEquals(expected.getSize(), metrics.getSize());
+            Assert.assertEquals(expected.getXMin(), metrics.getXMin(), 0);
+            Assert.assertEquals(expected.getXMax(), metrics.getXMax(), 0);
+            Assert.assertEquals(expected.getZMax(), metrics.getZMax(), 0);
+            Assert.assertEquals(expected.getRadialMax(), metrics.getRadialMax(), 0);
+            Assert.assertEquals(expected.getAverageX(), metrics.getAverageX(), 1e-3);
+        }
+
+        // Nothing changed, so the warp is skipped
+        Assert.assertTrue(!warp.applyWarp(0));
+    }
+}